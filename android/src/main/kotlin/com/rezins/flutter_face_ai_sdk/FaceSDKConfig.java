@@ -2,11 +2,22 @@ package com.rezins.flutter_face_ai_sdk;
 
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
+import com.ai.face.faceSearch.search.FaceSearchFeature;
 import com.ai.face.faceSearch.search.FaceSearchFeatureManger;
 import com.ai.face.faceSearch.search.Image2FaceFeature;
 import com.bumptech.glide.Glide;
+import com.rezins.flutter_face_ai_sdk.SysCamera.search.FaceEnrollmentJob;
+import com.rezins.flutter_face_ai_sdk.base.search.FaceFeatureImportReport;
+import com.rezins.flutter_face_ai_sdk.base.search.FaceFeatureImporter;
+import com.rezins.flutter_face_ai_sdk.base.search.FaceGallerySearcher;
+import com.rezins.flutter_face_ai_sdk.base.search.FaceGalleryStore;
+import com.rezins.flutter_face_ai_sdk.base.search.GalleryDeltaSync;
+import com.rezins.flutter_face_ai_sdk.base.search.GalleryExporter;
 import com.rezins.flutter_face_ai_sdk.base.utils.VoicePlayer;
+import com.rezins.flutter_face_ai_sdk.base.verify.FaceTemplateStore;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import com.tencent.mmkv.MMKV;
 
 /**
@@ -44,6 +55,17 @@ public class FaceSDKConfig {
         CACHE_BASE_FACE_DIR = context.getFilesDir().getPath() + "/FaceAI/Verify/";    //1:1 人脸识别目录
         CACHE_SEARCH_FACE_DIR = context.getFilesDir().getPath() + "/FaceAI/Search/";  //人脸搜索人脸库目录
         CACHE_FACE_LOG_DIR= context.getFilesDir().getPath() + "/FaceAI/Log/";  //使用场景图目录
+
+        //老版本存放在MMKV和FaceEmbedding中的1:1 底片后台一次性迁移
+        FaceTemplateStore.getInstance(context).migrateLegacyAsync(context);
+
+        //升级前只写在SDK 数据库里的人脸搜索特征，后台一次性补进插件侧特征库镜像
+        FaceGalleryStore.getInstance(context).backfillAsync(store -> {
+            for (FaceSearchFeature feature : FaceSearchFeatureManger.getInstance(context).queryAllFaceFaceFeature()) {
+                store.backfill(feature.getFaceID(), feature.getFaceFeature(), feature.getUpdateTime(),
+                        feature.getTag(), feature.getGroup());
+            }
+        });
     }
 
     /**
@@ -56,6 +78,113 @@ public class FaceSDKConfig {
         //删除所有缓存的人脸图
         Image2FaceFeature.getInstance(context).clearFaceImages(CACHE_SEARCH_FACE_DIR);
         Glide.get(context).clearMemory();
+
+        //插件侧的特征库镜像
+        FaceGalleryStore.getInstance(context).clear();
+        //批量入库台账，不清空的话同样的图片再导入会被当成已入库跳过
+        FaceEnrollmentJob.clearLedger(context);
+    }
+
+
+    /**
+     * 保存某个{人脸搜索识别}人脸特征值，SDK 数据库和插件侧特征库镜像同时写入
+     *
+     * @param faceFeature 长度为1024 的人脸特征值
+     */
+    public static void insertFaceSearchData(Context context, String faceID, String faceFeature,
+                                            long updateTime, String tag, String group) {
+        FaceSearchFeatureManger.getInstance(context)
+                .insertFaceFeature(faceID, faceFeature, updateTime, tag, group);
+
+        FaceGalleryStore gallery = FaceGalleryStore.getInstance(context);
+        gallery.insert(faceID, faceFeature, updateTime, tag, group);
+        //只 fsync 预写日志，批量同步时不用每条都重写整个附表
+        gallery.sync();
+    }
+
+
+    /**
+     * 从 JSON 数组文件流式导入{人脸搜索识别}人脸特征值，格式同 insertFeatures(String json)，
+     * SDK 数据库和插件侧特征库镜像同时写入。数据量大时用它代替把整个 JSON 读成字符串
+     *
+     * @param batchSize 每多少条 commit 一次插件侧特征库
+     */
+    public static FaceFeatureImportReport importFaceSearchData(Context context, InputStream in, int batchSize) {
+        return importFaceSearchData(context, in, batchSize, GalleryExporter.Format.NDJSON);
+    }
+
+
+    /**
+     * 导入 exportFaceSearchData 导出的备份，SDK 数据库和插件侧特征库镜像同时写入
+     *
+     * @param format NDJSON 同时兼容 JSON 数组，BINARY 为 {@link GalleryExporter} 的二进制格式
+     */
+    public static FaceFeatureImportReport importFaceSearchData(Context context, InputStream in, int batchSize,
+                                                               GalleryExporter.Format format) {
+        return importFaceSearchData(context, in, batchSize, format, 0f);
+    }
+
+
+    /**
+     * 同上，导入前用插件侧搜索批量查重，和库里另一个人过于相似的记录跳过（DUPLICATE_FACE）
+     *
+     * @param duplicateThreshold 插件侧余弦相似度阈值，<= 0 不查重
+     */
+    public static FaceFeatureImportReport importFaceSearchData(Context context, InputStream in, int batchSize,
+                                                               GalleryExporter.Format format, float duplicateThreshold) {
+        FaceSearchFeatureManger manger = FaceSearchFeatureManger.getInstance(context);
+        FaceFeatureImporter importer = new FaceFeatureImporter(FaceGalleryStore.getInstance(context))
+                .setBatchSize(batchSize)
+                .setOnRecordImportedListener(manger::insertFaceFeature);
+        if (duplicateThreshold > 0) {
+            importer.setDuplicateCheck(FaceGallerySearcher.getInstance(context), duplicateThreshold);
+        }
+        return format == GalleryExporter.Format.BINARY ? importer.importBinaryFrom(in) : importer.importFrom(in);
+    }
+
+
+    /**
+     * 分页流式导出{人脸搜索识别}插件侧特征库，用于备份和迁移，可以用 importFaceSearchData 导回。
+     * 阻塞执行，请在子线程调用
+     *
+     * @param format NDJSON 或 BINARY，格式见 {@link GalleryExporter}
+     * @return 导出的条数
+     */
+    public static int exportFaceSearchData(Context context, File file, GalleryExporter.Format format) throws IOException {
+        return new GalleryExporter(FaceGalleryStore.getInstance(context))
+                .setFormat(format)
+                .exportTo(file);
+    }
+
+
+    /**
+     * 从后台变更接口增量同步{人脸搜索识别}人脸特征值，只拉取上次同步版本之后的新增、更新和删除，
+     * SDK 数据库和插件侧特征库镜像同时写入。阻塞执行，请在子线程调用
+     *
+     * @param endpoint 变更接口地址，协议见 {@link GalleryDeltaSync}
+     */
+    public static GalleryDeltaSync.SyncResult syncFaceSearchData(Context context, String endpoint) {
+        FaceSearchFeatureManger manger = FaceSearchFeatureManger.getInstance(context);
+        return new GalleryDeltaSync(FaceGalleryStore.getInstance(context), endpoint)
+                .setOnChangeAppliedListener(new GalleryDeltaSync.OnChangeAppliedListener() {
+                    @Override
+                    public void onChangeApplied(String faceID, String faceFeature, long updateTime, String tag, String group) {
+                        if (faceFeature == null) {
+                            manger.deleteFaceFaceFeature(faceID);
+                            Image2FaceFeature.getInstance(context).deleteFaceImage(CACHE_SEARCH_FACE_DIR + faceID);
+                        } else {
+                            manger.insertFaceFeature(faceID, faceFeature, updateTime, tag, group);
+                        }
+                    }
+
+                    @Override
+                    public void onReset() {
+                        manger.clearAllFaceFaceFeature();
+                        //全量同步会重新下发所有人脸，旧的裁剪图一起清掉
+                        Image2FaceFeature.getInstance(context).clearFaceImages(CACHE_SEARCH_FACE_DIR);
+                    }
+                })
+                .sync();
     }
 
 
@@ -67,6 +196,10 @@ public class FaceSDKConfig {
         FaceSearchFeatureManger.getInstance(context).deleteFaceFaceFeature(faceID);
         //删除FaceID对应缓存的裁剪好的人脸图
         Image2FaceFeature.getInstance(context).deleteFaceImage(CACHE_SEARCH_FACE_DIR+faceID);
+
+        FaceGalleryStore gallery = FaceGalleryStore.getInstance(context);
+        gallery.delete(faceID);
+        gallery.sync();
     }
 
 
@@ -75,7 +208,8 @@ public class FaceSDKConfig {
      * 删除1:1 人脸识别faceID 本地对应的图片和特征向量编码
      */
     public static void deleteFaceVerifyData(Context context,String faceID){
-        //1:1 的人脸特征清除
+        //1:1 的人脸特征清除，MMKV 中可能还有未迁移的老数据
+        FaceTemplateStore.getInstance(context).remove(faceID);
         MMKV.defaultMMKV().removeValueForKey(faceID);
         //如果缓存了图片也删除
         Image2FaceFeature.getInstance(context).deleteFaceImage(CACHE_BASE_FACE_DIR+faceID);
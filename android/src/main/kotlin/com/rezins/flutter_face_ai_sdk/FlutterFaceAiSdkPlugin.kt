@@ -2,6 +2,8 @@ package com.rezins.flutter_face_ai_sdk
 
 import android.app.Activity
 import android.content.Intent
+import android.os.Handler
+import android.os.Looper
 import android.util.Log
 import android.widget.Toast
 import io.flutter.embedding.engine.plugins.FlutterPlugin
@@ -15,6 +17,12 @@ import io.flutter.plugin.common.MethodChannel.Result
 import io.flutter.plugin.common.PluginRegistry
 import com.rezins.flutter_face_ai_sdk.SysCamera.addFace.AddFaceFeatureActivity
 import com.rezins.flutter_face_ai_sdk.SysCamera.verify.FaceVerificationActivity
+import com.rezins.flutter_face_ai_sdk.base.search.FaceFeatureImportReport
+import com.rezins.flutter_face_ai_sdk.base.search.FaceFeatureImporter
+import com.rezins.flutter_face_ai_sdk.base.search.GalleryExporter
+import com.rezins.flutter_face_ai_sdk.base.verify.FaceTemplateHandoff
+import java.io.File
+import java.io.FileInputStream
 
 /** FlutterFaceAiSdkPlugin */
 class FlutterFaceAiSdkPlugin :
@@ -39,6 +47,7 @@ class FlutterFaceAiSdkPlugin :
     private var eventSink: EventChannel.EventSink? = null
     private var pendingEnrollResult: Result? = null
     private var pendingVerifyResult: Result? = null
+    private val mainHandler = Handler(Looper.getMainLooper())
 
     override fun onAttachedToEngine(flutterPluginBinding: FlutterPlugin.FlutterPluginBinding) {
         methodChannel = MethodChannel(flutterPluginBinding.binaryMessenger, METHOD_CHANNEL)
@@ -157,12 +166,12 @@ class FlutterFaceAiSdkPlugin :
 
                     activity?.let { act ->
                         val intent = Intent(act, FaceVerificationActivity::class.java).apply {
-                            // If multiple face features, join with delimiter and use FACE_FEATURES_KEY
+                            // If multiple face features, keep them in process memory and pass only a token
                             // If single feature, use FACE_DATA_KEY for backward compatibility
                             if (validFeatures.size > 1) {
-                                val combinedFeatures = validFeatures.joinToString("|||")
-                                putExtra(FaceVerificationActivity.FACE_FEATURES_KEY, combinedFeatures)
-                                Log.d(TAG, "Using multiple face features (${validFeatures.size} features)")
+                                val token = FaceTemplateHandoff.getInstance().put(validFeatures)
+                                putExtra(FaceVerificationActivity.FACE_TEMPLATES_TOKEN_KEY, token)
+                                Log.d(TAG, "Using multiple face features (${validFeatures.size} features), token: $token")
                             } else {
                                 putExtra(FaceVerificationActivity.FACE_DATA_KEY, validFeatures[0])
                                 Log.d(TAG, "Using single face feature (first 50 chars): ${validFeatures[0].take(50)}...")
@@ -202,6 +211,57 @@ class FlutterFaceAiSdkPlugin :
                 }
             }
 
+            "exportFaceSearchData" -> {
+                val path = call.argument<String>("path")
+                val format = galleryFormat(call.argument<String>("format"))
+                val context = activity?.applicationContext
+                if (path.isNullOrEmpty() || context == null) {
+                    result.error("EXPORT_ERROR", "path and activity are required", null)
+                    return
+                }
+                // 十万级特征库导出要几秒，放到子线程
+                Thread({
+                    try {
+                        val exported = FaceSDKConfig.exportFaceSearchData(context, File(path), format)
+                        mainHandler.post { result.success(exported) }
+                    } catch (e: Exception) {
+                        Log.e(TAG, "exportFaceSearchData failed", e)
+                        mainHandler.post { result.error("EXPORT_ERROR", e.message, null) }
+                    }
+                }, "FaceSearchExport").start()
+            }
+
+            "importFaceSearchData" -> {
+                val path = call.argument<String>("path")
+                val format = galleryFormat(call.argument<String>("format"))
+                val batchSize = call.argument<Int>("batchSize") ?: FaceFeatureImporter.DEFAULT_BATCH_SIZE
+                val duplicateThreshold = call.argument<Double>("duplicateThreshold")?.toFloat() ?: 0f
+                val context = activity?.applicationContext
+                if (path.isNullOrEmpty() || context == null) {
+                    result.error("IMPORT_ERROR", "path and activity are required", null)
+                    return
+                }
+                Thread({
+                    try {
+                        val report = FileInputStream(path).use {
+                            FaceSDKConfig.importFaceSearchData(context, it, batchSize, format, duplicateThreshold)
+                        }
+                        val reportMap = hashMapOf(
+                            "total" to report.total,
+                            "imported" to report.imported,
+                            "failed" to report.failed,
+                            "batches" to report.batches,
+                            "duplicates" to report.getCount(FaceFeatureImportReport.Reason.DUPLICATE_FACE),
+                            "aborted" to report.isAborted
+                        )
+                        mainHandler.post { result.success(reportMap) }
+                    } catch (e: Exception) {
+                        Log.e(TAG, "importFaceSearchData failed", e)
+                        mainHandler.post { result.error("IMPORT_ERROR", e.message, null) }
+                    }
+                }, "FaceSearchImport").start()
+            }
+
             "getPlatformVersion" -> {
                 result.success("Android ${android.os.Build.VERSION.RELEASE}")
             }
@@ -328,6 +388,9 @@ class FlutterFaceAiSdkPlugin :
         Log.d(TAG, "Verify final result: $resultString")
     }
 
+    private fun galleryFormat(format: String?): GalleryExporter.Format =
+        if ("binary".equals(format, ignoreCase = true)) GalleryExporter.Format.BINARY else GalleryExporter.Format.NDJSON
+
     private fun sendEvent(params: Map<String, Any?>) {
         Log.d(TAG, "Sending event to Flutter: $params")
         activity?.runOnUiThread {
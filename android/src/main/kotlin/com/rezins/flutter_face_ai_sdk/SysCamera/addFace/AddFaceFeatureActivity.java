@@ -36,11 +36,9 @@ import android.widget.Toast;
 import androidx.appcompat.app.AlertDialog;
 import com.ai.face.base.baseImage.BaseImageCallBack;
 import com.ai.face.base.baseImage.BaseImageDispose;
-import com.ai.face.base.utils.DataConvertUtils;
 import com.ai.face.base.view.camera.CameraXBuilder;
 import com.ai.face.core.engine.FaceAISDKEngine;
 import com.ai.face.faceSearch.search.FaceSearchEngine;
-import com.ai.face.faceSearch.search.FaceSearchFeatureManger;
 import com.ai.face.faceSearch.searchByFeature.FeatureSearchResult;
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.load.resource.bitmap.RoundedCorners;
@@ -48,7 +46,7 @@ import com.rezins.flutter_face_ai_sdk.FaceSDKConfig;
 import com.rezins.flutter_face_ai_sdk.R;
 import com.rezins.flutter_face_ai_sdk.SysCamera.camera.FaceCameraXFragment;
 import com.rezins.flutter_face_ai_sdk.base.AbsBaseActivity;
-import com.tencent.mmkv.MMKV;
+import com.rezins.flutter_face_ai_sdk.base.verify.FaceTemplateStore;
 import java.util.Objects;
 
 /**
@@ -185,10 +183,11 @@ public class AddFaceFeatureActivity extends AbsBaseActivity {
                 .create();
 
         FaceCameraXFragment cameraXFragment = FaceCameraXFragment.newInstance(cameraXBuilder);
-        cameraXFragment.setOnAnalyzerListener(imageProxy -> {
+        //帧拷贝进帧池后马上释放ImageProxy，Bitmap 按槽位复用，不再每帧分配
+        cameraXFragment.setOnFrameListener(frame -> {
             if (!isDestroyed() && !isFinishing() && !isConfirmAdd) {
                 //某些设备如果一直提示检测不到人脸，可以断点调试看看转化的Bitmap 是否有问题
-                baseImageDispose.dispose(DataConvertUtils.imageProxy2Bitmap(imageProxy, 10, false));
+                baseImageDispose.dispose(frame.toBitmap());
             }
         });
 
@@ -336,8 +335,8 @@ public class AddFaceFeatureActivity extends AbsBaseActivity {
      * @param faceFeature 长度为1024 的人脸特征值
      */
     private void saveFaceVerifyData(Bitmap bitmap,String faceID,String faceFeature){
-        //保存1:1 人脸识别特征数据，直接以KEY-Value的形式保存在MMKV中
-        MMKV.defaultMMKV().encode(faceID, faceFeature); //保存人脸faceID 对应的特征值,SDK 只要这个
+        //保存1:1 人脸识别特征数据，以二进制形式保存在FaceTemplateStore中
+        FaceTemplateStore.getInstance(this).put(faceID, faceFeature); //保存人脸faceID 对应的特征值,SDK 只要这个
         //如果人脸图业务上需要人脸头像进行UI展示也可以保存到本地
         FaceAISDKEngine.getInstance(this).saveCroppedFaceImage(bitmap, FaceSDKConfig.CACHE_BASE_FACE_DIR, faceID);
     }
@@ -351,6 +350,7 @@ public class AddFaceFeatureActivity extends AbsBaseActivity {
      */
     private void  saveFaceSearchData(Bitmap bitmap,String faceID,String faceFeature){
         //判断是否已有相似度很高的人脸数据存在
+        //用SDK 自己的库查重：插件侧镜像只有升级后录入的人脸，0.8 也是SDK getMaxSimilarity 的分数尺度
         FeatureSearchResult featureSearchResult = FaceSearchEngine.getInstance().getFeatureSearcher(this).search(faceFeature);
         if(featureSearchResult.getMaxSimilarity()>0.8){
             Log.e("录入人脸","可能已经存在相似的人脸，请确认 "+featureSearchResult.getFaceID());
@@ -358,8 +358,7 @@ public class AddFaceFeatureActivity extends AbsBaseActivity {
 
         //人脸搜索(1:N) 不适合存放在MMKV中,使用SDK提供的FaceSearchFeatureManger保存。
         //tag 和 group 可以用来做标记和分组。人脸搜索的时候可以作为权限场景控制以及 加快速度降低误差
-        FaceSearchFeatureManger.getInstance(this)
-                .insertFaceFeature(faceID, faceFeature, System.currentTimeMillis(),"tag","group");
+        FaceSDKConfig.insertFaceSearchData(this, faceID, faceFeature, System.currentTimeMillis(),"tag","group");
 
         //可选步骤：裁剪处理好的Bitmap保存到人脸搜索目录(注意！只保存人脸图不保存人脸特征值，人脸搜索是无法工作的)
         FaceAISDKEngine.getInstance(this).saveCroppedFaceImage(bitmap, FaceSDKConfig.CACHE_SEARCH_FACE_DIR, faceID);
@@ -1,5 +1,6 @@
 package com.rezins.flutter_face_ai_sdk.SysCamera.camera;
 
+import android.content.Context;
 import android.os.Bundle;
 import android.util.Log;
 import android.util.Size;
@@ -21,6 +22,8 @@ import androidx.core.content.ContextCompat;
 import com.ai.face.base.view.camera.AbsFaceCameraXFragment;
 import com.ai.face.base.view.camera.CameraXBuilder;
 import com.rezins.flutter_face_ai_sdk.R;
+import com.rezins.flutter_face_ai_sdk.base.utils.frame.AdaptiveFrameScheduler;
+import com.rezins.flutter_face_ai_sdk.base.utils.frame.YuvFramePool;
 import com.google.common.util.concurrent.ListenableFuture;
 import org.jetbrains.annotations.NotNull;
 import java.util.concurrent.ExecutionException;
@@ -69,6 +72,9 @@ public class FaceCameraXFragment extends AbsFaceCameraXFragment {
     private PreviewView mPreviewView;
     private ExecutorService mExecutorService;
     private onAnalyzeData mAnalyzeListener;
+    private YuvFramePool mFramePool;
+    private volatile AdaptiveFrameScheduler mFrameScheduler;
+    private boolean mAdaptiveFrameRate = true;
 
     public FaceCameraXFragment() {
         // Required empty public constructor
@@ -78,6 +84,31 @@ public class FaceCameraXFragment extends AbsFaceCameraXFragment {
         this.mAnalyzeListener = callback;
     }
 
+    /**
+     * 帧拷贝进 {@link YuvFramePool} 后马上关闭 ImageProxy，在分发线程回调，识别慢也不会卡住相机。
+     * 需要 ImageProxy 的 SDK 接口仍然使用 {@link #setOnAnalyzerListener(onAnalyzeData)}
+     */
+    public void setOnFrameListener(YuvFramePool.OnFrameListener listener) {
+        if (mFramePool != null) {
+            mFramePool.release();
+        }
+        mFramePool = listener == null ? null : new YuvFramePool(listener);
+    }
+
+    /**
+     * 按设备性能和实测耗时跳过部分分析帧，默认开启。关闭后每一帧都回调 {@link onAnalyzeData#analyze(ImageProxy)}
+     */
+    public void setAdaptiveFrameRate(boolean enable) {
+        this.mAdaptiveFrameRate = enable;
+    }
+
+    /**
+     * 处理/丢弃帧数和各阶段耗时，相机初始化完成前返回 null
+     */
+    public AdaptiveFrameScheduler getFrameScheduler() {
+        return mFrameScheduler;
+    }
+
     public interface onAnalyzeData {
         //用于SDK内部数据分析
         void analyze(@NonNull ImageProxy imageProxy);
@@ -135,6 +166,12 @@ public class FaceCameraXFragment extends AbsFaceCameraXFragment {
         if (mExecutorService != null && !mExecutorService.isShutdown()) {
             mExecutorService.shutdown();
         }
+        if (mFramePool != null) {
+            mFramePool.release();
+        }
+        if (mFrameScheduler != null) {
+            mFrameScheduler.logStats();
+        }
     }
 
     private void initCameraX() {
@@ -143,6 +180,9 @@ public class FaceCameraXFragment extends AbsFaceCameraXFragment {
         mImageHeight = 0;
 
         mExecutorService = Executors.newSingleThreadExecutor();
+        //性能检测比较耗时，放在分析线程，单线程池保证在第一帧之前完成
+        Context appContext = requireContext().getApplicationContext();
+        mExecutorService.execute(() -> mFrameScheduler = AdaptiveFrameScheduler.forDevice(appContext));
 
         ListenableFuture<ProcessCameraProvider> cameraProviderFuture =
                 ProcessCameraProvider.getInstance(requireContext());
@@ -206,11 +246,31 @@ public class FaceCameraXFragment extends AbsFaceCameraXFragment {
                 }
             }
 
+            AdaptiveFrameScheduler scheduler = mAdaptiveFrameRate ? mFrameScheduler : null;
             if (mAnalyzeListener != null) {
-                mAnalyzeListener.analyze(imageProxy);
+                if (scheduler == null) {
+                    mAnalyzeListener.analyze(imageProxy);
+                } else if (scheduler.shouldProcess(System.nanoTime())) {
+                    long start = System.nanoTime();
+                    mAnalyzeListener.analyze(imageProxy);
+                    scheduler.recordStage(AdaptiveFrameScheduler.STAGE_ANALYZE, System.nanoTime() - start);
+                }
+            }
+            YuvFramePool framePool = mFramePool;
+            if (framePool != null) {
+                //拷贝后由帧池关闭
+                long start = System.nanoTime();
+                framePool.offer(imageProxy);
+                if (scheduler != null) {
+                    scheduler.recordStage(AdaptiveFrameScheduler.STAGE_COPY, System.nanoTime() - start);
+                }
+            } else {
+                // 必须关闭，否则不会收到下一帧
+                imageProxy.close();
+            }
+            if (scheduler != null) {
+                scheduler.endFrame();
             }
-            // 必须关闭，否则不会收到下一帧
-            imageProxy.close();
         });
 
         // 6. 绑定生命周期
@@ -0,0 +1,479 @@
+package com.rezins.flutter_face_ai_sdk.SysCamera.search;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.rezins.flutter_face_ai_sdk.FaceSDKConfig;
+import com.rezins.flutter_face_ai_sdk.base.search.FaceGalleryStore;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * 可断点续传的批量入库任务，基于 {@link FaceEnrollmentPipeline}
+ * <p>
+ * 每张图入库后按 faceID + 图片内容 SHA-1 追加到入库台账（ledger.log，批量 fsync），任务状态写在 jobId.properties。
+ * App 被杀或者重启后用同样的 jobId 和图片来源重新 start，台账里内容没变的图直接跳过：
+ * 目录来源先比较文件大小和修改时间，不用重新读文件，两万张图几秒内就能跳到上次的位置。
+ * 同一张图重复导入也是幂等的
+ * <p>
+ * 台账只说明图片处理过，人脸可能之后被删除或者整库清空，跳过前还要确认特征库里仍然有这个 faceID。
+ * 清空人脸搜索数据时调用 {@link #clearLedger} 一起清空台账
+ */
+public class FaceEnrollmentJob {
+    private static final String TAG = "FaceEnrollmentJob";
+    private static final String JOB_DIR = ".enroll/";
+    private static final String LEDGER_FILE = "ledger.log";
+    private static final int LEDGER_SYNC_EVERY = 64;
+    private static final int MAX_FAILED_IDS = 100;
+
+    public enum State {
+        IDLE,       //没有运行过
+        RUNNING,    //运行中，持久化的状态是 RUNNING 说明上次被杀了
+        PAUSED,
+        CANCELLED,
+        COMPLETED
+    }
+
+    public interface Listener {
+        /**
+         * 主线程回调，done 包含跳过的数量
+         */
+        void onProgress(int done, int total, int successCount, int failureCount, int skippedCount);
+
+        /**
+         * 主线程回调，暂停、取消、完成都会回调
+         */
+        void onFinished(@NonNull Report report);
+    }
+
+    /**
+     * 任务报告，enrolled 和 elapsedMillis 跨多次运行累计，其他是最近一次运行的数据
+     */
+    public static class Report {
+        private final State state;
+        private final int total;
+        private final int enrolled;
+        private final int skipped;
+        private final int failed;
+        private final int runs;
+        private final long elapsedMillis;
+        private final List<String> failedFaceIDs;
+
+        Report(State state, int total, int enrolled, int skipped, int failed, int runs, long elapsedMillis,
+               List<String> failedFaceIDs) {
+            this.state = state;
+            this.total = total;
+            this.enrolled = enrolled;
+            this.skipped = skipped;
+            this.failed = failed;
+            this.runs = runs;
+            this.elapsedMillis = elapsedMillis;
+            this.failedFaceIDs = failedFaceIDs;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getEnrolled() {
+            return enrolled;
+        }
+
+        public int getSkipped() {
+            return skipped;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public int getRuns() {
+            return runs;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * 最近一次运行失败的 faceID，最多 100 个
+         */
+        public List<String> getFailedFaceIDs() {
+            return failedFaceIDs;
+        }
+
+        @Override
+        public String toString() {
+            return state + " total=" + total + " enrolled=" + enrolled + " skipped=" + skipped + " failed=" + failed
+                    + " runs=" + runs + " elapsed=" + elapsedMillis + "ms";
+        }
+    }
+
+    private final Context context;
+    private final String jobId;
+    private final FaceEnrollmentPipeline.ImageSource source;
+    private final File stateFile;
+    private final Ledger ledger;
+    private boolean retryFailed;
+
+    private State state;
+    private int enrolled;
+    private int runs;
+    private long elapsedMillis;
+    private Report report;
+
+    private FaceEnrollmentPipeline pipeline;
+    private State stopAs;
+    private final List<String> failedFaceIDs = new ArrayList<>();
+
+    /**
+     * @param jobId  任务 ID，用同一个 ID 重新创建即可续传
+     * @param source 图片来源，两次运行的顺序可以不同
+     */
+    public FaceEnrollmentJob(@NonNull Context context, @NonNull String jobId,
+                             @NonNull FaceEnrollmentPipeline.ImageSource source) {
+        this.context = context.getApplicationContext();
+        this.jobId = jobId;
+        this.source = source;
+        File dir = jobDir(context);
+        this.stateFile = new File(dir, jobId + ".properties");
+        this.ledger = Ledger.open(new File(dir, LEDGER_FILE));
+        loadState();
+    }
+
+    /**
+     * 上次是否没跑完（被杀或者暂停），可以据此在启动时提示继续导入
+     */
+    public static boolean isUnfinished(@NonNull Context context, @NonNull String jobId) {
+        Properties properties = readProperties(new File(jobDir(context), jobId + ".properties"));
+        String state = properties.getProperty("state");
+        return State.RUNNING.name().equals(state) || State.PAUSED.name().equals(state);
+    }
+
+    /**
+     * 清空入库台账，人脸搜索数据整库清空后调用，之后所有图片都会重新入库
+     */
+    public static void clearLedger(@NonNull Context context) {
+        Ledger.open(new File(jobDir(context), LEDGER_FILE)).clear();
+    }
+
+    private static File jobDir(Context context) {
+        String searchDir = FaceSDKConfig.CACHE_SEARCH_FACE_DIR;
+        if (TextUtils.isEmpty(searchDir)) {
+            searchDir = context.getApplicationContext().getFilesDir().getPath() + "/FaceAI/Search/";
+        }
+        File dir = new File(searchDir, JOB_DIR);
+        dir.mkdirs();
+        return dir;
+    }
+
+    /**
+     * true 时续传也会重新处理上次失败（比如没检测到人脸）的图片，默认跳过内容没变的失败图片
+     */
+    public FaceEnrollmentJob setRetryFailed(boolean retryFailed) {
+        this.retryFailed = retryFailed;
+        return this;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * 最近一次结束的报告，还没结束过返回 null
+     */
+    public synchronized Report getReport() {
+        return report;
+    }
+
+    /**
+     * 开始或者继续任务，已经在运行时忽略
+     */
+    public synchronized void start(@NonNull Listener listener) {
+        if (pipeline != null) {
+            return;
+        }
+        state = State.RUNNING;
+        stopAs = null;
+        runs++;
+        failedFaceIDs.clear();
+        saveState();
+        long start = SystemClock.elapsedRealtime();
+
+        FaceEnrollmentPipeline current = new FaceEnrollmentPipeline(context, source);
+        pipeline = current;
+        current.setSkipFilter(this::shouldSkip)
+                .setOnItemFinishedListener((index, faceID, contentHash, faceFeature) -> {
+                    if (contentHash != null) {
+                        ledger.append(faceID, source.versionAt(index), contentHash, faceFeature != null);
+                    }
+                    if (faceFeature == null) {
+                        synchronized (failedFaceIDs) {
+                            if (failedFaceIDs.size() < MAX_FAILED_IDS) {
+                                failedFaceIDs.add(faceID);
+                            }
+                        }
+                    }
+                })
+                .start(new FaceEnrollmentPipeline.Listener() {
+                    @Override
+                    public void onProgress(int done, int total, int successCount, int failureCount) {
+                        listener.onProgress(done, total, successCount, failureCount, current.getSkippedCount());
+                    }
+
+                    @Override
+                    public void onComplete(int successCount, int failureCount) {
+                        ledger.sync();
+                        Report finished;
+                        synchronized (FaceEnrollmentJob.this) {
+                            pipeline = null;
+                            state = stopAs != null ? stopAs : State.COMPLETED;
+                            enrolled += successCount;
+                            elapsedMillis += SystemClock.elapsedRealtime() - start;
+                            synchronized (failedFaceIDs) {
+                                report = new Report(state, source.size(), enrolled, current.getSkippedCount(), failureCount,
+                                        runs, elapsedMillis, Collections.unmodifiableList(new ArrayList<>(failedFaceIDs)));
+                            }
+                            saveState();
+                            finished = report;
+                        }
+                        Log.d(TAG, jobId + " " + finished);
+                        listener.onFinished(finished);
+                    }
+                });
+    }
+
+    /**
+     * 处理完流水线中的图片后停止，之后可以再 start 继续
+     */
+    public synchronized void pause() {
+        stop(State.PAUSED);
+    }
+
+    /**
+     * 停止任务，已经入库的数据保留，台账仍然有效
+     */
+    public synchronized void cancel() {
+        stop(State.CANCELLED);
+        if (pipeline == null && state != State.COMPLETED) {
+            state = State.CANCELLED;
+            saveState();
+        }
+    }
+
+    private void stop(State as) {
+        if (pipeline != null) {
+            stopAs = as;
+            pipeline.cancel();
+        }
+    }
+
+    private boolean shouldSkip(int index, String faceID, String version, String contentHash) {
+        Ledger.Entry entry = ledger.get(faceID);
+        if (entry == null || (!entry.success && retryFailed)) {
+            return false;
+        }
+        boolean unchanged = contentHash == null
+                ? version != null && version.equals(entry.version)
+                : contentHash.equals(entry.contentHash);
+        //入库成功过但之后被删掉的人脸要重新入库
+        return unchanged && (!entry.success || FaceGalleryStore.getInstance(context).contains(faceID));
+    }
+
+    private void loadState() {
+        Properties properties = readProperties(stateFile);
+        try {
+            state = State.valueOf(properties.getProperty("state", State.IDLE.name()));
+        } catch (IllegalArgumentException e) {
+            state = State.IDLE;
+        }
+        enrolled = Integer.parseInt(properties.getProperty("enrolled", "0"));
+        runs = Integer.parseInt(properties.getProperty("runs", "0"));
+        elapsedMillis = Long.parseLong(properties.getProperty("elapsedMillis", "0"));
+    }
+
+    private void saveState() {
+        Properties properties = new Properties();
+        properties.setProperty("state", state.name());
+        properties.setProperty("enrolled", String.valueOf(enrolled));
+        properties.setProperty("runs", String.valueOf(runs));
+        properties.setProperty("elapsedMillis", String.valueOf(elapsedMillis));
+        File tmp = new File(stateFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            properties.store(out, jobId);
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "save job state failed", e);
+            return;
+        }
+        if (!tmp.renameTo(stateFile)) {
+            Log.e(TAG, "rename job state failed");
+        }
+    }
+
+    private static Properties readProperties(File file) {
+        Properties properties = new Properties();
+        if (file.exists()) {
+            try (FileInputStream in = new FileInputStream(file)) {
+                properties.load(in);
+            } catch (IOException | IllegalArgumentException e) {
+                Log.e(TAG, "read job state failed", e);
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * 入库台账：每行 faceID \t version \t contentHash \t 1/0，同一个 faceID 以最后一行为准。
+     * 所有任务共用一个台账，进程内单例
+     */
+    static final class Ledger {
+        private static final HashMap<String, Ledger> OPENED = new HashMap<>();
+
+        static final class Entry {
+            final String version;
+            final String contentHash;
+            final boolean success;
+
+            Entry(String version, String contentHash, boolean success) {
+                this.version = version;
+                this.contentHash = contentHash;
+                this.success = success;
+            }
+        }
+
+        private final File file;
+        private final HashMap<String, Entry> entries = new HashMap<>();
+        private FileOutputStream output;
+        private BufferedWriter writer;
+        private int unsynced;
+
+        static synchronized Ledger open(File file) {
+            Ledger ledger = OPENED.get(file.getPath());
+            if (ledger == null) {
+                ledger = new Ledger(file);
+                OPENED.put(file.getPath(), ledger);
+            }
+            return ledger;
+        }
+
+        private Ledger(File file) {
+            this.file = file;
+            int lines = 0;
+            if (file.exists()) {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 64 * 1024)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        String[] parts = line.split("\t");
+                        //断电时最后一行可能只写了一半
+                        if (parts.length != 4) continue;
+                        entries.put(parts[0], new Entry(parts[1].isEmpty() ? null : parts[1], parts[2], "1".equals(parts[3])));
+                        lines++;
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "read ledger failed", e);
+                }
+            }
+            if (lines > entries.size() * 2 + 1024) {
+                rewrite();
+            }
+        }
+
+        synchronized Entry get(String faceID) {
+            return entries.get(faceID);
+        }
+
+        synchronized void append(String faceID, String version, String contentHash, boolean success) {
+            if (faceID.indexOf('\t') >= 0 || faceID.indexOf('\n') >= 0) {
+                return;
+            }
+            entries.put(faceID, new Entry(version, contentHash, success));
+            try {
+                if (writer == null) {
+                    output = new FileOutputStream(file, true);
+                    writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 16 * 1024);
+                }
+                writer.write(faceID + '\t' + (version == null ? "" : version) + '\t' + contentHash + '\t' + (success ? '1' : '0') + '\n');
+                if (++unsynced >= LEDGER_SYNC_EVERY) {
+                    sync();
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "append ledger failed", e);
+            }
+        }
+
+        synchronized void clear() {
+            entries.clear();
+            try {
+                if (writer != null) {
+                    writer.close();
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "close ledger failed", e);
+            }
+            writer = null;
+            output = null;
+            unsynced = 0;
+            if (file.exists() && !file.delete()) {
+                Log.e(TAG, "delete ledger failed");
+            }
+        }
+
+        synchronized void sync() {
+            if (writer == null || unsynced == 0) {
+                return;
+            }
+            try {
+                writer.flush();
+                output.getFD().sync();
+                unsynced = 0;
+            } catch (IOException e) {
+                Log.e(TAG, "sync ledger failed", e);
+            }
+        }
+
+        /**
+         * 只保留每个 faceID 的最新一行
+         */
+        private void rewrite() {
+            File tmp = new File(file.getPath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(tmp);
+                 BufferedWriter compact = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024)) {
+                for (HashMap.Entry<String, Entry> item : entries.entrySet()) {
+                    Entry entry = item.getValue();
+                    compact.write(item.getKey() + '\t' + (entry.version == null ? "" : entry.version) + '\t'
+                            + entry.contentHash + '\t' + (entry.success ? '1' : '0') + '\n');
+                }
+                compact.flush();
+                out.getFD().sync();
+            } catch (IOException e) {
+                Log.e(TAG, "compact ledger failed", e);
+                return;
+            }
+            if (!tmp.renameTo(file)) {
+                Log.e(TAG, "rename ledger failed");
+            }
+        }
+    }
+}
@@ -0,0 +1,594 @@
+package com.rezins.flutter_face_ai_sdk.SysCamera.search;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.ai.face.core.engine.FaceAISDKEngine;
+import com.ai.face.faceSearch.search.Image2FaceFeature;
+import com.rezins.flutter_face_ai_sdk.FaceSDKConfig;
+import com.rezins.flutter_face_ai_sdk.base.utils.performance.DevicePerformance;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量图片入库流水线：解码 -> SDK 提取特征 -> 写入特征库，三个阶段用有界队列连接并行执行
+ * <p>
+ * 解码先读尺寸再按 inSampleSize 缩小到 maxImageSize 以内，原图 Bitmap 提取完特征后放回池子给下一张复用（inBitmap）。
+ * 同时存在的原图最多 解码线程数 + 队列深度 + 提取线程数 张，两万张工牌照也不会 OOM
+ * <p>
+ * 默认只用一个提取线程：Image2FaceFeature 是 SDK 的单例，没有文档说明可以多线程同时调用
+ */
+public class FaceEnrollmentPipeline {
+    private static final String TAG = "FaceEnrollmentPipeline";
+    public static final int DEFAULT_MAX_IMAGE_SIZE = 1280;   //解码后长边不超过该值，足够人脸检测
+    public static final int DEFAULT_QUEUE_DEPTH = 4;
+    public static final long EXTRACT_TIMEOUT_MS = 30 * 1000L;
+    private static final long PROGRESS_INTERVAL_MS = 200;
+
+    /**
+     * 待入库的图片列表，faceID 默认用文件名
+     */
+    public interface ImageSource {
+        int size();
+
+        String faceIdAt(int index);
+
+        InputStream open(int index) throws IOException;
+
+        /**
+         * 不读内容就能判断文件是否变化的版本标识（比如大小 + 修改时间），拿不到返回 null
+         */
+        default String versionAt(int index) {
+            return null;
+        }
+    }
+
+    public interface Listener {
+        /**
+         * 主线程回调，最多每 200ms 一次
+         */
+        void onProgress(int done, int total, int successCount, int failureCount);
+
+        /**
+         * 主线程回调，取消后也会回调
+         */
+        void onComplete(int successCount, int failureCount);
+    }
+
+    /**
+     * 每张图处理完在工作线程回调，faceFeature 为 null 表示失败
+     *
+     * @param contentHash 图片内容的 SHA-1，读取失败为 null
+     */
+    public interface OnItemFinishedListener {
+        void onItemFinished(int index, String faceID, String contentHash, String faceFeature);
+    }
+
+    /**
+     * 跳过已经处理过的图片，在解码线程调用。先用 versionAt 判断（contentHash 为 null），
+     * 不能确定时读取内容后再用 contentHash 判断一次
+     */
+    public interface SkipFilter {
+        boolean shouldSkip(int index, String faceID, String version, String contentHash);
+    }
+
+    private final Context context;
+    private final ImageSource source;
+    private int decodeThreads;
+    private int extractThreads;
+    private int queueDepth = DEFAULT_QUEUE_DEPTH;
+    private int maxImageSize = DEFAULT_MAX_IMAGE_SIZE;
+    private OnItemFinishedListener itemListener;
+    private SkipFilter skipFilter;
+    private Listener listener;
+
+    private volatile boolean cancelled;
+    private final AtomicInteger nextIndex = new AtomicInteger();
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicInteger success = new AtomicInteger();
+    private final AtomicInteger failure = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile long lastProgressAt;
+
+    private BlockingQueue<Decoded> decodedQueue;
+    private BlockingQueue<Extracted> extractedQueue;
+    private BlockingQueue<Bitmap> bitmapPool;
+
+    public FaceEnrollmentPipeline(@NonNull Context context, @NonNull ImageSource source) {
+        this.context = context.getApplicationContext();
+        this.source = source;
+        //提取是瓶颈且只用一个线程，解码两个线程就跟得上，多了只会多占原图内存
+        int cores = DevicePerformance.INSTANCE.getCpuCoreCount();
+        this.extractThreads = 1;
+        this.decodeThreads = Math.max(1, Math.min(2, cores - extractThreads - 1));
+    }
+
+    public FaceEnrollmentPipeline setDecodeThreads(int decodeThreads) {
+        this.decodeThreads = Math.max(1, decodeThreads);
+        return this;
+    }
+
+    /**
+     * 提取线程数，默认 1。只有确认当前 SDK 版本的 Image2FaceFeature 可以并发调用时才调大
+     */
+    public FaceEnrollmentPipeline setExtractThreads(int extractThreads) {
+        this.extractThreads = Math.max(1, extractThreads);
+        return this;
+    }
+
+    /**
+     * 每个阶段之间的队列长度，决定了内存上限
+     */
+    public FaceEnrollmentPipeline setQueueDepth(int queueDepth) {
+        this.queueDepth = Math.max(1, queueDepth);
+        return this;
+    }
+
+    public FaceEnrollmentPipeline setMaxImageSize(int maxImageSize) {
+        this.maxImageSize = Math.max(160, maxImageSize);
+        return this;
+    }
+
+    public FaceEnrollmentPipeline setOnItemFinishedListener(OnItemFinishedListener itemListener) {
+        this.itemListener = itemListener;
+        return this;
+    }
+
+    public FaceEnrollmentPipeline setSkipFilter(SkipFilter skipFilter) {
+        this.skipFilter = skipFilter;
+        return this;
+    }
+
+    /**
+     * 被 SkipFilter 跳过的数量，onProgress 的 done 包含这部分
+     */
+    public int getSkippedCount() {
+        return skipped.get();
+    }
+
+    /**
+     * 停止取新的图片，已经在流水线中的处理完后回调 onComplete
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 异步开始处理，每个 pipeline 对象只能 start 一次
+     */
+    public void start(@NonNull Listener listener) {
+        this.listener = listener;
+        int total = source.size();
+        decodedQueue = new ArrayBlockingQueue<>(queueDepth);
+        extractedQueue = new ArrayBlockingQueue<>(queueDepth);
+        bitmapPool = new ArrayBlockingQueue<>(decodeThreads + queueDepth + extractThreads);
+        Log.d(TAG, "start " + total + " images, decode=" + decodeThreads + " extract=" + extractThreads);
+
+        long start = SystemClock.elapsedRealtime();
+        ExecutorService executor = Executors.newFixedThreadPool(decodeThreads + extractThreads + 1);
+        AtomicInteger decodersLeft = new AtomicInteger(decodeThreads);
+        AtomicInteger extractorsLeft = new AtomicInteger(extractThreads);
+        for (int i = 0; i < decodeThreads; i++) {
+            executor.execute(() -> {
+                //不管解码线程怎么退出，最后一个都要通知提取线程结束，否则 onComplete 永远等不到
+                try {
+                    decodeLoop(total);
+                } finally {
+                    if (decodersLeft.decrementAndGet() == 0) {
+                        for (int j = 0; j < extractThreads; j++) {
+                            putUninterruptibly(decodedQueue, Decoded.END);
+                        }
+                    }
+                }
+            });
+        }
+        for (int i = 0; i < extractThreads; i++) {
+            executor.execute(() -> {
+                try {
+                    extractLoop();
+                } finally {
+                    if (extractorsLeft.decrementAndGet() == 0) {
+                        putUninterruptibly(extractedQueue, Extracted.END);
+                    }
+                }
+            });
+        }
+        executor.execute(() -> {
+            try {
+                persistLoop(total);
+            } finally {
+                for (Bitmap bitmap : bitmapPool) {
+                    bitmap.recycle();
+                }
+                bitmapPool.clear();
+                Log.d(TAG, "finished " + done.get() + "/" + total + " in " + (SystemClock.elapsedRealtime() - start) + "ms");
+                int successCount = success.get();
+                int failureCount = failure.get();
+                mainHandler.post(() -> listener.onComplete(successCount, failureCount));
+            }
+        });
+        executor.shutdown();
+    }
+
+    // ************************** 解码 ***********************************
+
+    private void decodeLoop(int total) {
+        byte[][] buffer = new byte[1][64 * 1024];
+        MessageDigest digest = newDigest();
+        while (!cancelled) {
+            int index = nextIndex.getAndIncrement();
+            if (index >= total) {
+                break;
+            }
+            String faceID = source.faceIdAt(index);
+            try {
+                decodeOne(index, faceID, buffer, digest, total);
+            } catch (RuntimeException e) {
+                //单张图出错（比如 SkipFilter 抛异常）只算失败，不影响后面的图
+                Log.e(TAG, "Failed to decode: " + faceID, e);
+                finish(index, faceID, null, null, total);
+            }
+        }
+    }
+
+    private void decodeOne(int index, String faceID, byte[][] buffer, MessageDigest digest, int total) {
+        String version = source.versionAt(index);
+        if (skipFilter != null && version != null && skipFilter.shouldSkip(index, faceID, version, null)) {
+            skip(total);
+            return;
+        }
+        int length = read(index, buffer);
+        if (length < 0) {
+            finish(index, faceID, null, null, total);
+            return;
+        }
+        String contentHash = hash(digest, buffer[0], length);
+        if (skipFilter != null && skipFilter.shouldSkip(index, faceID, version, contentHash)) {
+            skip(total);
+            return;
+        }
+        Bitmap bitmap = decode(buffer[0], length);
+        if (bitmap == null) {
+            Log.e(TAG, "Failed to decode bitmap: " + faceID);
+            finish(index, faceID, contentHash, null, total);
+            return;
+        }
+        putUninterruptibly(decodedQueue, new Decoded(index, faceID, contentHash, bitmap));
+    }
+
+    /**
+     * 整个文件读进复用的 buffer，只读一次 IO
+     *
+     * @return 读取的字节数，失败返回 -1
+     */
+    private int read(int index, byte[][] buffer) {
+        int length = 0;
+        try (InputStream in = source.open(index)) {
+            int n;
+            while ((n = in.read(buffer[0], length, buffer[0].length - length)) != -1) {
+                length += n;
+                if (length == buffer[0].length) {
+                    buffer[0] = Arrays.copyOf(buffer[0], length * 2);
+                }
+            }
+            return length;
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot open image: " + source.faceIdAt(index), e);
+            return -1;
+        }
+    }
+
+    /**
+     * 先解码尺寸再按采样率解码
+     */
+    private Bitmap decode(byte[] data, int length) {
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize(options.outWidth, options.outHeight, maxImageSize);
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap reuse = bitmapPool.poll();
+        if (reuse != null) {
+            options.inBitmap = reuse;
+            try {
+                Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, length, options);
+                if (bitmap != null) {
+                    return bitmap;
+                }
+            } catch (IllegalArgumentException e) {
+                //池子里的 Bitmap 比这张图小，不能复用
+            }
+            reuse.recycle();
+            options.inBitmap = null;
+        }
+        return BitmapFactory.decodeByteArray(data, 0, length, options);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hash(MessageDigest digest, byte[] data, int length) {
+        digest.reset();
+        digest.update(data, 0, length);
+        byte[] bytes = digest.digest();
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 2 的幂采样率，保证解码后长边不超过 maxSize
+     */
+    static int sampleSize(int width, int height, int maxSize) {
+        int sample = 1;
+        while (Math.max(width, height) / sample > maxSize) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    // ************************** 提取特征 ***********************************
+
+    private void extractLoop() {
+        Image2FaceFeature image2FaceFeature = Image2FaceFeature.getInstance(context);
+        while (true) {
+            Decoded item = takeUninterruptibly(decodedQueue);
+            if (item == Decoded.END) {
+                return;
+            }
+            CountDownLatch latch = new CountDownLatch(1);
+            Extracted[] result = new Extracted[1];
+            boolean finished;
+            try {
+                image2FaceFeature.getFaceFeatureByBitmap(item.bitmap, item.faceID, new Image2FaceFeature.Callback() {
+                    @Override
+                    public void onSuccess(@NotNull Bitmap croppedBitmap, @NotNull String faceID, @NotNull String faceFeature) {
+                        result[0] = new Extracted(item.index, item.faceID, item.contentHash, faceFeature, croppedBitmap);
+                        latch.countDown();
+                    }
+
+                    @Override
+                    public void onFailed(@NotNull String msg) {
+                        Log.e(TAG, "SDK Failed: " + item.faceID + ", Msg: " + msg);
+                        latch.countDown();
+                    }
+                });
+                finished = latch.await(EXTRACT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                finished = false;
+            } catch (RuntimeException e) {
+                //SDK 抛异常时这张图算失败，原图状态未知，不放回池子
+                Log.e(TAG, "SDK error: " + item.faceID, e);
+                finished = false;
+            }
+            //回调之后 SDK 不再使用原图，放回池子复用；超时的图 SDK 可能还在用，不回收
+            if (finished && !bitmapPool.offer(item.bitmap)) {
+                item.bitmap.recycle();
+            }
+            if (result[0] != null) {
+                putUninterruptibly(extractedQueue, result[0]);
+            } else {
+                finish(item.index, item.faceID, item.contentHash, null, source.size());
+            }
+        }
+    }
+
+    // ************************** 入库 ***********************************
+
+    private void persistLoop(int total) {
+        while (true) {
+            Extracted item = takeUninterruptibly(extractedQueue);
+            if (item == Extracted.END) {
+                return;
+            }
+            String feature = item.faceFeature;
+            try {
+                FaceSDKConfig.insertFaceSearchData(context, item.faceID, feature, System.currentTimeMillis(), "", "");
+                FaceAISDKEngine.getInstance(context).saveCroppedFaceImage(item.croppedBitmap, FaceSDKConfig.CACHE_SEARCH_FACE_DIR, item.faceID);
+            } catch (Exception e) {
+                Log.e(TAG, "Error saving data for: " + item.faceID, e);
+                feature = null;
+            }
+            finish(item.index, item.faceID, item.contentHash, feature, total);
+        }
+    }
+
+    private void finish(int index, String faceID, String contentHash, String faceFeature, int total) {
+        if (faceFeature != null) {
+            success.incrementAndGet();
+        } else {
+            failure.incrementAndGet();
+        }
+        if (itemListener != null) {
+            itemListener.onItemFinished(index, faceID, contentHash, faceFeature);
+        }
+        reportProgress(done.incrementAndGet(), total);
+    }
+
+    private void skip(int total) {
+        skipped.incrementAndGet();
+        reportProgress(done.incrementAndGet(), total);
+    }
+
+    private void reportProgress(int finished, int total) {
+        long now = SystemClock.elapsedRealtime();
+        if (now - lastProgressAt >= PROGRESS_INTERVAL_MS || finished == total) {
+            lastProgressAt = now;
+            int successCount = success.get();
+            int failureCount = failure.get();
+            mainHandler.post(() -> listener.onProgress(finished, total, successCount, failureCount));
+        }
+    }
+
+    private static <T> void putUninterruptibly(BlockingQueue<T> queue, T item) {
+        while (true) {
+            try {
+                queue.put(item);
+                return;
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+
+    private static <T> T takeUninterruptibly(BlockingQueue<T> queue) {
+        while (true) {
+            try {
+                return queue.take();
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+
+    // ************************** 图片来源 ***********************************
+
+    /**
+     * Assets 根目录下的图片，和原来 copyTestFaceImages 的过滤规则一致
+     */
+    public static ImageSource fromAssets(@NonNull AssetManager assetManager) throws IOException {
+        List<String> names = new ArrayList<>();
+        String[] allFiles = assetManager.list("");
+        if (allFiles != null) {
+            for (String fileName : allFiles) {
+                if (isImage(fileName)) {
+                    names.add(fileName);
+                }
+            }
+        }
+        return new ImageSource() {
+            @Override
+            public int size() {
+                return names.size();
+            }
+
+            @Override
+            public String faceIdAt(int index) {
+                return names.get(index);
+            }
+
+            @Override
+            public InputStream open(int index) throws IOException {
+                return assetManager.open(names.get(index));
+            }
+        };
+    }
+
+    /**
+     * 目录下的图片，按文件名排序保证每次顺序一致
+     */
+    public static ImageSource fromDirectory(@NonNull File dir) {
+        List<File> files = new ArrayList<>();
+        File[] allFiles = dir.listFiles();
+        if (allFiles != null) {
+            for (File file : allFiles) {
+                if (file.isFile() && isImage(file.getName())) {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort((a, b) -> a.getName().compareTo(b.getName()));
+        return new ImageSource() {
+            @Override
+            public int size() {
+                return files.size();
+            }
+
+            @Override
+            public String faceIdAt(int index) {
+                return files.get(index).getName();
+            }
+
+            @Override
+            public String versionAt(int index) {
+                File file = files.get(index);
+                return file.length() + ":" + file.lastModified();
+            }
+
+            @Override
+            public InputStream open(int index) throws IOException {
+                return new FileInputStream(files.get(index));
+            }
+        };
+    }
+
+    static boolean isImage(String fileName) {
+        String lowerName = fileName.toLowerCase();
+        return lowerName.endsWith(".jpg") || lowerName.endsWith(".png") ||
+                lowerName.endsWith(".jpeg") || lowerName.endsWith(".webp");
+    }
+
+    private static final class Decoded {
+        static final Decoded END = new Decoded(-1, null, null, null);
+        final int index;
+        final String faceID;
+        final String contentHash;
+        final Bitmap bitmap;
+
+        Decoded(int index, String faceID, String contentHash, Bitmap bitmap) {
+            this.index = index;
+            this.faceID = faceID;
+            this.contentHash = contentHash;
+            this.bitmap = bitmap;
+        }
+    }
+
+    private static final class Extracted {
+        static final Extracted END = new Extracted(-1, null, null, null, null);
+        final int index;
+        final String faceID;
+        final String contentHash;
+        final String faceFeature;
+        final Bitmap croppedBitmap;
+
+        Extracted(int index, String faceID, String contentHash, String faceFeature, Bitmap croppedBitmap) {
+            this.index = index;
+            this.faceID = faceID;
+            this.contentHash = contentHash;
+            this.faceFeature = faceFeature;
+            this.croppedBitmap = croppedBitmap;
+        }
+    }
+}
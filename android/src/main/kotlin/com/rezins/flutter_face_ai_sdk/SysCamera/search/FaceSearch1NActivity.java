@@ -22,6 +22,7 @@ import android.content.SharedPreferences;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.Bundle;
+import android.text.TextUtils;
 import android.util.Log;
 // DISABLED: Uses file selector library
 // import com.rezins.flutter_face_ai_sdk.SysCamera.search.FaceSearchImageMangerActivity;
@@ -32,14 +33,25 @@ import androidx.camera.core.CameraSelector;
 import androidx.camera.core.ImageProxy;
 import com.ai.face.base.view.camera.CameraXBuilder;
 import com.ai.face.faceSearch.search.FaceSearchEngine;
+import com.ai.face.faceSearch.search.Image2FaceFeature;
 import com.ai.face.faceSearch.search.SearchProcessBuilder;
 import com.ai.face.faceSearch.search.SearchProcessCallBack;
 import com.ai.face.faceSearch.utils.FaceSearchResult;
 import com.rezins.flutter_face_ai_sdk.SysCamera.camera.FaceCameraXFragment;
 import com.rezins.flutter_face_ai_sdk.base.AbsBaseActivity;
+import com.rezins.flutter_face_ai_sdk.base.utils.frame.FrameQualityGate;
+import com.rezins.flutter_face_ai_sdk.base.utils.frame.PresenceDetector;
+import com.rezins.flutter_face_ai_sdk.base.search.FaceGallerySearcher;
+import com.rezins.flutter_face_ai_sdk.base.search.GallerySearchResult;
+import com.rezins.flutter_face_ai_sdk.base.search.HotFaceCache;
 import com.rezins.flutter_face_ai_sdk.base.utils.VoicePlayer;
 import com.rezins.flutter_face_ai_sdk.databinding.ActivityFaceSearchBinding;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.jetbrains.annotations.NotNull;
 import com.google.gson.Gson;
 import com.rezins.flutter_face_ai_sdk.SysCamera.search.ImageToast;
 
@@ -63,9 +75,10 @@ public class FaceSearch1NActivity extends AbsBaseActivity {
     public static final String IS_CAMERA_SIZE_HIGH = "IS_CAMERA_SIZE_HIGH";   //高分辨率远距离也可以工作，但是性能速度会下降
     public static final String CAMERA_ID = "CAMERA_ID";   //摄像头ID，部分摄像头可能需要适配
 
-//    public static final String SEARCH_GROUP = "SEARCH_GROUP";   //动作活体超时数据
-//    public static final String SEARCH_TAG = "MOTION_LIVENESS_TYPES"; //动作活体种类
+    public static final String SEARCH_GROUP = "SEARCH_GROUP";   //只识别该分组的人脸，比如小区楼栋 1A
+    public static final String SEARCH_TAG = "SEARCH_TAG";       //只识别该标记的人脸，比如 VIP
     private float searchThreshold = 0.88f;  //搜索阈值
+    private String searchGroup, searchTag;  //为空不限制
     private boolean searchOneTime = false;   //是否仅搜索一次就关闭搜索页
     private boolean isCameraSizeHigh = false; //是否高分辨率
     private int cameraId = CameraSelector.LENS_FACING_FRONT; //摄像头ID，部分摄像头可能需要适配
@@ -75,6 +88,11 @@ public class FaceSearch1NActivity extends AbsBaseActivity {
     private ActivityFaceSearchBinding binding;
     private FaceCameraXFragment cameraXFragment; //摄像头请自行管理，源码全部开放
     private boolean pauseSearch =false; //控制是否送数据到SDK进行搜索
+    private final PresenceDetector presenceDetector = new PresenceDetector(); //没人时拦下帧，空闲时只抽样检测
+    private final FrameQualityGate qualityGate = new FrameQualityGate(); //模糊、过暗过曝、逆光的帧不送SDK
+    private final ExecutorService scopeExecutor = Executors.newSingleThreadExecutor(); //分组/标记范围内的插件侧搜索
+    private final AtomicBoolean scopeSearching = new AtomicBoolean(); //上一次范围搜索没完成时丢弃新的结果
+    private volatile FaceGallerySearcher scopeSearcher; //页面启动时在 scopeExecutor 上加载，加载完成前不记录热点
 
 
     /**
@@ -95,6 +113,8 @@ public class FaceSearch1NActivity extends AbsBaseActivity {
             if (intent.hasExtra(CAMERA_ID)) {
                 cameraId = intent.getIntExtra(CAMERA_ID, CameraSelector.LENS_FACING_FRONT);
             }
+            searchGroup = intent.getStringExtra(SEARCH_GROUP);
+            searchTag = intent.getStringExtra(SEARCH_TAG);
         }
     }
 
@@ -135,6 +155,11 @@ public class FaceSearch1NActivity extends AbsBaseActivity {
                 .commit();
 
         initFaceSearchParam();
+
+        if (hasSearchScope()) {
+            //插件侧搜索器要读快照或者重新量化全库，人脸多时耗时较长，不能放在 SDK 回调或者主线程里第一次创建
+            runInScope(() -> scopeSearcher = FaceGallerySearcher.getInstance(getApplicationContext()));
+        }
     }
 
 
@@ -148,6 +173,7 @@ public class FaceSearch1NActivity extends AbsBaseActivity {
                 .setCameraType(FaceAICameraType.SYSTEM_CAMERA)
 //                .setFaceGroup() //根据分组来搜索，比如小区不同楼栋可以设置从1A，1B，2C等分组不但能管理权限又能加快速度
 //                .setFaceTag()   //根据标记来搜索，比如有些场所只有VIP才能权限进入
+                //SDK 分组参数未开放，指定 SEARCH_GROUP / SEARCH_TAG 时在插件侧特征库按分区重新搜索，见 searchInScope
                 .setThreshold(searchThreshold) //阈值范围限 [0.85 , 0.95] 识别可信度，阈值高摄像头成像品质宽动态值以及人脸底片质量也要高
                 .setCallBackAllMatch(true) //默认是false,是否返回所有的大于设置阈值的搜索结果
                 .setSearchIntervalTime(2000) //默认2000，范围[0,9000]毫秒。搜索成功后的继续下一次搜索的间隔时间，不然会一直搜索一直回调结果
@@ -162,6 +188,10 @@ public class FaceSearch1NActivity extends AbsBaseActivity {
                      */
                     @Override
                     public void onFaceMatched(List<FaceSearchResult> matchedResults, Bitmap searchBitmap) {
+                        if (hasSearchScope()) {
+                            searchInScope(searchBitmap);
+                            return;
+                        }
                         //已经按照降序排列，可以弹出一个列表框
 //                        String json = new Gson().toJson(matchedResults);
 //                        Log.d("onFaceMatched","符合设定阈值的结果: "+json);
@@ -187,9 +217,16 @@ public class FaceSearch1NActivity extends AbsBaseActivity {
                      */
                     @Override
                     public void onMostSimilar(String faceID, float score, Bitmap bitmap) {
-                        Bitmap mostSimilarBmp = BitmapFactory.decodeFile(CACHE_SEARCH_FACE_DIR + faceID);
-                        new ImageToast().show(getApplicationContext(), mostSimilarBmp, faceID+" , "+score);
-                        VoicePlayer.getInstance().play(R.raw.success);
+                        if (hasSearchScope()) {
+                            //SDK 是全库搜索，最相似的人可能不在范围内，以 searchInScope 的结果为准。
+                            //这个人记入热点，之后的范围搜索先比对热点，命中就不用扫描整个分区
+                            FaceGallerySearcher searcher = scopeSearcher;
+                            if (searcher != null) {
+                                runInScope(() -> searcher.getHotCache().touch(faceID));
+                            }
+                            return;
+                        }
+                        showMatched(faceID, score);
                     }
 
                     /**
@@ -219,12 +256,23 @@ public class FaceSearch1NActivity extends AbsBaseActivity {
 
         // 4.从标准默认的HAL CameraX 摄像头中取数据实时搜索
         // 建议设备配置 CPU为八核64位2.4GHz以上,  摄像头RGB 宽动态(大于105Db)高清成像，光线不足设备加补光灯
+        //画质不合格的原因显示在第二行提示，恢复正常后清除
+        qualityGate.setOnQualityChangeListener(quality ->
+                runOnUiThread(() -> setSecondTips(FrameQualityGate.getTipsRes(quality))));
         cameraXFragment.setOnAnalyzerListener(new FaceCameraXFragment.onAnalyzeData() {
             @Override
             public void analyze(@NonNull ImageProxy imageProxy) {
-                //设备硬件可以加个红外检测有人靠近再启动人脸搜索检索服务，不然机器一直工作发热性能下降老化快
+                //没人的时候不送数据到引擎，不然机器一直工作发热性能下降老化快。有红外人体感应的设备也可以用硬件信号
                 if (!isDestroyed() && !isFinishing()&&!pauseSearch) {
+                    if (!presenceDetector.onFrame(imageProxy, System.nanoTime())) {
+                        return;
+                    }
+                    if (!qualityGate.accept(imageProxy)) {
+                        return;
+                    }
+                    long start = System.nanoTime();
                     FaceSearchEngine.Companion.getInstance().runSearchWithImageProxy(imageProxy, 0);
+                    presenceDetector.recordEngineCost(System.nanoTime() - start);
                 }
             }
             //后台用于人脸搜索分析的图片宽高，画人脸检测框需要
@@ -236,6 +284,84 @@ public class FaceSearch1NActivity extends AbsBaseActivity {
         });
     }
 
+    private boolean hasSearchScope() {
+        return !TextUtils.isEmpty(searchGroup) || !TextUtils.isEmpty(searchTag);
+    }
+
+    /**
+     * 指定了 SEARCH_GROUP / SEARCH_TAG 时，SDK 命中后用场景图重新提取特征，
+     * 通过 {@link FaceGallerySearcher} 的分区索引只在范围内搜索，范围外的人再像也不会挡住范围内的人。
+     * 范围搜索先比对 {@link HotFaceCache} 里最近识别过的人，没有超过阈值的再扫描分区
+     * <p>
+     * SDK 仍然会先做一次全库搜索，范围搜索是额外的开销，只保证结果正确，不会更快。
+     * 不指定范围时只走 SDK 搜索，SDK 内部的全库搜索无法插入热点比对，热点缓存不参与
+     * 升级前录入的人脸在后台补进插件特征库之前（{@link com.rezins.flutter_face_ai_sdk.base.search.FaceGalleryStore#isBackfilled}）搜不到
+     */
+    private void searchInScope(Bitmap searchBitmap) {
+        if (searchBitmap == null || !scopeSearching.compareAndSet(false, true)) {
+            return;
+        }
+        //回调返回后 SDK 会复用这张图，先拷贝一份
+        Bitmap probe = searchBitmap.copy(Bitmap.Config.ARGB_8888, false);
+        if (probe == null) {
+            scopeSearching.set(false);
+            return;
+        }
+        Image2FaceFeature.getInstance(getApplicationContext()).getFaceFeatureByBitmap(probe, "scope", new Image2FaceFeature.Callback() {
+            @Override
+            public void onSuccess(@NotNull Bitmap croppedBitmap, @NotNull String faceID, @NotNull String faceFeature) {
+                boolean queued = runInScope(() -> {
+                    try {
+                        FaceGallerySearcher searcher = FaceGallerySearcher.getInstance(getApplicationContext());
+                        List<GallerySearchResult> results = searcher.search(faceFeature, searchThreshold, false, searchGroup, searchTag);
+                        Log.d("FaceSearch1N", searcher.getHotCache().getStats());
+                        if (results.isEmpty()) {
+                            Log.d("FaceSearch1N", "分组/标记范围内没有匹配的人脸");
+                            return;
+                        }
+                        GallerySearchResult best = results.get(0);
+                        runOnUiThread(() -> {
+                            if (!isDestroyed()) {
+                                showMatched(best.getFaceName(), best.getFaceScore());
+                            }
+                        });
+                    } finally {
+                        scopeSearching.set(false);
+                    }
+                });
+                if (!queued) {
+                    scopeSearching.set(false);
+                }
+            }
+
+            @Override
+            public void onFailed(@NotNull String msg) {
+                Log.d("FaceSearch1N", "范围搜索提取特征失败: " + msg);
+                scopeSearching.set(false);
+            }
+        });
+    }
+
+    /**
+     * 页面关闭后不再提交
+     *
+     * @return 提交成功返回 true
+     */
+    private boolean runInScope(Runnable task) {
+        try {
+            scopeExecutor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private void showMatched(String faceID, float score) {
+        Bitmap mostSimilarBmp = BitmapFactory.decodeFile(CACHE_SEARCH_FACE_DIR + faceID);
+        new ImageToast().show(getApplicationContext(), mostSimilarBmp, faceID + " , " + score);
+        VoicePlayer.getInstance().play(R.raw.success);
+    }
+
     /**
      * 显示人脸搜索识别提示，根据Code码显示对应的提示,用户根据自己业务处理细节
      *
@@ -326,6 +452,9 @@ public class FaceSearch1NActivity extends AbsBaseActivity {
     protected void onDestroy() {
         super.onDestroy();
         FaceSearchEngine.Companion.getInstance().stopSearchProcess();
+        scopeExecutor.shutdown();
+        presenceDetector.logStats();
+        qualityGate.logStats();
     }
 
     @Override
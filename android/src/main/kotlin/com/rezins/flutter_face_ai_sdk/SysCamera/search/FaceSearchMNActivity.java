@@ -28,6 +28,8 @@ import com.ai.face.faceSearch.search.SearchProcessCallBack;
 import com.ai.face.faceSearch.utils.FaceSearchResult;
 import com.rezins.flutter_face_ai_sdk.SysCamera.camera.FaceCameraXFragment;
 import com.rezins.flutter_face_ai_sdk.base.AbsBaseActivity;
+import com.rezins.flutter_face_ai_sdk.base.utils.frame.FrameQualityGate;
+import com.rezins.flutter_face_ai_sdk.base.utils.frame.PresenceDetector;
 import com.rezins.flutter_face_ai_sdk.databinding.ActivityFaceSearchMnBinding;
 import com.rezins.flutter_face_ai_sdk.R;
 import java.util.List;
@@ -45,6 +47,8 @@ import java.util.List;
 public class FaceSearchMNActivity extends AbsBaseActivity {
     //如果设备没有补光灯，UI界面背景多一点白色的区域，利用屏幕的光作为补光
     private ActivityFaceSearchMnBinding binding;
+    private final PresenceDetector presenceDetector = new PresenceDetector(); //没人时拦下帧，空闲时只抽样检测
+    private final FrameQualityGate qualityGate = new FrameQualityGate(); //模糊、过暗过曝、逆光的帧不送SDK
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -79,12 +83,27 @@ public class FaceSearchMNActivity extends AbsBaseActivity {
 
         // 4.从标准默认的HAL CameraX 摄像头中取数据实时搜索
         // 建议设备配置 CPU为八核64位2.4GHz以上,  摄像头RGB 宽动态(大于105Db)高清成像，光线不足设备加补光灯
+        //画质不合格的原因显示在提示栏，恢复正常后由SDK的提示覆盖
+        qualityGate.setOnQualityChangeListener(quality -> runOnUiThread(() -> {
+            int resId = FrameQualityGate.getTipsRes(quality);
+            if (resId != 0) {
+                binding.searchTips.setText(resId);
+            }
+        }));
         cameraXFragment.setOnAnalyzerListener(new FaceCameraXFragment.onAnalyzeData() {
             @Override
             public void analyze(@NonNull ImageProxy imageProxy) {
-                //设备硬件可以加个红外检测有人靠近再启动人脸搜索检索服务，不然机器一直工作发热性能下降老化快
+                //没人的时候不送数据到引擎，不然机器一直工作发热性能下降老化快。有红外人体感应的设备也可以用硬件信号
                 if (!isDestroyed() && !isFinishing()) {
+                    if (!presenceDetector.onFrame(imageProxy, System.nanoTime())) {
+                        return;
+                    }
+                    if (!qualityGate.accept(imageProxy)) {
+                        return;
+                    }
+                    long start = System.nanoTime();
                     FaceSearchEngine.Companion.getInstance().runSearchWithImageProxy(imageProxy, 0);
+                    presenceDetector.recordEngineCost(System.nanoTime() - start);
                 }
             }
 
@@ -189,6 +208,8 @@ public class FaceSearchMNActivity extends AbsBaseActivity {
     protected void onDestroy() {
         super.onDestroy();
         FaceSearchEngine.Companion.getInstance().stopSearchProcess();
+        presenceDetector.logStats();
+        qualityGate.logStats();
     }
 
 
@@ -16,6 +16,7 @@ import com.ai.face.faceSearch.search.FaceSearchFeatureManger
 import com.rezins.flutter_face_ai_sdk.FaceAISettingsActivity.Companion.FRONT_BACK_CAMERA_FLAG
 import com.rezins.flutter_face_ai_sdk.R
 import com.rezins.flutter_face_ai_sdk.UVCCamera.search.FaceSearch_UVCCameraActivity
+import com.rezins.flutter_face_ai_sdk.base.search.FaceGalleryStore
 import com.rezins.flutter_face_ai_sdk.databinding.ActivityFaceSearchNaviBinding
 import pub.devrel.easypermissions.EasyPermissions
 import pub.devrel.easypermissions.EasyPermissions.PermissionCallbacks
@@ -47,6 +48,7 @@ class SearchNaviActivity : AppCompatActivity(), PermissionCallbacks {
 
             //模拟批量插入人脸数据，注意json 字段和格式正确
             FaceSearchFeatureManger.getInstance(this).insertFeatures(JSONFaceFeatures.testJsonStrings)
+            FaceGalleryStore.getInstance(this).insertFeatures(JSONFaceFeatures.testJsonStrings)
             Toast.makeText(baseContext, "Done", Toast.LENGTH_SHORT).show()
         }
 
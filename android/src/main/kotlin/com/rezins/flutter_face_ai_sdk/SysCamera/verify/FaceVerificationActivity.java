@@ -21,12 +21,12 @@ import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
 import androidx.camera.core.CameraSelector;
 
-import com.ai.face.base.baseImage.FaceEmbedding;
-import com.ai.face.core.engine.FaceAISDKEngine;
 import com.ai.face.core.utils.FaceAICameraType;
+import com.ai.face.faceSearch.search.Image2FaceFeature;
 import com.ai.face.faceVerify.verify.liveness.FaceLivenessType;
 import com.rezins.flutter_face_ai_sdk.FaceSDKConfig;
 import com.rezins.flutter_face_ai_sdk.R;
@@ -34,6 +34,9 @@ import com.rezins.flutter_face_ai_sdk.SysCamera.search.ImageToast;
 import com.rezins.flutter_face_ai_sdk.base.AbsBaseActivity;
 import com.rezins.flutter_face_ai_sdk.SysCamera.camera.FaceCameraXFragment;
 import com.rezins.flutter_face_ai_sdk.base.utils.BitmapUtils;
+import com.rezins.flutter_face_ai_sdk.base.verify.FaceTemplateHandoff;
+import com.rezins.flutter_face_ai_sdk.base.verify.FaceTemplateMatcher;
+import com.rezins.flutter_face_ai_sdk.base.verify.FaceTemplateStore;
 import com.ai.face.base.view.camera.CameraXBuilder;
 import com.ai.face.faceVerify.verify.FaceProcessBuilder;
 import com.ai.face.faceVerify.verify.FaceVerifyUtils;
@@ -44,7 +47,6 @@ import com.rezins.flutter_face_ai_sdk.base.utils.VoicePlayer;
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.load.resource.bitmap.RoundedCorners;
 import com.rezins.flutter_face_ai_sdk.base.view.FaceVerifyCoverView;
-import com.tencent.mmkv.MMKV;
 
 /**
  * 1：1 的人脸识别 + 动作活体检测 接入演示D代码。正式接入集成需要你根据你的业务完善
@@ -58,7 +60,8 @@ import com.tencent.mmkv.MMKV;
  */
 public class FaceVerificationActivity extends AbsBaseActivity {
     public static final String FACE_DATA_KEY = "FACE_DATA_KEY";         //Face data for verification
-    public static final String FACE_FEATURES_KEY = "FACE_FEATURES_KEY"; //Multiple face features (comma-separated)
+    public static final String FACE_FEATURES_KEY = "FACE_FEATURES_KEY"; //Multiple face features ("|||" separated), prefer FACE_TEMPLATES_TOKEN_KEY
+    public static final String FACE_TEMPLATES_TOKEN_KEY = "FACE_TEMPLATES_TOKEN_KEY"; //FaceTemplateHandoff token of multiple face features
     public static final String USER_FACE_ID_KEY = "USER_FACE_ID_KEY";   //1:1 face verify ID KEY
     public static final String THRESHOLD_KEY = "THRESHOLD_KEY";           //人脸识别通过的阈值
     public static final String FACE_LIVENESS_TYPE = "FACE_LIVENESS_TYPE";   //活体检测的类型
@@ -80,6 +83,9 @@ public class FaceVerificationActivity extends AbsBaseActivity {
     // Multi-face feature support
     private java.util.List<String> faceFeatureList = new java.util.ArrayList<>();
     private int currentFaceFeatureIndex = 0;
+    private FaceTemplateMatcher templateMatcher; //多底片时一次比对全部底片，挑出最像的一张交给 SDK 确认
+    private boolean confirmingTemplate; //正在用 SDK 确认预选出的底片，不再预选
+    private String templatesToken; //FaceTemplateHandoff 中的底片，页面结束时释放
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -131,8 +137,20 @@ public class FaceVerificationActivity extends AbsBaseActivity {
     private void initFaceVerifyFeature() {
         Intent intent = getIntent();
 
-        // Priority 1: Check if multiple face features passed from Flutter via intent
-        if (intent != null && intent.hasExtra(FACE_FEATURES_KEY)) {
+        // Priority 1: Multiple face features handed off in process memory, only the token is in the intent
+        if (intent != null && intent.hasExtra(FACE_TEMPLATES_TOKEN_KEY)) {
+            templatesToken = intent.getStringExtra(FACE_TEMPLATES_TOKEN_KEY);
+            java.util.List<String> features = FaceTemplateHandoff.getInstance().get(templatesToken);
+            if (features != null) {
+                faceFeatureList.addAll(features);
+                Log.d("FaceVerification", "Loaded " + faceFeatureList.size() + " face features from handoff");
+            } else {
+                Log.e("FaceVerification", "Face features handoff expired: " + templatesToken);
+            }
+        }
+
+        // Legacy: multiple face features joined into one intent extra
+        if (faceFeatureList.isEmpty() && intent != null && intent.hasExtra(FACE_FEATURES_KEY)) {
             String faceFeatures = intent.getStringExtra(FACE_FEATURES_KEY);
             if (!TextUtils.isEmpty(faceFeatures)) {
                 // Split by delimiter (using "|||" as separator to avoid conflicts)
@@ -156,26 +174,21 @@ public class FaceVerificationActivity extends AbsBaseActivity {
             }
         }
 
-        // Priority 3: Fallback - Read from MMKV by faceID (old behavior)
+        // Priority 3: Fallback - Read from the local 1:1 template store by faceID
         if (faceFeatureList.isEmpty() && !TextUtils.isEmpty(faceID)) {
-            //老的数据
-            float[] faceEmbeddingOld = FaceEmbedding.loadEmbedding(getBaseContext(), faceID);
-            String faceFeatureOld = FaceAISDKEngine.getInstance(this).faceArray2Feature(faceEmbeddingOld);
-
-            //从本地MMKV读取人脸特征值(2025.11.23版本使用MMKV，老的人脸数据请做好迁移)
-            String faceFeature = MMKV.defaultMMKV().decodeString(faceID);
-            if (TextUtils.isEmpty(faceFeature) && !TextUtils.isEmpty(faceFeatureOld)) {
-                faceFeature = faceFeatureOld;
-            }
-
+            //MMKV 和 FaceEmbedding 中的老数据由 FaceTemplateStore 一次性迁移，这里不用再查两处
+            String faceFeature = FaceTemplateStore.getInstance(this).get(faceID);
             if (!TextUtils.isEmpty(faceFeature)) {
                 faceFeatureList.add(faceFeature);
             }
         }
 
-        // Initialize verification with first faceFeature
+        // Initialize verification with first faceFeature, the others are matched in one pass after liveness
         if (!faceFeatureList.isEmpty()) {
             currentFaceFeatureIndex = 0;
+            if (faceFeatureList.size() > 1) {
+                templateMatcher = new FaceTemplateMatcher(faceFeatureList);
+            }
             initFaceVerificationParam(faceFeatureList.get(currentFaceFeatureIndex));
             Log.d("FaceVerification", "Starting verification with face feature index: " + currentFaceFeatureIndex);
         } else {
@@ -343,43 +356,77 @@ public class FaceVerificationActivity extends AbsBaseActivity {
             new Handler(Looper.getMainLooper()).postDelayed(() -> {
                 finishFaceVerify(1, R.string.face_verify_result_success, similarity);
             }, 1500);
+        } else if (templateMatcher != null && templateMatcher.size() > 1 && !confirmingTemplate) {
+            //3.和第一张底片不是同一个人，用这次的人脸和其它底片一次比对，只让 SDK 再确认最像的一张
+            matchAllTemplates(similarity, bitmap);
         } else {
-            //3.和底片不是同一个人 - 尝试下一个 face feature
-            Log.d("FaceVerification", "Verification FAILED with face feature index: " +
-                  currentFaceFeatureIndex + ", similarity: " + similarity);
-
-            // Check if there are more face features to try
-            if (currentFaceFeatureIndex < faceFeatureList.size() - 1) {
-                currentFaceFeatureIndex++;
-                Log.d("FaceVerification", "Trying next face feature, index: " + currentFaceFeatureIndex);
-
-                // Reset retry time for new face feature
-                retryTime = 0;
+            showVerifyFailed(similarity, bitmap);
+        }
 
-                // Destroy current verification process
-                faceVerifyUtils.destroyProcess();
+    }
 
-                // Initialize with next face feature
-                new Handler(Looper.getMainLooper()).postDelayed(() -> {
-                    initFaceVerificationParam(faceFeatureList.get(currentFaceFeatureIndex));
-                    faceVerifyUtils.retryVerify();
-                    setMainTips(R.string.keep_face_visible);
-                }, 500);
+    /**
+     * 从识别完成的实时人脸图提取特征值，和其它底片比对选出最像的一张，再用这张底片重新走一次 SDK 1:1 比对。
+     * 余弦相似度和 verifyThreshold 不是同一个尺度，是否通过只由 SDK 判定；SDK 不提供对单帧比对的接口，
+     * 确认时会重新做活体检测，但只做一次，不再逐张底片轮流比对
+     */
+    private void matchAllTemplates(float firstSimilarity, Bitmap bitmap) {
+        setMainTips(R.string.face_verifying);
+        int rejectedIndex = currentFaceFeatureIndex;
+        Image2FaceFeature.getInstance(this).getFaceFeatureByBitmap(bitmap, faceID, new Image2FaceFeature.Callback() {
+            @Override
+            public void onSuccess(@NonNull Bitmap croppedBitmap, @NonNull String id, @NonNull String liveFeature) {
+                FaceTemplateMatcher.Match match = templateMatcher.match(liveFeature, rejectedIndex);
+                runOnUiThread(() -> {
+                    if (isDestroyed() || isFinishing()) {
+                        return;
+                    }
+                    if (match == null) {
+                        showVerifyFailed(firstSimilarity, bitmap);
+                        return;
+                    }
+                    Log.d("FaceVerification", "Best of " + templateMatcher.size() + " face features: index " +
+                            match.getIndex() + ", cosine: " + match.getSimilarity() + ", confirming with SDK");
+                    confirmingTemplate = true;
+                    currentFaceFeatureIndex = match.getIndex();
+                    retryTime = 0;
+                    faceVerifyUtils.destroyProcess();
+                    new Handler(Looper.getMainLooper()).postDelayed(() -> {
+                        if (isDestroyed() || isFinishing()) {
+                            return;
+                        }
+                        initFaceVerificationParam(faceFeatureList.get(currentFaceFeatureIndex));
+                        faceVerifyUtils.retryVerify();
+                        setMainTips(R.string.keep_face_visible);
+                    }, 500);
+                });
+            }
 
-            } else {
-                // All face features tried, verification failed
-                Log.d("FaceVerification", "All face features tried (" + faceFeatureList.size() +
-                      "), verification FAILED");
+            @Override
+            public void onFailed(@NonNull String msg) {
+                Log.e("FaceVerification", "Extract live face feature failed: " + msg);
+                runOnUiThread(() -> {
+                    if (!isDestroyed() && !isFinishing()) {
+                        showVerifyFailed(firstSimilarity, bitmap);
+                    }
+                });
+            }
+        });
+    }
 
-                VoicePlayer.getInstance().addPayList(R.raw.verify_failed);
-                new ImageToast().show(getApplicationContext(), bitmap, "Failed " + similarity);
+    /**
+     * 和所有底片都不是同一个人
+     */
+    private void showVerifyFailed(float similarity, Bitmap bitmap) {
+        Log.d("FaceVerification", "Verification FAILED against " + faceFeatureList.size() +
+                " face features, similarity: " + similarity);
 
-                new Handler(Looper.getMainLooper()).postDelayed(() -> {
-                    finishFaceVerify(2, R.string.face_verify_result_failed, similarity);
-                }, 1500);
-            }
-        }
+        VoicePlayer.getInstance().addPayList(R.raw.verify_failed);
+        new ImageToast().show(getApplicationContext(), bitmap, "Failed " + similarity);
 
+        new Handler(Looper.getMainLooper()).postDelayed(() -> {
+            finishFaceVerify(2, R.string.face_verify_result_failed, similarity);
+        }, 1500);
     }
 
 
@@ -566,6 +613,9 @@ public class FaceVerificationActivity extends AbsBaseActivity {
     protected void onDestroy() {
         super.onDestroy();
         faceVerifyUtils.destroyProcess();
+        if (isFinishing()) {
+            FaceTemplateHandoff.getInstance().release(templatesToken);
+        }
     }
 
     /**
@@ -605,7 +655,7 @@ public class FaceVerificationActivity extends AbsBaseActivity {
 
             if (TextUtils.isEmpty(faceID)) {
                 // If no faceID provided but has face features, use default
-                if (intent.hasExtra(FACE_FEATURES_KEY) || intent.hasExtra(FACE_DATA_KEY)) {
+                if (intent.hasExtra(FACE_TEMPLATES_TOKEN_KEY) || intent.hasExtra(FACE_FEATURES_KEY) || intent.hasExtra(FACE_DATA_KEY)) {
                     faceID = "user"; // default faceID for face feature verification
                 } else {
                     Toast.makeText(this, R.string.input_face_id_tips, Toast.LENGTH_LONG).show();
@@ -692,6 +742,7 @@ public class FaceVerificationActivity extends AbsBaseActivity {
         }
 
         setResult(RESULT_OK, intent);
+        FaceTemplateHandoff.getInstance().release(templatesToken);
         finish();
     }
 
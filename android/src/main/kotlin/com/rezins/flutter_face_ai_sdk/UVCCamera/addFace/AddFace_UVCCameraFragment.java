@@ -40,7 +40,6 @@ import androidx.appcompat.app.AlertDialog;
 import androidx.fragment.app.Fragment;
 
 import com.ai.face.core.engine.FaceAISDKEngine;
-import com.ai.face.faceSearch.search.FaceSearchFeatureManger;
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.load.resource.bitmap.RoundedCorners;
 import com.rezins.flutter_face_ai_sdk.FaceSDKConfig;
@@ -50,7 +49,7 @@ import com.rezins.flutter_face_ai_sdk.UVCCamera.manger.UVCCameraManager;
 import com.ai.face.base.baseImage.BaseImageCallBack;
 import com.ai.face.base.baseImage.BaseImageDispose;
 import com.rezins.flutter_face_ai_sdk.databinding.FragmentUvcCameraAddFaceBinding;
-import com.tencent.mmkv.MMKV;
+import com.rezins.flutter_face_ai_sdk.base.verify.FaceTemplateStore;
 
 import java.util.Objects;
 
@@ -145,8 +144,8 @@ public class AddFace_UVCCameraFragment extends Fragment {
             faceID = confirmFaceDialog.faceIDEdit.getText().toString();
             if (!TextUtils.isEmpty(faceID)) {
                 if (addFaceImageType.equals(AddFaceImageTypeEnum.FACE_VERIFY.name())) {
-                    //保存1:1 人脸识别特征数据，直接以KEY-Value的形式保存在MMKV中
-                    MMKV.defaultMMKV().encode(faceID, faceFeature); //保存人脸faceID 对应的特征值,SDK 只要这个
+                    //保存1:1 人脸识别特征数据，以二进制形式保存在FaceTemplateStore中
+                    FaceTemplateStore.getInstance(requireContext()).put(faceID, faceFeature); //保存人脸faceID 对应的特征值,SDK 只要这个
 
                     //如果人脸图业务上需要人脸头像进行UI展示也可以保存到本地
                     FaceAISDKEngine.getInstance(requireContext()).saveCroppedFaceImage(bitmap, FaceSDKConfig.CACHE_BASE_FACE_DIR, faceID);
@@ -155,8 +154,7 @@ public class AddFace_UVCCameraFragment extends Fragment {
                     //人脸搜索(1:N) 不适合存放在MMKV中。
                     String faceIDName = confirmFaceDialog.faceIDEdit.getText().toString();
                     //tag 和 group 可以用来做标记和分组。人脸搜索的时候可以加快速度降低误差
-                    FaceSearchFeatureManger.getInstance(requireContext())
-                            .insertFaceFeature(faceIDName, faceFeature, System.currentTimeMillis(),"tag","group");
+                    FaceSDKConfig.insertFaceSearchData(requireContext(), faceIDName, faceFeature, System.currentTimeMillis(),"tag","group");
 
                     //保存到人脸搜索目录；
                     FaceAISDKEngine.getInstance(requireContext()).saveCroppedFaceImage(bitmap, FaceSDKConfig.CACHE_SEARCH_FACE_DIR, faceIDName);
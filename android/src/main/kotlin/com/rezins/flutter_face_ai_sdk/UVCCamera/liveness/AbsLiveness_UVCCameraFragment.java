@@ -14,7 +14,6 @@ import static com.rezins.flutter_face_ai_sdk.UVCCamera.manger.UVCCameraManager.R
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.graphics.Bitmap;
 import android.hardware.usb.UsbDevice;
 import android.os.Bundle;
 import android.view.LayoutInflater;
@@ -29,6 +28,7 @@ import com.ai.face.core.utils.FaceAICameraType;
 import com.ai.face.faceVerify.verify.FaceVerifyUtils;
 import com.rezins.flutter_face_ai_sdk.UVCCamera.manger.CameraBuilder;
 import com.rezins.flutter_face_ai_sdk.UVCCamera.manger.UVCCameraManager;
+import com.rezins.flutter_face_ai_sdk.base.utils.frame.Nv21BitmapPool;
 import com.rezins.flutter_face_ai_sdk.databinding.FragmentUvcCameraLivenessBinding;
 
 /**
@@ -47,7 +47,14 @@ public abstract class AbsLiveness_UVCCameraFragment extends Fragment {
 
     abstract void initFaceLivenessParam();
     abstract void showFaceLivenessTips(int actionCode);
-    abstract void faceLivenessSetBitmap(Bitmap bitmap, FaceVerifyUtils.BitmapType type);
+    abstract void faceLivenessSetBitmap(Nv21BitmapPool.Frame frame, FaceVerifyUtils.BitmapType type);
+
+    /**
+     * 每路摄像头帧池的槽位数，RGB+IR 配对的子类按同步器的需要返回
+     */
+    int bitmapPoolSlots() {
+        return Nv21BitmapPool.DEFAULT_SLOTS;
+    }
     public AbsLiveness_UVCCameraFragment() {}
 
     @Nullable
@@ -87,6 +94,7 @@ public abstract class AbsLiveness_UVCCameraFragment extends Fragment {
                 .setContext(requireContext())
                 .setDegree(sharedPref.getInt(RGB_UVC_CAMERA_DEGREE, 0))
                 .setHorizontalMirror(sharedPref.getBoolean(RGB_UVC_CAMERA_MIRROR_H, false))
+                .setPoolSlots(bitmapPoolSlots())
                 .build();
 
         rgbCameraManager = new UVCCameraManager(cameraBuilder);
@@ -111,8 +119,8 @@ public abstract class AbsLiveness_UVCCameraFragment extends Fragment {
 
         rgbCameraManager.setFaceAIAnalysis(new UVCCameraManager.OnFaceAIAnalysisCallBack() {
             @Override
-            public void onBitmapFrame(Bitmap bitmap) {
-                faceLivenessSetBitmap(bitmap, FaceVerifyUtils.BitmapType.RGB);
+            public void onPooledFrame(Nv21BitmapPool.Frame frame) {
+                faceLivenessSetBitmap(frame, FaceVerifyUtils.BitmapType.RGB);
             }
         });
     }
@@ -129,6 +137,8 @@ public abstract class AbsLiveness_UVCCameraFragment extends Fragment {
                 .setContext(requireContext())
                 .setDegree(sp.getInt(IR_UVC_CAMERA_DEGREE, 0))
                 .setHorizontalMirror(sp.getBoolean(IR_UVC_CAMERA_MIRROR_H, false))
+                .setLumaOnly(true)
+                .setPoolSlots(bitmapPoolSlots())
                 .build();
 
         irCameraManager = new UVCCameraManager(cameraBuilder);
@@ -146,8 +156,8 @@ public abstract class AbsLiveness_UVCCameraFragment extends Fragment {
 
         irCameraManager.setFaceAIAnalysis(new UVCCameraManager.OnFaceAIAnalysisCallBack() {
             @Override
-            public void onBitmapFrame(Bitmap bitmap) {
-                faceLivenessSetBitmap(bitmap, FaceVerifyUtils.BitmapType.IR);
+            public void onPooledFrame(Nv21BitmapPool.Frame frame) {
+                faceLivenessSetBitmap(frame, FaceVerifyUtils.BitmapType.IR);
             }
         });
 
@@ -19,6 +19,8 @@ import com.rezins.flutter_face_ai_sdk.R;
 import com.rezins.flutter_face_ai_sdk.base.utils.BitmapUtils;
 import com.rezins.flutter_face_ai_sdk.base.utils.BrightnessUtil;
 import com.rezins.flutter_face_ai_sdk.base.utils.VoicePlayer;
+import com.rezins.flutter_face_ai_sdk.base.utils.frame.FramePairSynchronizer;
+import com.rezins.flutter_face_ai_sdk.base.utils.frame.Nv21BitmapPool;
 
 /**
  * UVC协议USB摄像头活体检测 Liveness Detection with UVC USB Camera
@@ -70,7 +72,9 @@ public class Liveness_UVCCameraFragment extends AbsLiveness_UVCCameraFragment {
                     public void onLivenessDetected(float score, Bitmap bitmap) {
                             tipsTextView.setText(R.string.liveness_detection_done);
                             VoicePlayer.getInstance().addPayList(R.raw.verify_success);
-                            BitmapUtils.saveScaledBitmap(bitmap,CACHE_FACE_LOG_DIR,"liveBitmap"); //保存给插件用，原生开发忽略
+                            //bitmap 可能来自帧池，回调返回后会被下一帧覆盖，先拷贝再保存
+                            Bitmap liveBitmap = bitmap == null ? null : bitmap.copy(Bitmap.Config.ARGB_8888, false);
+                            BitmapUtils.saveScaledBitmap(liveBitmap,CACHE_FACE_LOG_DIR,"liveBitmap"); //保存给插件用，原生开发忽略
                             requireActivity().finish();
                     }
 
@@ -230,6 +234,7 @@ public class Liveness_UVCCameraFragment extends AbsLiveness_UVCCameraFragment {
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        pairSynchronizer.release();
         if (faceVerifyUtils != null) {
             faceVerifyUtils.destroyProcess();
         }
@@ -249,39 +254,31 @@ public class Liveness_UVCCameraFragment extends AbsLiveness_UVCCameraFragment {
 
     /**
      * 请断点调试保证bitmap 的方向正确； RGB和IR Bitmap大小相同，画面同步
-     *
-     * @param bitmap
-     * @param type
+     * 两路帧按回调时间戳配对，时间差超过 {@link FramePairSynchronizer#DEFAULT_MAX_SKEW_MS} 的不送 SDK
      */
-    private Bitmap rgbBitmap, irBitmap;
-    private boolean rgbReady = false, irReady = false;
+    private final FramePairSynchronizer pairSynchronizer = new FramePairSynchronizer((rgb, ir) -> {
+        //送数据进入SDK
+        faceVerifyUtils.goVerifyWithIR(ir.getBitmap(), rgb.getBitmap());
+    });
+
+    @Override
+    int bitmapPoolSlots() {
+        return pairSynchronizer.requiredPoolSlots();
+    }
 
     /**
      * UVC协议USB摄像头设置数据，送数据到SDK 引擎
      *
-     * @param bitmap
+     * @param frame
      * @param type
      */
-    void faceLivenessSetBitmap(Bitmap bitmap, FaceVerifyUtils.BitmapType type) {
-
+    void faceLivenessSetBitmap(Nv21BitmapPool.Frame frame, FaceVerifyUtils.BitmapType type) {
         if(cameraType== FaceAICameraType.UVC_CAMERA_RGB){
-            faceVerifyUtils.goVerifyWithBitmap(bitmap);
-        }else{
-            if (type.equals(FaceVerifyUtils.BitmapType.IR)) {
-                irBitmap = bitmap;
-                irReady = true;
-            } else if (type.equals(FaceVerifyUtils.BitmapType.RGB)) {
-                rgbBitmap = bitmap;
-                rgbReady = true;
-            }
-
-            if (irReady && rgbReady) {
-                //送数据进入SDK
-                faceVerifyUtils.goVerifyWithIR(irBitmap, rgbBitmap);
-                irReady = false;
-                rgbReady = false;
-            }
+            faceVerifyUtils.goVerifyWithBitmap(frame.getBitmap());
+            return;
         }
+        //按时间戳对齐 RGB 和 IR，只有时间差足够小的一对才送进 SDK
+        pairSynchronizer.offer(frame, type.equals(FaceVerifyUtils.BitmapType.IR));
     }
 
 
@@ -1,6 +1,8 @@
 package com.rezins.flutter_face_ai_sdk.UVCCamera.manger;
 
 import android.content.Context;
+
+import com.rezins.flutter_face_ai_sdk.base.utils.frame.Nv21BitmapPool;
 import com.serenegiant.widget.AspectRatioSurfaceView;
 
 
@@ -15,6 +17,8 @@ public final  class CameraBuilder {
     private final AspectRatioSurfaceView cameraView; //预览界面
     private final int degree;         //摄像头旋转角度，0，90，180，270
     private final boolean horizontalMirror;   //是否水平镜像
+    private final boolean lumaOnly;   //只取 Y 平面转灰度图，红外摄像头用
+    private final int poolSlots;      //帧 Bitmap 池的槽位数
 //    private boolean verticalMirror;     //是否垂直镜像
 
     private CameraBuilder(Builder builder) {
@@ -24,6 +28,8 @@ public final  class CameraBuilder {
         this.cameraView = builder.cameraView;
         this.degree = builder.degree;
         this.horizontalMirror = builder.horizontalMirror;
+        this.lumaOnly = builder.lumaOnly;
+        this.poolSlots = builder.poolSlots;
 //        this.verticalMirror = builder.verticalMirror;
     }
 
@@ -35,6 +41,8 @@ public final  class CameraBuilder {
         private AspectRatioSurfaceView cameraView; //预览界面
         private int degree;         //摄像头旋转角度，0，90，180，270
         private boolean horizontalMirror;   //是否水平镜像
+        private boolean lumaOnly;   //只取 Y 平面转灰度图，红外摄像头用
+        private int poolSlots = Nv21BitmapPool.DEFAULT_SLOTS; //帧 Bitmap 池的槽位数
 //        private boolean verticalMirror;     //是否垂直镜像
 
         public Builder setCameraName(String cameraName) {
@@ -68,6 +76,18 @@ public final  class CameraBuilder {
             return this;
         }
 
+        //红外摄像头画面本身就是灰度，不需要完整的 NV21 转彩色
+        public Builder setLumaOnly(boolean lumaOnly) {
+            this.lumaOnly = lumaOnly;
+            return this;
+        }
+
+        //帧在回调外被持有的越多（比如 RGB+IR 配对），需要的槽位越多，见 FramePairSynchronizer.requiredPoolSlots()
+        public Builder setPoolSlots(int poolSlots) {
+            this.poolSlots = poolSlots;
+            return this;
+        }
+
 //        public Builder setVerticalMirror(boolean verticalMirror) {
 //            this.verticalMirror = verticalMirror;
 //            return this;
@@ -104,6 +124,14 @@ public final  class CameraBuilder {
         return horizontalMirror;
     }
 
+    public boolean isLumaOnly() {
+        return lumaOnly;
+    }
+
+    public int getPoolSlots() {
+        return poolSlots;
+    }
+
 //    public boolean isVerticalMirror() {
 //        return verticalMirror;
 //    }
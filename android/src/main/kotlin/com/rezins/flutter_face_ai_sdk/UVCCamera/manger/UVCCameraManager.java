@@ -10,9 +10,10 @@ import android.widget.Toast;
 
 import androidx.annotation.Nullable;
 
-import com.ai.face.base.utils.DataConvertUtils;
 import com.rezins.flutter_face_ai_sdk.FaceSDKConfig;
 import com.rezins.flutter_face_ai_sdk.R;
+import com.rezins.flutter_face_ai_sdk.base.utils.frame.Nv21BitmapPool;
+import com.rezins.flutter_face_ai_sdk.base.utils.frame.PresenceDetector;
 import com.herohan.uvcapp.CameraHelper;
 import com.herohan.uvcapp.ICameraHelper;
 import com.serenegiant.opengl.renderer.MirrorMode;
@@ -56,7 +57,9 @@ public class UVCCameraManager {
     private Activity activity;
 
     private int width=UVC_CAMERA_WIDTH,height=UVC_CAMERA_HEIGHT;
-    private Bitmap reuseBitmap=null;
+    private final Nv21BitmapPool bitmapPool;
+    private PresenceDetector presenceDetector;
+    private boolean presenceDriver;
 
 
     public interface OnCameraStatusCallBack {
@@ -66,9 +69,15 @@ public class UVCCameraManager {
 
     /**
      * 对每帧bitmap 进行分析，如果SDK上一帧还在处理就可以丢弃掉
+     * bitmap 来自 {@link Nv21BitmapPool}，回调返回后会被下一帧复用
      */
     public interface OnFaceAIAnalysisCallBack {
-        void onBitmapFrame(Bitmap bitmap);
+        default void onBitmapFrame(Bitmap bitmap) {
+        }
+        //需要在回调外持有帧（RGB/IR 配对）时覆盖这个方法，frame.retain() 后自行 release()
+        default void onPooledFrame(Nv21BitmapPool.Frame frame) {
+            onBitmapFrame(frame.getBitmap());
+        }
         default void onImageSize(int imageWidth, int imageHeight){}
     }
 
@@ -81,6 +90,7 @@ public class UVCCameraManager {
     public UVCCameraManager(CameraBuilder cameraBuilder) {
         this.cameraBuilder = cameraBuilder;
         this.context=cameraBuilder.getContext();
+        this.bitmapPool = new Nv21BitmapPool(cameraBuilder.getPoolSlots());
         //Context 本身就是 Activity
         if (context instanceof Activity) {
             activity= (Activity) context;
@@ -114,6 +124,8 @@ public class UVCCameraManager {
 
         faceAIAnalysisCallBack =null;
         onCameraStatuesCallBack = null; // 添加这行
+        Log.d("UVCCameraManager", "bitmap pool converted=" + bitmapPool.getConvertedCount()
+                + " dropped=" + bitmapPool.getDroppedCount());
         cameraBuilder=null;
     }
 
@@ -154,6 +166,15 @@ public class UVCCameraManager {
         faceAIAnalysisCallBack = callBack;
     }
 
+    /**
+     * 没人时不转换也不回调帧。driver 为 true 时这路画面用来做运动检测（RGB），
+     * false 时只跟随检测结果（IR 摄像头和 RGB 共用一个检测器）
+     */
+    public void setPresenceDetector(PresenceDetector detector, boolean driver) {
+        presenceDetector = detector;
+        presenceDriver = driver;
+    }
+
     @Nullable
     public Size getCurrentPreviewSize() {
         return mCameraHelper.getPreviewSize();
@@ -228,12 +249,34 @@ public class UVCCameraManager {
                 mCameraHelper.setFrameCallback(new IFrameCallback() {
                     @Override
                     public void onFrame(ByteBuffer byteBuffer) {
+                        long timestampNanos = System.nanoTime();
                         //防止生命周期不同步,低配设备可能关闭了还在处理队列数据
+                        OnFaceAIAnalysisCallBack callBack = faceAIAnalysisCallBack;
+                        CameraBuilder builder = cameraBuilder;
                         if (!activity.isDestroyed() && !activity.isFinishing()
-                                && faceAIAnalysisCallBack != null) {
-                            reuseBitmap = DataConvertUtils.NV21Data2Bitmap(byteBuffer, width, height,
-                                    cameraBuilder.getDegree(), cameraBuilder.isHorizontalMirror());
-                            faceAIAnalysisCallBack.onBitmapFrame(reuseBitmap);
+                                && callBack != null && builder != null) {
+                            PresenceDetector detector = presenceDetector;
+                            if (detector != null && !(presenceDriver
+                                    ? detector.onFrame(byteBuffer, width, height, width, 1, timestampNanos)
+                                    : detector.isPresent())) {
+                                return; //没人，连 Bitmap 转换都省掉
+                            }
+                            Nv21BitmapPool.Frame frame = builder.isLumaOnly()
+                                    ? bitmapPool.convertLuma(byteBuffer, width, height,
+                                    builder.getDegree(), builder.isHorizontalMirror(), timestampNanos)
+                                    : bitmapPool.convert(byteBuffer, width, height,
+                                    builder.getDegree(), builder.isHorizontalMirror(), timestampNanos);
+                            if (frame == null) {
+                                return; //SDK 还在处理前面的帧
+                            }
+                            try {
+                                callBack.onPooledFrame(frame);
+                            } finally {
+                                frame.release();
+                            }
+                            if (detector != null && presenceDriver) {
+                                detector.recordEngineCost(System.nanoTime() - timestampNanos);
+                            }
                         }
                     }
                 }, UVCCamera.PIXEL_FORMAT_NV21);
@@ -14,7 +14,6 @@ import static com.rezins.flutter_face_ai_sdk.UVCCamera.manger.UVCCameraManager.R
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.graphics.Bitmap;
 import android.hardware.usb.UsbDevice;
 import android.os.Bundle;
 import android.view.LayoutInflater;
@@ -28,6 +27,8 @@ import androidx.fragment.app.Fragment;
 import com.ai.face.core.utils.FaceAICameraType;
 import com.rezins.flutter_face_ai_sdk.UVCCamera.manger.CameraBuilder;
 import com.rezins.flutter_face_ai_sdk.UVCCamera.manger.UVCCameraManager;
+import com.rezins.flutter_face_ai_sdk.base.utils.frame.Nv21BitmapPool;
+import com.rezins.flutter_face_ai_sdk.base.utils.frame.PresenceDetector;
 import com.ai.face.faceVerify.verify.FaceVerifyUtils;
 import com.rezins.flutter_face_ai_sdk.databinding.FragmentFaceSearchUvcCameraBinding;
 
@@ -45,10 +46,18 @@ public abstract class AbsFaceSearch_UVCCameraFragment extends Fragment {
     public int cameraType = FaceAICameraType.UVC_CAMERA_RGB; //UVC 可以单RGB或者RGB+IR
     private UVCCameraManager rgbCameraManager;//RBG camera
     private UVCCameraManager irCameraManager; //近红外摄像头
+    private final PresenceDetector presenceDetector = new PresenceDetector(); //RGB 画面检测有没有人，IR 跟随
 
     abstract void initFaceSearchParam();
     abstract void showFaceSearchPrecessTips(int code);
-    abstract void faceSearchSetBitmap(Bitmap bitmap, FaceVerifyUtils.BitmapType type);
+    abstract void faceSearchSetBitmap(Nv21BitmapPool.Frame frame, FaceVerifyUtils.BitmapType type);
+
+    /**
+     * 每路摄像头帧池的槽位数，RGB+IR 配对的子类按同步器的需要返回
+     */
+    int bitmapPoolSlots() {
+        return Nv21BitmapPool.DEFAULT_SLOTS;
+    }
 
     public AbsFaceSearch_UVCCameraFragment() {
 
@@ -74,6 +83,7 @@ public abstract class AbsFaceSearch_UVCCameraFragment extends Fragment {
     public void onDestroy() {
         super.onDestroy();
         rgbCameraManager.releaseCameraHelper();
+        presenceDetector.logStats();
         if (irCameraManager != null) {
             irCameraManager.releaseCameraHelper();
         }
@@ -88,9 +98,11 @@ public abstract class AbsFaceSearch_UVCCameraFragment extends Fragment {
                 .setContext(requireContext())
                 .setDegree(sp.getInt(RGB_UVC_CAMERA_DEGREE, 0))
                 .setHorizontalMirror(sp.getBoolean(RGB_UVC_CAMERA_MIRROR_H, false))
+                .setPoolSlots(bitmapPoolSlots())
                 .build();
 
         rgbCameraManager = new UVCCameraManager(cameraBuilder);
+        rgbCameraManager.setPresenceDetector(presenceDetector, true);
 
         rgbCameraManager.setOnCameraStatuesCallBack(new UVCCameraManager.OnCameraStatusCallBack() {
             @Override
@@ -114,9 +126,9 @@ public abstract class AbsFaceSearch_UVCCameraFragment extends Fragment {
 
         rgbCameraManager.setFaceAIAnalysis(new UVCCameraManager.OnFaceAIAnalysisCallBack() {
             @Override
-            public void onBitmapFrame(Bitmap bitmap) {
-                //设备硬件可以加个红外检测有人靠近再启动人脸搜索检索服务，不然机器一直工作发热性能下降老化快
-                faceSearchSetBitmap(bitmap, FaceVerifyUtils.BitmapType.RGB);
+            public void onPooledFrame(Nv21BitmapPool.Frame frame) {
+                //没人的时候 rgbCameraManager 不会回调，见 setPresenceDetector
+                faceSearchSetBitmap(frame, FaceVerifyUtils.BitmapType.RGB);
             }
             @Override
             public void onImageSize(int imageWidth, int imageHeight) {
@@ -140,9 +152,12 @@ public abstract class AbsFaceSearch_UVCCameraFragment extends Fragment {
                 .setContext(requireContext())
                 .setDegree(sp.getInt(IR_UVC_CAMERA_DEGREE, 0))
                 .setHorizontalMirror(sp.getBoolean(IR_UVC_CAMERA_MIRROR_H, false))
+                .setLumaOnly(true)
+                .setPoolSlots(bitmapPoolSlots())
                 .build();
 
         irCameraManager = new UVCCameraManager(cameraBuilder);
+        irCameraManager.setPresenceDetector(presenceDetector, false);
 
         irCameraManager.setOnCameraStatuesCallBack(new UVCCameraManager.OnCameraStatusCallBack() {
             @Override
@@ -157,8 +172,8 @@ public abstract class AbsFaceSearch_UVCCameraFragment extends Fragment {
 
         irCameraManager.setFaceAIAnalysis(new UVCCameraManager.OnFaceAIAnalysisCallBack() {
             @Override
-            public void onBitmapFrame(Bitmap bitmap) {
-                faceSearchSetBitmap(bitmap, FaceVerifyUtils.BitmapType.IR);
+            public void onPooledFrame(Nv21BitmapPool.Frame frame) {
+                faceSearchSetBitmap(frame, FaceVerifyUtils.BitmapType.IR);
             }
         });
 
@@ -28,6 +28,8 @@ import com.rezins.flutter_face_ai_sdk.R;
 import com.rezins.flutter_face_ai_sdk.SysCamera.search.ImageToast;
 import com.rezins.flutter_face_ai_sdk.base.utils.BrightnessUtil;
 import com.rezins.flutter_face_ai_sdk.base.utils.VoicePlayer;
+import com.rezins.flutter_face_ai_sdk.base.utils.frame.FramePairSynchronizer;
+import com.rezins.flutter_face_ai_sdk.base.utils.frame.Nv21BitmapPool;
 import java.util.List;
 
 
@@ -57,17 +59,24 @@ public class FaceSearch_UVCCameraFragment extends AbsFaceSearch_UVCCameraFragmen
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        pairSynchronizer.release();
         FaceSearchEngine.Companion.getInstance().stopSearchProcess();
     }
 
     /**
      * 请断点调试保证bitmap 的方向正确； RGB和IR Bitmap大小相同，画面同步
-     *
-     * @param bitmap
-     * @param type
+     * 两路帧按回调时间戳配对，时间差超过 {@link FramePairSynchronizer#DEFAULT_MAX_SKEW_MS} 的不送 SDK
      */
-    private Bitmap rgbBitmap, irBitmap;
-    private boolean rgbReady = false, irReady = false;
+    private final FramePairSynchronizer pairSynchronizer = new FramePairSynchronizer((rgb, ir) -> {
+        getScaleValue();
+        //送数据进入SDK
+        FaceSearchEngine.Companion.getInstance().runSearchWithIR(ir.getBitmap(), rgb.getBitmap());
+    });
+
+    @Override
+    int bitmapPoolSlots() {
+        return pairSynchronizer.requiredPoolSlots();
+    }
 
     /**
      * 初始化人脸搜索参赛设置
@@ -207,32 +216,18 @@ public class FaceSearch_UVCCameraFragment extends AbsFaceSearch_UVCCameraFragmen
 
     /**
      * UVC协议USB摄像头设置数据，送数据到SDK 引擎
-     * 设备硬件可以加个红外检测有人靠近再启动人脸搜索检索服务，不然机器一直工作发热性能下降老化快
+     * 没人的时候父类的 PresenceDetector 会拦下帧，不会走到这里
      *
-     * @param bitmap
+     * @param frame
      * @param type
      */
-    void faceSearchSetBitmap(Bitmap bitmap, FaceVerifyUtils.BitmapType type) {
+    void faceSearchSetBitmap(Nv21BitmapPool.Frame frame, FaceVerifyUtils.BitmapType type) {
         if(cameraType== FaceAICameraType.UVC_CAMERA_RGB){
-            FaceSearchEngine.Companion.getInstance().runSearchWithBitmap(bitmap);
-        }else{
-            if (type.equals(FaceVerifyUtils.BitmapType.IR)) {
-                irBitmap = bitmap;
-                irReady = true;
-            } else if (type.equals(FaceVerifyUtils.BitmapType.RGB)) {
-                rgbBitmap = bitmap;
-                rgbReady = true;
-            }
-
-            if (irReady && rgbReady) {
-                getScaleValue();
-                //送数据进入SDK
-                FaceSearchEngine.Companion.getInstance().runSearchWithIR(irBitmap, rgbBitmap);
-                irReady = false;
-                rgbReady = false;
-            }
+            FaceSearchEngine.Companion.getInstance().runSearchWithBitmap(frame.getBitmap());
+            return;
         }
-
+        //按时间戳对齐 RGB 和 IR，只有时间差足够小的一对才送进 SDK
+        pairSynchronizer.offer(frame, type.equals(FaceVerifyUtils.BitmapType.IR));
     }
 
 
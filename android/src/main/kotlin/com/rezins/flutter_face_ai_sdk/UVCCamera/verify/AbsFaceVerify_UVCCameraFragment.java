@@ -13,7 +13,6 @@ import static com.rezins.flutter_face_ai_sdk.UVCCamera.manger.UVCCameraManager.I
 import static com.rezins.flutter_face_ai_sdk.UVCCamera.manger.UVCCameraManager.RGB_KEY_DEFAULT;
 
 import android.content.SharedPreferences;
-import android.graphics.Bitmap;
 import android.hardware.usb.UsbDevice;
 import android.os.Bundle;
 import android.view.LayoutInflater;
@@ -27,6 +26,7 @@ import androidx.fragment.app.Fragment;
 import com.ai.face.core.utils.FaceAICameraType;
 import com.rezins.flutter_face_ai_sdk.UVCCamera.manger.CameraBuilder;
 import com.rezins.flutter_face_ai_sdk.UVCCamera.manger.UVCCameraManager;
+import com.rezins.flutter_face_ai_sdk.base.utils.frame.Nv21BitmapPool;
 import com.ai.face.faceVerify.verify.FaceVerifyUtils;
 import com.rezins.flutter_face_ai_sdk.databinding.FragmentUvcCameraBinding;
 
@@ -52,7 +52,14 @@ public abstract class AbsFaceVerify_UVCCameraFragment extends Fragment {
     abstract void initFaceVerificationParam(String faceFeature);
     abstract void showVerifyResult(boolean isVerifyMatched, float similarity, float silentLivenessScore);
     abstract void showFaceVerifyTips(int actionCode);
-    abstract void faceVerifySetBitmap(Bitmap bitmap, FaceVerifyUtils.BitmapType type);
+    abstract void faceVerifySetBitmap(Nv21BitmapPool.Frame frame, FaceVerifyUtils.BitmapType type);
+
+    /**
+     * 每路摄像头帧池的槽位数，RGB+IR 配对的子类按同步器的需要返回
+     */
+    int bitmapPoolSlots() {
+        return Nv21BitmapPool.DEFAULT_SLOTS;
+    }
 
     public AbsFaceVerify_UVCCameraFragment() {}
 
@@ -91,6 +98,7 @@ public abstract class AbsFaceVerify_UVCCameraFragment extends Fragment {
                 .setContext(requireContext())
                 .setDegree(sharedPref.getInt(RGB_UVC_CAMERA_DEGREE, 0))
                 .setHorizontalMirror(sharedPref.getBoolean(RGB_UVC_CAMERA_MIRROR_H, false))
+                .setPoolSlots(bitmapPoolSlots())
                 .build();
 
         rgbCameraManager = new UVCCameraManager(cameraBuilder);
@@ -115,8 +123,8 @@ public abstract class AbsFaceVerify_UVCCameraFragment extends Fragment {
 
         rgbCameraManager.setFaceAIAnalysis(new UVCCameraManager.OnFaceAIAnalysisCallBack() {
             @Override
-            public void onBitmapFrame(Bitmap bitmap) {
-                faceVerifySetBitmap(bitmap, FaceVerifyUtils.BitmapType.RGB);
+            public void onPooledFrame(Nv21BitmapPool.Frame frame) {
+                faceVerifySetBitmap(frame, FaceVerifyUtils.BitmapType.RGB);
             }
         });
     }
@@ -133,6 +141,8 @@ public abstract class AbsFaceVerify_UVCCameraFragment extends Fragment {
                 .setContext(requireContext())
                 .setDegree(sp.getInt(IR_UVC_CAMERA_DEGREE, 0))
                 .setHorizontalMirror(sp.getBoolean(IR_UVC_CAMERA_MIRROR_H, false))
+                .setLumaOnly(true)
+                .setPoolSlots(bitmapPoolSlots())
                 .build();
 
         irCameraManager = new UVCCameraManager(cameraBuilder);
@@ -150,8 +160,8 @@ public abstract class AbsFaceVerify_UVCCameraFragment extends Fragment {
 
         irCameraManager.setFaceAIAnalysis(new UVCCameraManager.OnFaceAIAnalysisCallBack() {
             @Override
-            public void onBitmapFrame(Bitmap bitmap) {
-                faceVerifySetBitmap(bitmap, FaceVerifyUtils.BitmapType.IR);
+            public void onPooledFrame(Nv21BitmapPool.Frame frame) {
+                faceVerifySetBitmap(frame, FaceVerifyUtils.BitmapType.IR);
             }
         });
 
@@ -1,5 +1,6 @@
 package com.rezins.flutter_face_ai_sdk.UVCCamera.verify;
 
+import static com.rezins.flutter_face_ai_sdk.FaceSDKConfig.CACHE_FACE_LOG_DIR;
 import static com.rezins.flutter_face_ai_sdk.SysCamera.verify.FaceVerificationActivity.USER_FACE_ID_KEY;
 
 import android.graphics.Bitmap;
@@ -12,8 +13,6 @@ import android.widget.Toast;
 
 import androidx.appcompat.app.AlertDialog;
 
-import com.ai.face.base.baseImage.FaceEmbedding;
-import com.ai.face.core.engine.FaceAISDKEngine;
 import com.ai.face.core.utils.FaceAICameraType;
 import com.ai.face.faceVerify.verify.liveness.FaceLivenessType;
 import com.ai.face.faceVerify.verify.FaceProcessBuilder;
@@ -21,9 +20,12 @@ import com.ai.face.faceVerify.verify.FaceVerifyUtils;
 import com.ai.face.faceVerify.verify.ProcessCallBack;
 import com.ai.face.faceVerify.verify.VerifyStatus;
 import com.ai.face.faceVerify.verify.liveness.MotionLivenessMode;
+import com.rezins.flutter_face_ai_sdk.base.utils.BitmapUtils;
 import com.rezins.flutter_face_ai_sdk.base.utils.VoicePlayer;
+import com.rezins.flutter_face_ai_sdk.base.verify.FaceTemplateStore;
 import com.rezins.flutter_face_ai_sdk.R;
-import com.tencent.mmkv.MMKV;
+import com.rezins.flutter_face_ai_sdk.base.utils.frame.FramePairSynchronizer;
+import com.rezins.flutter_face_ai_sdk.base.utils.frame.Nv21BitmapPool;
 
 /**
  * 演示UVC协议USB摄像头1:1人脸识别，活体检测
@@ -59,16 +61,11 @@ public class FaceVerify_UVCCameraFragment extends AbsFaceVerify_UVCCameraFragmen
      */
     void initFaceVerifyFeature() {
         String faceID = requireActivity().getIntent().getStringExtra(USER_FACE_ID_KEY);
-        //人脸图片和人脸特征向量不方便传递，以及相关法律法规不允许明文传输。注意数据迁移
-        float[] faceEmbedding = FaceEmbedding.loadEmbedding(requireContext(), faceID);
-        String faceFeatureOld = FaceAISDKEngine.getInstance(requireContext()).faceArray2Feature(faceEmbedding);
-
-        //从本地MMKV读取人脸特征值(2025.11.23版本使用MMKV，老的人脸数据请做好迁移)
-        String faceFeature = MMKV.defaultMMKV().decodeString(faceID);
+        //人脸图片和人脸特征向量不方便传递，以及相关法律法规不允许明文传输。
+        //MMKV 和 FaceEmbedding 中的老数据由 FaceTemplateStore 一次性迁移，这里不用再查两处
+        String faceFeature = FaceTemplateStore.getInstance(requireContext()).get(faceID);
         if (!TextUtils.isEmpty(faceFeature)) {
             initFaceVerificationParam(faceFeature);
-        } else if (!TextUtils.isEmpty(faceFeatureOld)) {
-            initFaceVerificationParam(faceFeatureOld);
         } else {
             //根据你的业务进行提示去录入人脸 提取特征，服务器有提前同步到本地
             Toast.makeText(requireContext(), "faceFeature isEmpty ! ", Toast.LENGTH_LONG).show();
@@ -101,6 +98,9 @@ public class FaceVerify_UVCCameraFragment extends AbsFaceVerify_UVCCameraFragmen
                      */
                     @Override
                     public void onVerifyMatched(boolean isMatched, float similarity, float silentLivenessScore, Bitmap vipBitmap) {
+                        //vipBitmap 可能来自帧池，回调返回后会被下一帧覆盖，先拷贝再保存
+                        Bitmap verifyBitmap = vipBitmap == null ? null : vipBitmap.copy(Bitmap.Config.ARGB_8888, false);
+                        BitmapUtils.saveScaledBitmap(verifyBitmap, CACHE_FACE_LOG_DIR, "verifyBitmap"); //保存场景图给三方插件使用
                         showVerifyResult(isMatched, similarity, silentLivenessScore);
                     }
 
@@ -282,6 +282,7 @@ public class FaceVerify_UVCCameraFragment extends AbsFaceVerify_UVCCameraFragmen
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        pairSynchronizer.release();
         if (faceVerifyUtils != null) {
             faceVerifyUtils.destroyProcess();
         }
@@ -299,39 +300,31 @@ public class FaceVerify_UVCCameraFragment extends AbsFaceVerify_UVCCameraFragmen
 
     /**
      * 请断点调试保证bitmap 的方向正确； RGB和IR Bitmap大小相同，画面同步
-     *
-     * @param bitmap
-     * @param type
+     * 两路帧按回调时间戳配对，时间差超过 {@link FramePairSynchronizer#DEFAULT_MAX_SKEW_MS} 的不送 SDK
      */
-    private Bitmap rgbBitmap, irBitmap;
-    private boolean rgbReady = false, irReady = false;
+    private final FramePairSynchronizer pairSynchronizer = new FramePairSynchronizer((rgb, ir) -> {
+        //送数据进入SDK
+        faceVerifyUtils.goVerifyWithIR(ir.getBitmap(), rgb.getBitmap());
+    });
+
+    @Override
+    int bitmapPoolSlots() {
+        return pairSynchronizer.requiredPoolSlots();
+    }
 
     /**
      * UVC协议USB摄像头设置数据，送数据到SDK 引擎
      *
-     * @param bitmap
+     * @param frame
      * @param type
      */
-    void faceVerifySetBitmap(Bitmap bitmap, FaceVerifyUtils.BitmapType type) {
-
+    void faceVerifySetBitmap(Nv21BitmapPool.Frame frame, FaceVerifyUtils.BitmapType type) {
         if (cameraType == FaceAICameraType.UVC_CAMERA_RGB) {
-            faceVerifyUtils.goVerifyWithBitmap(bitmap);
-        } else {
-            if (type.equals(FaceVerifyUtils.BitmapType.IR)) {
-                irBitmap = bitmap;
-                irReady = true;
-            } else if (type.equals(FaceVerifyUtils.BitmapType.RGB)) {
-                rgbBitmap = bitmap;
-                rgbReady = true;
-            }
-
-            if (irReady && rgbReady) {
-                //送数据进入SDK
-                faceVerifyUtils.goVerifyWithIR(irBitmap, rgbBitmap);
-                irReady = false;
-                rgbReady = false;
-            }
+            faceVerifyUtils.goVerifyWithBitmap(frame.getBitmap());
+            return;
         }
+        //按时间戳对齐 RGB 和 IR，只有时间差足够小的一对才送进 SDK
+        pairSynchronizer.offer(frame, type.equals(FaceVerifyUtils.BitmapType.IR));
     }
 
 }
@@ -0,0 +1,91 @@
+package com.rezins.flutter_face_ai_sdk.base.search;
+
+import android.text.TextUtils;
+import android.util.Base64;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 人脸特征值字符串与 float[] 向量互相转换
+ * <p>
+ * SDK 输出的 faceFeature 是 URL Safe Base64（无填充）编码的小端 float32 数组，
+ * 1024 长度的字符串解码后为 192 维向量
+ */
+public final class FaceFeatureCodec {
+    public static final int FEATURE_DIM = 192;        //人脸特征向量维度
+    public static final int FEATURE_STRING_LENGTH = 1024; //特征值字符串长度
+
+    private static final int BASE64_FLAGS = Base64.URL_SAFE | Base64.NO_WRAP | Base64.NO_PADDING;
+
+    private FaceFeatureCodec() {
+    }
+
+    /**
+     * 特征值字符串解码为 float[]，非法Base64或者维度不对返回 null
+     */
+    public static float[] decode(String faceFeature) {
+        byte[] bytes = decodeBytes(faceFeature);
+        if (bytes == null || bytes.length != FEATURE_DIM * 4) {
+            return null;
+        }
+        return toVector(bytes);
+    }
+
+    /**
+     * 只做 Base64 解码，不检查长度，非法Base64返回 null。导入校验时用于区分错误原因
+     */
+    public static byte[] decodeBytes(String faceFeature) {
+        if (TextUtils.isEmpty(faceFeature)) {
+            return null;
+        }
+        try {
+            return Base64.decode(faceFeature, BASE64_FLAGS);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public static float[] toVector(byte[] bytes) {
+        float[] vector = new float[bytes.length / 4];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    /**
+     * float[] 编码为SDK能识别的特征值字符串
+     */
+    public static String encode(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        return Base64.encodeToString(buffer.array(), BASE64_FLAGS);
+    }
+
+    /**
+     * L2 归一化，归一化后两个向量的点积就是余弦相似度
+     *
+     * @return 向量模长为 0 时返回 false
+     */
+    public static boolean normalize(float[] vector) {
+        double sum = 0;
+        for (float v : vector) {
+            sum += v * v;
+        }
+        if (sum <= 0 || Double.isNaN(sum) || Double.isInfinite(sum)) {
+            return false;
+        }
+        float inv = (float) (1.0 / Math.sqrt(sum));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= inv;
+        }
+        return true;
+    }
+
+    public static float dot(float[] a, float[] b) {
+        float sum = 0f;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,143 @@
+package com.rezins.flutter_face_ai_sdk.base.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * {@link FaceFeatureImporter} 的导入结果：成功条数和每条失败记录的原因
+ * <p>
+ * 问题明细最多保留 maxIssues 条，超出的只计数，十万条级别的同步也不会占用过多内存
+ */
+public class FaceFeatureImportReport {
+
+    public enum Reason {
+        NOT_OBJECT,         //数组元素不是 JSON 对象，跳过
+        MISSING_FACE_ID,    //缺少 faceID，跳过
+        MISSING_FEATURE,    //缺少 faceFeature，跳过
+        INVALID_BASE64,     //faceFeature 不是合法的 Base64，跳过
+        WRONG_LENGTH,       //解码后维度不对，跳过
+        ZERO_VECTOR,        //向量模长为 0，跳过
+        DUPLICATE_FACE,     //开启查重时和另一个 faceID 过于相似，跳过
+        DEFAULT_UPDATE_TIME,//updateTime 缺失、为 0 或者格式不对，使用当前时间，仍然导入
+        MALFORMED_JSON,     //JSON 结构损坏，导入在此终止
+        CORRUPT_DATA        //二进制备份头部、长度或 CRC 不对，导入在此终止
+    }
+
+    public static class Issue {
+        private final int index;
+        private final String faceID;
+        private final Reason reason;
+
+        Issue(int index, String faceID, Reason reason) {
+            this.index = index;
+            this.faceID = faceID;
+            this.reason = reason;
+        }
+
+        /**
+         * 记录在 JSON 数组中的下标
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public String getFaceID() {
+            return faceID;
+        }
+
+        public Reason getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + index + " " + faceID + " " + reason;
+        }
+    }
+
+    private final int maxIssues;
+    private final List<Issue> issues = new ArrayList<>();
+    private final int[] reasonCounts = new int[Reason.values().length];
+    private int total;
+    private int imported;
+    private int batches;
+    private long costMillis;
+
+    FaceFeatureImportReport(int maxIssues) {
+        this.maxIssues = maxIssues;
+    }
+
+    void addIssue(int index, String faceID, Reason reason) {
+        reasonCounts[reason.ordinal()]++;
+        if (issues.size() < maxIssues) {
+            issues.add(new Issue(index, faceID, reason));
+        }
+    }
+
+    void setTotal(int total) {
+        this.total = total;
+    }
+
+    void addImported() {
+        imported++;
+    }
+
+    void addBatch() {
+        batches++;
+    }
+
+    void setCostMillis(long costMillis) {
+        this.costMillis = costMillis;
+    }
+
+    /**
+     * 读到的记录总数
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    public int getImported() {
+        return imported;
+    }
+
+    /**
+     * 被跳过的记录数，不包含只是默认了 updateTime 的记录
+     */
+    public int getFailed() {
+        return total - imported;
+    }
+
+    public int getBatches() {
+        return batches;
+    }
+
+    public int getCount(Reason reason) {
+        return reasonCounts[reason.ordinal()];
+    }
+
+    /**
+     * JSON 结构或二进制备份损坏，后面的记录没有读取
+     */
+    public boolean isAborted() {
+        return reasonCounts[Reason.MALFORMED_JSON.ordinal()] > 0 || reasonCounts[Reason.CORRUPT_DATA.ordinal()] > 0;
+    }
+
+    public List<Issue> getIssues() {
+        return Collections.unmodifiableList(issues);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(String.format(Locale.US,
+                "total=%d imported=%d failed=%d batches=%d cost=%dms", total, imported, getFailed(), batches, costMillis));
+        for (Reason reason : Reason.values()) {
+            if (reasonCounts[reason.ordinal()] > 0) {
+                builder.append(' ').append(reason).append('=').append(reasonCounts[reason.ordinal()]);
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,420 @@
+package com.rezins.flutter_face_ai_sdk.base.search;
+
+import android.util.Log;
+
+import com.google.gson.Strictness;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * 流式导入和 SDK insertFeatures(String json) 相同格式的特征值 JSON 数组，也支持每行一个对象的 NDJSON
+ * <p>
+ * 用 Gson 的 JsonReader 边读边写入 {@link FaceGalleryStore}，不把整个 JSON 读进内存，
+ * 每 batchSize 条 commit 一次。每条记录都会校验，问题记录写入 {@link FaceFeatureImportReport}
+ * <p>
+ * 设置了 {@link #setDuplicateCheck} 时，每 {@link #DUPLICATE_CHECK_BATCH} 条记录作为一组探针，
+ * 通过 {@link FaceGallerySearcher#searchBatchInto} 共用一次库扫描和已入库的人脸比对，
+ * 和另一个 faceID 过于相似的记录记为 DUPLICATE_FACE 跳过
+ * <pre>
+ * [{"faceID":"user_1001","faceFeature":"...","tag":"VIP","group":"1A","updateTime":1700000000000}, ...]
+ * </pre>
+ */
+public class FaceFeatureImporter {
+    private static final String TAG = "FaceFeatureImporter";
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final int DEFAULT_MAX_ISSUES = 1000;
+    public static final int DUPLICATE_CHECK_BATCH = 64; //查重时一次库扫描比对的记录数
+
+    /**
+     * 每条校验通过的记录写入特征库之后回调，比如同时写入 SDK 内置数据库
+     */
+    public interface OnRecordImportedListener {
+        void onRecordImported(String faceID, String faceFeature, long updateTime, String tag, String group);
+    }
+
+    private final FaceGalleryStore store;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int maxIssues = DEFAULT_MAX_ISSUES;
+    private OnRecordImportedListener listener;
+    private FaceGallerySearcher duplicateSearcher;
+    private float duplicateThreshold;
+
+    public FaceFeatureImporter(FaceGalleryStore store) {
+        this.store = store;
+    }
+
+    /**
+     * 每导入多少条 commit 一次
+     */
+    public FaceFeatureImporter setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+        return this;
+    }
+
+    /**
+     * 报告中最多保留的问题明细条数，超出只计数
+     */
+    public FaceFeatureImporter setMaxIssues(int maxIssues) {
+        this.maxIssues = Math.max(0, maxIssues);
+        return this;
+    }
+
+    public FaceFeatureImporter setOnRecordImportedListener(OnRecordImportedListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * 导入前查重：和已入库或者同一组里另一个 faceID 的余弦相似度 >= threshold 的记录跳过，
+     * 同一个 faceID 的记录仍然覆盖旧值
+     *
+     * @param searcher 建立在同一个特征库上的搜索器，null 关闭查重
+     */
+    public FaceFeatureImporter setDuplicateCheck(FaceGallerySearcher searcher, float threshold) {
+        if (searcher != null && searcher.getStore() != store) {
+            throw new IllegalArgumentException("searcher is built on another gallery");
+        }
+        this.duplicateSearcher = searcher;
+        this.duplicateThreshold = threshold;
+        return this;
+    }
+
+    public FaceFeatureImportReport importFrom(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return importFrom(in);
+        }
+    }
+
+    /**
+     * 输入流按 UTF-8 读取，调用方负责关闭
+     */
+    public FaceFeatureImportReport importFrom(InputStream in) {
+        return importFrom(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 64 * 1024));
+    }
+
+    public FaceFeatureImportReport importFrom(Reader in) {
+        FaceFeatureImportReport report = new FaceFeatureImportReport(maxIssues);
+        ImportSession session = new ImportSession(report);
+        long start = System.currentTimeMillis();
+        int index = 0;
+        JsonReader reader = new JsonReader(in);
+        try {
+            boolean array = reader.peek() == JsonToken.BEGIN_ARRAY;
+            if (array) {
+                reader.beginArray();
+            } else {
+                //NDJSON：每行一个对象（GalleryExporter 的导出格式），需要宽松模式读取多个顶层值
+                reader.setStrictness(Strictness.LENIENT);
+            }
+            while (array ? reader.hasNext() : reader.peek() != JsonToken.END_DOCUMENT) {
+                importRecord(reader, index, session);
+                index++;
+            }
+            if (array) {
+                reader.endArray();
+            }
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            //IllegalStateException 是 JsonReader 遇到意外 token 抛出的
+            Log.e(TAG, "import aborted at record " + index, e);
+            report.addIssue(index, null, FaceFeatureImportReport.Reason.MALFORMED_JSON);
+            index++;
+        }
+        session.finish();
+        report.setTotal(index);
+        report.setCostMillis(System.currentTimeMillis() - start);
+        Log.d(TAG, report.toString());
+        return report;
+    }
+
+    /**
+     * 导入 {@link GalleryExporter} 导出的 BINARY 格式备份，输入流调用方负责关闭
+     * <p>
+     * 每条记录先校验自己的 CRC32 再写入，校验失败的记录不写入并在此终止，记为 CORRUPT_DATA，之前已导入的记录保留。
+     * 结尾的记录数和整个文件的 CRC32 对不上（比如截断或丢了记录）同样记为 CORRUPT_DATA
+     */
+    public FaceFeatureImportReport importBinaryFrom(InputStream in) {
+        FaceFeatureImportReport report = new FaceFeatureImportReport(maxIssues);
+        ImportSession session = new ImportSession(report);
+        long start = System.currentTimeMillis();
+        int index = 0;
+        CRC32 crc = new CRC32();
+        CRC32 recordCrc = new CRC32();
+        DataInputStream data = new DataInputStream(new CheckedInputStream(
+                new CheckedInputStream(new BufferedInputStream(in, 64 * 1024), crc), recordCrc));
+        try {
+            int dim = store.getDim();
+            if (data.readInt() != GalleryExporter.BINARY_MAGIC || data.readInt() != GalleryExporter.BINARY_VERSION
+                    || data.readInt() != dim) {
+                throw new IOException("unsupported backup header");
+            }
+            byte[] bytes = new byte[dim * 4];
+            while (data.readByte() == GalleryExporter.RECORD) {
+                recordCrc.reset();
+                String faceID = data.readUTF();
+                String tag = data.readUTF();
+                String group = data.readUTF();
+                long updateTime = data.readLong();
+                data.readFully(bytes);
+                int actualCrc = (int) recordCrc.getValue();
+                if (data.readInt() != actualCrc) {
+                    throw new IOException("record " + index + " checksum mismatch");
+                }
+                if (faceID.trim().isEmpty()) {
+                    report.addIssue(index, null, FaceFeatureImportReport.Reason.MISSING_FACE_ID);
+                } else {
+                    session.add(index, faceID, FaceFeatureCodec.toVector(bytes), null, updateTime, tag, group);
+                }
+                index++;
+            }
+            int expectedCount = data.readInt();
+            int expectedCrc = (int) crc.getValue();
+            if (expectedCount != index || data.readInt() != expectedCrc) {
+                throw new IOException("backup checksum mismatch");
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "binary import aborted at record " + index, e);
+            report.addIssue(index, null, FaceFeatureImportReport.Reason.CORRUPT_DATA);
+        }
+        //终止前已经通过校验的记录照常写入
+        session.finish();
+        report.setTotal(index);
+        report.setCostMillis(System.currentTimeMillis() - start);
+        Log.d(TAG, report.toString());
+        return report;
+    }
+
+    /**
+     * 读取一条记录，校验通过的交给 session 导入
+     */
+    private void importRecord(JsonReader reader, int index, ImportSession session) throws IOException {
+        FaceFeatureImportReport report = session.report;
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            report.addIssue(index, null, FaceFeatureImportReport.Reason.NOT_OBJECT);
+            return;
+        }
+        String faceID = null, faceFeature = null, tag = "", group = "";
+        long updateTime = 0;
+        boolean badTime = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "faceID":
+                    faceID = nextString(reader);
+                    break;
+                case "faceFeature":
+                    faceFeature = nextString(reader);
+                    break;
+                case "tag":
+                    tag = optString(nextString(reader));
+                    break;
+                case "group":
+                    group = optString(nextString(reader));
+                    break;
+                case "updateTime":
+                    try {
+                        updateTime = reader.nextLong();
+                    } catch (NumberFormatException | IllegalStateException e) {
+                        reader.skipValue();
+                        badTime = true;
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        if (faceID == null || faceID.trim().isEmpty()) {
+            report.addIssue(index, null, FaceFeatureImportReport.Reason.MISSING_FACE_ID);
+            return;
+        }
+        if (faceFeature == null || faceFeature.isEmpty()) {
+            report.addIssue(index, faceID, FaceFeatureImportReport.Reason.MISSING_FEATURE);
+            return;
+        }
+        byte[] bytes = FaceFeatureCodec.decodeBytes(faceFeature);
+        if (bytes == null) {
+            report.addIssue(index, faceID, FaceFeatureImportReport.Reason.INVALID_BASE64);
+            return;
+        }
+        if (bytes.length != store.getDim() * 4) {
+            report.addIssue(index, faceID, FaceFeatureImportReport.Reason.WRONG_LENGTH);
+            return;
+        }
+        if (badTime || updateTime <= 0) {
+            report.addIssue(index, faceID, FaceFeatureImportReport.Reason.DEFAULT_UPDATE_TIME);
+            updateTime = System.currentTimeMillis();
+        }
+        session.add(index, faceID, FaceFeatureCodec.toVector(bytes), faceFeature, updateTime, tag, group);
+    }
+
+    /**
+     * 一次导入的写入状态：待 commit 的条数和等待查重的记录
+     */
+    private final class ImportSession {
+        final FaceFeatureImportReport report;
+        private int pending;
+        private final List<Candidate> candidates = new ArrayList<>();
+
+        ImportSession(FaceFeatureImportReport report) {
+            this.report = report;
+        }
+
+        /**
+         * @param faceFeature 原始 Base64 特征值，null 时按 vector 编码
+         */
+        void add(int index, String faceID, float[] vector, String faceFeature, long updateTime, String tag, String group) {
+            float[] probe = Arrays.copyOf(vector, vector.length);
+            if (!FaceFeatureCodec.normalize(probe)) {
+                report.addIssue(index, faceID, FaceFeatureImportReport.Reason.ZERO_VECTOR);
+                return;
+            }
+            Candidate candidate = new Candidate(index, faceID, vector, probe, faceFeature, updateTime, tag, group);
+            if (duplicateSearcher == null) {
+                apply(candidate);
+                return;
+            }
+            candidates.add(candidate);
+            if (candidates.size() >= DUPLICATE_CHECK_BATCH || pending + candidates.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        /**
+         * 等待中的记录一次库扫描查重，不重复的写入
+         */
+        private void flush() {
+            int count = candidates.size();
+            if (count == 0) {
+                return;
+            }
+            float[][] probes = new float[count][];
+            TopKCollector[] outs = new TopKCollector[count];
+            for (int p = 0; p < count; p++) {
+                probes[p] = candidates.get(p).probe;
+                outs[p] = new TopKCollector(1);
+                outs[p].reset(duplicateThreshold);
+            }
+            duplicateSearcher.searchBatchInto(probes, count, null, null, outs);
+
+            boolean[] applied = new boolean[count];
+            for (int p = 0; p < count; p++) {
+                Candidate candidate = candidates.get(p);
+                String duplicateOf = null;
+                if (outs[p].size() > 0) {
+                    String faceID = store.faceIDAt(outs[p].rowAt(0));
+                    if (!candidate.faceID.equals(faceID)) {
+                        duplicateOf = faceID;
+                    }
+                }
+                //同一组里先写入的记录还不在库扫描的结果里，单独比对
+                for (int q = 0; q < p && duplicateOf == null; q++) {
+                    Candidate other = candidates.get(q);
+                    if (applied[q] && !candidate.faceID.equals(other.faceID)
+                            && FaceFeatureCodec.dot(probes[q], probes[p]) >= duplicateThreshold) {
+                        duplicateOf = other.faceID;
+                    }
+                }
+                if (duplicateOf != null) {
+                    Log.d(TAG, candidate.faceID + " duplicates " + duplicateOf);
+                    report.addIssue(candidate.index, candidate.faceID, FaceFeatureImportReport.Reason.DUPLICATE_FACE);
+                } else {
+                    applied[p] = apply(candidate);
+                }
+            }
+            candidates.clear();
+        }
+
+        private boolean apply(Candidate c) {
+            if (!store.insert(c.faceID, c.vector, c.updateTime, c.tag, c.group)) {
+                report.addIssue(c.index, c.faceID, FaceFeatureImportReport.Reason.ZERO_VECTOR);
+                return false;
+            }
+            report.addImported();
+            if (listener != null) {
+                String faceFeature = c.faceFeature != null ? c.faceFeature : FaceFeatureCodec.encode(c.vector);
+                listener.onRecordImported(c.faceID, faceFeature, c.updateTime, c.tag, c.group);
+            }
+            if (++pending >= batchSize) {
+                store.commit();
+                report.addBatch();
+                pending = 0;
+            }
+            return true;
+        }
+
+        void finish() {
+            flush();
+            if (pending > 0) {
+                store.commit();
+                report.addBatch();
+                pending = 0;
+            }
+        }
+    }
+
+    private static final class Candidate {
+        final int index;
+        final String faceID;
+        final float[] vector;
+        final float[] probe;
+        final String faceFeature;
+        final long updateTime;
+        final String tag;
+        final String group;
+
+        Candidate(int index, String faceID, float[] vector, float[] probe, String faceFeature,
+                  long updateTime, String tag, String group) {
+            this.index = index;
+            this.faceID = faceID;
+            this.vector = vector;
+            this.probe = probe;
+            this.faceFeature = faceFeature;
+            this.updateTime = updateTime;
+            this.tag = tag;
+            this.group = group;
+        }
+    }
+
+    /**
+     * 字符串、数字、布尔值按字符串读取，对象或数组跳过返回 null
+     */
+    private static String nextString(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+            return reader.nextString();
+        }
+        if (token == JsonToken.BOOLEAN) {
+            return String.valueOf(reader.nextBoolean());
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    private static String optString(String value) {
+        return value == null ? "" : value;
+    }
+}
@@ -0,0 +1,247 @@
+package com.rezins.flutter_face_ai_sdk.base.search;
+
+import java.util.Arrays;
+
+/**
+ * 特征库行号的压缩位图，按高16位分桶（Roaring 的简化版）
+ * <p>
+ * 桶内元素少于 4096 用有序 short 数组，多了转为 1024 个 long 的位图，稀疏的标签和密集的分组都省内存
+ */
+public class FaceGalleryBitmap {
+    private static final int ARRAY_MAX = 4096;
+    private static final int BITSET_WORDS = 1024;
+
+    private int[] keys = new int[0];
+    private Container[] containers = new Container[0];
+    private int bucketCount;
+
+    public void add(int row) {
+        int key = row >>> 16;
+        int pos = bucketIndex(key);
+        if (pos < 0) {
+            pos = -pos - 1;
+            insertBucket(pos, key, new Container());
+        }
+        Container container = containers[pos].add((char) row);
+        containers[pos] = container;
+    }
+
+    public void remove(int row) {
+        int pos = bucketIndex(row >>> 16);
+        if (pos < 0) {
+            return;
+        }
+        Container container = containers[pos].remove((char) row);
+        if (container.cardinality == 0) {
+            System.arraycopy(keys, pos + 1, keys, pos, bucketCount - pos - 1);
+            System.arraycopy(containers, pos + 1, containers, pos, bucketCount - pos - 1);
+            containers[--bucketCount] = null;
+        } else {
+            containers[pos] = container;
+        }
+    }
+
+    public boolean contains(int row) {
+        int pos = bucketIndex(row >>> 16);
+        return pos >= 0 && containers[pos].contains((char) row);
+    }
+
+    public int cardinality() {
+        int sum = 0;
+        for (int i = 0; i < bucketCount; i++) {
+            sum += containers[i].cardinality;
+        }
+        return sum;
+    }
+
+    public boolean isEmpty() {
+        return bucketCount == 0;
+    }
+
+    /**
+     * 交集，用于「分组 1A 且标签 VIP」这类组合条件
+     */
+    public FaceGalleryBitmap and(FaceGalleryBitmap other) {
+        FaceGalleryBitmap result = new FaceGalleryBitmap();
+        int i = 0, j = 0;
+        while (i < bucketCount && j < other.bucketCount) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Container c = containers[i].and(other.containers[j]);
+                if (c.cardinality > 0) {
+                    result.insertBucket(result.bucketCount, keys[i], c);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 按行号升序遍历，返回已写入 out 的数量，out 不够大时只写前 out.length 个
+     */
+    public int toArray(int[] out) {
+        int n = 0;
+        for (int b = 0; b < bucketCount && n < out.length; b++) {
+            n = containers[b].collect(keys[b] << 16, out, n);
+        }
+        return n;
+    }
+
+    public int[] toArray() {
+        int[] out = new int[cardinality()];
+        toArray(out);
+        return out;
+    }
+
+    private int bucketIndex(int key) {
+        return Arrays.binarySearch(keys, 0, bucketCount, key);
+    }
+
+    private void insertBucket(int pos, int key, Container container) {
+        if (bucketCount == keys.length) {
+            int newLength = Math.max(4, bucketCount * 2);
+            keys = Arrays.copyOf(keys, newLength);
+            containers = Arrays.copyOf(containers, newLength);
+        }
+        System.arraycopy(keys, pos, keys, pos + 1, bucketCount - pos);
+        System.arraycopy(containers, pos, containers, pos + 1, bucketCount - pos);
+        keys[pos] = key;
+        containers[pos] = container;
+        bucketCount++;
+    }
+
+    /**
+     * 桶容器：values 不为空时是有序数组模式，否则是位图模式
+     */
+    private static final class Container {
+        char[] values = new char[4];
+        long[] bits;
+        int cardinality;
+
+        Container add(char v) {
+            if (bits != null) {
+                long mask = 1L << v;
+                if ((bits[v >>> 6] & mask) == 0) {
+                    bits[v >>> 6] |= mask;
+                    cardinality++;
+                }
+                return this;
+            }
+            int pos = Arrays.binarySearch(values, 0, cardinality, v);
+            if (pos >= 0) {
+                return this;
+            }
+            if (cardinality == ARRAY_MAX) {
+                toBitset();
+                return add(v);
+            }
+            pos = -pos - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, cardinality * 2));
+            }
+            System.arraycopy(values, pos, values, pos + 1, cardinality - pos);
+            values[pos] = v;
+            cardinality++;
+            return this;
+        }
+
+        Container remove(char v) {
+            if (bits != null) {
+                long mask = 1L << v;
+                if ((bits[v >>> 6] & mask) != 0) {
+                    bits[v >>> 6] &= ~mask;
+                    cardinality--;
+                    if (cardinality <= ARRAY_MAX / 2) {
+                        toArrayMode();
+                    }
+                }
+                return this;
+            }
+            int pos = Arrays.binarySearch(values, 0, cardinality, v);
+            if (pos >= 0) {
+                System.arraycopy(values, pos + 1, values, pos, cardinality - pos - 1);
+                cardinality--;
+            }
+            return this;
+        }
+
+        boolean contains(char v) {
+            if (bits != null) {
+                return (bits[v >>> 6] & (1L << v)) != 0;
+            }
+            return Arrays.binarySearch(values, 0, cardinality, v) >= 0;
+        }
+
+        Container and(Container other) {
+            Container result = new Container();
+            if (bits != null && other.bits != null) {
+                long[] words = new long[BITSET_WORDS];
+                int card = 0;
+                for (int i = 0; i < BITSET_WORDS; i++) {
+                    words[i] = bits[i] & other.bits[i];
+                    card += Long.bitCount(words[i]);
+                }
+                result.bits = words;
+                result.values = null;
+                result.cardinality = card;
+                if (card <= ARRAY_MAX / 2) {
+                    result.toArrayMode();
+                }
+                return result;
+            }
+            Container small = bits == null ? this : other;
+            Container large = small == this ? other : this;
+            for (int i = 0; i < small.cardinality; i++) {
+                if (large.contains(small.values[i])) {
+                    result.add(small.values[i]);
+                }
+            }
+            return result;
+        }
+
+        int collect(int high, int[] out, int n) {
+            if (bits != null) {
+                for (int w = 0; w < BITSET_WORDS && n < out.length; w++) {
+                    long word = bits[w];
+                    while (word != 0 && n < out.length) {
+                        out[n++] = high | (w << 6) + Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                    }
+                }
+                return n;
+            }
+            for (int i = 0; i < cardinality && n < out.length; i++) {
+                out[n++] = high | values[i];
+            }
+            return n;
+        }
+
+        private void toBitset() {
+            bits = new long[BITSET_WORDS];
+            for (int i = 0; i < cardinality; i++) {
+                char v = values[i];
+                bits[v >>> 6] |= 1L << v;
+            }
+            values = null;
+        }
+
+        private void toArrayMode() {
+            char[] array = new char[Math.max(4, cardinality)];
+            int n = 0;
+            for (int w = 0; w < BITSET_WORDS; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    array[n++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            values = array;
+            bits = null;
+        }
+    }
+}
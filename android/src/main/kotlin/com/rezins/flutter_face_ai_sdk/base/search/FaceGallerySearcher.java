@@ -0,0 +1,426 @@
+package com.rezins.flutter_face_ai_sdk.base.search;
+
+import android.content.Context;
+
+import com.rezins.flutter_face_ai_sdk.base.utils.performance.DevicePerformance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 插件侧 1:N 特征搜索
+ * <p>
+ * 先用 {@link QuantizedGallery} 的 int8 编码全库初筛出 rerankSize 个候选，
+ * 再用原始 float 向量精确计算余弦相似度重排。阈值语义同 SearchProcessBuilder.setThreshold：
+ * 相似度 >= threshold 才算匹配
+ * <p>
+ * 库容量超过 hnswMinGallerySize 后在后台建 {@link HnswIndex}，建好之前仍然走量化全库扫描。
+ * 指定 group/tag 时通过 {@link GalleryPartitionIndex} 只扫描命中的子集。
+ * 全库扫描由 {@link ParallelGalleryScorer} 分块分给大核并行计算。
+ * 只要最相似结果时先比对 {@link HotFaceCache} 里最近识别过的人脸，命中就不再搜索全库
+ * <p>
+ * 量化编码和 HNSW 图在每次 commit 后写入 {@link GallerySnapshot}，下次启动直接加载。
+ * 特征库清空或者 compact 之后行号全变了，HNSW 图作废，下次搜索时在后台重建
+ */
+public class FaceGallerySearcher {
+    public static final int DEFAULT_RERANK_SIZE = 32;
+    public static final int DEFAULT_HNSW_MIN_GALLERY_SIZE = 50000;
+    public static final int BATCH_SHORTLIST_SIZE = 256; //多探针汉明初筛每个探针保留的候选数
+
+    private static volatile FaceGallerySearcher instance;
+
+    private final FaceGalleryStore store;
+    private final QuantizedGallery quantized;
+    private final GalleryPartitionIndex partitions;
+    private final HotFaceCache hotCache;
+    private int rerankSize = DEFAULT_RERANK_SIZE;
+    private int hnswMinGallerySize = DEFAULT_HNSW_MIN_GALLERY_SIZE;
+    private volatile HnswIndex hnswIndex;
+    private final ParallelGalleryScorer scorer;
+    private boolean exactSearch = false;
+    private final ThreadLocal<SearchBuffers> searchBuffers;
+    private final ExecutorService snapshotExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean snapshotPending = new AtomicBoolean();
+
+    public static FaceGallerySearcher getInstance(Context context) {
+        if (instance == null) {
+            synchronized (FaceGallerySearcher.class) {
+                if (instance == null) {
+                    instance = new FaceGallerySearcher(FaceGalleryStore.getInstance(context),
+                            DevicePerformance.INSTANCE.getBigCoreCount());
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @param parallelism 打分线程数，1 表示只在调用线程扫描
+     */
+    public FaceGallerySearcher(FaceGalleryStore store, int parallelism) {
+        this.store = store;
+        GallerySnapshot snapshot = GallerySnapshot.read(GallerySnapshot.fileOf(store), store.getDim(),
+                store.getGeneration(), store.size());
+        this.quantized = new QuantizedGallery(store, snapshot);
+        if (snapshot != null && snapshot.graph != null) {
+            HnswIndex index = new HnswIndex(store);
+            if (index.restoreGraph(snapshot.graph)) {
+                hnswIndex = index;
+            }
+        }
+        this.partitions = new GalleryPartitionIndex(store);
+        this.hotCache = new HotFaceCache(store, HotFaceCache.DEFAULT_CAPACITY);
+        this.scorer = new ParallelGalleryScorer(parallelism);
+        this.searchBuffers = ThreadLocal.withInitial(() -> new SearchBuffers(store.getDim(), rerankSize));
+        store.addOnGalleryChangedListener(new FaceGalleryStore.OnGalleryChangedListener() {
+            @Override
+            public void onInserted(int index) {
+            }
+
+            @Override
+            public void onDeleted(int index) {
+            }
+
+            @Override
+            public void onCleared() {
+                //量化编码、分区和热点由各自的监听重建或清空
+                invalidateHnsw();
+            }
+
+            @Override
+            public void onCommitted(long generation) {
+                scheduleSnapshot();
+            }
+        });
+    }
+
+    /**
+     * 后台写快照，连续多次 commit 只写一次
+     */
+    private void scheduleSnapshot() {
+        if (!snapshotPending.compareAndSet(false, true)) {
+            return;
+        }
+        snapshotExecutor.execute(() -> {
+            //先清标记再读 generation，写入期间的新 commit 会再排一次
+            snapshotPending.set(false);
+            GallerySnapshot.write(GallerySnapshot.fileOf(store), store.getGeneration(), quantized, hnswIndex);
+        });
+    }
+
+    public FaceGalleryStore getStore() {
+        return store;
+    }
+
+    public GalleryPartitionIndex getPartitionIndex() {
+        return partitions;
+    }
+
+    public HotFaceCache getHotCache() {
+        return hotCache;
+    }
+
+    /**
+     * 精确重排的候选数量，越大召回越稳，耗时也越多
+     */
+    public void setRerankSize(int rerankSize) {
+        this.rerankSize = Math.max(1, rerankSize);
+    }
+
+    /**
+     * true 跳过 int8 初筛，全部用 float 精确打分（不走 HNSW），用于对比或者对精度要求极高的场景
+     */
+    public void setExactSearch(boolean exactSearch) {
+        this.exactSearch = exactSearch;
+    }
+
+    /**
+     * 库容量达到该值才启用 HNSW 索引，Integer.MAX_VALUE 关闭
+     */
+    public void setHnswMinGallerySize(int hnswMinGallerySize) {
+        this.hnswMinGallerySize = hnswMinGallerySize;
+    }
+
+    /**
+     * HNSW 索引，未启用返回 null。efSearch 等参数通过它调整
+     */
+    public HnswIndex getHnswIndex() {
+        return hnswIndex;
+    }
+
+    private synchronized void invalidateHnsw() {
+        HnswIndex index = hnswIndex;
+        if (index != null) {
+            store.removeOnGalleryChangedListener(index);
+            hnswIndex = null;
+        }
+    }
+
+    private HnswIndex obtainHnswIndex() {
+        if (hnswIndex == null) {
+            synchronized (this) {
+                if (hnswIndex == null) {
+                    HnswIndex index = new HnswIndex(store);
+                    ExecutorService executor = Executors.newSingleThreadExecutor();
+                    executor.execute(() -> {
+                        index.build();
+                        scheduleSnapshot();
+                    });
+                    executor.shutdown();
+                    hnswIndex = index;
+                }
+            }
+        }
+        return hnswIndex;
+    }
+
+    /**
+     * 得分最高的结果，和 onMostSimilar 一样低于阈值返回 null
+     */
+    public GallerySearchResult searchMostSimilar(String faceFeature, float threshold) {
+        List<GallerySearchResult> results = search(faceFeature, threshold, false);
+        return results.isEmpty() ? null : results.get(0);
+    }
+
+    /**
+     * @param callBackAllMatch 同 setCallBackAllMatch，true 返回所有大于阈值的结果（最多 rerankSize 个）
+     * @return 按相似度从高到低排序
+     */
+    public List<GallerySearchResult> search(String faceFeature, float threshold, boolean callBackAllMatch) {
+        float[] probe = FaceFeatureCodec.decode(faceFeature);
+        if (probe == null || !FaceFeatureCodec.normalize(probe)) {
+            return new ArrayList<>();
+        }
+        return search(probe, threshold, callBackAllMatch);
+    }
+
+    /**
+     * @param probe 已经 L2 归一化的探针向量
+     */
+    public List<GallerySearchResult> search(float[] probe, float threshold, boolean callBackAllMatch) {
+        return search(probe, threshold, callBackAllMatch, null, null);
+    }
+
+    /**
+     * 同 setFaceGroup / setFaceTag，只在指定分组、标签内搜索，为空表示不限制
+     */
+    public List<GallerySearchResult> search(String faceFeature, float threshold, boolean callBackAllMatch,
+                                            String group, String tag) {
+        float[] probe = FaceFeatureCodec.decode(faceFeature);
+        if (probe == null || !FaceFeatureCodec.normalize(probe)) {
+            return new ArrayList<>();
+        }
+        return search(probe, threshold, callBackAllMatch, group, tag);
+    }
+
+    public List<GallerySearchResult> search(float[] probe, float threshold, boolean callBackAllMatch,
+                                            String group, String tag) {
+        SearchBuffers buffers = buffers();
+        TopKCollector top = callBackAllMatch ? buffers.allMatch : buffers.mostSimilar;
+        top.reset(threshold);
+        if (callBackAllMatch) {
+            searchInto(probe, group, tag, top);
+            return toResults(top);
+        }
+
+        long start = System.nanoTime();
+        if (searchHotInto(probe, group, tag, top)) {
+            hotCache.recordHit(System.nanoTime() - start);
+            return toResults(top);
+        }
+        top.reset(threshold);
+        searchInto(probe, group, tag, top);
+        hotCache.recordMiss(System.nanoTime() - start);
+        if (top.size() > 0) {
+            hotCache.touch(top.rowAt(0));
+        }
+        return toResults(top);
+    }
+
+    /**
+     * 只在热点人脸里精确比对
+     *
+     * @return 有超过阈值的结果返回 true
+     */
+    private boolean searchHotInto(float[] probe, String group, String tag, TopKCollector out) {
+        for (int row : hotCache.hotRows()) {
+            if (!store.isDeleted(row) && partitions.matchesRow(row, group, tag)) {
+                out.offer(row, store.dot(row, probe));
+            }
+        }
+        out.sort();
+        if (out.size() == 0) {
+            return false;
+        }
+        hotCache.touch(out.rowAt(0));
+        return true;
+    }
+
+    /**
+     * 不创建结果对象的搜索：结果按名次写入 out，容量即返回数量，out 的 minScore 即阈值。
+     * 每帧都搜索时复用同一个 out，只有真正要回调时再用 {@link #toResults} 转换
+     */
+    public void searchInto(float[] probe, String group, String tag, TopKCollector out) {
+        int[] rows = partitions.filterRows(group, tag);
+        if (exactSearch) {
+            scorer.topK(store, rows, store.size(), out, row -> store.dot(row, probe));
+            out.sort();
+            return;
+        }
+        if (rows == null && store.liveSize() >= hnswMinGallerySize) {
+            HnswIndex index = obtainHnswIndex();
+            if (index.isReady()) {
+                index.searchInto(probe, out, index.getEfSearch());
+                return;
+            }
+        }
+
+        //int8 初筛保留近似分数最高的 rerankSize 个，初筛不设阈值，近似分数可能略低于真实分数
+        SearchBuffers buffers = buffers();
+        float probeScale = QuantizedGallery.quantize(probe, buffers.probeCodes);
+        byte[] probeCodes = buffers.probeCodes;
+        TopKCollector shortlist = buffers.shortlist;
+        shortlist.reset(Float.NEGATIVE_INFINITY);
+        //入库时 store 先加行数再量化，只扫描已量化的行，正在入库的那一行下一帧再参与
+        QuantizedGallery.Codes view = quantized.view();
+        scorer.topK(store, rows, view.rows(), shortlist, row -> quantized.approxDot(view, row, probeCodes, probeScale));
+
+        //float 精确重排
+        for (int j = 0; j < shortlist.size(); j++) {
+            int row = shortlist.rowAt(j);
+            out.offer(row, store.dot(row, probe));
+        }
+        out.sort();
+    }
+
+    /**
+     * M:N 多探针批量搜索，一帧里的多张人脸共用一次库扫描
+     *
+     * @return 和 probes 一一对应的结果
+     */
+    public List<List<GallerySearchResult>> searchBatch(float[][] probes, float threshold, boolean callBackAllMatch,
+                                                       String group, String tag) {
+        int k = callBackAllMatch ? rerankSize : 1;
+        TopKCollector[] outs = new TopKCollector[probes.length];
+        for (int p = 0; p < probes.length; p++) {
+            outs[p] = new TopKCollector(k);
+            outs[p].reset(threshold);
+        }
+        searchBatchInto(probes, probes.length, group, tag, outs);
+        List<List<GallerySearchResult>> results = new ArrayList<>(probes.length);
+        for (TopKCollector out : outs) {
+            results.add(toResults(out));
+        }
+        return results;
+    }
+
+    /**
+     * 同 {@link #searchInto}，前 probeCount 个探针的结果分别写入 outs[p]
+     */
+    public void searchBatchInto(float[][] probes, int probeCount, String group, String tag, TopKCollector[] outs) {
+        int[] rows = partitions.filterRows(group, tag);
+        if (exactSearch) {
+            int dim = store.getDim();
+            scorer.topKBatch(store, rows, store.size(), outs, probeCount, (tileRows, count, scores) -> {
+                float[] vector = new float[dim];
+                for (int j = 0; j < count; j++) {
+                    store.readVector(tileRows[j], vector);
+                    for (int p = 0; p < probeCount; p++) {
+                        scores[p][j] = FaceFeatureCodec.dot(vector, probes[p]);
+                    }
+                }
+            });
+            for (int p = 0; p < probeCount; p++) {
+                outs[p].sort();
+            }
+            return;
+        }
+        if (rows == null && store.liveSize() >= hnswMinGallerySize) {
+            HnswIndex index = obtainHnswIndex();
+            if (index.isReady()) {
+                //图搜索本身就是亚线性的，逐个探针搜索即可
+                for (int p = 0; p < probeCount; p++) {
+                    index.searchInto(probes[p], outs[p], index.getEfSearch());
+                }
+                return;
+            }
+        }
+
+        //符号位汉明距离初筛：一次库扫描给所有探针打分，每个探针保留 BATCH_SHORTLIST_SIZE 个候选
+        SearchBuffers buffers = buffers();
+        buffers.ensureProbes(probeCount, quantized.signWords());
+        for (int p = 0; p < probeCount; p++) {
+            QuantizedGallery.signBits(probes[p], buffers.batchSigns[p]);
+            buffers.batchShortlists[p].reset(Float.NEGATIVE_INFINITY);
+        }
+        long[][] signs = buffers.batchSigns;
+        QuantizedGallery.Codes view = quantized.view();
+        scorer.topKBatch(store, rows, view.rows(), buffers.batchShortlists, probeCount,
+                (tileRows, count, scores) -> quantized.hammingTile(view, tileRows, count, signs, probeCount, scores));
+
+        //float 精确重排
+        for (int p = 0; p < probeCount; p++) {
+            TopKCollector shortlist = buffers.batchShortlists[p];
+            for (int j = 0; j < shortlist.size(); j++) {
+                int row = shortlist.rowAt(j);
+                outs[p].offer(row, store.dot(row, probes[p]));
+            }
+            outs[p].sort();
+        }
+    }
+
+    /**
+     * 已排序的收集器转换为结果列表
+     */
+    public List<GallerySearchResult> toResults(TopKCollector collector) {
+        collector.sort();
+        List<GallerySearchResult> results = new ArrayList<>(collector.size());
+        for (int i = 0; i < collector.size(); i++) {
+            results.add(new GallerySearchResult(store.faceIDAt(collector.rowAt(i)), collector.scoreAt(i)));
+        }
+        return results;
+    }
+
+    private SearchBuffers buffers() {
+        SearchBuffers buffers = searchBuffers.get();
+        if (buffers.shortlist.capacity() != rerankSize) {
+            buffers = new SearchBuffers(store.getDim(), rerankSize);
+            searchBuffers.set(buffers);
+        }
+        return buffers;
+    }
+
+    /**
+     * 每个搜索线程复用的缓冲区
+     */
+    private static final class SearchBuffers {
+        final byte[] probeCodes;
+        final TopKCollector shortlist;
+        final TopKCollector allMatch;
+        final TopKCollector mostSimilar = new TopKCollector(1);
+        final int rerankSize;
+        long[][] batchSigns = new long[0][];
+        TopKCollector[] batchShortlists = new TopKCollector[0];
+
+        SearchBuffers(int dim, int rerankSize) {
+            this.rerankSize = rerankSize;
+            probeCodes = new byte[dim];
+            shortlist = new TopKCollector(rerankSize);
+            allMatch = new TopKCollector(rerankSize);
+        }
+
+        void ensureProbes(int probeCount, int signWords) {
+            if (batchSigns.length >= probeCount) {
+                return;
+            }
+            batchSigns = new long[probeCount][signWords];
+            batchShortlists = new TopKCollector[probeCount];
+            for (int p = 0; p < probeCount; p++) {
+                batchShortlists[p] = new TopKCollector(Math.max(BATCH_SHORTLIST_SIZE, rerankSize));
+            }
+        }
+    }
+}
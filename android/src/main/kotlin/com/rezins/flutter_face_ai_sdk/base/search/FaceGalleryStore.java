@@ -0,0 +1,919 @@
+package com.rezins.flutter_face_ai_sdk.base.search;
+
+import android.content.Context;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.rezins.flutter_face_ai_sdk.FaceSDKConfig;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 1:N 人脸搜索特征库（插件侧镜像），和SDK 内置数据库同步维护
+ * <p>
+ * 向量解码归一化后连续存放在内存映射文件 features.bin 中，faceID/tag/group 放在紧凑的 meta.bin 附表，
+ * tag 和 group 使用字典编码。冷启动只需映射文件读取附表，不再逐条解析 Base64 特征值字符串
+ * <p>
+ * 删除只打墓碑标记，{@link #compact()} 时才真正回收空间
+ * <p>
+ * 升级前只写在SDK 数据库里的人脸由 {@link #backfillAsync(BackfillSource)} 一次性补进来，
+ * 完成后写标记文件，{@link #isBackfilled()} 之前镜像可能不完整
+ * <p>
+ * 变更先写 {@link GalleryWriteAheadLog}，单条入库后调用 {@link #sync()} 即可保证断电不丢，
+ * 不必每次 {@link #commit()} 重写整个附表；日志过大时自动 commit 并清空
+ * <p>
+ * commit 后墓碑行多于有效行时在后台线程 {@link #compact()}，各索引通过 onCleared + onInserted 重建
+ */
+public class FaceGalleryStore {
+    private static final String TAG = "FaceGalleryStore";
+    public static final String GALLERY_DIR = ".gallery/";
+    private static final String VECTOR_FILE = "features.bin";
+    private static final String META_FILE = "meta.bin";
+    private static final String BACKFILL_FILE = "sdk.backfilled";
+
+    private static final int VECTOR_MAGIC = 0x46474C56; //FGLV
+    private static final int META_MAGIC = 0x46474C4D;   //FGLM
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;         //向量区64字节对齐
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * 特征库变更监听，索引结构（量化，分组等）据此增量更新
+     */
+    public interface OnGalleryChangedListener {
+        void onInserted(int index);
+
+        void onDeleted(int index);
+
+        void onCleared();
+
+        /**
+         * commit 落盘完成，generation 每次有变更的 commit 加一
+         */
+        default void onCommitted(long generation) {
+        }
+    }
+
+    /**
+     * 补数据的来源，在后台线程调用，逐条 {@link #backfill} 写入
+     */
+    public interface BackfillSource {
+        void copyInto(FaceGalleryStore store) throws Exception;
+    }
+
+    private static volatile FaceGalleryStore instance;
+
+    private final File dir;
+    private final int dim;
+    private RandomAccessFile vectorFile;
+    private FileChannel channel;
+    private volatile MappedByteBuffer mapped;
+    private volatile FloatBuffer vectors;
+    private int capacity;
+    private volatile int count;
+    private int liveCount;
+    private boolean metaDirty;
+    private volatile long generation;
+    private long layout;
+
+    //附表
+    private String[] faceIDs = new String[0];
+    private int[] tagIds = new int[0];
+    private int[] groupIds = new int[0];
+    private long[] updateTimes = new long[0];
+    private final BitSet deleted = new BitSet();
+    private volatile long[] deletedWords = new long[0]; //deleted 的只读副本，搜索线程不加锁读取
+    private final HashMap<String, Integer> indexByFaceID = new HashMap<>();
+    private final ArrayList<String> dictionary = new ArrayList<>();
+    private final HashMap<String, Integer> dictionaryIndex = new HashMap<>();
+
+    private final List<OnGalleryChangedListener> listeners = new CopyOnWriteArrayList<>();
+    private final GalleryWriteAheadLog wal;
+
+    //补数据期间被删除或清空的记录不能再补回来
+    private volatile boolean backfilled;
+    private boolean backfilling;
+    private boolean backfillCancelled;
+    private final HashSet<String> removedDuringBackfill = new HashSet<>();
+
+    private boolean autoCompact = true;
+    private boolean compacting;
+
+    public static FaceGalleryStore getInstance(Context context) {
+        if (instance == null) {
+            synchronized (FaceGalleryStore.class) {
+                if (instance == null) {
+                    String searchDir = FaceSDKConfig.CACHE_SEARCH_FACE_DIR;
+                    if (TextUtils.isEmpty(searchDir)) {
+                        searchDir = context.getApplicationContext().getFilesDir().getPath() + "/FaceAI/Search/";
+                    }
+                    instance = new FaceGalleryStore(new File(searchDir, GALLERY_DIR), FaceFeatureCodec.FEATURE_DIM);
+                }
+            }
+        }
+        return instance;
+    }
+
+    public FaceGalleryStore(File dir, int dim) {
+        this.dir = dir;
+        this.dim = dim;
+        long start = System.currentTimeMillis();
+        try {
+            open();
+        } catch (IOException e) {
+            Log.e(TAG, "open gallery failed, reset", e);
+            resetFiles();
+        }
+        wal = new GalleryWriteAheadLog(dir, dim);
+        replayWal();
+        backfilled = new File(dir, BACKFILL_FILE).exists();
+        Log.d(TAG, "gallery loaded " + liveCount + " faces in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    public int getDim() {
+        return dim;
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * 已落盘数据的版本号，快照等派生文件据此判断是否过期
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    public GalleryWriteAheadLog getWriteAheadLog() {
+        return wal;
+    }
+
+    public void addOnGalleryChangedListener(OnGalleryChangedListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeOnGalleryChangedListener(OnGalleryChangedListener listener) {
+        listeners.remove(listener);
+    }
+
+    // ************************** 读取 ***********************************
+
+    /**
+     * 物理行数（包含已删除的墓碑行），遍历时配合 {@link #isDeleted(int)}
+     */
+    public int size() {
+        return count;
+    }
+
+    public synchronized int liveSize() {
+        return liveCount;
+    }
+
+    /**
+     * 搜索扫描的热路径，读发布的只读副本不加锁
+     */
+    public boolean isDeleted(int index) {
+        long[] words = deletedWords;
+        int word = index >>> 6;
+        return word < words.length && (words[word] & (1L << index)) != 0;
+    }
+
+    public synchronized String faceIDAt(int index) {
+        return faceIDs[index];
+    }
+
+    public synchronized String tagAt(int index) {
+        return dictionary.get(tagIds[index]);
+    }
+
+    public synchronized String groupAt(int index) {
+        return dictionary.get(groupIds[index]);
+    }
+
+    public synchronized int tagIdAt(int index) {
+        return tagIds[index];
+    }
+
+    public synchronized int groupIdAt(int index) {
+        return groupIds[index];
+    }
+
+    public synchronized long updateTimeAt(int index) {
+        return updateTimes[index];
+    }
+
+    /**
+     * tag/group 字典编码，不存在返回 -1
+     */
+    public synchronized int dictionaryId(String value) {
+        Integer id = dictionaryIndex.get(value == null ? "" : value);
+        return id == null ? -1 : id;
+    }
+
+    public synchronized String dictionaryValue(int id) {
+        return dictionary.get(id);
+    }
+
+    public synchronized int indexOf(String faceID) {
+        Integer index = indexByFaceID.get(faceID);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * faceID 在库中且没有被删除
+     */
+    public synchronized boolean contains(String faceID) {
+        Integer index = indexByFaceID.get(faceID);
+        return index != null && !deleted.get(index);
+    }
+
+    /**
+     * 向量区只读视图，FloatBuffer 的绝对位置读取可以多线程并发使用
+     */
+    public FloatBuffer vectors() {
+        return vectors.asReadOnlyBuffer();
+    }
+
+    public void readVector(int index, float[] out) {
+        FloatBuffer view = vectors.duplicate();
+        view.position(index * dim);
+        view.get(out, 0, dim);
+    }
+
+    /**
+     * 归一化后的点积即余弦相似度
+     */
+    public float dot(int index, float[] probe) {
+        FloatBuffer buffer = vectors;
+        int base = index * dim;
+        float sum = 0f;
+        for (int i = 0; i < dim; i++) {
+            sum += buffer.get(base + i) * probe[i];
+        }
+        return sum;
+    }
+
+    /**
+     * 分页读取的一页数据，数组按 pageSize 分配一次，翻页时复用
+     */
+    public static class Page {
+        final String[] faceIDs;
+        final String[] tags;
+        final String[] groups;
+        final long[] updateTimes;
+        final float[] vectors;
+        private final int dim;
+        int size;
+        int nextIndex;
+        long layout;
+
+        public Page(int pageSize, int dim) {
+            this.dim = dim;
+            faceIDs = new String[pageSize];
+            tags = new String[pageSize];
+            groups = new String[pageSize];
+            updateTimes = new long[pageSize];
+            vectors = new float[pageSize * dim];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public String faceIDAt(int i) {
+            return faceIDs[i];
+        }
+
+        public String tagAt(int i) {
+            return tags[i];
+        }
+
+        public String groupAt(int i) {
+            return groups[i];
+        }
+
+        public long updateTimeAt(int i) {
+            return updateTimes[i];
+        }
+
+        /**
+         * 第 i 条的归一化向量在 {@link #vectors()} 中的起始下标
+         */
+        public int vectorOffset(int i) {
+            return i * dim;
+        }
+
+        public float[] vectors() {
+            return vectors;
+        }
+
+        /**
+         * 下一页的起始物理行，-1 表示已经读完
+         */
+        public int getNextIndex() {
+            return nextIndex;
+        }
+
+        /**
+         * 读取这一页时的行号布局版本，传给下一次 readPage
+         */
+        public long getLayout() {
+            return layout;
+        }
+    }
+
+    /**
+     * 从物理行 fromIndex 开始读取最多一页有效行（跳过墓碑），只在拷贝这一页时持锁，
+     * 导出大库时写入不会被长时间阻塞，内存占用也只有一页
+     *
+     * @return 中途发生 compact 或 clear（行号失效）返回 false
+     */
+    public synchronized boolean readPage(int fromIndex, Page page, long expectedLayout) {
+        page.size = 0;
+        page.layout = layout;
+        if (expectedLayout >= 0 && expectedLayout != layout) {
+            page.nextIndex = -1;
+            return false;
+        }
+        int capacity = page.faceIDs.length;
+        int index = fromIndex;
+        FloatBuffer view = vectors.duplicate();
+        while (index < count && page.size < capacity) {
+            if (!deleted.get(index)) {
+                int i = page.size++;
+                page.faceIDs[i] = faceIDs[index];
+                page.tags[i] = dictionary.get(tagIds[index]);
+                page.groups[i] = dictionary.get(groupIds[index]);
+                page.updateTimes[i] = updateTimes[index];
+                view.position(index * dim);
+                view.get(page.vectors, i * dim, dim);
+            }
+            index++;
+        }
+        page.nextIndex = index < count ? index : -1;
+        return true;
+    }
+
+    /**
+     * 行号布局版本，compact 和 clear 时加一，分页读取据此判断游标是否失效
+     */
+    public synchronized long getLayout() {
+        return layout;
+    }
+
+    // ************************** 写入 ***********************************
+
+    /**
+     * 插入或更新特征值，faceID 已存在时原地覆盖
+     *
+     * @return 特征值非法返回 false
+     */
+    public boolean insert(String faceID, String faceFeature, long updateTime, String tag, String group) {
+        float[] vector = FaceFeatureCodec.decode(faceFeature);
+        return vector != null && insert(faceID, vector, updateTime, tag, group);
+    }
+
+    public boolean insert(String faceID, float[] feature, long updateTime, String tag, String group) {
+        if (TextUtils.isEmpty(faceID) || feature == null || feature.length != dim) {
+            return false;
+        }
+        float[] vector = Arrays.copyOf(feature, dim);
+        if (!FaceFeatureCodec.normalize(vector)) {
+            return false;
+        }
+        long time = updateTime > 0 ? updateTime : System.currentTimeMillis();
+        int index;
+        synchronized (this) {
+            wal.appendInsert(faceID, vector, time, tag, group);
+            index = applyInsert(faceID, vector, time, tag, group);
+        }
+        for (OnGalleryChangedListener listener : listeners) {
+            listener.onInserted(index);
+        }
+        checkpointIfNeeded();
+        return true;
+    }
+
+    private int applyInsert(String faceID, float[] vector, long updateTime, String tag, String group) {
+        int index;
+        Integer existing = indexByFaceID.get(faceID);
+        if (existing != null) {
+            index = existing;
+            if (deleted.get(index)) {
+                deleted.clear(index);
+                publishDeleted();
+                liveCount++;
+            }
+        } else {
+            index = count;
+            ensureCapacity(index + 1);
+            faceIDs[index] = faceID;
+            indexByFaceID.put(faceID, index);
+            liveCount++;
+        }
+        writeVector(index, vector);
+        tagIds[index] = intern(tag);
+        groupIds[index] = intern(group);
+        updateTimes[index] = updateTime;
+        if (index == count) {
+            count = index + 1;
+        }
+        metaDirty = true;
+        return index;
+    }
+
+    public boolean delete(String faceID) {
+        int index;
+        synchronized (this) {
+            if (backfilling) {
+                //可能还没补进来，SDK 数据库里已经删了
+                removedDuringBackfill.add(faceID);
+            }
+            Integer existing = indexByFaceID.get(faceID);
+            if (existing == null || deleted.get(existing)) {
+                return false;
+            }
+            wal.appendDelete(faceID);
+            index = applyDelete(existing);
+        }
+        for (OnGalleryChangedListener listener : listeners) {
+            listener.onDeleted(index);
+        }
+        checkpointIfNeeded();
+        return true;
+    }
+
+    private int applyDelete(int index) {
+        deleted.set(index);
+        publishDeleted();
+        liveCount--;
+        metaDirty = true;
+        return index;
+    }
+
+    public void clear() {
+        synchronized (this) {
+            //先记日志再删文件，删到一半断电重放时还会再清空一次
+            wal.appendClear();
+            wal.sync();
+            resetFiles();
+            wal.checkpoint();
+            if (backfilling) {
+                //SDK 数据库也一起清空了，补数据读到的旧记录都不要了
+                removedDuringBackfill.clear();
+                backfillCancelled = true;
+            }
+        }
+        for (OnGalleryChangedListener listener : listeners) {
+            listener.onCleared();
+        }
+    }
+
+    /**
+     * 和SDK insertFeatures(String json) 一样的JSON数组格式批量写入，缺少faceID 或特征值非法的记录跳过。
+     * 数据量大时请用 {@link FaceFeatureImporter} 从文件流式导入
+     *
+     * @return 成功写入的条数
+     */
+    public int insertFeatures(String json) {
+        return new FaceFeatureImporter(this).importFrom(new StringReader(json)).getImported();
+    }
+
+    /**
+     * 把已写入的变更 fsync 到预写日志，代价远小于 {@link #commit()}，单条入库后调用
+     */
+    public void sync() {
+        wal.sync();
+    }
+
+    /**
+     * 附表落盘，向量区 force 到磁盘并清空预写日志（checkpoint）。批量写入完成后调用一次即可
+     */
+    public void commit() {
+        long committed = commitLocked();
+        if (committed > 0) {
+            notifyCommitted(committed);
+            compactIfNeeded();
+        }
+    }
+
+    /**
+     * 按行号遍历期间（比如逐行复制整个库）关闭自动 compact，默认开启
+     */
+    public synchronized void setAutoCompact(boolean autoCompact) {
+        this.autoCompact = autoCompact;
+    }
+
+    /**
+     * 墓碑行多于有效行时在后台线程 compact，同一时间只有一个
+     */
+    private void compactIfNeeded() {
+        synchronized (this) {
+            if (!autoCompact || compacting || count - liveCount <= liveCount) {
+                return;
+            }
+            compacting = true;
+        }
+        new Thread(() -> {
+            long start = System.currentTimeMillis();
+            try {
+                compact();
+            } finally {
+                synchronized (this) {
+                    compacting = false;
+                }
+            }
+            Log.d(TAG, "compacted to " + size() + " rows in " + (System.currentTimeMillis() - start) + "ms");
+        }, "FaceGalleryCompact").start();
+    }
+
+    /**
+     * @return 新的 generation，没有变更或失败返回 -1
+     */
+    private synchronized long commitLocked() {
+        if (!metaDirty) {
+            return -1;
+        }
+        try {
+            generation++;
+            writeVectorHeader();
+            mapped.force();
+            writeMeta();
+            metaDirty = false;
+            wal.checkpoint();
+            return generation;
+        } catch (IOException e) {
+            Log.e(TAG, "commit gallery failed", e);
+            return -1;
+        }
+    }
+
+    private void notifyCommitted(long committed) {
+        for (OnGalleryChangedListener listener : listeners) {
+            listener.onCommitted(committed);
+        }
+    }
+
+    /**
+     * 回收墓碑行，行号会变化，之后各索引需要重建
+     */
+    public void compact() {
+        long committed;
+        synchronized (this) {
+            if (liveCount == count) {
+                return;
+            }
+            int write = 0;
+            float[] buffer = new float[dim];
+            indexByFaceID.clear();
+            for (int read = 0; read < count; read++) {
+                if (deleted.get(read)) continue;
+                if (read != write) {
+                    readVector(read, buffer);
+                    writeVector(write, buffer);
+                    faceIDs[write] = faceIDs[read];
+                    tagIds[write] = tagIds[read];
+                    groupIds[write] = groupIds[read];
+                    updateTimes[write] = updateTimes[read];
+                }
+                indexByFaceID.put(faceIDs[write], write);
+                write++;
+            }
+            Arrays.fill(faceIDs, write, count, null);
+            deleted.clear();
+            publishDeleted();
+            count = write;
+            liveCount = write;
+            metaDirty = true;
+            layout++;
+            committed = commitLocked();
+        }
+        for (OnGalleryChangedListener listener : listeners) {
+            listener.onCleared();
+        }
+        for (int i = 0; i < count; i++) {
+            for (OnGalleryChangedListener listener : listeners) {
+                listener.onInserted(i);
+            }
+        }
+        //索引都重建完再通知，onCommitted 时派生数据和附表一致
+        if (committed > 0) {
+            notifyCommitted(committed);
+        }
+    }
+
+    private void checkpointIfNeeded() {
+        if (wal.needsCheckpoint()) {
+            commit();
+        }
+    }
+
+    /**
+     * 重放上次 checkpoint 之后的日志，有记录时马上 commit 把日志合并进特征库
+     */
+    private synchronized void replayWal() {
+        try {
+            int replayed = wal.open(new GalleryWriteAheadLog.Replayer() {
+                @Override
+                public void insert(String faceID, float[] vector, long updateTime, String tag, String group) {
+                    applyInsert(faceID, vector, updateTime, tag, group);
+                }
+
+                @Override
+                public void delete(String faceID) {
+                    Integer existing = indexByFaceID.get(faceID);
+                    if (existing != null && !deleted.get(existing)) {
+                        applyDelete(existing);
+                    }
+                }
+
+                @Override
+                public void clear() {
+                    resetFiles();
+                }
+            });
+            if (replayed > 0) {
+                commitLocked();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "replay wal failed", e);
+        }
+    }
+
+    // ************************** 补数据 ***********************************
+
+    /**
+     * 升级前的人脸是否已经全部补进镜像
+     */
+    public boolean isBackfilled() {
+        return backfilled;
+    }
+
+    /**
+     * 后台线程一次性把 source 里的记录补进镜像，完成后 commit 并写标记文件，之后不再执行。
+     * 失败不写标记，下次启动重试
+     */
+    public void backfillAsync(BackfillSource source) {
+        synchronized (this) {
+            if (backfilled || backfilling) {
+                return;
+            }
+            backfilling = true;
+            backfillCancelled = false;
+        }
+        new Thread(() -> {
+            long start = System.currentTimeMillis();
+            boolean success = false;
+            try {
+                source.copyInto(this);
+                commit();
+                if (!new File(dir, BACKFILL_FILE).createNewFile() && !new File(dir, BACKFILL_FILE).exists()) {
+                    throw new IOException("create backfill marker failed");
+                }
+                success = true;
+            } catch (Exception e) {
+                Log.e(TAG, "backfill gallery failed", e);
+            } finally {
+                synchronized (this) {
+                    backfilling = false;
+                    backfilled = success;
+                    removedDuringBackfill.clear();
+                }
+            }
+            Log.d(TAG, "backfill " + (success ? "done" : "failed") + ", " + liveSize() + " faces in "
+                    + (System.currentTimeMillis() - start) + "ms");
+        }, "FaceGalleryBackfill").start();
+    }
+
+    /**
+     * 补一条记录：镜像里已有的 faceID（升级后写入的更新）和补数据期间删除的跳过
+     *
+     * @return 是否写入
+     */
+    public boolean backfill(String faceID, String faceFeature, long updateTime, String tag, String group) {
+        synchronized (this) {
+            if (backfillCancelled || removedDuringBackfill.contains(faceID)) {
+                return false;
+            }
+            Integer existing = indexByFaceID.get(faceID);
+            if (existing != null && !deleted.get(existing)) {
+                return false;
+            }
+        }
+        return insert(faceID, faceFeature, updateTime, tag, group);
+    }
+
+    // ************************** 文件 ***********************************
+
+    private void open() throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("mkdirs failed " + dir);
+        }
+        File metaFile = new File(dir, META_FILE);
+        File file = new File(dir, VECTOR_FILE);
+        int metaCount = metaFile.exists() && file.exists() ? readMeta(metaFile) : 0;
+        if (dictionary.isEmpty()) {
+            intern("");
+        }
+
+        vectorFile = new RandomAccessFile(file, "rw");
+        channel = vectorFile.getChannel();
+        int storedCapacity = 0;
+        if (vectorFile.length() >= HEADER_BYTES) {
+            vectorFile.seek(0);
+            int magic = Integer.reverseBytes(vectorFile.readInt());
+            int version = Integer.reverseBytes(vectorFile.readInt());
+            int storedDim = Integer.reverseBytes(vectorFile.readInt());
+            vectorFile.readInt(); //count
+            storedCapacity = Integer.reverseBytes(vectorFile.readInt());
+            vectorFile.readInt(); //保留
+            generation = Long.reverseBytes(vectorFile.readLong());
+            if (magic != VECTOR_MAGIC || version != VERSION || storedDim != dim) {
+                throw new IOException("gallery header mismatch");
+            }
+        }
+        map(Math.max(Math.max(storedCapacity, metaCount), INITIAL_CAPACITY));
+        count = metaCount;
+        for (int i = 0; i < metaCount; i++) {
+            indexByFaceID.put(faceIDs[i], i);
+            if (!deleted.get(i)) {
+                liveCount++;
+            }
+        }
+        publishDeleted();
+    }
+
+    private void publishDeleted() {
+        deletedWords = deleted.toLongArray();
+    }
+
+    private void resetFiles() {
+        try {
+            if (channel != null) channel.close();
+            if (vectorFile != null) vectorFile.close();
+        } catch (IOException ignored) {
+        }
+        new File(dir, VECTOR_FILE).delete();
+        new File(dir, META_FILE).delete();
+        //增量同步的版本号属于被清空的数据，不删的话下次同步只拉增量，清空前的人脸再也回不来
+        new File(dir, GalleryDeltaSync.STATE_FILE).delete();
+        faceIDs = new String[0];
+        tagIds = new int[0];
+        groupIds = new int[0];
+        updateTimes = new long[0];
+        deleted.clear();
+        publishDeleted();
+        indexByFaceID.clear();
+        dictionary.clear();
+        dictionaryIndex.clear();
+        intern("");
+        count = 0;
+        liveCount = 0;
+        capacity = 0;
+        metaDirty = false;
+        layout++;
+        try {
+            dir.mkdirs();
+            vectorFile = new RandomAccessFile(new File(dir, VECTOR_FILE), "rw");
+            channel = vectorFile.getChannel();
+            map(INITIAL_CAPACITY);
+            writeVectorHeader();
+        } catch (IOException e) {
+            Log.e(TAG, "reset gallery failed", e);
+        }
+    }
+
+    private void map(int newCapacity) throws IOException {
+        long bytes = HEADER_BYTES + (long) newCapacity * dim * 4;
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(HEADER_BYTES);
+        FloatBuffer floats = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        buffer.position(0);
+        mapped = buffer;
+        vectors = floats;
+        capacity = newCapacity;
+        if (faceIDs.length < newCapacity) {
+            faceIDs = Arrays.copyOf(faceIDs, newCapacity);
+            tagIds = Arrays.copyOf(tagIds, newCapacity);
+            groupIds = Arrays.copyOf(groupIds, newCapacity);
+            updateTimes = Arrays.copyOf(updateTimes, newCapacity);
+        }
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= capacity) {
+            return;
+        }
+        int newCapacity = Math.max(capacity * 2, INITIAL_CAPACITY);
+        while (newCapacity < required) newCapacity *= 2;
+        try {
+            map(newCapacity);
+        } catch (IOException e) {
+            throw new IllegalStateException("grow gallery failed", e);
+        }
+    }
+
+    private void writeVector(int index, float[] vector) {
+        FloatBuffer view = vectors.duplicate();
+        view.position(index * dim);
+        view.put(vector, 0, dim);
+    }
+
+    private void writeVectorHeader() {
+        mapped.putInt(0, VECTOR_MAGIC);
+        mapped.putInt(4, VERSION);
+        mapped.putInt(8, dim);
+        mapped.putInt(12, count);
+        mapped.putInt(16, capacity);
+        mapped.putLong(24, generation);
+    }
+
+    private int intern(String value) {
+        String key = value == null ? "" : value;
+        Integer id = dictionaryIndex.get(key);
+        if (id == null) {
+            id = dictionary.size();
+            dictionary.add(key);
+            dictionaryIndex.put(key, id);
+        }
+        return id;
+    }
+
+    private void writeMeta() throws IOException {
+        File tmp = new File(dir, META_FILE + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024));
+            out.writeInt(META_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            out.writeInt(dictionary.size());
+            for (String value : dictionary) {
+                out.writeUTF(value);
+            }
+            for (int i = 0; i < count; i++) {
+                out.writeUTF(faceIDs[i]);
+                out.writeInt(tagIds[i]);
+                out.writeInt(groupIds[i]);
+                out.writeLong(updateTimes[i]);
+                out.writeBoolean(deleted.get(i));
+            }
+            //commit 之后马上清空日志，附表必须先真正落盘再改名，否则断电后附表和日志可能都丢
+            out.flush();
+            fos.getFD().sync();
+        }
+        if (!tmp.renameTo(new File(dir, META_FILE))) {
+            throw new IOException("rename meta failed");
+        }
+    }
+
+    private int readMeta(File metaFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(metaFile), 64 * 1024))) {
+            if (in.readInt() != META_MAGIC || in.readInt() != VERSION) {
+                throw new IOException("meta header mismatch");
+            }
+            int rows = in.readInt();
+            int dictSize = in.readInt();
+            dictionary.clear();
+            dictionaryIndex.clear();
+            for (int i = 0; i < dictSize; i++) {
+                intern(in.readUTF());
+            }
+            faceIDs = new String[rows];
+            tagIds = new int[rows];
+            groupIds = new int[rows];
+            updateTimes = new long[rows];
+            for (int i = 0; i < rows; i++) {
+                faceIDs[i] = in.readUTF();
+                tagIds[i] = in.readInt();
+                groupIds[i] = in.readInt();
+                updateTimes[i] = in.readLong();
+                if (in.readBoolean()) {
+                    deleted.set(i);
+                }
+            }
+            return rows;
+        }
+    }
+}
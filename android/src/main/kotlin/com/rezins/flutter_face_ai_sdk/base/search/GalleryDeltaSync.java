@@ -0,0 +1,483 @@
+package com.rezins.flutter_face_ai_sdk.base.search;
+
+import android.util.Log;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 特征库增量同步客户端：按版本号从后台拉取变更集，只传输变化的人脸
+ * <p>
+ * 请求 GET {endpoint}?since={highWaterMark}&limit={pageSize}，响应：
+ * <pre>
+ * {"version":1024,"hasMore":false,"reset":false,
+ *  "changes":[{"op":"upsert","faceID":"u1","faceFeature":"...","tag":"","group":"","updateTime":0},
+ *             {"op":"delete","faceID":"u2"}]}
+ * </pre>
+ * 一页变更先全部校验，有非法记录整页拒绝，不会只应用一半；应用后 commit 特征库，再持久化 highWaterMark。
+ * 中途失败或进程被杀时 highWaterMark 没有前进，下次从同一页重新拉取，upsert / delete 重复应用结果一样。
+ * reset 为 true 表示服务端已经没有 since 之后的完整变更，需要从 0 开始全量同步：全量数据先下载到特征库目录下的
+ * {@value #RESYNC_DIR} 暂存库，最后一页应用完才替换本地特征库，中途失败时旧数据和 highWaterMark 都保持不变。
+ * highWaterMark 存在特征库目录下，特征库被清空（包括 clearAllFaceSearchData）时一起删除，下次同步从 0 开始
+ */
+public class GalleryDeltaSync {
+    private static final String TAG = "GalleryDeltaSync";
+    static final String STATE_FILE = "sync.properties"; //特征库清空时一起删除
+    static final String RESYNC_DIR = "resync"; //全量同步的暂存库
+    public static final int DEFAULT_PAGE_SIZE = 500;
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    /**
+     * 每条变更应用到特征库之后回调，比如同时写入 SDK 内置数据库。faceFeature 为 null 表示删除
+     */
+    public interface OnChangeAppliedListener {
+        void onChangeApplied(String faceID, String faceFeature, long updateTime, String tag, String group);
+
+        /**
+         * 全量同步已经下载完成，本地特征库已清空，接下来每个人脸都会回调一次 onChangeApplied
+         */
+        default void onReset() {
+        }
+    }
+
+    public static class SyncResult {
+        private final boolean success;
+        private final long highWaterMark;
+        private final int pages;
+        private final int upserts;
+        private final int deletes;
+        private final String error;
+
+        SyncResult(boolean success, long highWaterMark, int pages, int upserts, int deletes, String error) {
+            this.success = success;
+            this.highWaterMark = highWaterMark;
+            this.pages = pages;
+            this.upserts = upserts;
+            this.deletes = deletes;
+            this.error = error;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public long getHighWaterMark() {
+            return highWaterMark;
+        }
+
+        public int getPages() {
+            return pages;
+        }
+
+        public int getUpserts() {
+            return upserts;
+        }
+
+        public int getDeletes() {
+            return deletes;
+        }
+
+        /**
+         * 失败原因，成功为 null
+         */
+        public String getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "success=%b hwm=%d pages=%d upserts=%d deletes=%d error=%s",
+                    success, highWaterMark, pages, upserts, deletes, error);
+        }
+    }
+
+    private final FaceGalleryStore store;
+    private final String endpoint;
+    private final File stateFile;
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    private int timeoutMs = 15000;
+    private OnChangeAppliedListener listener;
+
+    public GalleryDeltaSync(FaceGalleryStore store, String endpoint) {
+        this.store = store;
+        this.endpoint = endpoint;
+        this.stateFile = new File(store.getDir(), STATE_FILE);
+    }
+
+    public GalleryDeltaSync setPageSize(int pageSize) {
+        this.pageSize = Math.max(1, pageSize);
+        return this;
+    }
+
+    /**
+     * 单页请求失败（网络、5xx）的重试次数，间隔指数退避
+     */
+    public GalleryDeltaSync setMaxRetries(int maxRetries) {
+        this.maxRetries = Math.max(0, maxRetries);
+        return this;
+    }
+
+    public GalleryDeltaSync setTimeoutMs(int timeoutMs) {
+        this.timeoutMs = timeoutMs;
+        return this;
+    }
+
+    public GalleryDeltaSync setOnChangeAppliedListener(OnChangeAppliedListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * 已经应用的最大版本号，没有同步过为 0
+     */
+    public synchronized long getHighWaterMark() {
+        Properties properties = new Properties();
+        if (stateFile.exists()) {
+            try (InputStream in = new FileInputStream(stateFile)) {
+                properties.load(in);
+            } catch (IOException | IllegalArgumentException e) {
+                Log.e(TAG, "read sync state failed", e);
+            }
+        }
+        try {
+            return Long.parseLong(properties.getProperty("highWaterMark", "0"));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 拉取并应用所有新变更，阻塞执行，请在子线程调用
+     */
+    public synchronized SyncResult sync() {
+        long highWaterMark = getHighWaterMark();
+        long savedMark = highWaterMark;
+        int pages = 0, upserts = 0, deletes = 0;
+        long start = System.currentTimeMillis();
+        //全量同步时变更先写入暂存库
+        FaceGalleryStore staging = null;
+        FaceGalleryStore target = store;
+        try {
+            while (true) {
+                Changeset changeset;
+                try {
+                    changeset = fetchWithRetry(highWaterMark);
+                } catch (IOException e) {
+                    Log.e(TAG, "fetch changes since " + highWaterMark + " failed", e);
+                    return new SyncResult(false, savedMark, pages, upserts, deletes, e.toString());
+                }
+                if (changeset.reset) {
+                    if (staging != null) {
+                        //全量同步之后服务端仍然要求重置，避免死循环
+                        return new SyncResult(false, savedMark, pages, upserts, deletes, "repeated reset");
+                    }
+                    Log.w(TAG, "server requested full resync from " + highWaterMark);
+                    staging = openStaging();
+                    target = staging;
+                    highWaterMark = 0;
+                    continue;
+                }
+                String invalid = changeset.validate(store.getDim());
+                if (invalid != null) {
+                    return new SyncResult(false, savedMark, pages, upserts, deletes, invalid);
+                }
+                if (changeset.version <= highWaterMark && !changeset.changes.isEmpty()) {
+                    return new SyncResult(false, savedMark, pages, upserts, deletes,
+                            "version " + changeset.version + " not after " + highWaterMark);
+                }
+
+                for (Change change : changeset.changes) {
+                    if (change.vector != null) {
+                        target.insert(change.faceID, change.vector, change.updateTime, change.tag, change.group);
+                        upserts++;
+                    } else {
+                        target.delete(change.faceID);
+                        deletes++;
+                    }
+                    if (staging == null && listener != null) {
+                        listener.onChangeApplied(change.faceID, change.faceFeature, change.updateTime, change.tag, change.group);
+                    }
+                }
+                //先落盘特征库再前进 highWaterMark，暂存库替换之前不前进
+                target.commit();
+                if (changeset.version > highWaterMark) {
+                    highWaterMark = changeset.version;
+                    if (staging == null) {
+                        saveHighWaterMark(highWaterMark);
+                        savedMark = highWaterMark;
+                    }
+                }
+                pages++;
+                if (!changeset.hasMore || changeset.changes.isEmpty()) {
+                    break;
+                }
+            }
+            if (staging != null) {
+                replaceWith(staging);
+                saveHighWaterMark(highWaterMark);
+            }
+        } finally {
+            if (staging != null) {
+                deleteStaging(staging);
+            }
+        }
+        SyncResult result = new SyncResult(true, highWaterMark, pages, upserts, deletes, null);
+        Log.d(TAG, result + " in " + (System.currentTimeMillis() - start) + "ms");
+        return result;
+    }
+
+    /**
+     * 上次全量同步中途被杀留下的暂存数据不能续用，先删掉
+     */
+    private FaceGalleryStore openStaging() {
+        File dir = new File(store.getDir(), RESYNC_DIR);
+        deleteFiles(dir);
+        FaceGalleryStore staging = new FaceGalleryStore(dir, store.getDim());
+        //replaceWith 按行号逐行复制，行号不能中途变化
+        staging.setAutoCompact(false);
+        return staging;
+    }
+
+    private static void deleteStaging(FaceGalleryStore staging) {
+        //clear 会关闭映射的特征文件
+        staging.clear();
+        deleteFiles(staging.getDir());
+        staging.getDir().delete();
+    }
+
+    private static void deleteFiles(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * 用下载完的全量数据替换本地特征库。清空之后 highWaterMark 为 0，替换到一半被杀下次会从 0 重新全量拉取
+     */
+    private void replaceWith(FaceGalleryStore staging) {
+        store.clear();
+        if (listener != null) {
+            listener.onReset();
+        }
+        float[] vector = new float[store.getDim()];
+        for (int i = 0; i < staging.size(); i++) {
+            if (staging.isDeleted(i)) {
+                continue;
+            }
+            String faceID = staging.faceIDAt(i);
+            String tag = staging.tagAt(i);
+            String group = staging.groupAt(i);
+            long updateTime = staging.updateTimeAt(i);
+            staging.readVector(i, vector);
+            store.insert(faceID, vector, updateTime, tag, group);
+            if (listener != null) {
+                listener.onChangeApplied(faceID, FaceFeatureCodec.encode(vector), updateTime, tag, group);
+            }
+        }
+        store.commit();
+    }
+
+    private Changeset fetchWithRetry(long since) throws IOException {
+        IOException last = null;
+        for (int attempt = 0; attempt <= maxRetries; attempt++) {
+            if (attempt > 0) {
+                try {
+                    Thread.sleep(500L << (attempt - 1));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted", e);
+                }
+            }
+            try {
+                return fetch(since);
+            } catch (IOException e) {
+                last = e;
+                Log.w(TAG, "fetch attempt " + (attempt + 1) + " failed: " + e);
+            }
+        }
+        throw last;
+    }
+
+    private Changeset fetch(long since) throws IOException {
+        String separator = endpoint.indexOf('?') >= 0 ? "&" : "?";
+        URL url = new URL(endpoint + separator + "since=" + since + "&limit=" + pageSize);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(timeoutMs);
+        connection.setReadTimeout(timeoutMs);
+        connection.setRequestProperty("Accept", "application/json");
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        try {
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + code);
+            }
+            InputStream in = connection.getInputStream();
+            if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+                in = new GZIPInputStream(in);
+            }
+            try (JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)))) {
+                return Changeset.read(reader);
+            } catch (IllegalStateException | NumberFormatException e) {
+                throw new IOException("malformed changeset", e);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void saveHighWaterMark(long highWaterMark) {
+        Properties properties = new Properties();
+        properties.setProperty("highWaterMark", String.valueOf(highWaterMark));
+        File tmp = new File(stateFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            properties.store(out, null);
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "save sync state failed", e);
+            return;
+        }
+        if (!tmp.renameTo(stateFile)) {
+            Log.e(TAG, "rename sync state failed");
+        }
+    }
+
+    private static final class Change {
+        String op;
+        String faceID;
+        String faceFeature;
+        String tag = "";
+        String group = "";
+        long updateTime;
+        float[] vector; //校验通过的 upsert 才有
+    }
+
+    private static final class Changeset {
+        long version;
+        boolean hasMore;
+        boolean reset;
+        final List<Change> changes = new ArrayList<>();
+
+        static Changeset read(JsonReader reader) throws IOException {
+            Changeset changeset = new Changeset();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "version":
+                        changeset.version = reader.nextLong();
+                        break;
+                    case "hasMore":
+                        changeset.hasMore = reader.nextBoolean();
+                        break;
+                    case "reset":
+                        changeset.reset = reader.nextBoolean();
+                        break;
+                    case "changes":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            changeset.changes.add(readChange(reader));
+                        }
+                        reader.endArray();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+            return changeset;
+        }
+
+        private static Change readChange(JsonReader reader) throws IOException {
+            Change change = new Change();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "op":
+                        change.op = reader.nextString();
+                        break;
+                    case "faceID":
+                        change.faceID = reader.nextString();
+                        break;
+                    case "faceFeature":
+                        change.faceFeature = reader.nextString();
+                        break;
+                    case "tag":
+                        change.tag = reader.nextString();
+                        break;
+                    case "group":
+                        change.group = reader.nextString();
+                        break;
+                    case "updateTime":
+                        change.updateTime = reader.nextLong();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+            return change;
+        }
+
+        /**
+         * 校验整页变更，upsert 解码出向量
+         *
+         * @return 第一个非法记录的描述，全部合法返回 null
+         */
+        String validate(int dim) {
+            for (int i = 0; i < changes.size(); i++) {
+                Change change = changes.get(i);
+                if (change.faceID == null || change.faceID.trim().isEmpty()) {
+                    return "change #" + i + " missing faceID";
+                }
+                if ("delete".equals(change.op)) {
+                    change.faceFeature = null;
+                    continue;
+                }
+                if (!"upsert".equals(change.op)) {
+                    return "change #" + i + " unknown op " + change.op;
+                }
+                byte[] bytes = FaceFeatureCodec.decodeBytes(change.faceFeature);
+                if (bytes == null || bytes.length != dim * 4) {
+                    return "change #" + i + " invalid faceFeature for " + change.faceID;
+                }
+                change.vector = FaceFeatureCodec.toVector(bytes);
+                if (!FaceFeatureCodec.normalize(Arrays.copyOf(change.vector, dim))) {
+                    return "change #" + i + " zero vector for " + change.faceID;
+                }
+            }
+            return null;
+        }
+    }
+}
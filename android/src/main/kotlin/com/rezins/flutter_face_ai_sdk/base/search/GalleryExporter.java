@@ -0,0 +1,208 @@
+package com.rezins.flutter_face_ai_sdk.base.search;
+
+import android.util.Log;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * 分页流式导出 1:N 特征库，用于备份和迁移
+ * <p>
+ * 通过 {@link FaceGalleryStore#readPage} 游标一页一页读取，内存只占一页，十万级特征库也不会 OOM。
+ * 导出的都是归一化后的向量，比对分数和原特征值一致，可以用 {@link FaceFeatureImporter} 导回
+ * <ul>
+ * <li>NDJSON：每行一条 {"faceID","faceFeature","tag","group","updateTime"}，faceFeature 格式同 insertFeatures</li>
+ * <li>BINARY：头部 FGEX/version/dim，之后每条 1 字节标记 + faceID/tag/group(UTF) + updateTime + dim 个小端 float32
+ * + 这条记录（标记之后）的 CRC32，结束标记 0 后跟记录数和前面所有字节的 CRC32。
+ * 每条记录自带校验，导入时校验通过才写入，损坏的记录不会进入特征库</li>
+ * </ul>
+ */
+public class GalleryExporter {
+    private static final String TAG = "GalleryExporter";
+    static final int BINARY_MAGIC = 0x46474558; //FGEX
+    static final int BINARY_VERSION = 2; //2: 每条记录带 CRC32
+    static final int RECORD = 1;
+    static final int END = 0;
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+
+    public enum Format {
+        NDJSON,
+        BINARY
+    }
+
+    /**
+     * 每导出一页回调一次，可用于显示进度
+     */
+    public interface OnPageExportedListener {
+        void onPageExported(int exported, int total);
+    }
+
+    private final FaceGalleryStore store;
+    private Format format = Format.NDJSON;
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    private OnPageExportedListener listener;
+
+    public GalleryExporter(FaceGalleryStore store) {
+        this.store = store;
+    }
+
+    public GalleryExporter setFormat(Format format) {
+        this.format = format;
+        return this;
+    }
+
+    /**
+     * 每页读取的条数，只在拷贝一页时持有特征库的锁
+     */
+    public GalleryExporter setPageSize(int pageSize) {
+        this.pageSize = Math.max(1, pageSize);
+        return this;
+    }
+
+    public GalleryExporter setOnPageExportedListener(OnPageExportedListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * 先写临时文件，完成后再改名，导出失败不会留下半个备份
+     */
+    public int exportTo(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        int exported;
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            exported = exportTo(out);
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("rename failed " + file);
+        }
+        return exported;
+    }
+
+    /**
+     * 导出到输出流，调用方负责关闭
+     *
+     * @return 导出的条数
+     * @throws IOException 写入失败，或导出过程中特征库被 compact / clear
+     */
+    public int exportTo(OutputStream out) throws IOException {
+        long start = System.currentTimeMillis();
+        int exported = format == Format.BINARY ? exportBinary(out) : exportNdjson(out);
+        Log.d(TAG, format + " exported " + exported + " faces in " + (System.currentTimeMillis() - start) + "ms");
+        return exported;
+    }
+
+    private int exportNdjson(OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        int dim = store.getDim();
+        float[] vector = new float[dim];
+        PageCursor cursor = new PageCursor();
+        while (cursor.next()) {
+            FaceGalleryStore.Page page = cursor.page;
+            for (int i = 0; i < page.size(); i++) {
+                System.arraycopy(page.vectors(), page.vectorOffset(i), vector, 0, dim);
+                //每行一个 JsonWriter，不关闭，避免关掉底层输出流
+                JsonWriter json = new JsonWriter(writer);
+                json.beginObject();
+                json.name("faceID").value(page.faceIDAt(i));
+                json.name("faceFeature").value(FaceFeatureCodec.encode(vector));
+                json.name("tag").value(page.tagAt(i));
+                json.name("group").value(page.groupAt(i));
+                json.name("updateTime").value(page.updateTimeAt(i));
+                json.endObject();
+                json.flush();
+                writer.write('\n');
+            }
+            cursor.pageDone();
+        }
+        writer.flush();
+        return cursor.exported;
+    }
+
+    private int exportBinary(OutputStream out) throws IOException {
+        CRC32 crc = new CRC32();
+        DataOutputStream data = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(out, 64 * 1024), crc));
+        int dim = store.getDim();
+        data.writeInt(BINARY_MAGIC);
+        data.writeInt(BINARY_VERSION);
+        data.writeInt(dim);
+        ByteBuffer vectorBytes = ByteBuffer.allocate(dim * 4).order(ByteOrder.LITTLE_ENDIAN);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(dim * 4 + 256);
+        DataOutputStream record = new DataOutputStream(buffer);
+        CRC32 recordCrc = new CRC32();
+        PageCursor cursor = new PageCursor();
+        while (cursor.next()) {
+            FaceGalleryStore.Page page = cursor.page;
+            for (int i = 0; i < page.size(); i++) {
+                buffer.reset();
+                record.writeUTF(page.faceIDAt(i));
+                record.writeUTF(page.tagAt(i));
+                record.writeUTF(page.groupAt(i));
+                record.writeLong(page.updateTimeAt(i));
+                vectorBytes.clear();
+                vectorBytes.asFloatBuffer().put(page.vectors(), page.vectorOffset(i), dim);
+                record.write(vectorBytes.array(), 0, dim * 4);
+                recordCrc.reset();
+                recordCrc.update(buffer.toByteArray());
+                data.writeByte(RECORD);
+                buffer.writeTo(data);
+                data.writeInt((int) recordCrc.getValue());
+            }
+            cursor.pageDone();
+        }
+        data.writeByte(END);
+        data.writeInt(cursor.exported);
+        data.flush();
+        //CRC 本身不参与校验
+        data.writeInt((int) crc.getValue());
+        data.flush();
+        return cursor.exported;
+    }
+
+    /**
+     * 按页遍历特征库，行号布局变化（compact / clear）时终止，避免漏导或重复
+     */
+    private final class PageCursor {
+        final FaceGalleryStore.Page page = new FaceGalleryStore.Page(pageSize, store.getDim());
+        final int total = store.liveSize();
+        int nextIndex = 0;
+        long layout = -1;
+        int exported;
+
+        boolean next() throws IOException {
+            if (nextIndex < 0) {
+                return false;
+            }
+            if (!store.readPage(nextIndex, page, layout)) {
+                throw new IOException("gallery compacted or cleared during export");
+            }
+            layout = page.getLayout();
+            return page.size() > 0 || page.getNextIndex() >= 0;
+        }
+
+        void pageDone() {
+            exported += page.size();
+            nextIndex = page.getNextIndex();
+            if (listener != null) {
+                listener.onPageExported(exported, total);
+            }
+        }
+    }
+}
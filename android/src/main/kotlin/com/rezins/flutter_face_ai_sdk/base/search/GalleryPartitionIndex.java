@@ -0,0 +1,136 @@
+package com.rezins.flutter_face_ai_sdk.base.search;
+
+import android.text.TextUtils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * 按 group 分片、按 tag 建位图的特征库分区索引
+ * <p>
+ * 对应 SDK 的 setFaceGroup / setFaceTag：比如小区 1A 栋 + VIP 标签只扫描命中的子集，
+ * 搜索耗时只和子集大小相关。位图里只有未删除的行
+ */
+public class GalleryPartitionIndex implements FaceGalleryStore.OnGalleryChangedListener {
+    private final FaceGalleryStore store;
+    private final HashMap<Integer, FaceGalleryBitmap> rowsByGroup = new HashMap<>();
+    private final HashMap<Integer, FaceGalleryBitmap> rowsByTag = new HashMap<>();
+
+    //每行当前所在的分组和标签，faceID 覆盖更新时从旧位图中移除
+    private int[] rowGroup = new int[0];
+    private int[] rowTag = new int[0];
+
+    public GalleryPartitionIndex(FaceGalleryStore store) {
+        this.store = store;
+        rebuild();
+        store.addOnGalleryChangedListener(this);
+    }
+
+    public synchronized void rebuild() {
+        rowsByGroup.clear();
+        rowsByTag.clear();
+        rowGroup = new int[0];
+        rowTag = new int[0];
+        for (int i = 0, size = store.size(); i < size; i++) {
+            if (!store.isDeleted(i)) {
+                addRow(i);
+            }
+        }
+    }
+
+    /**
+     * 满足分组和标签条件的行号（升序快照），条件都为空时返回 null 表示不过滤
+     */
+    public synchronized int[] filterRows(String group, String tag) {
+        FaceGalleryBitmap result = null;
+        if (!TextUtils.isEmpty(group)) {
+            result = rowsByGroup.get(store.dictionaryId(group));
+            if (result == null) {
+                return new int[0];
+            }
+        }
+        if (!TextUtils.isEmpty(tag)) {
+            FaceGalleryBitmap tagRows = rowsByTag.get(store.dictionaryId(tag));
+            if (tagRows == null) {
+                return new int[0];
+            }
+            result = result == null ? tagRows : result.and(tagRows);
+        }
+        return result == null ? null : result.toArray();
+    }
+
+    /**
+     * 判断某个 faceID 是否属于指定分组和标签，空条件视为匹配
+     */
+    public boolean matches(String faceID, String group, String tag) {
+        int row = store.indexOf(faceID);
+        return row >= 0 && !store.isDeleted(row) && matchesRow(row, group, tag);
+    }
+
+    public boolean matchesRow(int row, String group, String tag) {
+        return (TextUtils.isEmpty(group) || group.equals(store.groupAt(row)))
+                && (TextUtils.isEmpty(tag) || tag.equals(store.tagAt(row)));
+    }
+
+    @Override
+    public synchronized void onInserted(int index) {
+        if (index < rowGroup.length && rowGroup[index] >= 0) {
+            removeRow(index);
+        }
+        addRow(index);
+    }
+
+    @Override
+    public synchronized void onDeleted(int index) {
+        if (index < rowGroup.length && rowGroup[index] >= 0) {
+            removeRow(index);
+        }
+    }
+
+    @Override
+    public synchronized void onCleared() {
+        rowsByGroup.clear();
+        rowsByTag.clear();
+        rowGroup = new int[0];
+        rowTag = new int[0];
+    }
+
+    private void addRow(int row) {
+        if (row >= rowGroup.length) {
+            int oldLength = rowGroup.length;
+            int newLength = Math.max(row + 1, Math.max(1024, oldLength * 2));
+            rowGroup = Arrays.copyOf(rowGroup, newLength);
+            rowTag = Arrays.copyOf(rowTag, newLength);
+            Arrays.fill(rowGroup, oldLength, newLength, -1);
+            Arrays.fill(rowTag, oldLength, newLength, -1);
+        }
+        int group = store.groupIdAt(row);
+        int tag = store.tagIdAt(row);
+        bitmapOf(rowsByGroup, group).add(row);
+        bitmapOf(rowsByTag, tag).add(row);
+        rowGroup[row] = group;
+        rowTag[row] = tag;
+    }
+
+    private void removeRow(int row) {
+        FaceGalleryBitmap groupRows = rowsByGroup.get(rowGroup[row]);
+        if (groupRows != null) {
+            groupRows.remove(row);
+        }
+        FaceGalleryBitmap tagRows = rowsByTag.get(rowTag[row]);
+        if (tagRows != null) {
+            tagRows.remove(row);
+        }
+        rowGroup[row] = -1;
+        rowTag[row] = -1;
+    }
+
+    private static FaceGalleryBitmap bitmapOf(HashMap<Integer, FaceGalleryBitmap> map, int id) {
+        FaceGalleryBitmap bitmap = map.get(id);
+        if (bitmap == null) {
+            bitmap = new FaceGalleryBitmap();
+            map.put(id, bitmap);
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,27 @@
+package com.rezins.flutter_face_ai_sdk.base.search;
+
+/**
+ * 插件侧特征库搜索结果，字段含义和 SDK 的 FaceSearchResult 保持一致
+ */
+public class GallerySearchResult {
+    private final String faceID;
+    private final float faceScore;
+
+    public GallerySearchResult(String faceID, float faceScore) {
+        this.faceID = faceID;
+        this.faceScore = faceScore;
+    }
+
+    public String getFaceName() {
+        return faceID;
+    }
+
+    public float getFaceScore() {
+        return faceScore;
+    }
+
+    @Override
+    public String toString() {
+        return "GallerySearchResult{faceID=" + faceID + ", faceScore=" + faceScore + "}";
+    }
+}
@@ -0,0 +1,250 @@
+package com.rezins.flutter_face_ai_sdk.base.search;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * 搜索派生数据快照 snapshot.bin：int8 编码、scale、符号位以及 HNSW 图
+ * <p>
+ * 特征库 commit 后在后台写入，下次启动只读映射、校验后直接批量拷贝，不再逐条量化和重新建图。
+ * 文件头记录特征库 generation 和行数，和当前特征库不一致时视为过期重新构建
+ * <pre>
+ * 0  magic FGSS | 4 version | 8 dim | 12 rows | 16 signWords | 20 flags
+ * 24 generation(long) | 32 payloadBytes(long) | 40 crc32 | 44~63 保留
+ * 64 起 payload，每段 64 字节对齐：codes | scales | signs | [HNSW 图]
+ * </pre>
+ */
+public final class GallerySnapshot {
+    private static final String TAG = "GallerySnapshot";
+    public static final String SNAPSHOT_FILE = "snapshot.bin";
+
+    private static final int MAGIC = 0x46475353; //FGSS
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int ALIGN = 64;
+    private static final int FLAG_HNSW = 1;
+
+    final int rows;
+    final byte[] codes;
+    final float[] scales;
+    final long[] signs;
+    final HnswIndex.Graph graph; //没有 HNSW 段为 null
+
+    private GallerySnapshot(int rows, byte[] codes, float[] scales, long[] signs, HnswIndex.Graph graph) {
+        this.rows = rows;
+        this.codes = codes;
+        this.scales = scales;
+        this.signs = signs;
+        this.graph = graph;
+    }
+
+    public static File fileOf(FaceGalleryStore store) {
+        return new File(store.getDir(), SNAPSHOT_FILE);
+    }
+
+    /**
+     * 读取快照，文件不存在、校验失败或者和特征库版本不一致返回 null
+     */
+    public static GallerySnapshot read(File file, int dim, long generation, int rows) {
+        if (!file.exists()) {
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != dim
+                    || buffer.getInt(12) != rows || buffer.getLong(24) != generation) {
+                Log.d(TAG, "snapshot stale, rebuild");
+                return null;
+            }
+            int signWords = buffer.getInt(16);
+            int flags = buffer.getInt(20);
+            long payloadBytes = buffer.getLong(32);
+            if (HEADER_BYTES + payloadBytes != channel.size() || crc(buffer, payloadBytes) != buffer.getInt(40)) {
+                Log.e(TAG, "snapshot checksum mismatch");
+                return null;
+            }
+
+            int position = HEADER_BYTES;
+            byte[] codes = new byte[rows * dim];
+            buffer.position(position);
+            buffer.get(codes);
+            position = align(position + codes.length);
+
+            float[] scales = new float[rows];
+            buffer.position(position);
+            buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(scales);
+            position = align(position + rows * 4);
+
+            long[] signs = new long[rows * signWords];
+            buffer.position(position);
+            buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(signs);
+            position = align(position + signs.length * 8);
+
+            HnswIndex.Graph graph = null;
+            if ((flags & FLAG_HNSW) != 0) {
+                buffer.position(position);
+                graph = HnswIndex.Graph.read(buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer());
+            }
+            Log.d(TAG, "snapshot loaded " + rows + " rows in " + (System.currentTimeMillis() - start) + "ms");
+            return new GallerySnapshot(rows, codes, scales, signs, graph);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "read snapshot failed", e);
+            return null;
+        }
+    }
+
+    /**
+     * 先写临时文件再改名，写到一半断电不会破坏旧快照
+     *
+     * @param hnsw 没有启用 HNSW 传 null
+     */
+    public static boolean write(File file, long generation, QuantizedGallery quantized, HnswIndex hnsw) {
+        File tmp = new File(file.getPath() + ".tmp");
+        long start = System.currentTimeMillis();
+        QuantizedGallery.Codes quantizedCodes = quantized.snapshotCodes();
+        HnswIndex.Graph graph = hnsw != null && hnsw.isReady() ? hnsw.snapshotGraph() : null;
+        if (graph != null && graph.nodeCount != quantizedCodes.rows) {
+            graph = null; //图还没追上特征库，只写量化数据
+        }
+        int dim = quantized.getDim();
+        int signWords = quantized.signWords();
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw"); FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+            SectionWriter writer = new SectionWriter(channel);
+            writer.skipHeader();
+            writer.put(quantizedCodes.codes, quantizedCodes.rows * dim);
+            writer.align();
+            writer.put(quantizedCodes.scales, quantizedCodes.rows);
+            writer.align();
+            writer.put(quantizedCodes.signs, quantizedCodes.rows * signWords);
+            writer.align();
+            if (graph != null) {
+                graph.write(writer);
+            }
+            long payloadBytes = writer.finish();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(dim).putInt(quantizedCodes.rows).putInt(signWords)
+                    .putInt(graph != null ? FLAG_HNSW : 0).putLong(generation).putLong(payloadBytes)
+                    .putInt((int) writer.crc.getValue());
+            header.position(0);
+            channel.write(header, 0);
+            channel.force(true);
+        } catch (IOException e) {
+            Log.e(TAG, "write snapshot failed", e);
+            tmp.delete();
+            return false;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.e(TAG, "rename snapshot failed");
+            return false;
+        }
+        Log.d(TAG, "snapshot written " + quantizedCodes.rows + " rows in " + (System.currentTimeMillis() - start) + "ms");
+        return true;
+    }
+
+    private static int align(int position) {
+        return (position + ALIGN - 1) / ALIGN * ALIGN;
+    }
+
+    private static int crc(MappedByteBuffer buffer, long payloadBytes) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[64 * 1024];
+        ByteBuffer view = buffer.duplicate();
+        view.position(HEADER_BYTES);
+        long remaining = payloadBytes;
+        while (remaining > 0) {
+            int n = (int) Math.min(chunk.length, remaining);
+            view.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+            remaining -= n;
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 通过 64KB 缓冲顺序写 payload，同时计算 CRC32
+     */
+    static final class SectionWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        final CRC32 crc = new CRC32();
+        private long written; //payload 已写字节数
+
+        SectionWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void skipHeader() throws IOException {
+            channel.position(HEADER_BYTES);
+        }
+
+        void put(byte[] values, int length) throws IOException {
+            int offset = 0;
+            while (offset < length) {
+                ensure(1);
+                int n = Math.min(buffer.remaining(), length - offset);
+                buffer.put(values, offset, n);
+                offset += n;
+            }
+        }
+
+        void put(float[] values, int length) throws IOException {
+            for (int i = 0; i < length; i++) {
+                ensure(4);
+                buffer.putFloat(values[i]);
+            }
+        }
+
+        void put(long[] values, int length) throws IOException {
+            for (int i = 0; i < length; i++) {
+                ensure(8);
+                buffer.putLong(values[i]);
+            }
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void align() throws IOException {
+            long total = written + buffer.position();
+            int padding = (int) ((ALIGN - (HEADER_BYTES + total) % ALIGN) % ALIGN);
+            for (int i = 0; i < padding; i++) {
+                ensure(1);
+                buffer.put((byte) 0);
+            }
+        }
+
+        long finish() throws IOException {
+            flush();
+            return written;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            crc.update(buffer.array(), 0, buffer.position());
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.rezins.flutter_face_ai_sdk.base.search;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * 特征库变更的预写日志 wal.log，只追加写
+ * <p>
+ * insert / delete / clear 先按顺序追加到日志再修改特征库，{@link #sync()} 把已追加的记录 fsync 到磁盘，
+ * 多个线程同时 sync 时只有一个线程真正 fsync（组提交）。特征库 commit 落盘后日志清空（checkpoint），
+ * 启动时重放上次 checkpoint 之后的记录，最后一条写了一半的记录按校验失败丢弃
+ * <pre>
+ * 文件头 16 字节：magic FGWL | version | dim | 保留
+ * 记录：length(int) | crc32(int) | type(byte) | payload，length 为 type + payload 的字节数
+ * </pre>
+ */
+public class GalleryWriteAheadLog {
+    private static final String TAG = "GalleryWAL";
+    public static final String WAL_FILE = "wal.log";
+    public static final int DEFAULT_SYNC_EVERY_RECORDS = 512;
+    public static final long DEFAULT_CHECKPOINT_BYTES = 32L * 1024 * 1024;
+
+    private static final int MAGIC = 0x4647574C; //FGWL
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_HEADER_BYTES = 8;
+
+    static final byte TYPE_INSERT = 1;
+    static final byte TYPE_DELETE = 2;
+    static final byte TYPE_CLEAR = 3;
+
+    /**
+     * 重放时按日志顺序回调
+     */
+    interface Replayer {
+        void insert(String faceID, float[] vector, long updateTime, String tag, String group);
+
+        void delete(String faceID);
+
+        void clear();
+    }
+
+    private final File file;
+    private final int dim;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(256 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+    private final CRC32 crc = new CRC32();
+    private long length; //文件中已写入的字节数，不含 buffer
+
+    //记录序号，组提交用
+    private long appendedSeq;
+    private volatile long syncedSeq;
+    private final Object syncLock = new Object();
+
+    private int syncEveryRecords = DEFAULT_SYNC_EVERY_RECORDS;
+    private long checkpointBytes = DEFAULT_CHECKPOINT_BYTES;
+
+    GalleryWriteAheadLog(File dir, int dim) {
+        this.file = new File(dir, WAL_FILE);
+        this.dim = dim;
+    }
+
+    /**
+     * 没有主动 sync 时，每追加这么多条记录自动 fsync 一次，0 表示只在 sync / checkpoint 时落盘
+     */
+    public synchronized void setSyncEveryRecords(int syncEveryRecords) {
+        this.syncEveryRecords = Math.max(0, syncEveryRecords);
+    }
+
+    /**
+     * 日志超过该大小时特征库自动 commit 并清空日志
+     */
+    public synchronized void setCheckpointBytes(long checkpointBytes) {
+        this.checkpointBytes = Math.max(HEADER_BYTES, checkpointBytes);
+    }
+
+    synchronized boolean needsCheckpoint() {
+        return length + buffer.position() >= checkpointBytes;
+    }
+
+    public synchronized long sizeBytes() {
+        return length + buffer.position();
+    }
+
+    /**
+     * 重放日志中的有效记录，然后打开日志准备追加。截断末尾不完整的记录
+     *
+     * @return 重放的记录数
+     */
+    int open(Replayer replayer) throws IOException {
+        int replayed = 0;
+        long validLength = HEADER_BYTES;
+        if (file.length() >= HEADER_BYTES) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+                if (Integer.reverseBytes(in.readInt()) == MAGIC && Integer.reverseBytes(in.readInt()) == VERSION
+                        && Integer.reverseBytes(in.readInt()) == dim) {
+                    in.readInt(); //保留
+                    byte[] record = new byte[1024];
+                    CRC32 check = new CRC32();
+                    while (true) {
+                        int recordLength;
+                        int recordCrc;
+                        try {
+                            recordLength = Integer.reverseBytes(in.readInt());
+                            recordCrc = Integer.reverseBytes(in.readInt());
+                            if (recordLength <= 0 || recordLength > 1024 * 1024) {
+                                break;
+                            }
+                            if (record.length < recordLength) {
+                                record = new byte[recordLength];
+                            }
+                            in.readFully(record, 0, recordLength);
+                        } catch (EOFException e) {
+                            break;
+                        }
+                        check.reset();
+                        check.update(record, 0, recordLength);
+                        if ((int) check.getValue() != recordCrc) {
+                            Log.e(TAG, "wal record checksum mismatch at " + validLength);
+                            break;
+                        }
+                        apply(ByteBuffer.wrap(record, 0, recordLength).order(ByteOrder.LITTLE_ENDIAN), replayer);
+                        validLength += RECORD_HEADER_BYTES + recordLength;
+                        replayed++;
+                    }
+                } else {
+                    Log.e(TAG, "wal header mismatch, discard");
+                }
+            }
+        }
+
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        if (replayed == 0) {
+            validLength = HEADER_BYTES;
+        }
+        channel.truncate(validLength);
+        writeHeader();
+        length = validLength;
+        channel.position(length);
+        if (replayed > 0) {
+            Log.d(TAG, "replayed " + replayed + " wal records");
+        }
+        return replayed;
+    }
+
+    synchronized void appendInsert(String faceID, float[] vector, long updateTime, String tag, String group) {
+        byte[] id = utf8(faceID);
+        byte[] tagBytes = utf8(tag);
+        byte[] groupBytes = utf8(group);
+        int payload = 1 + 2 + id.length + 2 + tagBytes.length + 2 + groupBytes.length + 8 + dim * 4;
+        begin(payload);
+        buffer.put(TYPE_INSERT);
+        putString(id);
+        putString(tagBytes);
+        putString(groupBytes);
+        buffer.putLong(updateTime);
+        for (int i = 0; i < dim; i++) {
+            buffer.putFloat(vector[i]);
+        }
+        end(payload);
+    }
+
+    synchronized void appendDelete(String faceID) {
+        byte[] id = utf8(faceID);
+        int payload = 1 + 2 + id.length;
+        begin(payload);
+        buffer.put(TYPE_DELETE);
+        putString(id);
+        end(payload);
+    }
+
+    synchronized void appendClear() {
+        begin(1);
+        buffer.put(TYPE_CLEAR);
+        end(1);
+    }
+
+    /**
+     * 把目前为止追加的记录 fsync 到磁盘，返回后这些变更断电也不会丢
+     */
+    public void sync() {
+        long target;
+        synchronized (this) {
+            target = appendedSeq;
+        }
+        if (syncedSeq >= target) {
+            return;
+        }
+        synchronized (syncLock) {
+            //等锁期间其他线程的 fsync 可能已经覆盖了本线程的记录
+            if (syncedSeq >= target) {
+                return;
+            }
+            long covered;
+            try {
+                synchronized (this) {
+                    flushBuffer();
+                    covered = appendedSeq;
+                }
+                channel.force(false);
+                syncedSeq = Math.max(syncedSeq, covered);
+            } catch (IOException e) {
+                Log.e(TAG, "wal sync failed", e);
+            }
+        }
+    }
+
+    /**
+     * 特征库已经 commit，日志中的记录都已落盘，清空日志
+     */
+    synchronized void checkpoint() {
+        buffer.clear();
+        try {
+            channel.truncate(HEADER_BYTES);
+            channel.position(HEADER_BYTES);
+            channel.force(false);
+            length = HEADER_BYTES;
+        } catch (IOException e) {
+            Log.e(TAG, "wal checkpoint failed", e);
+        }
+        syncedSeq = Math.max(syncedSeq, appendedSeq);
+    }
+
+    private void begin(int payload) {
+        if (buffer.remaining() < RECORD_HEADER_BYTES + payload) {
+            try {
+                flushBuffer();
+            } catch (IOException e) {
+                throw new IllegalStateException("wal write failed", e);
+            }
+        }
+        if (buffer.remaining() < RECORD_HEADER_BYTES + payload) {
+            throw new IllegalArgumentException("wal record too large " + payload);
+        }
+        buffer.position(buffer.position() + RECORD_HEADER_BYTES);
+    }
+
+    private void end(int payload) {
+        int start = buffer.position() - payload;
+        crc.reset();
+        crc.update(buffer.array(), start, payload);
+        buffer.putInt(start - RECORD_HEADER_BYTES, payload);
+        buffer.putInt(start - RECORD_HEADER_BYTES + 4, (int) crc.getValue());
+        appendedSeq++;
+        if (syncEveryRecords > 0 && appendedSeq % syncEveryRecords == 0) {
+            try {
+                flushBuffer();
+                channel.force(false);
+                syncedSeq = Math.max(syncedSeq, appendedSeq);
+            } catch (IOException e) {
+                Log.e(TAG, "wal sync failed", e);
+            }
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            length += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(dim).putInt(0);
+        header.flip();
+        channel.write(header, 0);
+    }
+
+    private void putString(byte[] bytes) {
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void apply(ByteBuffer record, Replayer replayer) {
+        byte type = record.get();
+        if (type == TYPE_INSERT) {
+            String faceID = getString(record);
+            String tag = getString(record);
+            String group = getString(record);
+            long updateTime = record.getLong();
+            float[] vector = new float[dim];
+            record.asFloatBuffer().get(vector);
+            replayer.insert(faceID, vector, updateTime, tag, group);
+        } else if (type == TYPE_DELETE) {
+            replayer.delete(getString(record));
+        } else if (type == TYPE_CLEAR) {
+            replayer.clear();
+        }
+    }
+
+    private static String getString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getShort() & 0xFFFF];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] utf8(String value) {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("wal string too long");
+        }
+        return bytes;
+    }
+}
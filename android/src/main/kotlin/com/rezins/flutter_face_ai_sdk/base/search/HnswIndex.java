@@ -0,0 +1,592 @@
+package com.rezins.flutter_face_ai_sdk.base.search;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * HNSW 近似最近邻图索引，节点就是 {@link FaceGalleryStore} 的行号，向量直接读映射区不另存
+ * <p>
+ * 插入随 insertFaceFeature 增量建图；删除只打墓碑，节点保留用于图导航，搜索结果中过滤掉。
+ * efSearch 越大召回越高耗时越长，可用 {@link HnswRecallReport} 对比暴力搜索评估
+ */
+public class HnswIndex implements FaceGalleryStore.OnGalleryChangedListener {
+    private static final String TAG = "HnswIndex";
+    public static final int DEFAULT_M = 16;
+    public static final int DEFAULT_EF_CONSTRUCTION = 64;
+    public static final int DEFAULT_EF_SEARCH = 64;
+
+    private final FaceGalleryStore store;
+    private final int dim;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMult;
+    private final Random random = new Random(42);
+    private volatile int efSearch = DEFAULT_EF_SEARCH;
+
+    //links[node][layer] 第0位是邻居数量
+    private int[][][] links = new int[0][][];
+    private int nodeCount;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    private volatile boolean ready;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ThreadLocal<SearchContext> contexts;
+
+    public HnswIndex(FaceGalleryStore store) {
+        this(store, DEFAULT_M, DEFAULT_EF_CONSTRUCTION);
+    }
+
+    public HnswIndex(FaceGalleryStore store, int m, int efConstruction) {
+        this.store = store;
+        this.dim = store.getDim();
+        this.m = m;
+        this.maxM0 = m * 2;
+        this.efConstruction = efConstruction;
+        this.levelMult = 1 / Math.log(m);
+        this.contexts = ThreadLocal.withInitial(() -> new SearchContext(dim));
+        store.addOnGalleryChangedListener(this);
+    }
+
+    /**
+     * 全量建图，比较耗时，请在子线程调用。建图期间新增的数据也会一并追上
+     */
+    public void build() {
+        long start = System.currentTimeMillis();
+        while (true) {
+            lock.writeLock().lock();
+            try {
+                if (nodeCount >= store.size()) {
+                    ready = true;
+                    break;
+                }
+                insertNode(nodeCount);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        Log.d(TAG, "build " + nodeCount + " nodes in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 复制当前图结构，用于写入 {@link GallerySnapshot}
+     */
+    Graph snapshotGraph() {
+        lock.readLock().lock();
+        try {
+            int[][][] copy = new int[nodeCount][][];
+            for (int i = 0; i < nodeCount; i++) {
+                copy[i] = new int[links[i].length][];
+                for (int l = 0; l < links[i].length; l++) {
+                    copy[i][l] = links[i][l].clone();
+                }
+            }
+            return new Graph(m, nodeCount, entryPoint, maxLevel, copy);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 从快照恢复图结构，成功后直接可用，不需要再 build()
+     */
+    boolean restoreGraph(Graph graph) {
+        if (graph == null || graph.m != m) {
+            return false;
+        }
+        lock.writeLock().lock();
+        try {
+            links = graph.links;
+            nodeCount = graph.nodeCount;
+            entryPoint = graph.entryPoint;
+            maxLevel = graph.maxLevel;
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        Log.d(TAG, "restore " + nodeCount + " nodes from snapshot");
+        return true;
+    }
+
+    public int getEfSearch() {
+        return efSearch;
+    }
+
+    /**
+     * 搜索时候选队列长度，至少为返回数量 k
+     */
+    public void setEfSearch(int efSearch) {
+        this.efSearch = Math.max(1, efSearch);
+    }
+
+    /**
+     * @param probe 已经 L2 归一化的探针向量
+     * @return 相似度 >= threshold 的前 k 个结果，从高到低
+     */
+    public List<GallerySearchResult> search(float[] probe, int k, float threshold) {
+        return search(probe, k, threshold, efSearch);
+    }
+
+    public List<GallerySearchResult> search(float[] probe, int k, float threshold, int ef) {
+        TopKCollector top = new TopKCollector(k);
+        top.reset(threshold);
+        searchInto(probe, top, ef);
+        List<GallerySearchResult> results = new ArrayList<>(top.size());
+        for (int i = 0; i < top.size(); i++) {
+            results.add(new GallerySearchResult(store.faceIDAt(top.rowAt(i)), top.scoreAt(i)));
+        }
+        return results;
+    }
+
+    /**
+     * 结果写入 out（容量即 k，阈值为 out 的 minScore）并排好序，过程中不创建结果对象
+     */
+    public void searchInto(float[] probe, TopKCollector out, int ef) {
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0) {
+                out.sort();
+                return;
+            }
+            SearchContext ctx = contexts.get();
+            int ep = greedyDescend(probe, entryPoint, maxLevel, 0);
+            searchLayer(ctx, probe, ep, Math.max(ef, out.capacity()), 0);
+            ScoreHeap found = ctx.results;
+            while (found.size() > 0) {
+                float score = found.topScore();
+                int row = found.pop();
+                if (!store.isDeleted(row)) {
+                    out.offer(row, score);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        out.sort();
+    }
+
+    @Override
+    public void onInserted(int index) {
+        lock.writeLock().lock();
+        try {
+            //建图尚未追上的新行交给 build() 处理
+            if (index <= nodeCount) {
+                insertNode(index);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onDeleted(int index) {
+        //墓碑由 store 判断，节点保留用于导航
+    }
+
+    @Override
+    public void onCleared() {
+        lock.writeLock().lock();
+        try {
+            links = new int[0][][];
+            nodeCount = 0;
+            entryPoint = -1;
+            maxLevel = -1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ************************** 建图 ***********************************
+
+    private void insertNode(int node) {
+        SearchContext ctx = contexts.get();
+        float[] vector = new float[dim];
+        store.readVector(node, vector);
+
+        int level;
+        if (node < nodeCount) {
+            //faceID 覆盖更新：保留层数，重新连边
+            level = links[node].length - 1;
+            for (int[] layer : links[node]) {
+                layer[0] = 0;
+            }
+        } else {
+            level = (int) (-Math.log(1 - random.nextDouble()) * levelMult);
+            if (node >= links.length) {
+                links = Arrays.copyOf(links, Math.max(node + 1, Math.max(1024, links.length * 2)));
+            }
+            int[][] nodeLinks = new int[level + 1][];
+            for (int l = 0; l <= level; l++) {
+                nodeLinks[l] = new int[(l == 0 ? maxM0 : m) + 1];
+            }
+            links[node] = nodeLinks;
+            nodeCount = node + 1;
+        }
+
+        if (entryPoint < 0 || (entryPoint == node && nodeCount == 1)) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+
+        int ep = greedyDescend(vector, entryPoint, maxLevel, level + 1);
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            searchLayer(ctx, vector, ep, efConstruction, l);
+            int count = drainDescending(ctx, node);
+            if (count == 0) {
+                continue;
+            }
+            ep = ctx.drainIds[0];
+            int[] selected = selectNeighbors(ctx, count, m);
+            int[] own = links[node][l];
+            own[0] = selected.length;
+            System.arraycopy(selected, 0, own, 1, selected.length);
+            for (int neighbor : selected) {
+                connect(neighbor, node, l, ctx);
+            }
+        }
+        if (level > maxLevel) {
+            entryPoint = node;
+            maxLevel = level;
+        }
+    }
+
+    /**
+     * 给 neighbor 增加一条指向 node 的边，满了则替换最远的邻居
+     */
+    private void connect(int neighbor, int node, int layer, SearchContext ctx) {
+        int[] nl = links[neighbor][layer];
+        int count = nl[0];
+        for (int i = 1; i <= count; i++) {
+            if (nl[i] == node) {
+                return;
+            }
+        }
+        int cap = nl.length - 1;
+        if (count < cap) {
+            nl[++count] = node;
+            nl[0] = count;
+            return;
+        }
+        //邻居表已满：替换掉离 neighbor 最远的一个，比启发式重选便宜得多
+        float[] base = ctx.scratch;
+        store.readVector(neighbor, base);
+        int worst = -1;
+        float worstScore = store.dot(node, base);
+        for (int i = 1; i <= count; i++) {
+            float s = store.dot(nl[i], base);
+            if (s < worstScore) {
+                worstScore = s;
+                worst = i;
+            }
+        }
+        if (worst > 0) {
+            nl[worst] = node;
+        }
+    }
+
+    /**
+     * HNSW 启发式选边：候选比已选中的任何邻居离自己更近才保留，保证图的多方向连通
+     * 候选来自 ctx.drainIds / drainScores，按相似度降序
+     */
+    private int[] selectNeighbors(SearchContext ctx, int count, int max) {
+        int[] ids = ctx.drainIds;
+        float[] scores = ctx.drainScores;
+        float[] scratch = ctx.scratch;
+        int[] selected = new int[Math.min(max, count)];
+        boolean[] taken = new boolean[count];
+        int n = 0;
+        for (int i = 0; i < count && n < selected.length; i++) {
+            store.readVector(ids[i], scratch);
+            boolean keep = true;
+            for (int j = 0; j < n; j++) {
+                if (store.dot(selected[j], scratch) > scores[i]) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                selected[n++] = ids[i];
+                taken[i] = true;
+            }
+        }
+        //启发式剔除过多时用最近的候选补齐
+        for (int i = 0; i < count && n < selected.length; i++) {
+            if (!taken[i]) {
+                selected[n++] = ids[i];
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * 弹出 ctx.results 全部元素，按相似度降序写入 ctx.drainIds / drainScores
+     *
+     * @return 去掉 exclude 后的数量
+     */
+    private int drainDescending(SearchContext ctx, int exclude) {
+        ScoreHeap heap = ctx.results;
+        int n = heap.size();
+        if (ctx.drainIds.length < n) {
+            ctx.drainIds = new int[n];
+            ctx.drainScores = new float[n];
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            ctx.drainScores[i] = heap.topScore();
+            ctx.drainIds[i] = heap.pop();
+        }
+        int w = 0;
+        for (int i = 0; i < n; i++) {
+            if (ctx.drainIds[i] != exclude) {
+                ctx.drainIds[w] = ctx.drainIds[i];
+                ctx.drainScores[w++] = ctx.drainScores[i];
+            }
+        }
+        return w;
+    }
+
+    // ************************** 搜索 ***********************************
+
+    private int greedyDescend(float[] query, int ep, int fromLevel, int toLevel) {
+        float best = store.dot(ep, query);
+        for (int l = fromLevel; l >= toLevel; l--) {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                int[][] nodeLinks = links[ep];
+                if (l >= nodeLinks.length) {
+                    break;
+                }
+                int[] nl = nodeLinks[l];
+                for (int i = 1; i <= nl[0]; i++) {
+                    float s = store.dot(nl[i], query);
+                    if (s > best) {
+                        best = s;
+                        ep = nl[i];
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return ep;
+    }
+
+    /**
+     * 单层 beam search，结果留在 ctx.results（小顶堆，最多 ef 个）
+     */
+    private void searchLayer(SearchContext ctx, float[] query, int ep, int ef, int layer) {
+        ctx.nextVisit(nodeCount);
+        ScoreHeap candidates = ctx.candidates;
+        ScoreHeap results = ctx.results;
+        candidates.clear();
+        results.clear();
+
+        float s = store.dot(ep, query);
+        ctx.visit(ep);
+        candidates.push(ep, -s);
+        results.push(ep, s);
+
+        while (candidates.size() > 0) {
+            float cs = -candidates.topScore();
+            int c = candidates.pop();
+            if (results.size() >= ef && cs < results.topScore()) {
+                break;
+            }
+            int[][] nodeLinks = links[c];
+            if (layer >= nodeLinks.length) {
+                continue;
+            }
+            int[] nl = nodeLinks[layer];
+            for (int i = 1; i <= nl[0]; i++) {
+                int n = nl[i];
+                if (!ctx.visit(n)) {
+                    continue;
+                }
+                float ns = store.dot(n, query);
+                if (results.size() < ef || ns > results.topScore()) {
+                    candidates.push(n, -ns);
+                    results.push(n, ns);
+                    if (results.size() > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 图结构的快照，序列化为 int 序列：m, nodeCount, entryPoint, maxLevel, 每个节点层数, 各层邻居数组
+     */
+    static final class Graph {
+        final int m;
+        final int nodeCount;
+        final int entryPoint;
+        final int maxLevel;
+        final int[][][] links;
+
+        Graph(int m, int nodeCount, int entryPoint, int maxLevel, int[][][] links) {
+            this.m = m;
+            this.nodeCount = nodeCount;
+            this.entryPoint = entryPoint;
+            this.maxLevel = maxLevel;
+            this.links = links;
+        }
+
+        void write(GallerySnapshot.SectionWriter writer) throws IOException {
+            writer.putInt(m);
+            writer.putInt(nodeCount);
+            writer.putInt(entryPoint);
+            writer.putInt(maxLevel);
+            for (int i = 0; i < nodeCount; i++) {
+                writer.putInt(links[i].length);
+            }
+            for (int i = 0; i < nodeCount; i++) {
+                for (int[] layer : links[i]) {
+                    for (int v : layer) {
+                        writer.putInt(v);
+                    }
+                }
+            }
+        }
+
+        static Graph read(IntBuffer buffer) {
+            int m = buffer.get();
+            int nodeCount = buffer.get();
+            int entryPoint = buffer.get();
+            int maxLevel = buffer.get();
+            int[] levels = new int[nodeCount];
+            buffer.get(levels);
+            //多留空位，恢复后继续增量插入时不用马上扩容
+            int[][][] links = new int[Math.max(1024, nodeCount + nodeCount / 4)][][];
+            for (int i = 0; i < nodeCount; i++) {
+                links[i] = new int[levels[i]][];
+                for (int l = 0; l < levels[i]; l++) {
+                    links[i][l] = new int[(l == 0 ? m * 2 : m) + 1];
+                    buffer.get(links[i][l]);
+                }
+            }
+            return new Graph(m, nodeCount, entryPoint, maxLevel, links);
+        }
+    }
+
+    private static final class SearchContext {
+        final ScoreHeap candidates = new ScoreHeap(64);
+        final ScoreHeap results = new ScoreHeap(64);
+        final float[] scratch;
+        int[] drainIds = new int[0];
+        float[] drainScores = new float[0];
+        int[] visited = new int[0];
+        int generation;
+
+        SearchContext(int dim) {
+            scratch = new float[dim];
+        }
+
+        void nextVisit(int nodes) {
+            if (visited.length < nodes) {
+                visited = new int[Math.max(nodes, visited.length * 2)];
+                generation = 0;
+            }
+            if (++generation == Integer.MAX_VALUE) {
+                Arrays.fill(visited, 0);
+                generation = 1;
+            }
+        }
+
+        /**
+         * @return 首次访问返回 true
+         */
+        boolean visit(int node) {
+            if (visited[node] == generation) {
+                return false;
+            }
+            visited[node] = generation;
+            return true;
+        }
+    }
+
+    /**
+     * 按分数的小顶堆，基本类型数组实现避免装箱
+     */
+    private static final class ScoreHeap {
+        private int[] ids;
+        private float[] scores;
+        private int size;
+
+        ScoreHeap(int capacity) {
+            ids = new int[capacity];
+            scores = new float[capacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        float topScore() {
+            return scores[0];
+        }
+
+        void push(int id, float score) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (scores[parent] <= score) {
+                    break;
+                }
+                ids[i] = ids[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            ids[i] = id;
+            scores[i] = score;
+        }
+
+        int pop() {
+            int top = ids[0];
+            size--;
+            if (size > 0) {
+                int id = ids[size];
+                float score = scores[size];
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && scores[child + 1] < scores[child]) {
+                        child++;
+                    }
+                    if (scores[child] >= score) {
+                        break;
+                    }
+                    ids[i] = ids[child];
+                    scores[i] = scores[child];
+                    i = child;
+                }
+                ids[i] = id;
+                scores[i] = score;
+            }
+            return top;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.rezins.flutter_face_ai_sdk.base.search;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * HNSW 召回率/耗时评估：从特征库中随机抽样加噪声作为探针，和全量暴力搜索的 top-k 对比
+ * <p>
+ * 调试时在子线程调用，输出每个 efSearch 的 recall@k 和平均耗时，用于现场选择合适的 efSearch
+ */
+public final class HnswRecallReport {
+
+    private HnswRecallReport() {
+    }
+
+    /**
+     * @param noise 探针噪声标准差，0.02 左右接近同一个人不同照片的差异
+     */
+    public static String evaluate(FaceGalleryStore store, HnswIndex index, int queries, int k,
+                                  int[] efSearchValues, float noise) {
+        int size = store.size();
+        int dim = store.getDim();
+        if (store.liveSize() == 0 || queries <= 0) {
+            return "gallery empty";
+        }
+        Random random = new Random(7);
+        float[][] probes = new float[queries][dim];
+        for (int q = 0; q < queries; q++) {
+            int row;
+            do {
+                row = random.nextInt(size);
+            } while (store.isDeleted(row));
+            store.readVector(row, probes[q]);
+            for (int i = 0; i < dim; i++) {
+                probes[q][i] += (float) (random.nextGaussian() * noise);
+            }
+            FaceFeatureCodec.normalize(probes[q]);
+        }
+
+        //暴力搜索作为真值
+        int[][] truth = new int[queries][];
+        long bruteNanos = 0;
+        for (int q = 0; q < queries; q++) {
+            long start = System.nanoTime();
+            truth[q] = bruteForceTopK(store, probes[q], k);
+            bruteNanos += System.nanoTime() - start;
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.US, "gallery=%d queries=%d k=%d%n", store.liveSize(), queries, k));
+        report.append(String.format(Locale.US, "brute force     recall=1.0000 avg=%.3fms%n", bruteNanos / 1e6 / queries));
+        for (int ef : efSearchValues) {
+            long nanos = 0;
+            int hit = 0;
+            for (int q = 0; q < queries; q++) {
+                long start = System.nanoTime();
+                List<GallerySearchResult> results = index.search(probes[q], k, -1f, ef);
+                nanos += System.nanoTime() - start;
+                for (GallerySearchResult result : results) {
+                    int row = store.indexOf(result.getFaceName());
+                    for (int t : truth[q]) {
+                        if (t == row) {
+                            hit++;
+                            break;
+                        }
+                    }
+                }
+            }
+            report.append(String.format(Locale.US, "hnsw ef=%-6d recall=%.4f avg=%.3fms%n",
+                    ef, (float) hit / (queries * Math.min(k, store.liveSize())), nanos / 1e6 / queries));
+        }
+        return report.toString();
+    }
+
+    private static int[] bruteForceTopK(FaceGalleryStore store, float[] probe, int k) {
+        int[] ids = new int[k];
+        float[] scores = new float[k];
+        int filled = 0;
+        for (int i = 0, size = store.size(); i < size; i++) {
+            if (store.isDeleted(i)) {
+                continue;
+            }
+            float score = store.dot(i, probe);
+            if (filled == k && score <= scores[k - 1]) {
+                continue;
+            }
+            int pos = filled == k ? k - 1 : filled++;
+            while (pos > 0 && scores[pos - 1] < score) {
+                scores[pos] = scores[pos - 1];
+                ids[pos] = ids[pos - 1];
+                pos--;
+            }
+            scores[pos] = score;
+            ids[pos] = i;
+        }
+        return filled == k ? ids : Arrays.copyOf(ids, filled);
+    }
+}
@@ -0,0 +1,146 @@
+package com.rezins.flutter_face_ai_sdk.base.search;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 最近识别过的人脸热点缓存：闸机场景同一批人几分钟内反复通过，先在热点集合里比对，
+ * 没有超过阈值的再搜索全库
+ * <p>
+ * 按最近识别时间 LRU 淘汰，超过 ttl 没有再出现的自动过期。同时统计命中率和节省的耗时
+ */
+public class HotFaceCache implements FaceGalleryStore.OnGalleryChangedListener {
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final long DEFAULT_TTL_MS = 10 * 60 * 1000L;
+
+    private final FaceGalleryStore store;
+    private final int capacity;
+    private long ttlMs = DEFAULT_TTL_MS;
+
+    //行号 -> 最近识别时间，accessOrder 即 LRU 顺序
+    private final LinkedHashMap<Integer, Long> lastSeen;
+    private int[] snapshot = new int[0];
+    private boolean dirty;
+
+    //统计
+    private long queries, hits;
+    private long hotNanos;
+    private long savedNanos;
+    private double fullSearchNanosAvg;
+
+    public HotFaceCache(FaceGalleryStore store, int capacity) {
+        this.store = store;
+        this.capacity = capacity;
+        this.lastSeen = new LinkedHashMap<Integer, Long>(capacity * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Long> eldest) {
+                return size() > HotFaceCache.this.capacity;
+            }
+        };
+        store.addOnGalleryChangedListener(this);
+    }
+
+    /**
+     * 超过该时间没有再识别到的人脸移出热点
+     */
+    public synchronized void setTtlMs(long ttlMs) {
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * 记录一次识别成功，SDK 的 onMostSimilar 回调和插件侧搜索都会调用
+     */
+    public void touch(String faceID) {
+        int row = store.indexOf(faceID);
+        if (row >= 0) {
+            touch(row);
+        }
+    }
+
+    public synchronized void touch(int row) {
+        if (lastSeen.put(row, System.currentTimeMillis()) == null) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * 当前未过期的热点行号
+     */
+    public synchronized int[] hotRows() {
+        long expireBefore = System.currentTimeMillis() - ttlMs;
+        //LRU 顺序最旧的在前，遇到没过期的就可以停止
+        Iterator<Map.Entry<Integer, Long>> iterator = lastSeen.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getValue() >= expireBefore) {
+                break;
+            }
+            iterator.remove();
+            dirty = true;
+        }
+        if (dirty || snapshot.length != lastSeen.size()) {
+            snapshot = new int[lastSeen.size()];
+            int i = 0;
+            for (Integer row : lastSeen.keySet()) {
+                snapshot[i++] = row;
+            }
+            dirty = false;
+        }
+        return snapshot;
+    }
+
+    public synchronized int size() {
+        return lastSeen.size();
+    }
+
+    synchronized void recordHit(long nanos) {
+        queries++;
+        hits++;
+        hotNanos += nanos;
+        if (fullSearchNanosAvg > nanos) {
+            savedNanos += (long) (fullSearchNanosAvg - nanos);
+        }
+    }
+
+    /**
+     * @param nanos 热点未命中，包含热点比对和全库搜索的总耗时
+     */
+    synchronized void recordMiss(long nanos) {
+        queries++;
+        //指数滑动平均，库大小变化后能较快跟上
+        fullSearchNanosAvg = fullSearchNanosAvg == 0 ? nanos : fullSearchNanosAvg * 0.9 + nanos * 0.1;
+    }
+
+    public synchronized float getHitRate() {
+        return queries == 0 ? 0f : (float) hits / queries;
+    }
+
+    public synchronized long getSavedMillis() {
+        return savedNanos / 1000000;
+    }
+
+    public synchronized String getStats() {
+        return String.format(Locale.US, "hot=%d queries=%d hitRate=%.3f avgHit=%.2fms avgFull=%.2fms saved=%dms",
+                lastSeen.size(), queries, getHitRate(), hits == 0 ? 0 : hotNanos / 1e6 / hits,
+                fullSearchNanosAvg / 1e6, getSavedMillis());
+    }
+
+    @Override
+    public void onInserted(int index) {
+        //faceID 覆盖更新后向量变了，热点比对读的是最新向量，无需处理
+    }
+
+    @Override
+    public synchronized void onDeleted(int index) {
+        if (lastSeen.remove(index) != null) {
+            dirty = true;
+        }
+    }
+
+    @Override
+    public synchronized void onCleared() {
+        lastSeen.clear();
+        dirty = true;
+    }
+}
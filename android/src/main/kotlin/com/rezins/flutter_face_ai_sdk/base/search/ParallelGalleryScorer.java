@@ -0,0 +1,190 @@
+package com.rezins.flutter_face_ai_sdk.base.search;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 多核并行暴力打分：按固定大小的分块 fork/join，每块各自取 top-K 再归并
+ * <p>
+ * 排序规则和 {@link TopKCollector} 一致，结果与单线程顺序扫描完全相同。
+ * 库很小时直接在调用线程扫描进调用方复用的收集器，不分配对象也省掉任务调度开销
+ */
+public class ParallelGalleryScorer {
+    public static final int BLOCK_SIZE = 4096;
+    public static final int TILE_SIZE = 64; //多探针批量打分时的行分块，int8 编码约 12KB 常驻 L1/L2
+
+    /**
+     * 单行打分，需要线程安全（只读）
+     */
+    public interface RowScorer {
+        float score(int row);
+    }
+
+    /**
+     * 多探针分块打分：对 tileRows 中的 count 行，给每个探针打分写入 scores[probe][j]，需要线程安全（只读）
+     */
+    public interface TileScorer {
+        void score(int[] tileRows, int count, float[][] scores);
+    }
+
+    private final ForkJoinPool pool;
+
+    public ParallelGalleryScorer(int parallelism) {
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    /**
+     * 结果写入 out（容量即 k，阈值沿用 out 的 minScore），未排序，调用方按需 sort
+     *
+     * @param rows  参与打分的行号，null 表示全库
+     * @param limit 只给行号小于 limit 的行打分，即打分数据（量化编码等）已经就绪的行数
+     */
+    public void topK(FaceGalleryStore store, int[] rows, int limit, TopKCollector out, RowScorer scorer) {
+        int size = rows == null ? limit : rows.length;
+        if (pool == null || size <= BLOCK_SIZE) {
+            scan(store, rows, limit, 0, size, out, scorer);
+            return;
+        }
+        out.merge(pool.invoke(new BlockTask(store, rows, limit, 0, size, out.capacity(), out.minScore(), scorer)));
+    }
+
+    /**
+     * 多个探针共用一次库扫描，每个探针的结果写入对应的 outs[p]（未排序）
+     */
+    public void topKBatch(FaceGalleryStore store, int[] rows, int limit, TopKCollector[] outs, int probeCount, TileScorer scorer) {
+        int size = rows == null ? limit : rows.length;
+        if (pool == null || size <= BLOCK_SIZE) {
+            scanTiles(store, rows, limit, 0, size, outs, probeCount, scorer);
+            return;
+        }
+        TopKCollector[] merged = pool.invoke(new BatchBlockTask(store, rows, limit, 0, size, outs, probeCount, scorer));
+        for (int p = 0; p < probeCount; p++) {
+            outs[p].merge(merged[p]);
+        }
+    }
+
+    private static void scanTiles(FaceGalleryStore store, int[] rows, int limit, int from, int to,
+                                  TopKCollector[] outs, int probeCount, TileScorer scorer) {
+        int[] tile = new int[TILE_SIZE];
+        float[][] scores = new float[probeCount][TILE_SIZE];
+        int count = 0;
+        for (int r = from; r <= to; r++) {
+            if (r < to) {
+                int row = rows == null ? r : rows[r];
+                if (row >= limit || store.isDeleted(row)) {
+                    continue;
+                }
+                tile[count++] = row;
+                if (count < TILE_SIZE) {
+                    continue;
+                }
+            }
+            if (count == 0) {
+                continue;
+            }
+            scorer.score(tile, count, scores);
+            for (int p = 0; p < probeCount; p++) {
+                TopKCollector out = outs[p];
+                float[] probeScores = scores[p];
+                for (int j = 0; j < count; j++) {
+                    out.offer(tile[j], probeScores[j]);
+                }
+            }
+            count = 0;
+        }
+    }
+
+    private static void scan(FaceGalleryStore store, int[] rows, int limit, int from, int to,
+                             TopKCollector collector, RowScorer scorer) {
+        for (int r = from; r < to; r++) {
+            int row = rows == null ? r : rows[r];
+            if (row < limit && !store.isDeleted(row)) {
+                collector.offer(row, scorer.score(row));
+            }
+        }
+    }
+
+    private static final class BlockTask extends RecursiveTask<TopKCollector> {
+        private static final long serialVersionUID = 1L;
+
+        private final FaceGalleryStore store;
+        private final int[] rows;
+        private final int limit, from, to, k;
+        private final float minScore;
+        private final RowScorer scorer;
+
+        BlockTask(FaceGalleryStore store, int[] rows, int limit, int from, int to, int k, float minScore, RowScorer scorer) {
+            this.store = store;
+            this.rows = rows;
+            this.limit = limit;
+            this.from = from;
+            this.to = to;
+            this.k = k;
+            this.minScore = minScore;
+            this.scorer = scorer;
+        }
+
+        @Override
+        protected TopKCollector compute() {
+            if (to - from <= BLOCK_SIZE) {
+                TopKCollector collector = new TopKCollector(k);
+                collector.reset(minScore);
+                scan(store, rows, limit, from, to, collector, scorer);
+                return collector;
+            }
+            //按块边界二分，保证每个叶子都是完整的块
+            int blocks = (to - from + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            int mid = from + (blocks / 2) * BLOCK_SIZE;
+            BlockTask right = new BlockTask(store, rows, limit, mid, to, k, minScore, scorer);
+            right.fork();
+            TopKCollector left = new BlockTask(store, rows, limit, from, mid, k, minScore, scorer).compute();
+            left.merge(right.join());
+            return left;
+        }
+    }
+
+    private static final class BatchBlockTask extends RecursiveTask<TopKCollector[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final FaceGalleryStore store;
+        private final int[] rows;
+        private final int limit, from, to, probeCount;
+        private final TopKCollector[] templates;
+        private final TileScorer scorer;
+
+        BatchBlockTask(FaceGalleryStore store, int[] rows, int limit, int from, int to,
+                       TopKCollector[] templates, int probeCount, TileScorer scorer) {
+            this.store = store;
+            this.rows = rows;
+            this.limit = limit;
+            this.from = from;
+            this.to = to;
+            this.templates = templates;
+            this.probeCount = probeCount;
+            this.scorer = scorer;
+        }
+
+        @Override
+        protected TopKCollector[] compute() {
+            if (to - from <= BLOCK_SIZE) {
+                TopKCollector[] collectors = new TopKCollector[probeCount];
+                for (int p = 0; p < probeCount; p++) {
+                    collectors[p] = new TopKCollector(templates[p].capacity());
+                    collectors[p].reset(templates[p].minScore());
+                }
+                scanTiles(store, rows, limit, from, to, collectors, probeCount, scorer);
+                return collectors;
+            }
+            int blocks = (to - from + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            int mid = from + (blocks / 2) * BLOCK_SIZE;
+            BatchBlockTask right = new BatchBlockTask(store, rows, limit, mid, to, templates, probeCount, scorer);
+            right.fork();
+            TopKCollector[] left = new BatchBlockTask(store, rows, limit, from, mid, templates, probeCount, scorer).compute();
+            TopKCollector[] other = right.join();
+            for (int p = 0; p < probeCount; p++) {
+                left[p].merge(other[p]);
+            }
+            return left;
+        }
+    }
+}
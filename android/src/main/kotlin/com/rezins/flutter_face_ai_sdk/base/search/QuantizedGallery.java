@@ -0,0 +1,235 @@
+package com.rezins.flutter_face_ai_sdk.base.search;
+
+import java.util.Arrays;
+
+/**
+ * 特征库的 int8 量化副本：每个向量一个 scale + dim 个 int8 编码，内存约为 float 的 1/4
+ * 另外保存每个向量的符号位编码，用于多探针批量搜索时的汉明距离初筛
+ * <p>
+ * 只用于初筛打分，最终分数由 {@link FaceGallerySearcher} 用原始 float 向量精确重排得到
+ * <p>
+ * 特征库先发布新的行数再通知量化，搜索线程必须按 {@link #view()} 中已量化的行数扫描，不能用 store.size()
+ */
+public class QuantizedGallery implements FaceGalleryStore.OnGalleryChangedListener {
+    private final FaceGalleryStore store;
+    private final int dim;
+    private final int signWords;
+    //写入都在锁内，扩容时换新数组，每次变更后发布一个新的只读视图
+    private byte[] codes = new byte[0];
+    private float[] scales = new float[0];
+    private long[] signs = new long[0];
+    private int rows; //已量化的行数
+    private volatile Codes published = new Codes(0, codes, scales, signs);
+    private final float[] scratch;
+    private final long[] signScratch;
+
+    public QuantizedGallery(FaceGalleryStore store) {
+        this(store, null);
+    }
+
+    /**
+     * @param snapshot 和特征库一致的快照，直接使用其中的编码，为 null 时全量重建
+     */
+    QuantizedGallery(FaceGalleryStore store, GallerySnapshot snapshot) {
+        this.store = store;
+        this.dim = store.getDim();
+        this.signWords = (dim + 63) / 64;
+        this.scratch = new float[dim];
+        this.signScratch = new long[signWords];
+        if (snapshot != null && snapshot.rows == store.size()) {
+            codes = snapshot.codes;
+            scales = snapshot.scales;
+            signs = snapshot.signs;
+            rows = snapshot.rows;
+            publish();
+        } else {
+            rebuild();
+        }
+        store.addOnGalleryChangedListener(this);
+    }
+
+    /**
+     * 全量重建，冷启动时只顺序读一遍映射的向量区
+     */
+    public synchronized void rebuild() {
+        int size = store.size();
+        ensureCapacity(size);
+        for (int i = 0; i < size; i++) {
+            quantizeRow(i);
+        }
+        rows = size;
+        publish();
+    }
+
+    public int getDim() {
+        return dim;
+    }
+
+    /**
+     * 当前编码的拷贝，写快照期间不阻塞新的入库
+     */
+    synchronized Codes snapshotCodes() {
+        return new Codes(rows, Arrays.copyOf(codes, rows * dim), Arrays.copyOf(scales, rows),
+                Arrays.copyOf(signs, rows * signWords));
+    }
+
+    /**
+     * 当前已量化的行和编码，行号 >= rows 的还没有编码，扫描时跳过。一次搜索只取一次
+     */
+    public Codes view() {
+        return published;
+    }
+
+    /**
+     * 量化探针向量，返回 scale，编码写入 out
+     */
+    public static float quantize(float[] vector, byte[] out) {
+        float maxAbs = 0f;
+        for (float v : vector) {
+            maxAbs = Math.max(maxAbs, Math.abs(v));
+        }
+        if (maxAbs == 0f) {
+            Arrays.fill(out, (byte) 0);
+            return 0f;
+        }
+        float scale = maxAbs / 127f;
+        float inv = 1f / scale;
+        for (int i = 0; i < vector.length; i++) {
+            out[i] = (byte) Math.round(vector[i] * inv);
+        }
+        return scale;
+    }
+
+    /**
+     * 近似余弦相似度：int8 点积乘以两个 scale
+     */
+    public float approxDot(Codes view, int index, byte[] probeCodes, float probeScale) {
+        byte[] c = view.codes;
+        int base = index * dim;
+        int sum = 0;
+        for (int i = 0; i < dim; i++) {
+            sum += c[base + i] * probeCodes[i];
+        }
+        return sum * view.scales[index] * probeScale;
+    }
+
+    /**
+     * 符号位编码：每一维大于 0 记 1，192 维压成 3 个 long
+     */
+    public static void signBits(float[] vector, long[] out) {
+        Arrays.fill(out, 0L);
+        for (int i = 0; i < vector.length; i++) {
+            if (vector[i] > 0f) {
+                out[i >>> 6] |= 1L << i;
+            }
+        }
+    }
+
+    public int signWords() {
+        return signWords;
+    }
+
+    /**
+     * 多探针汉明距离分块打分，分数为负的汉明距离（越大越相似）
+     * <p>
+     * 每行只读 signWords 个 long，所有探针共用这一次读取，计算量只有 int8 点积的几十分之一，
+     * 多探针时瓶颈在内存读取上，探针数增加耗时基本不涨
+     *
+     * @param rows 行号都要小于 view.rows
+     * @param out  out[p][j] 为第 p 个探针和 rows[j] 的分数
+     */
+    public void hammingTile(Codes view, int[] rows, int count, long[][] probeSigns, int probeCount, float[][] out) {
+        long[] bits = view.signs;
+        int words = signWords;
+        if (words == 3) {
+            //192 维特征的常见情况，库编码读进寄存器后给所有探针复用
+            for (int j = 0; j < count; j++) {
+                int base = rows[j] * 3;
+                long b0 = bits[base], b1 = bits[base + 1], b2 = bits[base + 2];
+                for (int p = 0; p < probeCount; p++) {
+                    long[] probe = probeSigns[p];
+                    out[p][j] = -(Long.bitCount(b0 ^ probe[0]) + Long.bitCount(b1 ^ probe[1]) + Long.bitCount(b2 ^ probe[2]));
+                }
+            }
+            return;
+        }
+        for (int j = 0; j < count; j++) {
+            int base = rows[j] * words;
+            for (int p = 0; p < probeCount; p++) {
+                long[] probe = probeSigns[p];
+                int distance = 0;
+                for (int w = 0; w < words; w++) {
+                    distance += Long.bitCount(bits[base + w] ^ probe[w]);
+                }
+                out[p][j] = -distance;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onInserted(int index) {
+        ensureCapacity(index + 1);
+        quantizeRow(index);
+        rows = Math.max(rows, index + 1);
+        publish();
+    }
+
+    @Override
+    public void onDeleted(int index) {
+        //墓碑由 store 判断，编码保留
+    }
+
+    @Override
+    public synchronized void onCleared() {
+        codes = new byte[0];
+        scales = new float[0];
+        signs = new long[0];
+        rows = 0;
+        publish();
+    }
+
+    private void publish() {
+        published = new Codes(rows, codes, scales, signs);
+    }
+
+    private void quantizeRow(int index) {
+        store.readVector(index, scratch);
+        byte[] row = new byte[dim];
+        float scale = quantize(scratch, row);
+        System.arraycopy(row, 0, codes, index * dim, dim);
+        scales[index] = scale;
+        signBits(scratch, signScratch);
+        System.arraycopy(signScratch, 0, signs, index * signWords, signWords);
+    }
+
+    private void ensureCapacity(int rows) {
+        if (scales.length >= rows) {
+            return;
+        }
+        int newRows = Math.max(rows, Math.max(1024, scales.length * 2));
+        codes = Arrays.copyOf(codes, newRows * dim);
+        scales = Arrays.copyOf(scales, newRows);
+        signs = Arrays.copyOf(signs, newRows * signWords);
+    }
+
+    /**
+     * 不可变的行数 + 编码数组，前 rows 行已经写好
+     */
+    public static final class Codes {
+        final int rows;
+        final byte[] codes;
+        final float[] scales;
+        final long[] signs;
+
+        Codes(int rows, byte[] codes, float[] scales, long[] signs) {
+            this.rows = rows;
+            this.codes = codes;
+            this.scales = scales;
+            this.signs = signs;
+        }
+
+        public int rows() {
+            return rows;
+        }
+    }
+}
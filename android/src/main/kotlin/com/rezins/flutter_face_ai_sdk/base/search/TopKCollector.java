@@ -0,0 +1,131 @@
+package com.rezins.flutter_face_ai_sdk.base.search;
+
+/**
+ * 固定容量的 top-K 收集器：基本类型数组实现的小顶堆，堆顶是当前最差的结果
+ * <p>
+ * 低于阈值的分数直接丢弃，收集过程不分配对象，{@link #reset} 后可以每帧复用。
+ * 排序规则：分数降序，分数相同时行号小的在前，和单线程顺序扫描的结果一致。
+ * 收集完调用 {@link #sort()} 后才能按名次读取 rowAt / scoreAt
+ */
+public class TopKCollector {
+    private final int capacity;
+    private final int[] rows;
+    private final float[] scores;
+    private float minScore = Float.NEGATIVE_INFINITY;
+    private int size;
+    private boolean sorted;
+
+    public TopKCollector(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.rows = new int[this.capacity];
+        this.scores = new float[this.capacity];
+    }
+
+    /**
+     * 清空结果并设置阈值，低于 minScore 的分数不会进入结果
+     */
+    public void reset(float minScore) {
+        this.minScore = minScore;
+        this.size = 0;
+        this.sorted = false;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public float minScore() {
+        return minScore;
+    }
+
+    public int rowAt(int i) {
+        return rows[i];
+    }
+
+    public float scoreAt(int i) {
+        return scores[i];
+    }
+
+    public void offer(int row, float score) {
+        if (score < minScore) {
+            return;
+        }
+        if (size < capacity) {
+            siftUp(size++, row, score);
+        } else if (worse(rows[0], scores[0], row, score)) {
+            siftDown(0, row, score, size);
+        }
+    }
+
+    /**
+     * 合并其他分块的结果，other 是否 sort 过都可以，本收集器必须还没有 sort
+     */
+    public void merge(TopKCollector other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.rows[i], other.scores[i]);
+        }
+    }
+
+    /**
+     * 原地堆排序为名次顺序（最好的在 0 位），之后不能再 offer，除非先 reset
+     */
+    public void sort() {
+        if (sorted) {
+            return;
+        }
+        //逐个把堆顶（最差）换到末尾，最后数组就是从好到差
+        for (int end = size - 1; end > 0; end--) {
+            int row = rows[end];
+            float score = scores[end];
+            rows[end] = rows[0];
+            scores[end] = scores[0];
+            siftDown(0, row, score, end);
+        }
+        sorted = true;
+    }
+
+    private void siftUp(int i, int row, float score) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!worse(row, score, rows[parent], scores[parent])) {
+                break;
+            }
+            rows[i] = rows[parent];
+            scores[i] = scores[parent];
+            i = parent;
+        }
+        rows[i] = row;
+        scores[i] = score;
+    }
+
+    private void siftDown(int i, int row, float score, int heapSize) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && worse(rows[child + 1], scores[child + 1], rows[child], scores[child])) {
+                child++;
+            }
+            if (!worse(rows[child], scores[child], row, score)) {
+                break;
+            }
+            rows[i] = rows[child];
+            scores[i] = scores[child];
+            i = child;
+        }
+        rows[i] = row;
+        scores[i] = score;
+    }
+
+    /**
+     * a 是否排在 b 之后
+     */
+    private static boolean worse(int rowA, float scoreA, int rowB, float scoreB) {
+        return scoreA < scoreB || (scoreA == scoreB && rowA > rowB);
+    }
+}
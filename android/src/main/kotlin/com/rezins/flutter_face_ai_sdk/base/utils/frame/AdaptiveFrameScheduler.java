@@ -0,0 +1,170 @@
+package com.rezins.flutter_face_ai_sdk.base.utils.frame;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.rezins.flutter_face_ai_sdk.base.utils.performance.DevicePerformance;
+
+/**
+ * 分析帧调度：统计每个阶段的耗时，按设备性能等级的目标帧率和耗时预算决定哪些帧送给 SDK 分析
+ * <p>
+ * 以前每一帧都送进 runSearchWithImageProxy / goVerifyWithImageProxy，算不过来的帧被 STRATEGY_KEEP_ONLY_LATEST
+ * 悄悄丢掉，低配板子 CPU 一直满载发热降频。现在两次分析的间隔取下面三者最大值：
+ * <ul>
+ *     <li>目标帧率对应的最小间隔，高配不限制</li>
+ *     <li>平均耗时 / 占空比上限，给 CPU 留出空闲时间</li>
+ *     <li>平均耗时超过预算时（一般是发热降频了）按超出比例继续拉长</li>
+ * </ul>
+ * 间隔最长不超过 {@link #MAX_INTERVAL_MS}，保证活体检测还有足够的帧。只在相机分析线程调用，不需要加锁
+ */
+public class AdaptiveFrameScheduler {
+    private static final String TAG = "AdaptiveFrameScheduler";
+
+    public static final int STAGE_ANALYZE = 0; //SDK 分析：检测、活体、识别
+    public static final int STAGE_COPY = 1;    //拷贝进 YuvFramePool
+    private static final String[] STAGE_NAMES = {"analyze", "copy"};
+
+    private static final long MAX_INTERVAL_MS = 200; //最低 5 帧每秒
+    private static final float EMA_ALPHA = 0.2f;
+    private static final long JITTER_NANOS = 5_000_000L; //帧时间抖动容差，避免 30 帧相机 100ms 间隔被量化成 4 帧
+
+    private static volatile int cachedPerformance = Integer.MIN_VALUE;
+
+    private final int devicePerformance;
+    private final long minIntervalNanos;
+    private final long budgetNanos;
+    private final float maxDutyCycle;
+
+    private final float[] stageCostNanos = new float[STAGE_NAMES.length];
+    private float frameCostNanos; //每个分析帧全部阶段耗时的平均值
+    private long intervalNanos;
+    private long lastProcessNanos;
+    private boolean frameActive;
+    private long currentFrameCost;
+
+    private volatile long processed;
+    private volatile long dropped;
+
+    /**
+     * 设备性能等级只检测一次，要用 EGL 和读 cpufreq，不要在主线程调用
+     */
+    public static AdaptiveFrameScheduler forDevice(Context context) {
+        if (cachedPerformance == Integer.MIN_VALUE) {
+            cachedPerformance = DevicePerformance.INSTANCE.getDevicePerformance(context.getApplicationContext());
+        }
+        return new AdaptiveFrameScheduler(cachedPerformance);
+    }
+
+    /**
+     * @param devicePerformance {@link DevicePerformance} 中的 DEVICE_PERFORMANCE_XXX，UNKNOWN 按低配处理
+     */
+    public AdaptiveFrameScheduler(int devicePerformance) {
+        this.devicePerformance = devicePerformance;
+        int maxFps;
+        int budgetMs;
+        switch (devicePerformance) {
+            case DevicePerformance.DEVICE_PERFORMANCE_HIGH:
+                maxFps = 0; //不限制，保持满帧
+                budgetMs = 66;
+                maxDutyCycle = 1.0f;
+                break;
+            case DevicePerformance.DEVICE_PERFORMANCE_MIDDLE:
+                maxFps = 15;
+                budgetMs = 80;
+                maxDutyCycle = 0.75f;
+                break;
+            default:
+                maxFps = 10;
+                budgetMs = 100;
+                maxDutyCycle = 0.5f;
+                break;
+        }
+        minIntervalNanos = maxFps > 0 ? 1_000_000_000L / maxFps : 0;
+        budgetNanos = budgetMs * 1_000_000L;
+        intervalNanos = minIntervalNanos;
+    }
+
+    /**
+     * 每帧开始时调用一次
+     *
+     * @param nowNanos System.nanoTime()
+     * @return false 表示这帧直接丢弃
+     */
+    public boolean shouldProcess(long nowNanos) {
+        frameActive = processed == 0 || nowNanos - lastProcessNanos >= intervalNanos - JITTER_NANOS;
+        if (frameActive) {
+            lastProcessNanos = nowNanos;
+            processed++;
+        } else {
+            dropped++;
+        }
+        return frameActive;
+    }
+
+    /**
+     * 记录当前帧某个阶段的耗时
+     */
+    public void recordStage(int stage, long costNanos) {
+        float old = stageCostNanos[stage];
+        stageCostNanos[stage] = old == 0f ? costNanos : old + EMA_ALPHA * (costNanos - old);
+        currentFrameCost += costNanos;
+    }
+
+    /**
+     * 当前帧全部阶段结束，被丢弃的帧不参与调节
+     */
+    public void endFrame() {
+        long cost = currentFrameCost;
+        currentFrameCost = 0;
+        if (!frameActive) {
+            return;
+        }
+        frameActive = false;
+        frameCostNanos = frameCostNanos == 0f ? cost
+                : frameCostNanos + EMA_ALPHA * (cost - frameCostNanos);
+
+        float interval = Math.max(minIntervalNanos, frameCostNanos / maxDutyCycle);
+        if (frameCostNanos > budgetNanos) {
+            interval *= frameCostNanos / budgetNanos;
+        }
+        intervalNanos = Math.min((long) interval, MAX_INTERVAL_MS * 1_000_000L);
+    }
+
+    public int getDevicePerformance() {
+        return devicePerformance;
+    }
+
+    public long getProcessedCount() {
+        return processed;
+    }
+
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * 阶段平均耗时，毫秒
+     */
+    public float getStageCostMillis(int stage) {
+        return stageCostNanos[stage] / 1_000_000f;
+    }
+
+    /**
+     * 当前两次分析之间的最小间隔，毫秒
+     */
+    public float getIntervalMillis() {
+        return intervalNanos / 1_000_000f;
+    }
+
+    public void logStats() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("performance=").append(devicePerformance)
+                .append(" processed=").append(processed)
+                .append(" dropped=").append(dropped)
+                .append(" interval=").append(getIntervalMillis()).append("ms");
+        for (int i = 0; i < STAGE_NAMES.length; i++) {
+            sb.append(' ').append(STAGE_NAMES[i]).append('=').append(getStageCostMillis(i)).append("ms");
+        }
+        Log.d(TAG, sb.toString());
+    }
+}
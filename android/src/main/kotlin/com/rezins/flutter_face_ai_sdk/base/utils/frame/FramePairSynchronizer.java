@@ -0,0 +1,231 @@
+package com.rezins.flutter_face_ai_sdk.base.utils.frame;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+
+/**
+ * RGB + IR 双目 UVC 摄像头的帧配对：按帧时间戳把两路画面对齐，只有时间差在 maxSkew 以内的一对才送给 SDK
+ * <p>
+ * 以前两个 USB 回调线程各自写 rgbReady / irReady，没有同步，可能拿到相差几百毫秒的两帧做红外活体。
+ * 现在每路一个有界队列（满了丢最旧的），配对规则：
+ * <ul>
+ *     <li>两路队头时间差在 maxSkew 内就配对，较早一路如果下一帧更接近另一路队头，先丢掉队头</li>
+ *     <li>超出 maxSkew 时较早的队头不可能再配上，直接丢弃</li>
+ * </ul>
+ * 同一时间只有一对在 SDK 中处理，处理期间配上的新对替换掉等待中的旧对，由正在处理的线程接着处理，两个回调线程不会同时调用 SDK
+ */
+public class FramePairSynchronizer {
+    private static final String TAG = "FramePairSynchronizer";
+    public static final long DEFAULT_MAX_SKEW_MS = 35;  //30 帧时约一帧间隔
+    public static final int DEFAULT_QUEUE_SIZE = 2;
+
+    public interface OnFramePairListener {
+        /**
+         * 回调期间两帧有效，返回后由同步器释放
+         */
+        void onFramePair(@NonNull Nv21BitmapPool.Frame rgb, @NonNull Nv21BitmapPool.Frame ir);
+    }
+
+    private final OnFramePairListener listener;
+    private final long maxSkewNanos;
+    private final int queueSize;
+
+    private final Object lock = new Object();
+    private final ArrayDeque<Nv21BitmapPool.Frame> rgbQueue;
+    private final ArrayDeque<Nv21BitmapPool.Frame> irQueue;
+    private Nv21BitmapPool.Frame pendingRgb, pendingIr; //已配对等待 SDK
+    private boolean dispatching;
+    private boolean released;
+
+    //lock 保护
+    private long pairs;
+    private long droppedFrames;
+    private long droppedPairs;
+    private long skewSumNanos;
+    private long maxSeenSkewNanos;
+
+    public FramePairSynchronizer(OnFramePairListener listener) {
+        this(DEFAULT_MAX_SKEW_MS, DEFAULT_QUEUE_SIZE, listener);
+    }
+
+    public FramePairSynchronizer(long maxSkewMs, int queueSize, OnFramePairListener listener) {
+        this.listener = listener;
+        this.maxSkewNanos = maxSkewMs * 1_000_000L;
+        this.queueSize = Math.max(1, queueSize);
+        rgbQueue = new ArrayDeque<>(this.queueSize);
+        irQueue = new ArrayDeque<>(this.queueSize);
+    }
+
+    /**
+     * 每路 {@link Nv21BitmapPool} 需要的槽位数：同步器最多持有 队列 + 等待中的一对 + SDK 处理中的一对，
+     * 再加摄像头回调正在转换的一帧。槽位不够时新帧转换不出来，只能丢弃
+     */
+    public int requiredPoolSlots() {
+        return queueSize + 2 + 1;
+    }
+
+    /**
+     * 摄像头回调线程调用，同步器会 retain 帧，调用方按原来的方式 release 自己的引用
+     */
+    public void offer(@NonNull Nv21BitmapPool.Frame frame, boolean isIR) {
+        synchronized (lock) {
+            if (released) {
+                return;
+            }
+            frame.retain();
+            ArrayDeque<Nv21BitmapPool.Frame> queue = isIR ? irQueue : rgbQueue;
+            if (queue.size() >= queueSize) {
+                queue.pollFirst().release();
+                droppedFrames++;
+            }
+            queue.addLast(frame);
+            matchLocked();
+            if (dispatching || pendingRgb == null) {
+                return;
+            }
+            dispatching = true;
+        }
+        dispatchLoop();
+    }
+
+    private void matchLocked() {
+        while (!rgbQueue.isEmpty() && !irQueue.isEmpty()) {
+            Nv21BitmapPool.Frame rgb = rgbQueue.peekFirst();
+            Nv21BitmapPool.Frame ir = irQueue.peekFirst();
+            boolean rgbEarlier = rgb.getTimestampNanos() <= ir.getTimestampNanos();
+            ArrayDeque<Nv21BitmapPool.Frame> earlierQueue = rgbEarlier ? rgbQueue : irQueue;
+            long otherTime = rgbEarlier ? ir.getTimestampNanos() : rgb.getTimestampNanos();
+
+            //较早一路的下一帧更接近另一路队头
+            if (earlierQueue.size() > 1) {
+                Nv21BitmapPool.Frame head = earlierQueue.pollFirst();
+                Nv21BitmapPool.Frame next = earlierQueue.peekFirst();
+                if (Math.abs(next.getTimestampNanos() - otherTime) < otherTime - head.getTimestampNanos()) {
+                    head.release();
+                    droppedFrames++;
+                    continue;
+                }
+                earlierQueue.addFirst(head);
+            }
+
+            long skew = Math.abs(rgb.getTimestampNanos() - ir.getTimestampNanos());
+            if (skew > maxSkewNanos) {
+                earlierQueue.pollFirst().release();
+                droppedFrames++;
+                continue;
+            }
+            rgbQueue.pollFirst();
+            irQueue.pollFirst();
+            if (pendingRgb != null) {
+                pendingRgb.release();
+                pendingIr.release();
+                droppedPairs++;
+            }
+            pendingRgb = rgb;
+            pendingIr = ir;
+            pairs++;
+            skewSumNanos += skew;
+            maxSeenSkewNanos = Math.max(maxSeenSkewNanos, skew);
+        }
+    }
+
+    private void dispatchLoop() {
+        while (true) {
+            Nv21BitmapPool.Frame rgb, ir;
+            synchronized (lock) {
+                rgb = pendingRgb;
+                ir = pendingIr;
+                pendingRgb = null;
+                pendingIr = null;
+                if (rgb == null || released) {
+                    dispatching = false;
+                    if (rgb != null) {
+                        rgb.release();
+                        ir.release();
+                    }
+                    return;
+                }
+            }
+            try {
+                listener.onFramePair(rgb, ir);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "onFramePair failed", e);
+            } finally {
+                rgb.release();
+                ir.release();
+            }
+        }
+    }
+
+    /**
+     * 释放排队中的帧，之后 offer 的帧直接忽略
+     */
+    public void release() {
+        synchronized (lock) {
+            released = true;
+            for (Nv21BitmapPool.Frame frame : rgbQueue) {
+                frame.release();
+            }
+            for (Nv21BitmapPool.Frame frame : irQueue) {
+                frame.release();
+            }
+            rgbQueue.clear();
+            irQueue.clear();
+            if (pendingRgb != null && !dispatching) {
+                pendingRgb.release();
+                pendingIr.release();
+                pendingRgb = null;
+                pendingIr = null;
+            }
+        }
+        logStats();
+    }
+
+    public long getPairCount() {
+        synchronized (lock) {
+            return pairs;
+        }
+    }
+
+    /**
+     * 没有配上对而丢弃的单帧数
+     */
+    public long getDroppedFrameCount() {
+        synchronized (lock) {
+            return droppedFrames;
+        }
+    }
+
+    /**
+     * 配上了但 SDK 忙，被更新的一对替换掉的对数
+     */
+    public long getDroppedPairCount() {
+        synchronized (lock) {
+            return droppedPairs;
+        }
+    }
+
+    /**
+     * 配对帧的平均时间差，毫秒
+     */
+    public float getAverageSkewMillis() {
+        synchronized (lock) {
+            return pairs == 0 ? 0f : skewSumNanos / (float) pairs / 1_000_000f;
+        }
+    }
+
+    public float getMaxSkewMillis() {
+        synchronized (lock) {
+            return maxSeenSkewNanos / 1_000_000f;
+        }
+    }
+
+    public void logStats() {
+        Log.d(TAG, "pairs=" + getPairCount() + " droppedFrames=" + getDroppedFrameCount()
+                + " droppedPairs=" + getDroppedPairCount() + " avgSkew=" + getAverageSkewMillis()
+                + "ms maxSkew=" + getMaxSkewMillis() + "ms");
+    }
+}
@@ -0,0 +1,285 @@
+package com.rezins.flutter_face_ai_sdk.base.utils.frame;
+
+import android.util.Log;
+
+import com.rezins.flutter_face_ai_sdk.R;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.StringRes;
+import androidx.camera.core.ImageProxy;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 送 SDK 前的画质检查，直接在 YUV 的亮度平面上计算，运动模糊、过暗过曝、逆光的帧不送进引擎做检测和特征提取
+ * <p>
+ * 画面中间区域（人脸通常所在位置）按 {@link #TARGET_SAMPLES} 个左右的点抽样：
+ * <ul>
+ *     <li>曝光：中间区域的亮度直方图，均值太低或接近饱和的点太多</li>
+ *     <li>逆光：四周平均亮度是中间的 backlightRatio 倍以上，且中间偏暗</li>
+ *     <li>清晰度：抽样点上水平、竖直二阶差分（拉普拉斯的两个分量）的方差取较小值，模糊的帧高频少，方差小</li>
+ * </ul>
+ * 连续拒绝 maxConsecutiveRejects 帧后放行一帧，环境一直不理想（比如门口固定逆光）时引擎仍然有机会工作。
+ * 只在一个线程调用 check
+ */
+public class FrameQualityGate {
+    private static final String TAG = "FrameQualityGate";
+    private static final int TARGET_SAMPLES = 160 * 120;
+
+    public static final int QUALITY_OK = 0;
+    public static final int QUALITY_TOO_DARK = 1;
+    public static final int QUALITY_TOO_BRIGHT = 2;
+    public static final int QUALITY_BACKLIGHT = 3;
+    public static final int QUALITY_BLURRY = 4;
+    private static final int QUALITY_COUNT = 5;
+
+    public interface OnQualityChangeListener {
+        /**
+         * 检查结果变化时回调，在调用 check 的线程
+         */
+        void onQualityChanged(int quality);
+    }
+
+    //可配置参数
+    private float centerRatio = 0.5f;      //中间区域占画面宽高的比例
+    private int minMean = 45;
+    private int maxMean = 215;
+    private float maxSaturated = 0.25f;    //亮度 >= 250 的点占比
+    private float backlightRatio = 2.2f;
+    private float minSharpness = 15f;
+    private int maxConsecutiveRejects = 15;
+    private OnQualityChangeListener listener;
+
+    private final int[] histogram = new int[256];
+    private int lastQuality = QUALITY_OK;
+    private int consecutiveRejects;
+
+    //统计
+    private long frames;
+    private final long[] counts = new long[QUALITY_COUNT];
+    private long checkNanos;
+    private float lastMean;
+    private float lastSharpness;
+
+    /**
+     * 中间区域占画面宽高的比例，默认 0.5
+     */
+    public FrameQualityGate setCenterRatio(float centerRatio) {
+        this.centerRatio = Math.max(0.1f, Math.min(1f, centerRatio));
+        return this;
+    }
+
+    /**
+     * 中间区域平均亮度范围，默认 45 - 215
+     */
+    public FrameQualityGate setExposureRange(int minMean, int maxMean) {
+        this.minMean = minMean;
+        this.maxMean = maxMean;
+        return this;
+    }
+
+    /**
+     * 中间区域过曝点（亮度 >= 250）最大占比，默认 0.25
+     */
+    public FrameQualityGate setMaxSaturated(float maxSaturated) {
+        this.maxSaturated = maxSaturated;
+        return this;
+    }
+
+    /**
+     * 四周和中间的亮度比超过多少算逆光，默认 2.2
+     */
+    public FrameQualityGate setBacklightRatio(float backlightRatio) {
+        this.backlightRatio = backlightRatio;
+        return this;
+    }
+
+    /**
+     * 二阶差分方差低于多少算模糊，默认 15，摄像头成像偏软的设备调低
+     */
+    public FrameQualityGate setMinSharpness(float minSharpness) {
+        this.minSharpness = minSharpness;
+        return this;
+    }
+
+    /**
+     * 连续拒绝多少帧后放行一帧，默认 15，0 表示不放行
+     */
+    public FrameQualityGate setMaxConsecutiveRejects(int maxConsecutiveRejects) {
+        this.maxConsecutiveRejects = Math.max(0, maxConsecutiveRejects);
+        return this;
+    }
+
+    public FrameQualityGate setOnQualityChangeListener(OnQualityChangeListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * CameraX 分析帧，使用 Y 平面
+     */
+    public boolean accept(@NonNull ImageProxy image) {
+        ImageProxy.PlaneProxy plane = image.getPlanes()[0];
+        return accept(plane.getBuffer(), image.getWidth(), image.getHeight(),
+                plane.getRowStride(), plane.getPixelStride());
+    }
+
+    /**
+     * @return true 表示这一帧送给引擎
+     */
+    public boolean accept(@NonNull ByteBuffer luma, int width, int height, int rowStride, int pixelStride) {
+        int quality = check(luma, width, height, rowStride, pixelStride);
+        if (quality == QUALITY_OK) {
+            consecutiveRejects = 0;
+            return true;
+        }
+        consecutiveRejects++;
+        if (maxConsecutiveRejects > 0 && consecutiveRejects > maxConsecutiveRejects) {
+            consecutiveRejects = 0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 只检查不计放行，返回 QUALITY_xxx
+     */
+    public int check(@NonNull ByteBuffer luma, int width, int height, int rowStride, int pixelStride) {
+        long start = System.nanoTime();
+        frames++;
+        int step = Math.max(1, (int) Math.sqrt((double) width * height / TARGET_SAMPLES));
+        int left = (int) (width * (1 - centerRatio) / 2);
+        int top = (int) (height * (1 - centerRatio) / 2);
+        int right = width - left;
+        int bottom = height - top;
+
+        //中间区域直方图 + 拉普拉斯，四周只累加亮度
+        Arrays.fill(histogram, 0);
+        long centerSum = 0, outerSum = 0;
+        int centerCount = 0, outerCount = 0;
+        double sumX = 0, sqX = 0, sumY = 0, sqY = 0;
+        int lapCount = 0;
+        for (int y = step / 2; y < height; y += step) {
+            int row = y * rowStride;
+            boolean rowInCenter = y >= top && y < bottom;
+            for (int x = step / 2; x < width; x += step) {
+                int v = luma.get(row + x * pixelStride) & 0xff;
+                if (!rowInCenter || x < left || x >= right) {
+                    outerSum += v;
+                    outerCount++;
+                    continue;
+                }
+                histogram[v]++;
+                centerSum += v;
+                centerCount++;
+                if (y > 0 && y + 1 < height && x > 0 && x + 1 < width) {
+                    //相邻像素的二阶差分，水平和竖直分开，运动模糊只会抹掉一个方向的高频
+                    int dxx = 2 * v - (luma.get(row + (x - 1) * pixelStride) & 0xff)
+                            - (luma.get(row + (x + 1) * pixelStride) & 0xff);
+                    int dyy = 2 * v - (luma.get(row - rowStride + x * pixelStride) & 0xff)
+                            - (luma.get(row + rowStride + x * pixelStride) & 0xff);
+                    sumX += dxx;
+                    sqX += dxx * dxx;
+                    sumY += dyy;
+                    sqY += dyy * dyy;
+                    lapCount++;
+                }
+            }
+        }
+
+        int quality = QUALITY_OK;
+        if (centerCount > 0) {
+            float centerMean = (float) centerSum / centerCount;
+            float outerMean = outerCount == 0 ? centerMean : (float) outerSum / outerCount;
+            int saturated = 0;
+            for (int i = 250; i < 256; i++) {
+                saturated += histogram[i];
+            }
+            lastSharpness = lapCount == 0 ? 0f : (float) Math.min(variance(sumX, sqX, lapCount), variance(sumY, sqY, lapCount));
+            lastMean = centerMean;
+
+            if (centerMean < maxMean && outerMean > centerMean * backlightRatio && outerMean > minMean * 2) {
+                quality = QUALITY_BACKLIGHT;
+            } else if (centerMean < minMean) {
+                quality = QUALITY_TOO_DARK;
+            } else if (centerMean > maxMean || saturated > centerCount * maxSaturated) {
+                quality = QUALITY_TOO_BRIGHT;
+            } else if (lastSharpness < minSharpness) {
+                quality = QUALITY_BLURRY;
+            }
+        }
+        counts[quality]++;
+        checkNanos += System.nanoTime() - start;
+
+        if (quality != lastQuality) {
+            lastQuality = quality;
+            if (listener != null) {
+                listener.onQualityChanged(quality);
+            }
+        }
+        return quality;
+    }
+
+    private static double variance(double sum, double sq, int n) {
+        double mean = sum / n;
+        return sq / n - mean * mean;
+    }
+
+    /**
+     * 检查结果对应的提示文字，QUALITY_OK 返回 0
+     */
+    @StringRes
+    public static int getTipsRes(int quality) {
+        switch (quality) {
+            case QUALITY_TOO_DARK:
+                return R.string.quality_too_dark_tips;
+            case QUALITY_TOO_BRIGHT:
+                return R.string.quality_too_bright_tips;
+            case QUALITY_BACKLIGHT:
+                return R.string.quality_backlight_tips;
+            case QUALITY_BLURRY:
+                return R.string.quality_blurry_tips;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 最近一次检查中间区域的平均亮度
+     */
+    public float getLastMean() {
+        return lastMean;
+    }
+
+    /**
+     * 最近一次检查的清晰度（二阶差分方差，取水平竖直较小值）
+     */
+    public float getLastSharpness() {
+        return lastSharpness;
+    }
+
+    public long getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * 各检查结果的累计帧数，quality 为 QUALITY_xxx
+     */
+    public long getCount(int quality) {
+        return counts[quality];
+    }
+
+    /**
+     * 检查自身累计耗时，毫秒
+     */
+    public float getCheckCostMillis() {
+        return checkNanos / 1_000_000f;
+    }
+
+    public void logStats() {
+        Log.d(TAG, "frames=" + frames + " ok=" + counts[QUALITY_OK] + " dark=" + counts[QUALITY_TOO_DARK]
+                + " bright=" + counts[QUALITY_TOO_BRIGHT] + " backlight=" + counts[QUALITY_BACKLIGHT]
+                + " blurry=" + counts[QUALITY_BLURRY] + " cost=" + getCheckCostMillis() + "ms");
+    }
+}
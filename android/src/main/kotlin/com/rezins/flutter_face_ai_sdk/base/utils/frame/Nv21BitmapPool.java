@@ -0,0 +1,155 @@
+package com.rezins.flutter_face_ai_sdk.base.utils.frame;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * NV21 转 Bitmap 的固定槽位池，给 UVC 摄像头的帧回调使用
+ * <p>
+ * 每个槽位有自己的像素数组和 Bitmap，只在分辨率或角度变化时重新分配，旋转和镜像在转换时一次完成。
+ * 转换得到的 {@link Frame} 引用计数为 1，SDK 处理完后 {@link Frame#release()} 归还；
+ * 需要跨回调持有（比如等另一路摄像头的帧配对）先 {@link Frame#retain()}。槽位全部被占用说明 SDK 还在处理，新帧直接丢弃
+ */
+public class Nv21BitmapPool {
+    private static final String TAG = "Nv21BitmapPool";
+    public static final int DEFAULT_SLOTS = 3; //单路使用：转换中一帧 + SDK 处理中一帧 + 余量一帧。RGB+IR 配对用 FramePairSynchronizer.requiredPoolSlots()
+
+    public static final class Frame {
+        private final Nv21BitmapPool pool;
+        private final AtomicInteger refCount = new AtomicInteger();
+        private int[] argb;
+        private byte[] luma; //只在 convertLuma 时使用
+        private Bitmap bitmap;
+        private long timestampNanos;
+
+        private Frame(Nv21BitmapPool pool) {
+            this.pool = pool;
+        }
+
+        /**
+         * 释放前有效，不要 recycle
+         */
+        public Bitmap getBitmap() {
+            return bitmap;
+        }
+
+        /**
+         * 收到帧回调时的 System.nanoTime()
+         */
+        public long getTimestampNanos() {
+            return timestampNanos;
+        }
+
+        public void retain() {
+            refCount.incrementAndGet();
+        }
+
+        public void release() {
+            int left = refCount.decrementAndGet();
+            if (left == 0) {
+                pool.free.offer(this);
+            } else if (left < 0) {
+                refCount.set(0);
+                Log.e(TAG, "frame released too many times");
+            }
+        }
+    }
+
+    private final ArrayBlockingQueue<Frame> free;
+    private volatile long converted;
+    private volatile long dropped;
+
+    public Nv21BitmapPool() {
+        this(DEFAULT_SLOTS);
+    }
+
+    public Nv21BitmapPool(int slots) {
+        free = new ArrayBlockingQueue<>(Math.max(1, slots));
+        for (int i = 0; i < Math.max(1, slots); i++) {
+            free.offer(new Frame(this));
+        }
+    }
+
+    /**
+     * 在摄像头帧回调线程调用
+     *
+     * @param nv21   从下标 0 开始的 NV21 数据
+     * @param degree 顺时针旋转角度 0 / 90 / 180 / 270
+     * @param mirror 旋转后是否左右翻转
+     * @return 没有空闲槽位或数据长度不对返回 null，这一帧丢弃
+     */
+    public Frame convert(ByteBuffer nv21, int width, int height, int degree, boolean mirror, long timestampNanos) {
+        Frame frame = acquire(nv21, width * height * 3 / 2, width, height, degree);
+        if (frame == null) {
+            return null;
+        }
+        Nv21Converter.toArgb(nv21, width, height, degree, mirror, frame.argb);
+        return finish(frame, width, height, degree, timestampNanos);
+    }
+
+    /**
+     * 红外摄像头画面本身就是灰度，只批量读取 Y 平面，查表展开为灰度 Bitmap，不读 UV 也没有颜色换算。
+     * 参数和返回值同 {@link #convert}
+     */
+    public Frame convertLuma(ByteBuffer nv21, int width, int height, int degree, boolean mirror, long timestampNanos) {
+        int frameSize = width * height;
+        Frame frame = acquire(nv21, frameSize, width, height, degree);
+        if (frame == null) {
+            return null;
+        }
+        if (frame.luma == null || frame.luma.length != frameSize) {
+            frame.luma = new byte[frameSize];
+        }
+        ByteBuffer y = nv21.duplicate();
+        y.clear();
+        y.get(frame.luma, 0, frameSize);
+        Nv21Converter.lumaToArgb(frame.luma, width, height, degree, mirror, frame.argb);
+        return finish(frame, width, height, degree, timestampNanos);
+    }
+
+    private Frame acquire(ByteBuffer nv21, int required, int width, int height, int degree) {
+        if (nv21 == null || nv21.capacity() < required) {
+            dropped++;
+            return null;
+        }
+        Frame frame = free.poll();
+        if (frame == null) {
+            dropped++;
+            return null;
+        }
+        boolean swap = Nv21Converter.isSwapped(degree);
+        int outWidth = swap ? height : width;
+        int outHeight = swap ? width : height;
+        if (frame.argb == null || frame.argb.length != width * height) {
+            frame.argb = new int[width * height];
+        }
+        if (frame.bitmap == null || frame.bitmap.getWidth() != outWidth || frame.bitmap.getHeight() != outHeight) {
+            frame.bitmap = Bitmap.createBitmap(outWidth, outHeight, Bitmap.Config.ARGB_8888);
+        }
+        return frame;
+    }
+
+    private Frame finish(Frame frame, int width, int height, int degree, long timestampNanos) {
+        int outWidth = Nv21Converter.isSwapped(degree) ? height : width;
+        frame.bitmap.setPixels(frame.argb, 0, outWidth, 0, 0, outWidth, frame.bitmap.getHeight());
+        frame.timestampNanos = timestampNanos;
+        frame.refCount.set(1);
+        converted++;
+        return frame;
+    }
+
+    public long getConvertedCount() {
+        return converted;
+    }
+
+    /**
+     * 槽位全部被占用而丢弃的帧数
+     */
+    public long getDroppedCount() {
+        return dropped;
+    }
+}
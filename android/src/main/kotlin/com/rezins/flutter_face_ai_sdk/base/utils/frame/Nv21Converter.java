@@ -0,0 +1,113 @@
+package com.rezins.flutter_face_ai_sdk.base.utils.frame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * NV21 转 ARGB，旋转和水平镜像在写入时一次完成，不需要中间图
+ */
+final class Nv21Converter {
+    //灰度到 ARGB 的查找表，和 U=V=128 时的 BT.601 转换结果一致
+    private static final int[] GRAY_LUT = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int c = Math.max(0, Math.min(255, (1192 * Math.max(0, i - 16)) >> 10));
+            GRAY_LUT[i] = 0xff000000 | (c << 16) | (c << 8) | c;
+        }
+    }
+
+    private Nv21Converter() {
+    }
+
+    /**
+     * @param nv21    width * height * 3 / 2 字节，从下标 0 开始
+     * @param degree  顺时针旋转角度 0 / 90 / 180 / 270
+     * @param mirror  旋转后再左右翻转
+     * @param argb    长度至少 width * height，输出宽度为旋转后的宽度
+     */
+    static void toArgb(ByteBuffer nv21, int width, int height, int degree, boolean mirror, int[] argb) {
+        //输出下标是源坐标的线性函数，算出原点和 x/y 方向步长后逐像素累加
+        int origin = outIndex(0, 0, width, height, degree, mirror);
+        int stepX = outIndex(1, 0, width, height, degree, mirror) - origin;
+        int stepY = outIndex(0, 1, width, height, degree, mirror) - origin;
+
+        int frameSize = width * height;
+        for (int y = 0; y < height; y++) {
+            int yRow = y * width;
+            int uvRow = frameSize + (y >> 1) * width;
+            int out = origin + y * stepY;
+            for (int x = 0; x < width; x++, out += stepX) {
+                int luma = (nv21.get(yRow + x) & 0xff) - 16;
+                if (luma < 0) luma = 0;
+                int uvIndex = uvRow + (x & ~1);
+                int v = (nv21.get(uvIndex) & 0xff) - 128;
+                int u = (nv21.get(uvIndex + 1) & 0xff) - 128;
+                //BT.601 定点
+                int y1192 = 1192 * luma;
+                int r = y1192 + 1634 * v;
+                int g = y1192 - 833 * v - 400 * u;
+                int b = y1192 + 2066 * u;
+                r = r < 0 ? 0 : (r > 262143 ? 262143 : r);
+                g = g < 0 ? 0 : (g > 262143 ? 262143 : g);
+                b = b < 0 ? 0 : (b > 262143 ? 262143 : b);
+                argb[out] = 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
+            }
+        }
+    }
+
+    /**
+     * 只用 Y 平面，查表展开成灰度 ARGB，给红外摄像头用
+     *
+     * @param luma 至少 width * height 字节
+     */
+    static void lumaToArgb(byte[] luma, int width, int height, int degree, boolean mirror, int[] argb) {
+        int origin = outIndex(0, 0, width, height, degree, mirror);
+        int stepX = outIndex(1, 0, width, height, degree, mirror) - origin;
+        int stepY = outIndex(0, 1, width, height, degree, mirror) - origin;
+        int[] lut = GRAY_LUT;
+        for (int y = 0; y < height; y++) {
+            int in = y * width;
+            int out = origin + y * stepY;
+            if (stepX == 1) {
+                for (int x = 0; x < width; x++) {
+                    argb[out + x] = lut[luma[in + x] & 0xff];
+                }
+            } else {
+                for (int x = 0; x < width; x++, out += stepX) {
+                    argb[out] = lut[luma[in + x] & 0xff];
+                }
+            }
+        }
+    }
+
+    static boolean isSwapped(int degree) {
+        return degree == 90 || degree == 270;
+    }
+
+    private static int outIndex(int x, int y, int width, int height, int degree, boolean mirror) {
+        int outWidth = isSwapped(degree) ? height : width;
+        int outX, outY;
+        switch (degree) {
+            case 90:
+                outX = height - 1 - y;
+                outY = x;
+                break;
+            case 180:
+                outX = width - 1 - x;
+                outY = height - 1 - y;
+                break;
+            case 270:
+                outX = y;
+                outY = width - 1 - x;
+                break;
+            default:
+                outX = x;
+                outY = y;
+                break;
+        }
+        if (mirror) {
+            outX = outWidth - 1 - outX;
+        }
+        return outY * outWidth + outX;
+    }
+}
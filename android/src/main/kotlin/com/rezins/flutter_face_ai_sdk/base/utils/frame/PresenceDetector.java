@@ -0,0 +1,293 @@
+package com.rezins.flutter_face_ai_sdk.base.utils.frame;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.camera.core.ImageProxy;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 纯 Java 的有人检测：没人的时候不把帧送进人脸搜索引擎，机器不会一直满负荷工作发热老化
+ * <p>
+ * 亮度平面缩小成 {@link #GRID_WIDTH} x {@link #GRID_HEIGHT} 的网格，扣除整体亮度变化（自动曝光、开灯）后：
+ * 和上一次采样比较得到运动比例（帧差），和背景模型（按时间常数更新的均值）比较得到前景比例。
+ * <ul>
+ *     <li>空闲时每 idleInterval 只采样一帧，其它帧直接跳过，连下采样都不做</li>
+ *     <li>运动比例连续 enterFrames 次超过 enterRatio 进入有人状态，帧放行</li>
+ *     <li>运动比例低于 exitRatio 并且前景比例低于 enterRatio，持续 idleTimeout 才回到空闲，中间有一次超过就重新计时</li>
+ * </ul>
+ * 运动中的格子不更新背景；静止的前景（放在镜头前的物体、人离开后露出的背景）按 {@link #FOREGROUND_TAU_MS} 融入背景，
+ * 机器不会一直处于有人状态；完全不动的人大约 20 秒后也会回到空闲，一动就在两次采样内恢复。
+ * 只在一个线程调用 onFrame，{@link #isPresent()} 可以在其它线程读
+ */
+public class PresenceDetector {
+    private static final String TAG = "PresenceDetector";
+    public static final int GRID_WIDTH = 32;
+    public static final int GRID_HEIGHT = 24;
+    private static final int SAMPLES_PER_CELL_SIDE = 4;
+    private static final long BACKGROUND_TAU_MS = 2000;
+    private static final long FOREGROUND_TAU_MS = 6000;
+
+    public interface OnPresenceChangeListener {
+        void onPresenceChanged(boolean present);
+    }
+
+    //可配置参数
+    private long idleIntervalNanos = 250_000_000L;
+    private long idleTimeoutNanos = 5_000_000_000L;
+    private int diffThreshold = 12;     //亮度差，0-255
+    private float enterRatio = 0.03f;
+    private float exitRatio = 0.01f;
+    private int enterFrames = 2;
+    private OnPresenceChangeListener listener;
+
+    private final float[] background = new float[GRID_WIDTH * GRID_HEIGHT];
+    private final float[] current = new float[GRID_WIDTH * GRID_HEIGHT];
+    private final float[] previous = new float[GRID_WIDTH * GRID_HEIGHT];
+    private boolean hasBackground;
+    private volatile boolean present;
+    private int enterCount;
+    private long lastSampleNanos;
+    private long lastMotionNanos;
+    private float lastMotionRatio;
+    private float lastForegroundRatio;
+
+    //统计
+    private long frames;
+    private long passedFrames;
+    private long sampledFrames;
+    private long detectNanos;
+    private long engineNanos;
+    private long engineFrames;
+
+    /**
+     * 空闲时采样间隔，默认 250ms
+     */
+    public PresenceDetector setIdleInterval(long ms) {
+        idleIntervalNanos = ms * 1_000_000L;
+        return this;
+    }
+
+    /**
+     * 没有运动多久回到空闲，默认 5 秒
+     */
+    public PresenceDetector setIdleTimeout(long ms) {
+        idleTimeoutNanos = ms * 1_000_000L;
+        return this;
+    }
+
+    /**
+     * 格子判定为运动的亮度差，默认 12
+     */
+    public PresenceDetector setDiffThreshold(int diffThreshold) {
+        this.diffThreshold = diffThreshold;
+        return this;
+    }
+
+    /**
+     * 进入和保持有人状态的运动格子比例，enter 要大于 exit，默认 0.03 / 0.01
+     */
+    public PresenceDetector setMotionRatio(float enterRatio, float exitRatio) {
+        this.enterRatio = enterRatio;
+        this.exitRatio = Math.min(exitRatio, enterRatio);
+        return this;
+    }
+
+    /**
+     * 连续多少次采样超过 enterRatio 才算有人，过滤单帧闪烁，默认 2
+     */
+    public PresenceDetector setEnterFrames(int enterFrames) {
+        this.enterFrames = Math.max(1, enterFrames);
+        return this;
+    }
+
+    public PresenceDetector setOnPresenceChangeListener(OnPresenceChangeListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * CameraX 分析帧，使用 Y 平面
+     */
+    public boolean onFrame(@NonNull ImageProxy image, long nowNanos) {
+        ImageProxy.PlaneProxy plane = image.getPlanes()[0];
+        return onFrame(plane.getBuffer(), image.getWidth(), image.getHeight(),
+                plane.getRowStride(), plane.getPixelStride(), nowNanos);
+    }
+
+    /**
+     * @param luma     亮度平面，NV21 直接传整个 buffer，rowStride = width，pixelStride = 1
+     * @param nowNanos System.nanoTime()
+     * @return true 表示有人，这一帧送给引擎
+     */
+    public boolean onFrame(@NonNull ByteBuffer luma, int width, int height, int rowStride, int pixelStride, long nowNanos) {
+        frames++;
+        if (!present && hasBackground && nowNanos - lastSampleNanos < idleIntervalNanos) {
+            return false;
+        }
+        long start = System.nanoTime();
+        long dt = hasBackground ? nowNanos - lastSampleNanos : 0;
+        lastSampleNanos = nowNanos;
+        sampledFrames++;
+        downsample(luma, width, height, rowStride, pixelStride);
+        if (!hasBackground) {
+            System.arraycopy(current, 0, background, 0, current.length);
+            hasBackground = true;
+            lastMotionNanos = nowNanos;
+        } else {
+            compareAndUpdate(dt);
+            updateState(nowNanos);
+        }
+        System.arraycopy(current, 0, previous, 0, current.length);
+        detectNanos += System.nanoTime() - start;
+        if (present) {
+            passedFrames++;
+        }
+        return present;
+    }
+
+    private void downsample(ByteBuffer luma, int width, int height, int rowStride, int pixelStride) {
+        int cellW = width / GRID_WIDTH;
+        int cellH = height / GRID_HEIGHT;
+        int stepX = Math.max(1, cellW / SAMPLES_PER_CELL_SIDE);
+        int stepY = Math.max(1, cellH / SAMPLES_PER_CELL_SIDE);
+        for (int gy = 0; gy < GRID_HEIGHT; gy++) {
+            for (int gx = 0; gx < GRID_WIDTH; gx++) {
+                int sum = 0;
+                int count = 0;
+                for (int y = gy * cellH + stepY / 2; y < (gy + 1) * cellH; y += stepY) {
+                    int row = y * rowStride;
+                    for (int x = gx * cellW + stepX / 2; x < (gx + 1) * cellW; x += stepX) {
+                        sum += luma.get(row + x * pixelStride) & 0xff;
+                        count++;
+                    }
+                }
+                current[gy * GRID_WIDTH + gx] = count == 0 ? 0f : (float) sum / count;
+            }
+        }
+    }
+
+    /**
+     * 计算运动比例和前景比例，并更新背景，都扣除了整体亮度变化
+     */
+    private void compareAndUpdate(long dtNanos) {
+        int cells = current.length;
+        float meanMotion = 0f;
+        float meanBackground = 0f;
+        for (int i = 0; i < cells; i++) {
+            meanMotion += current[i] - previous[i];
+            meanBackground += current[i] - background[i];
+        }
+        meanMotion /= cells;
+        meanBackground /= cells;
+
+        float bgAlpha = alpha(dtNanos, BACKGROUND_TAU_MS);
+        float fgAlpha = alpha(dtNanos, FOREGROUND_TAU_MS);
+        int moving = 0;
+        int foreground = 0;
+        for (int i = 0; i < cells; i++) {
+            float diff = current[i] - background[i];
+            if (Math.abs(current[i] - previous[i] - meanMotion) > diffThreshold) {
+                moving++;
+                continue; //运动中的格子不更新背景
+            }
+            boolean isForeground = Math.abs(diff - meanBackground) > diffThreshold;
+            if (isForeground) {
+                foreground++;
+            }
+            background[i] += (isForeground ? fgAlpha : bgAlpha) * diff;
+        }
+        lastMotionRatio = (float) moving / cells;
+        lastForegroundRatio = (float) (moving + foreground) / cells;
+    }
+
+    private static float alpha(long dtNanos, long tauMs) {
+        return (float) (1.0 - Math.exp(-dtNanos / (tauMs * 1_000_000.0)));
+    }
+
+    private void updateState(long nowNanos) {
+        if (!present) {
+            enterCount = lastMotionRatio >= enterRatio ? enterCount + 1 : 0;
+            if (enterCount >= enterFrames) {
+                enterCount = 0;
+                lastMotionNanos = nowNanos;
+                setPresent(true);
+            }
+        } else {
+            if (lastMotionRatio >= exitRatio || lastForegroundRatio >= enterRatio) {
+                lastMotionNanos = nowNanos;
+            } else if (nowNanos - lastMotionNanos >= idleTimeoutNanos) {
+                setPresent(false);
+            }
+        }
+    }
+
+    private void setPresent(boolean value) {
+        present = value;
+        Log.d(TAG, value ? "presence detected" : "idle");
+        if (listener != null) {
+            listener.onPresenceChanged(value);
+        }
+    }
+
+    public boolean isPresent() {
+        return present;
+    }
+
+    /**
+     * 最近一次采样的运动格子比例
+     */
+    public float getMotionRatio() {
+        return lastMotionRatio;
+    }
+
+    /**
+     * 最近一次采样和背景不同的格子比例，包括运动中的格子
+     */
+    public float getForegroundRatio() {
+        return lastForegroundRatio;
+    }
+
+    /**
+     * 记录一次引擎处理耗时，用来估算空闲时省下的 CPU 时间
+     */
+    public void recordEngineCost(long costNanos) {
+        engineNanos += costNanos;
+        engineFrames++;
+    }
+
+    public long getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * 送给引擎的帧数
+     */
+    public long getPassedCount() {
+        return passedFrames;
+    }
+
+    /**
+     * 检测器自身累计耗时，毫秒
+     */
+    public float getDetectCostMillis() {
+        return detectNanos / 1_000_000f;
+    }
+
+    /**
+     * 估算省下的 CPU 时间（毫秒）：被拦下的帧数 x 引擎平均耗时 - 检测器自身耗时。没有记录过引擎耗时返回 0
+     */
+    public float getSavedMillis() {
+        if (engineFrames == 0) {
+            return 0f;
+        }
+        float engineAvg = (float) engineNanos / engineFrames;
+        return ((frames - passedFrames) * engineAvg - detectNanos) / 1_000_000f;
+    }
+
+    public void logStats() {
+        Log.d(TAG, "present=" + present + " frames=" + frames + " passed=" + passedFrames
+                + " sampled=" + sampledFrames + " detect=" + getDetectCostMillis() + "ms saved≈" + getSavedMillis() + "ms");
+    }
+}
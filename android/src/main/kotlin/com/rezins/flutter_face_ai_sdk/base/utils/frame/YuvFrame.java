@@ -0,0 +1,131 @@
+package com.rezins.flutter_face_ai_sdk.base.utils.frame;
+
+import android.graphics.Bitmap;
+
+import androidx.camera.core.ImageProxy;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link YuvFramePool} 中的一个帧槽：NV21 数据放在 direct ByteBuffer 中，只在分辨率变化时重新分配
+ * <p>
+ * 回调 {@link YuvFramePool.OnFrameListener#onFrame(YuvFrame)} 期间有效，回调返回后槽位会被下一帧覆盖，
+ * 不要在回调外持有 frame、{@link #getNv21()} 或 {@link #toBitmap()} 的结果
+ */
+public final class YuvFrame {
+    private ByteBuffer nv21;
+    private int width;
+    private int height;
+    private int rotationDegrees;
+    private long timestampNanos;
+
+    //toBitmap 复用
+    private int[] argb;
+    private Bitmap bitmap;
+    private boolean bitmapValid;
+
+    YuvFrame() {
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * 摆正画面需要顺时针旋转的角度
+     */
+    public int getRotationDegrees() {
+        return rotationDegrees;
+    }
+
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    /**
+     * NV21 数据，position 为 0，长度 width * height * 3 / 2
+     */
+    public ByteBuffer getNv21() {
+        nv21.clear();
+        nv21.limit(width * height * 3 / 2);
+        return nv21;
+    }
+
+    /**
+     * 转换为按 rotationDegrees 摆正的 ARGB_8888 Bitmap，Bitmap 和像素数组都是槽位复用的，同一帧多次调用只转换一次
+     */
+    public Bitmap toBitmap() {
+        if (bitmapValid) {
+            return bitmap;
+        }
+        boolean swap = Nv21Converter.isSwapped(rotationDegrees);
+        int outWidth = swap ? height : width;
+        int outHeight = swap ? width : height;
+        if (argb == null || argb.length != width * height) {
+            argb = new int[width * height];
+        }
+        if (bitmap == null || bitmap.getWidth() != outWidth || bitmap.getHeight() != outHeight) {
+            bitmap = Bitmap.createBitmap(outWidth, outHeight, Bitmap.Config.ARGB_8888);
+        }
+        Nv21Converter.toArgb(nv21, width, height, rotationDegrees, false, argb);
+        bitmap.setPixels(argb, 0, outWidth, 0, 0, outWidth, outHeight);
+        bitmapValid = true;
+        return bitmap;
+    }
+
+    /**
+     * 拷贝 ImageProxy 的 YUV_420_888 三个平面为 NV21，兼容任意 rowStride / pixelStride，拷贝过程不分配堆内存
+     */
+    void copyFrom(ImageProxy image) {
+        width = image.getWidth() & ~1;
+        height = image.getHeight() & ~1;
+        rotationDegrees = image.getImageInfo().getRotationDegrees();
+        timestampNanos = image.getImageInfo().getTimestamp();
+        bitmapValid = false;
+        int frameSize = width * height;
+        int required = frameSize * 3 / 2;
+        if (nv21 == null || nv21.capacity() < required) {
+            nv21 = ByteBuffer.allocateDirect(required);
+        }
+        ImageProxy.PlaneProxy[] planes = image.getPlanes();
+
+        //Y 平面逐行批量拷贝
+        ByteBuffer yPlane = planes[0].getBuffer();
+        int yRowStride = planes[0].getRowStride();
+        nv21.clear();
+        if (yRowStride == width && planes[0].getPixelStride() == 1) {
+            yPlane.clear();
+            yPlane.limit(frameSize);
+            nv21.put(yPlane);
+        } else {
+            for (int row = 0; row < height; row++) {
+                yPlane.limit(row * yRowStride + width);
+                yPlane.position(row * yRowStride);
+                nv21.put(yPlane);
+            }
+        }
+
+        //UV 交错为 VU VU ...
+        ByteBuffer uPlane = planes[1].getBuffer();
+        ByteBuffer vPlane = planes[2].getBuffer();
+        int uRowStride = planes[1].getRowStride();
+        int vRowStride = planes[2].getRowStride();
+        int uPixelStride = planes[1].getPixelStride();
+        int vPixelStride = planes[2].getPixelStride();
+        int out = frameSize;
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        for (int row = 0; row < chromaHeight; row++) {
+            int uBase = row * uRowStride;
+            int vBase = row * vRowStride;
+            for (int col = 0; col < chromaWidth; col++) {
+                nv21.put(out++, vPlane.get(vBase + col * vPixelStride));
+                nv21.put(out++, uPlane.get(uBase + col * uPixelStride));
+            }
+        }
+    }
+}
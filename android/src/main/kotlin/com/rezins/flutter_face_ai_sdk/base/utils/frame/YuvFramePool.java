@@ -0,0 +1,140 @@
+package com.rezins.flutter_face_ai_sdk.base.utils.frame;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.camera.core.ImageProxy;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * CameraX 分析帧的固定槽位池：相机线程只把 YUV 平面拷贝进空闲槽位然后马上 close ImageProxy，
+ * 识别在独立的分发线程中处理最新一帧，慢帧不会再卡住相机出帧
+ * <p>
+ * 槽位数固定，全部被占用时丢弃新帧；分发线程来不及处理时旧帧被最新帧替换。稳定运行后每帧不分配堆内存
+ */
+public class YuvFramePool {
+    private static final String TAG = "YuvFramePool";
+    public static final int DEFAULT_SLOTS = 3; //相机写一帧 + 待处理一帧 + 处理中一帧
+
+    public interface OnFrameListener {
+        /**
+         * 分发线程回调，frame 只在回调期间有效
+         */
+        void onFrame(@NonNull YuvFrame frame);
+    }
+
+    private final ArrayBlockingQueue<YuvFrame> free;
+    private final OnFrameListener listener;
+    private final Object lock = new Object();
+    private final Thread dispatcher;
+    private YuvFrame latest; //lock 保护
+    private volatile boolean released;
+
+    private volatile long received;
+    private volatile long delivered;
+    private volatile long dropped;
+
+    public YuvFramePool(OnFrameListener listener) {
+        this(DEFAULT_SLOTS, listener);
+    }
+
+    public YuvFramePool(int slots, OnFrameListener listener) {
+        this.listener = listener;
+        free = new ArrayBlockingQueue<>(Math.max(2, slots));
+        for (int i = 0; i < Math.max(2, slots); i++) {
+            free.offer(new YuvFrame());
+        }
+        dispatcher = new Thread(this::dispatchLoop, "YuvFrameDispatcher");
+        dispatcher.start();
+    }
+
+    /**
+     * 相机分析线程调用，拷贝后关闭 image
+     */
+    public void offer(@NonNull ImageProxy image) {
+        received++;
+        YuvFrame frame = released ? null : free.poll();
+        if (frame == null) {
+            dropped++;
+            image.close();
+            return;
+        }
+        try {
+            frame.copyFrom(image);
+        } catch (RuntimeException e) {
+            //个别设备平面数据异常，丢弃这一帧
+            Log.e(TAG, "copy frame failed", e);
+            free.offer(frame);
+            dropped++;
+            return;
+        } finally {
+            image.close();
+        }
+        YuvFrame stale;
+        synchronized (lock) {
+            stale = latest;
+            latest = frame;
+            lock.notify();
+        }
+        if (stale != null) {
+            dropped++;
+            free.offer(stale);
+        }
+    }
+
+    private void dispatchLoop() {
+        while (true) {
+            YuvFrame frame;
+            synchronized (lock) {
+                while (latest == null && !released) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (released) {
+                    return;
+                }
+                frame = latest;
+                latest = null;
+            }
+            try {
+                listener.onFrame(frame);
+                delivered++;
+            } catch (RuntimeException e) {
+                Log.e(TAG, "onFrame failed", e);
+            } finally {
+                free.offer(frame);
+            }
+        }
+    }
+
+    /**
+     * 停止分发线程，之后 offer 的帧直接关闭
+     */
+    public void release() {
+        synchronized (lock) {
+            released = true;
+            latest = null;
+            lock.notify();
+        }
+        Log.d(TAG, "released, received=" + received + " delivered=" + delivered + " dropped=" + dropped);
+    }
+
+    public long getReceivedCount() {
+        return received;
+    }
+
+    public long getDeliveredCount() {
+        return delivered;
+    }
+
+    /**
+     * 槽位不够或被更新的帧替换而没有分发的帧数
+     */
+    public long getDroppedCount() {
+        return dropped;
+    }
+}
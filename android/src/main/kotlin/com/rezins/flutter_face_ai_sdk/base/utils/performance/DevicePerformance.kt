@@ -75,6 +75,20 @@ object DevicePerformance {
         }
     }
 
+    /**
+     * 大核数量：最大频率不低于最高频率 80% 的核心，读不到频率时返回全部核心数
+     * 比如 RK3588 4个A76大核 + 4个A55小核返回 4
+     */
+    fun getBigCoreCount(): Int {
+        val cpuCount = getCpuCoreCount()
+        val freqs = LongArray(cpuCount) { getCoreMaxFreq(it) }
+        val maxFreq = freqs.maxOrNull() ?: 0L
+        if (maxFreq <= 0L) {
+            return cpuCount
+        }
+        return freqs.count { it >= maxFreq * 8 / 10 }.coerceAtLeast(1)
+    }
+
     fun getMaxCpuFreq(): Long {
         var maxCpuFreq = 0L
 
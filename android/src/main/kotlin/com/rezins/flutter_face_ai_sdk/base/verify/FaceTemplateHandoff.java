@@ -0,0 +1,110 @@
+package com.rezins.flutter_face_ai_sdk.base.verify;
+
+import android.util.Log;
+
+import com.rezins.flutter_face_ai_sdk.base.search.FaceFeatureCodec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 插件和 1:1 识别页面之间传递底片特征值，Intent 里只放一个很短的 token
+ * <p>
+ * 以前多张底片用 "|||" 拼成一个 Intent extra，底片多了会超过 Binder 事务大小限制，还要多次拷贝和正则拆分。
+ * 插件和 Activity 在同一个进程，底片直接放在进程内存里，页面按 token 取出
+ * <p>
+ * 解码归一化后的向量按特征值内容缓存，同一批底片重复识别不用再解析 Base64
+ */
+public class FaceTemplateHandoff {
+    private static final String TAG = "FaceTemplateHandoff";
+    private static final int MAX_PENDING = 8;           //最多保留的未释放 token，防止页面异常退出时泄漏
+    private static final int MAX_CACHED_VECTORS = 256;  //解码缓存条数，192 维约 768 字节一条
+
+    private static volatile FaceTemplateHandoff instance;
+
+    private final Map<String, List<String>> pending = new LinkedHashMap<String, List<String>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+            return size() > MAX_PENDING;
+        }
+    };
+
+    private final Map<String, float[]> vectors = new LinkedHashMap<String, float[]>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+            return size() > MAX_CACHED_VECTORS;
+        }
+    };
+
+    private int cacheHits;
+    private int cacheMisses;
+
+    public static FaceTemplateHandoff getInstance() {
+        if (instance == null) {
+            synchronized (FaceTemplateHandoff.class) {
+                if (instance == null) {
+                    instance = new FaceTemplateHandoff();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 登记一批底片
+     *
+     * @return 放进 Intent 的 token
+     */
+    public synchronized String put(List<String> faceFeatures) {
+        String token = UUID.randomUUID().toString();
+        pending.put(token, Collections.unmodifiableList(new ArrayList<>(faceFeatures)));
+        return token;
+    }
+
+    /**
+     * 按 token 取底片，不移除，页面重建时还能再取。进程被杀重启后 token 失效返回 null
+     */
+    public synchronized List<String> get(String token) {
+        return token == null ? null : pending.get(token);
+    }
+
+    /**
+     * 页面结束时释放
+     */
+    public synchronized void release(String token) {
+        if (token != null) {
+            pending.remove(token);
+        }
+    }
+
+    /**
+     * 解码并归一化特征值，结果按内容缓存，返回的数组是共享的不要修改
+     *
+     * @return 特征值非法返回 null
+     */
+    public synchronized float[] decode(String faceFeature) {
+        if (faceFeature == null) {
+            return null;
+        }
+        float[] vector = vectors.get(faceFeature);
+        if (vector != null) {
+            cacheHits++;
+            return vector;
+        }
+        cacheMisses++;
+        vector = FaceFeatureCodec.decode(faceFeature);
+        if (vector == null || !FaceFeatureCodec.normalize(vector)) {
+            return null;
+        }
+        vectors.put(faceFeature, vector);
+        return vector;
+    }
+
+    public synchronized void logStats() {
+        Log.d(TAG, "pending=" + pending.size() + " cached=" + vectors.size() + " hits=" + cacheHits + " misses=" + cacheMisses);
+    }
+}
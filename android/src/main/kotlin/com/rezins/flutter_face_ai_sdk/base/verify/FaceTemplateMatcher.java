@@ -0,0 +1,116 @@
+package com.rezins.flutter_face_ai_sdk.base.verify;
+
+import com.rezins.flutter_face_ai_sdk.base.search.FaceFeatureCodec;
+
+import java.util.List;
+
+/**
+ * 1:1 多底片预选：同一个人录入了多张底片时，实时人脸特征一次性和全部底片比对，
+ * 挑出最像的一张再交给 SDK 1:1 比对确认，不用每张底片都重新走一遍活体检测
+ * <p>
+ * 底片在构造时解码归一化（按内容缓存），连续存放在一个 float[] 中，比对只是一次顺序点积扫描
+ * <p>
+ * 点积是原始余弦相似度，只用来排序选底片。SDK 1:1 比对（FaceProcessBuilder.setThreshold）的打分公式没有公开，
+ * 余弦和 verifyThreshold 不是同一个尺度，也没有可靠的换算，是否通过只能由 SDK 判定
+ */
+public class FaceTemplateMatcher {
+
+    public static class Match {
+        private final int index;
+        private final float similarity;
+
+        Match(int index, float similarity) {
+            this.index = index;
+            this.similarity = similarity;
+        }
+
+        /**
+         * 最高分底片在传入列表中的下标
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * 余弦相似度，只能用来比较底片之间谁更像，不能和 verifyThreshold 比较
+         */
+        public float getSimilarity() {
+            return similarity;
+        }
+    }
+
+    private final int dim = FaceFeatureCodec.FEATURE_DIM;
+    private final float[] templates;
+    private final int[] sourceIndex;
+    private final int count;
+
+    /**
+     * 非法特征值跳过，不影响其它底片。解码结果来自 {@link FaceTemplateHandoff} 的缓存
+     */
+    public FaceTemplateMatcher(List<String> faceFeatures) {
+        templates = new float[faceFeatures.size() * dim];
+        sourceIndex = new int[faceFeatures.size()];
+        FaceTemplateHandoff handoff = FaceTemplateHandoff.getInstance();
+        int n = 0;
+        for (int i = 0; i < faceFeatures.size(); i++) {
+            float[] vector = handoff.decode(faceFeatures.get(i));
+            if (vector == null) {
+                continue;
+            }
+            System.arraycopy(vector, 0, templates, n * dim, dim);
+            sourceIndex[n++] = i;
+        }
+        count = n;
+    }
+
+    /**
+     * 有效底片数
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return 实时特征值非法或没有有效底片返回 null
+     */
+    public Match match(String liveFeature) {
+        return match(liveFeature, -1);
+    }
+
+    /**
+     * 挑出 SDK 还没比对过的最像的一张底片
+     *
+     * @param excludeIndex SDK 已经判定不通过的底片在传入列表中的下标，-1 表示不排除
+     * @return 实时特征值非法或没有其它有效底片返回 null
+     */
+    public Match match(String liveFeature, int excludeIndex) {
+        float[] probe = FaceFeatureCodec.decode(liveFeature);
+        if (probe == null || !FaceFeatureCodec.normalize(probe)) {
+            return null;
+        }
+        return match(probe, excludeIndex);
+    }
+
+    /**
+     * @param probe 已归一化的实时人脸向量
+     */
+    public Match match(float[] probe, int excludeIndex) {
+        int best = -1;
+        float bestScore = -Float.MAX_VALUE;
+        for (int t = 0; t < count; t++) {
+            if (sourceIndex[t] == excludeIndex) {
+                continue;
+            }
+            int base = t * dim;
+            float sum = 0f;
+            for (int i = 0; i < dim; i++) {
+                sum += templates[base + i] * probe[i];
+            }
+            if (sum > bestScore) {
+                bestScore = sum;
+                best = t;
+            }
+        }
+        return best < 0 ? null : new Match(sourceIndex[best], bestScore);
+    }
+}
@@ -0,0 +1,484 @@
+package com.rezins.flutter_face_ai_sdk.base.verify;
+
+import android.content.Context;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.ai.face.base.baseImage.FaceEmbedding;
+import com.ai.face.core.engine.FaceAISDKEngine;
+import com.rezins.flutter_face_ai_sdk.FaceSDKConfig;
+import com.rezins.flutter_face_ai_sdk.base.search.FaceFeatureCodec;
+import com.tencent.mmkv.MMKV;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * 1:1 人脸识别底片特征值存储，代替以字符串形式存放在 MMKV 中
+ * <p>
+ * 特征值按原始 float32 字节保存在 templates.log，启动时一次读入内存，按 faceID 直接取，
+ * {@link #getMany(Collection)} 一次取多个。写入追加一条带 CRC 的记录并 fsync，
+ * 覆盖和删除产生的旧记录超过一半时重写文件
+ * <p>
+ * 老版本保存在 MMKV 字符串和 SDK FaceEmbedding 中的底片，由 {@link #migrateLegacyAsync(Context)}
+ * 在后台一次性迁移过来，识别时不再每次都查两处再转换格式
+ */
+public class FaceTemplateStore {
+    private static final String TAG = "FaceTemplateStore";
+    public static final String TEMPLATE_DIR = ".templates/";
+    private static final String LOG_FILE = "templates.log";
+    private static final String MIGRATED_FILE = "legacy.migrated";
+    private static final String CORRUPT_SUFFIX = ".corrupt";
+
+    private static final int MAGIC = 0x46475450; //FGTP
+    private static final int VERSION = 1;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+
+    private static volatile FaceTemplateStore instance;
+
+    private final File dir;
+    private final int bytesPerTemplate = FaceFeatureCodec.FEATURE_DIM * 4;
+    private final HashMap<String, byte[]> templates = new HashMap<>();
+    private RandomAccessFile logFile;
+    private int records;
+
+    //迁移完成前删除的 faceID，迁移时不能再写回来
+    private final Set<String> removedBeforeMigration = new HashSet<>();
+    private volatile boolean migrated;
+    private Context appContext;
+
+    public static FaceTemplateStore getInstance(Context context) {
+        if (instance == null) {
+            synchronized (FaceTemplateStore.class) {
+                if (instance == null) {
+                    String baseDir = FaceSDKConfig.CACHE_BASE_FACE_DIR;
+                    if (TextUtils.isEmpty(baseDir)) {
+                        baseDir = context.getApplicationContext().getFilesDir().getPath() + "/FaceAI/Verify/";
+                    }
+                    instance = new FaceTemplateStore(new File(baseDir, TEMPLATE_DIR));
+                    instance.appContext = context.getApplicationContext();
+                }
+            }
+        }
+        return instance;
+    }
+
+    FaceTemplateStore(File dir) {
+        this.dir = dir;
+        migrated = new File(dir, MIGRATED_FILE).exists();
+        long start = System.currentTimeMillis();
+        try {
+            load();
+        } catch (IOException e) {
+            Log.e(TAG, "load templates failed", e);
+        }
+        Log.d(TAG, "loaded " + templates.size() + " templates in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    // ************************** 读取 ***********************************
+
+    /**
+     * @return faceID 对应的特征值字符串，没有返回 null
+     */
+    public String get(String faceID) {
+        byte[] bytes = getBytes(faceID);
+        return bytes == null ? null : FaceFeatureCodec.encode(FaceFeatureCodec.toVector(bytes));
+    }
+
+    /**
+     * @return faceID 对应的向量（未归一化），没有返回 null
+     */
+    public float[] getVector(String faceID) {
+        byte[] bytes = getBytes(faceID);
+        return bytes == null ? null : FaceFeatureCodec.toVector(bytes);
+    }
+
+    /**
+     * 批量读取，返回的 Map 按传入顺序排列，不存在的 faceID 不在结果中
+     */
+    public Map<String, String> getMany(Collection<String> faceIDs) {
+        Map<String, String> result = new LinkedHashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+        synchronized (this) {
+            for (String faceID : faceIDs) {
+                byte[] bytes = templates.get(faceID);
+                if (bytes != null) {
+                    result.put(faceID, FaceFeatureCodec.encode(FaceFeatureCodec.toVector(bytes)));
+                } else if (!migrated) {
+                    missing.add(faceID);
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            //迁移还没完成，缺的单独迁移，保证结果顺序
+            for (String faceID : missing) {
+                migrateOne(faceID);
+            }
+            Map<String, String> ordered = new LinkedHashMap<>();
+            for (String faceID : faceIDs) {
+                String feature = result.containsKey(faceID) ? result.get(faceID) : get(faceID);
+                if (feature != null) {
+                    ordered.put(faceID, feature);
+                }
+            }
+            return ordered;
+        }
+        return result;
+    }
+
+    public synchronized boolean contains(String faceID) {
+        return templates.containsKey(faceID);
+    }
+
+    public synchronized int size() {
+        return templates.size();
+    }
+
+    private byte[] getBytes(String faceID) {
+        if (TextUtils.isEmpty(faceID)) {
+            return null;
+        }
+        byte[] bytes;
+        synchronized (this) {
+            bytes = templates.get(faceID);
+        }
+        if (bytes == null && !migrated) {
+            bytes = migrateOne(faceID);
+        }
+        return bytes;
+    }
+
+    // ************************** 写入 ***********************************
+
+    /**
+     * 保存或覆盖 faceID 的底片特征值
+     *
+     * @return 特征值非法返回 false
+     */
+    public boolean put(String faceID, String faceFeature) {
+        byte[] bytes = FaceFeatureCodec.decodeBytes(faceFeature);
+        if (TextUtils.isEmpty(faceID) || bytes == null || bytes.length != bytesPerTemplate) {
+            return false;
+        }
+        synchronized (this) {
+            removedBeforeMigration.remove(faceID);
+            return putLocked(faceID, bytes);
+        }
+    }
+
+    public synchronized boolean remove(String faceID) {
+        if (!migrated) {
+            removedBeforeMigration.add(faceID);
+        }
+        if (templates.remove(faceID) == null) {
+            return false;
+        }
+        try {
+            append(OP_REMOVE, faceID, null);
+        } catch (IOException e) {
+            Log.e(TAG, "remove template failed " + faceID, e);
+        }
+        return true;
+    }
+
+    private boolean putLocked(String faceID, byte[] bytes) {
+        //先更新内存，append 触发重写文件时才包含这一条
+        byte[] previous = templates.put(faceID, bytes);
+        try {
+            append(OP_PUT, faceID, bytes);
+        } catch (IOException e) {
+            Log.e(TAG, "save template failed " + faceID, e);
+            if (previous == null) {
+                templates.remove(faceID);
+            } else {
+                templates.put(faceID, previous);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    // ************************** 迁移 ***********************************
+
+    /**
+     * 在后台把 MMKV 字符串和 SDK FaceEmbedding 中的老底片迁移过来，只执行一次。
+     * 迁移完成前读取不到的 faceID 会单独即时迁移
+     */
+    public void migrateLegacyAsync(Context context) {
+        if (migrated) {
+            return;
+        }
+        new Thread(() -> migrateLegacy(context.getApplicationContext()), "FaceTemplateMigration").start();
+    }
+
+    private void migrateLegacy(Context context) {
+        long start = System.currentTimeMillis();
+        //老版本录入时会把裁剪好的人脸图以 faceID 为文件名保存在 1:1 目录，只有这些 faceID 才去查 SDK FaceEmbedding
+        Set<String> faceIDs = new HashSet<>();
+        File[] images = new File(FaceSDKConfig.CACHE_BASE_FACE_DIR == null ? "" : FaceSDKConfig.CACHE_BASE_FACE_DIR).listFiles();
+        if (images != null) {
+            for (File image : images) {
+                if (image.isFile()) {
+                    faceIDs.add(image.getName());
+                }
+            }
+        }
+        //MMKV 里还有其它配置项，它们只按字符串特征值尝试，不回退到 FaceEmbedding
+        Set<String> candidates = new LinkedHashSet<>(faceIDs);
+        String[] keys = MMKV.defaultMMKV().allKeys();
+        if (keys != null) {
+            for (String key : keys) {
+                candidates.add(key);
+            }
+        }
+        int migratedCount = 0;
+        for (String faceID : candidates) {
+            synchronized (this) {
+                if (templates.containsKey(faceID) || removedBeforeMigration.contains(faceID)) {
+                    continue;
+                }
+            }
+            if (migrateOne(context, faceID, faceIDs.contains(faceID)) != null) {
+                migratedCount++;
+            }
+        }
+        synchronized (this) {
+            try {
+                new FileOutputStream(new File(dir, MIGRATED_FILE)).close();
+            } catch (IOException e) {
+                Log.e(TAG, "mark migrated failed", e);
+                return;
+            }
+            migrated = true;
+            removedBeforeMigration.clear();
+        }
+        Log.d(TAG, "migrated " + migratedCount + " legacy templates of " + candidates.size() + " candidates in "
+                + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private byte[] migrateOne(String faceID) {
+        return appContext == null ? null : migrateOne(appContext, faceID, true);
+    }
+
+    /**
+     * 读取 faceID 的老底片，MMKV 字符串优先，其次 SDK FaceEmbedding
+     *
+     * @param loadEmbedding MMKV 中没有时是否查 SDK FaceEmbedding，只有确定是 faceID 时才查
+     */
+    private byte[] migrateOne(Context context, String faceID, boolean loadEmbedding) {
+        String faceFeature = null;
+        try {
+            faceFeature = MMKV.defaultMMKV().decodeString(faceID);
+        } catch (RuntimeException e) {
+            //同名的 key 可能不是字符串
+        }
+        byte[] bytes = FaceFeatureCodec.decodeBytes(faceFeature);
+        if (loadEmbedding && (bytes == null || bytes.length != bytesPerTemplate)) {
+            float[] embedding = FaceEmbedding.loadEmbedding(context, faceID);
+            faceFeature = embedding == null ? null : FaceAISDKEngine.getInstance(context).faceArray2Feature(embedding);
+            bytes = FaceFeatureCodec.decodeBytes(faceFeature);
+        }
+        if (bytes == null || bytes.length != bytesPerTemplate) {
+            return null;
+        }
+        synchronized (this) {
+            if (removedBeforeMigration.contains(faceID)) {
+                return null;
+            }
+            byte[] existing = templates.get(faceID);
+            if (existing != null) {
+                return existing;
+            }
+            return putLocked(faceID, bytes) ? bytes : null;
+        }
+    }
+
+    // ************************** 文件 ***********************************
+
+    /**
+     * 记录格式：int length, int crc32, byte op, UTF faceID, [float32 bytes]
+     */
+    private void append(byte op, String faceID, byte[] bytes) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytesPerTemplate + 64);
+        DataOutputStream body = new DataOutputStream(buffer);
+        body.writeByte(op);
+        body.writeUTF(faceID);
+        if (bytes != null) {
+            body.write(bytes);
+        }
+        byte[] payload = buffer.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream(payload.length + 8);
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload);
+
+        if (logFile == null) {
+            //启动时加载失败，不能再往里追加
+            throw new IOException("template log not opened " + dir);
+        }
+        logFile.seek(logFile.length());
+        logFile.write(record.toByteArray());
+        logFile.getFD().sync();
+        records++;
+        if (records > 64 && records > templates.size() * 2) {
+            try {
+                rewrite();
+            } catch (IOException e) {
+                //这条记录已经落盘，重写失败只是文件没有变小，下次再试
+                Log.e(TAG, "rewrite template log failed", e);
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("mkdirs failed " + dir);
+        }
+        File file = new File(dir, LOG_FILE);
+        long validLength = 0;
+        if (file.exists() && file.length() >= 12) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+                if (in.readInt() == MAGIC && in.readInt() == VERSION && in.readInt() == FaceFeatureCodec.FEATURE_DIM) {
+                    validLength = 12;
+                    validLength += replay(in);
+                }
+            }
+        }
+        if (validLength == 0 && file.length() > 0) {
+            //文件头不对（版本、维度或者内容损坏），不能原地覆盖：挪到一边保留现场，重新走一遍老数据迁移
+            File corrupt = new File(dir, LOG_FILE + "." + System.currentTimeMillis() + CORRUPT_SUFFIX);
+            if (!file.renameTo(corrupt)) {
+                throw new IOException("move aside corrupt template log failed " + file);
+            }
+            Log.e(TAG, "template log header invalid, moved to " + corrupt.getName() + ", legacy migration will run again");
+            File marker = new File(dir, MIGRATED_FILE);
+            if (marker.exists() && !marker.delete()) {
+                Log.e(TAG, "delete migrated marker failed");
+            }
+            migrated = false;
+        }
+        if (validLength == 0) {
+            templates.clear();
+            records = 0;
+            writeFile(file);
+        } else if (validLength < file.length()) {
+            //最后一条没写完（断电），截掉
+            Log.w(TAG, "truncate torn template log at " + validLength);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(validLength);
+            }
+        }
+        logFile = new RandomAccessFile(file, "rw");
+    }
+
+    /**
+     * @return 读取到的合法记录总字节数
+     */
+    private long replay(DataInputStream in) throws IOException {
+        long length = 0;
+        CRC32 crc = new CRC32();
+        while (true) {
+            int size;
+            int expected;
+            byte[] payload;
+            try {
+                size = in.readInt();
+                expected = in.readInt();
+                if (size <= 0 || size > bytesPerTemplate + 65536) {
+                    return length;
+                }
+                payload = new byte[size];
+                in.readFully(payload);
+            } catch (EOFException e) {
+                return length;
+            }
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != expected) {
+                return length;
+            }
+            DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+            byte op = record.readByte();
+            String faceID = record.readUTF();
+            if (op == OP_PUT) {
+                byte[] bytes = new byte[bytesPerTemplate];
+                record.readFully(bytes);
+                templates.put(faceID, bytes);
+            } else if (op == OP_REMOVE) {
+                templates.remove(faceID);
+            } else {
+                return length;
+            }
+            records++;
+            length += 8 + size;
+        }
+    }
+
+    /**
+     * 只保留当前有效的底片，写临时文件后改名
+     */
+    private void rewrite() throws IOException {
+        File file = new File(dir, LOG_FILE);
+        logFile.close();
+        logFile = null;
+        try {
+            writeFile(file);
+        } finally {
+            //重写失败时原文件还在，重新打开继续追加
+            logFile = new RandomAccessFile(file, "rw");
+        }
+    }
+
+    private void writeFile(File file) throws IOException {
+        File tmp = new File(dir, LOG_FILE + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(FaceFeatureCodec.FEATURE_DIM);
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytesPerTemplate + 64);
+            DataOutputStream body = new DataOutputStream(buffer);
+            for (Map.Entry<String, byte[]> entry : templates.entrySet()) {
+                buffer.reset();
+                body.writeByte(OP_PUT);
+                body.writeUTF(entry.getKey());
+                body.write(entry.getValue());
+                crc.reset();
+                crc.update(buffer.toByteArray());
+                out.writeInt(buffer.size());
+                out.writeInt((int) crc.getValue());
+                buffer.writeTo(out);
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("rename failed " + file);
+        }
+        records = templates.size();
+    }
+}
@@ -0,0 +1,199 @@
+package com.rezins.flutter_face_ai_sdk.base.search
+
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.ByteArrayInputStream
+import java.io.File
+import java.io.StringReader
+import java.nio.file.Files
+import java.util.Random
+import kotlin.test.AfterTest
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+/*
+ * 流式导入：每种问题记录各一条用例，以及每 batchSize 条 commit 一次、导入前批量查重
+ */
+@RunWith(RobolectricTestRunner::class)
+internal class FaceFeatureImporterTest {
+    private val dim = 8
+    private val random = Random(11)
+    private lateinit var dir: File
+
+    //记录每次 commit 时特征库里的人脸数
+    private class CountingStore(dir: File, dim: Int) : FaceGalleryStore(dir, dim) {
+        val commits = ArrayList<Int>()
+
+        override fun commit() {
+            commits.add(liveSize())
+            super.commit()
+        }
+    }
+
+    @BeforeTest
+    fun setUp() {
+        dir = Files.createTempDirectory("gallery-import").toFile()
+    }
+
+    @AfterTest
+    fun tearDown() {
+        dir.deleteRecursively()
+    }
+
+    @Test
+    fun invalidBase64_skipped() {
+        //Android 的 Base64 会跳过非法字符，剩下 9 个合法字符也凑不成完整的分组
+        val report = import(record("a", "\"!!!not base64!!!\""))
+        assertIssue(report, FaceFeatureImportReport.Reason.INVALID_BASE64, "a")
+        assertEquals(0, report.imported)
+    }
+
+    @Test
+    fun wrongLength_skipped() {
+        val report = import(record("a", quoted(FloatArray(dim + 1) { 1f })))
+        assertIssue(report, FaceFeatureImportReport.Reason.WRONG_LENGTH, "a")
+        assertEquals(0, report.imported)
+    }
+
+    @Test
+    fun missingFaceID_skipped() {
+        val report = import("""{"faceFeature":${quoted(vector())},"updateTime":1}""")
+        assertIssue(report, FaceFeatureImportReport.Reason.MISSING_FACE_ID, null)
+        assertEquals(0, report.imported)
+    }
+
+    @Test
+    fun missingFeature_skipped() {
+        val report = import("""{"faceID":"a","updateTime":1}""")
+        assertIssue(report, FaceFeatureImportReport.Reason.MISSING_FEATURE, "a")
+        assertEquals(0, report.imported)
+    }
+
+    @Test
+    fun zeroVector_skipped() {
+        val report = import(record("a", quoted(FloatArray(dim))))
+        assertIssue(report, FaceFeatureImportReport.Reason.ZERO_VECTOR, "a")
+        assertEquals(0, report.imported)
+    }
+
+    @Test
+    fun notObject_skipped() {
+        val report = import("42", record("a", quoted(vector())))
+        assertIssue(report, FaceFeatureImportReport.Reason.NOT_OBJECT, null)
+        assertEquals(1, report.imported)
+    }
+
+    @Test
+    fun badUpdateTime_importedWithCurrentTime() {
+        val store = FaceGalleryStore(dir, dim)
+        val before = System.currentTimeMillis()
+        val report = FaceFeatureImporter(store).importFrom(StringReader(
+            "[" + record("a", quoted(vector()), "\"yesterday\"") + "]"))
+
+        assertIssue(report, FaceFeatureImportReport.Reason.DEFAULT_UPDATE_TIME, "a")
+        assertEquals(1, report.imported)
+        assertEquals(0, report.failed)
+        assertTrue(store.updateTimeAt(store.indexOf("a")) >= before)
+    }
+
+    @Test
+    fun malformedJson_abortsAndKeepsEarlierRecords() {
+        val store = FaceGalleryStore(dir, dim)
+        val json = "[" + record("a", quoted(vector())) + "," + record("b", quoted(vector())) + """,{"faceID":"""
+        val report = FaceFeatureImporter(store).importFrom(StringReader(json))
+
+        assertIssue(report, FaceFeatureImportReport.Reason.MALFORMED_JSON, null)
+        assertTrue(report.isAborted)
+        assertEquals(2, report.imported)
+        assertTrue(store.indexOf("a") >= 0)
+        assertTrue(store.indexOf("b") >= 0)
+    }
+
+    @Test
+    fun corruptBinaryHeader_aborts() {
+        val store = FaceGalleryStore(dir, dim)
+        val report = FaceFeatureImporter(store).importBinaryFrom(ByteArrayInputStream(ByteArray(64) { 7 }))
+        assertIssue(report, FaceFeatureImportReport.Reason.CORRUPT_DATA, null)
+        assertTrue(report.isAborted)
+        assertEquals(0, report.imported)
+    }
+
+    @Test
+    fun commitsEveryBatchSize() {
+        val store = CountingStore(dir, dim)
+        val records = ArrayList<String>()
+        for (i in 0 until 10) {
+            records.add(record("face_$i", quoted(vector())))
+            //问题记录不计入批次
+            if (i % 3 == 0) {
+                records.add(record("bad_$i", quoted(FloatArray(dim))))
+            }
+        }
+        val imported = ArrayList<String>()
+        val report = FaceFeatureImporter(store)
+            .setBatchSize(4)
+            .setOnRecordImportedListener { faceID, _, _, _, _ -> imported.add(faceID) }
+            .importFrom(StringReader(records.joinToString(",", "[", "]")))
+
+        assertEquals(10, report.imported)
+        assertEquals(4, report.getCount(FaceFeatureImportReport.Reason.ZERO_VECTOR))
+        assertEquals(listOf(4, 8, 10), store.commits)
+        assertEquals(3, report.batches)
+        assertEquals((0 until 10).map { "face_$it" }, imported)
+        assertFalse(report.isAborted)
+    }
+
+    @Test
+    fun duplicateFace_skipped() {
+        val store = FaceGalleryStore(dir, dim)
+        val known = vector()
+        store.insert("a", known, 1, "t", "g")
+        store.commit()
+        val near = FloatArray(dim) { known[it] + 0.01f * random.nextGaussian().toFloat() }
+        val report = FaceFeatureImporter(store)
+            .setDuplicateCheck(FaceGallerySearcher(store, 1), 0.95f)
+            .importFrom(StringReader(listOf(record("b", quoted(near)), record("a", quoted(near)), record("c", quoted(vector())))
+                .joinToString(",", "[", "]")))
+
+        //b 和已有的 a 是同一个人，a 自己重新导入仍然覆盖
+        assertIssue(report, FaceFeatureImportReport.Reason.DUPLICATE_FACE, "b")
+        assertEquals(2, report.imported)
+        assertFalse(store.contains("b"))
+        assertTrue(store.contains("c"))
+    }
+
+    @Test
+    fun duplicateFace_withinSameBatchSkipped() {
+        val store = FaceGalleryStore(dir, dim)
+        val same = vector()
+        val report = FaceFeatureImporter(store)
+            .setDuplicateCheck(FaceGallerySearcher(store, 1), 0.95f)
+            .importFrom(StringReader(listOf(record("a", quoted(same)), record("b", quoted(same)))
+                .joinToString(",", "[", "]")))
+
+        assertIssue(report, FaceFeatureImportReport.Reason.DUPLICATE_FACE, "b")
+        assertEquals(1, report.imported)
+        assertTrue(store.contains("a"))
+        assertFalse(store.contains("b"))
+    }
+
+    private fun import(vararg records: String): FaceFeatureImportReport =
+        FaceFeatureImporter(FaceGalleryStore(dir, dim)).importFrom(StringReader(records.joinToString(",", "[", "]")))
+
+    private fun assertIssue(report: FaceFeatureImportReport, reason: FaceFeatureImportReport.Reason, faceID: String?) {
+        assertEquals(1, report.getCount(reason), report.issues.toString())
+        assertEquals(1, report.issues.size, report.issues.toString())
+        assertEquals(reason, report.issues[0].reason)
+        assertEquals(faceID, report.issues[0].faceID)
+    }
+
+    private fun record(faceID: String, feature: String, updateTime: String = "1700000000000"): String =
+        """{"faceID":"$faceID","faceFeature":$feature,"tag":"t","group":"g","updateTime":$updateTime}"""
+
+    private fun vector(): FloatArray = FloatArray(dim) { random.nextGaussian().toFloat() }
+
+    private fun quoted(vector: FloatArray): String = "\"" + FaceFeatureCodec.encode(vector) + "\""
+}
@@ -0,0 +1,141 @@
+package com.rezins.flutter_face_ai_sdk.base.search
+
+import java.io.File
+import java.nio.file.Files
+import java.util.Random
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.test.AfterTest
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotSame
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+/*
+ * 自动 compact：墓碑行多于有效行时 commit 之后在后台回收，搜索器的索引随之重建
+ */
+internal class GalleryCompactionTest {
+    private val dim = 8
+    private val random = Random(3)
+    private lateinit var dir: File
+
+    @BeforeTest
+    fun setUp() {
+        dir = Files.createTempDirectory("gallery-compact").toFile()
+    }
+
+    @AfterTest
+    fun tearDown() {
+        dir.deleteRecursively()
+    }
+
+    @Test
+    fun commit_moreDeletedThanLive_compactsInBackground() {
+        val store = FaceGalleryStore(dir, dim)
+        val vectors = insert(store, 10)
+        store.commit()
+        for (i in 0 until 5) {
+            store.delete("face_$i")
+        }
+        //一半对一半不回收
+        store.commit()
+        assertEquals(10, store.size())
+
+        store.delete("face_5")
+        awaitCompacted(store, 4) { store.commit() }
+
+        for (i in 6 until 10) {
+            val row = store.indexOf("face_$i")
+            assertFalse(store.isDeleted(row))
+            assertEquals(1f, store.dot(row, unit(vectors[i])), 1e-4f)
+        }
+        val reopened = FaceGalleryStore(dir, dim)
+        assertEquals(4, reopened.size())
+        assertEquals(-1, reopened.indexOf("face_0"))
+    }
+
+    @Test
+    fun autoCompactDisabled_keepsRowNumbers() {
+        val store = FaceGalleryStore(dir, dim)
+        insert(store, 4)
+        store.setAutoCompact(false)
+        for (i in 0 until 3) {
+            store.delete("face_$i")
+        }
+        store.commit()
+        Thread.sleep(200)
+        assertEquals(4, store.size())
+        assertEquals(3, store.indexOf("face_3"))
+    }
+
+    @Test
+    fun compact_rebuildsSearcherIndexes() {
+        val store = FaceGalleryStore(dir, dim)
+        val vectors = insert(store, 200)
+        store.commit()
+        val searcher = FaceGallerySearcher(store, 1)
+        searcher.setHnswMinGallerySize(1)
+        searcher.search(unit(vectors[0]), 0.99f, false)
+        awaitReady(searcher)
+        val oldIndex = searcher.getHnswIndex()
+
+        for (i in 0 until 150) {
+            store.delete("face_$i")
+        }
+        awaitCompacted(store, 50) { store.commit() }
+
+        //旧图的节点号已经作废，重建好之前走量化扫描
+        assertNotSame(oldIndex, searcher.getHnswIndex())
+        for (i in 150 until 200) {
+            assertEquals("face_$i", searcher.search(unit(vectors[i]), 0.99f, false).firstOrNull()?.faceName)
+        }
+        assertNull(searcher.search(unit(vectors[0]), 0.99f, false).firstOrNull())
+        awaitReady(searcher)
+        for (i in 150 until 200) {
+            assertEquals("face_$i", searcher.search(unit(vectors[i]), 0.99f, false).firstOrNull()?.faceName)
+        }
+    }
+
+    private fun insert(store: FaceGalleryStore, count: Int): List<FloatArray> {
+        val vectors = ArrayList<FloatArray>()
+        for (i in 0 until count) {
+            val vector = FloatArray(dim) { random.nextGaussian().toFloat() }
+            store.insert("face_$i", vector, 1L, "", "")
+            vectors.add(vector)
+        }
+        return vectors
+    }
+
+    private fun unit(vector: FloatArray): FloatArray = vector.copyOf().also { FaceFeatureCodec.normalize(it) }
+
+    //compact 的 onCommitted 在各索引重建完之后才通知
+    private fun awaitCompacted(store: FaceGalleryStore, size: Int, commit: () -> Unit) {
+        val compacted = CountDownLatch(1)
+        val listener = object : FaceGalleryStore.OnGalleryChangedListener {
+            override fun onInserted(index: Int) {}
+            override fun onDeleted(index: Int) {}
+            override fun onCleared() {}
+            override fun onCommitted(generation: Long) {
+                if (store.size() == size) {
+                    compacted.countDown()
+                }
+            }
+        }
+        store.addOnGalleryChangedListener(listener)
+        commit()
+        assertTrue(compacted.await(5, TimeUnit.SECONDS))
+        store.removeOnGalleryChangedListener(listener)
+    }
+
+    private fun awaitReady(searcher: FaceGallerySearcher) {
+        val deadline = System.currentTimeMillis() + 5000
+        while (searcher.getHnswIndex()?.isReady != true && System.currentTimeMillis() < deadline) {
+            searcher.search(FloatArray(dim).also { it[0] = 1f }, 0.99f, true)
+            Thread.sleep(10)
+        }
+        assertTrue(searcher.getHnswIndex()?.isReady == true)
+    }
+}
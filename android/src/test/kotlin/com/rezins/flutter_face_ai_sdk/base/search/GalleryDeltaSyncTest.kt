@@ -0,0 +1,181 @@
+package com.rezins.flutter_face_ai_sdk.base.search
+
+import com.sun.net.httpserver.HttpServer
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.net.InetSocketAddress
+import java.nio.file.Files
+import java.util.Collections
+import java.util.Random
+import java.util.concurrent.LinkedBlockingDeque
+import java.util.zip.GZIPOutputStream
+import kotlin.test.AfterTest
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+/*
+ * 增量同步：用本地 HTTP 服务模拟后台变更接口，覆盖分页、gzip、重试和服务端要求重置（全量同步失败时保留旧数据）
+ */
+@RunWith(RobolectricTestRunner::class)
+internal class GalleryDeltaSyncTest {
+    private val dim = 8
+
+    private class Response(val status: Int, val body: String, val gzip: Boolean = false)
+
+    private lateinit var dir: File
+    private lateinit var server: HttpServer
+    private lateinit var endpoint: String
+    private val responses = LinkedBlockingDeque<Response>()
+    private val requestedSince: MutableList<String> = Collections.synchronizedList(ArrayList())
+
+    @BeforeTest
+    fun setUp() {
+        dir = Files.createTempDirectory("gallery-sync").toFile()
+        server = HttpServer.create(InetSocketAddress("127.0.0.1", 0), 0)
+        server.createContext("/changes") { exchange ->
+            val query = exchange.requestURI.query.orEmpty()
+            requestedSince.add(query.split('&').first { it.startsWith("since=") }.removePrefix("since="))
+            val response = responses.poll() ?: Response(500, "no scripted response")
+            var bytes = response.body.toByteArray()
+            if (response.gzip) {
+                val buffer = ByteArrayOutputStream()
+                GZIPOutputStream(buffer).use { it.write(bytes) }
+                bytes = buffer.toByteArray()
+                exchange.responseHeaders.add("Content-Encoding", "gzip")
+            }
+            exchange.responseHeaders.add("Content-Type", "application/json")
+            exchange.sendResponseHeaders(response.status, bytes.size.toLong())
+            exchange.responseBody.use { it.write(bytes) }
+        }
+        server.start()
+        endpoint = "http://127.0.0.1:${server.address.port}/changes"
+    }
+
+    @AfterTest
+    fun tearDown() {
+        server.stop(0)
+        dir.deleteRecursively()
+    }
+
+    @Test
+    fun sync_pagesGzipAndRetry() {
+        responses.add(Response(503, "busy"))
+        responses.add(Response(200, page(2, true, upsert("a"), upsert("b")), gzip = true))
+        responses.add(Response(200, page(3, false, delete("a"), upsert("c"))))
+
+        val store = FaceGalleryStore(dir, dim)
+        val result = newSync(store).sync()
+
+        assertTrue(result.isSuccess, result.toString())
+        assertEquals(2, result.pages)
+        assertEquals(3, result.upserts)
+        assertEquals(1, result.deletes)
+        assertEquals(3L, result.highWaterMark)
+        //第一次 503 之后用同一个 since 重试，第二页从第一页的版本继续
+        assertEquals(listOf("0", "0", "2"), requestedSince)
+        assertFalse(store.contains("a"))
+        assertTrue(store.contains("b"))
+        assertTrue(store.contains("c"))
+        assertEquals(3L, newSync(store).highWaterMark)
+    }
+
+    @Test
+    fun sync_reset_clearsLocalDataAndRestartsFromZero() {
+        val store = FaceGalleryStore(dir, dim)
+        responses.add(Response(200, page(5, false, upsert("old"))))
+        assertTrue(newSync(store).sync().isSuccess)
+
+        responses.add(Response(200, """{"version":9,"hasMore":false,"reset":true,"changes":[]}"""))
+        responses.add(Response(200, page(7, false, upsert("x"))))
+        var resets = 0
+        val applied = ArrayList<String>()
+        val result = newSync(store)
+            .setOnChangeAppliedListener(object : GalleryDeltaSync.OnChangeAppliedListener {
+                override fun onChangeApplied(faceID: String, faceFeature: String?, updateTime: Long, tag: String, group: String) {
+                    applied.add(faceID)
+                }
+
+                override fun onReset() {
+                    resets++
+                }
+            })
+            .sync()
+
+        assertTrue(result.isSuccess, result.toString())
+        assertEquals(1, resets)
+        assertEquals(listOf("x"), applied)
+        assertEquals(listOf("0", "5", "0"), requestedSince)
+        assertFalse(store.contains("old"))
+        assertTrue(store.contains("x"))
+        assertEquals(7L, result.highWaterMark)
+    }
+
+    @Test
+    fun sync_resetThenFetchFails_keepsOldGallery() {
+        val store = FaceGalleryStore(dir, dim)
+        responses.add(Response(200, page(5, false, upsert("old"))))
+        assertTrue(newSync(store).sync().isSuccess)
+
+        //重置后第一页先下载成功，第二页重试用完仍然 503
+        responses.add(Response(200, """{"version":9,"hasMore":false,"reset":true,"changes":[]}"""))
+        responses.add(Response(200, page(6, true, upsert("x"))))
+        repeat(3) { responses.add(Response(503, "busy")) }
+        var resets = 0
+        val applied = ArrayList<String>()
+        val result = newSync(store)
+            .setOnChangeAppliedListener(object : GalleryDeltaSync.OnChangeAppliedListener {
+                override fun onChangeApplied(faceID: String, faceFeature: String?, updateTime: Long, tag: String, group: String) {
+                    applied.add(faceID)
+                }
+
+                override fun onReset() {
+                    resets++
+                }
+            })
+            .sync()
+
+        assertFalse(result.isSuccess, result.toString())
+        assertEquals(5L, result.highWaterMark)
+        assertEquals(0, resets)
+        assertTrue(applied.isEmpty())
+        assertTrue(store.contains("old"))
+        assertFalse(store.contains("x"))
+        assertFalse(File(dir, GalleryDeltaSync.RESYNC_DIR).exists())
+        //旧数据和版本号都落盘了，重新打开也一样
+        assertTrue(FaceGalleryStore(dir, dim).contains("old"))
+        assertEquals(5L, newSync(store).highWaterMark)
+    }
+
+    @Test
+    fun clear_resetsHighWaterMark() {
+        val store = FaceGalleryStore(dir, dim)
+        responses.add(Response(200, page(4, false, upsert("a"))))
+        assertTrue(newSync(store).sync().isSuccess)
+        assertEquals(4L, newSync(store).highWaterMark)
+
+        store.clear()
+        assertEquals(0L, newSync(store).highWaterMark)
+
+        //清空后重新打开也一样
+        assertEquals(0L, newSync(FaceGalleryStore(dir, dim)).highWaterMark)
+    }
+
+    private fun newSync(store: FaceGalleryStore): GalleryDeltaSync =
+        GalleryDeltaSync(store, endpoint).setPageSize(2).setMaxRetries(2).setTimeoutMs(5000)
+
+    private fun page(version: Long, hasMore: Boolean, vararg changes: String): String =
+        """{"version":$version,"hasMore":$hasMore,"reset":false,"changes":[${changes.joinToString(",")}]}"""
+
+    private fun upsert(faceID: String): String {
+        val random = Random(faceID.hashCode().toLong())
+        val feature = FaceFeatureCodec.encode(FloatArray(dim) { random.nextGaussian().toFloat() })
+        return """{"op":"upsert","faceID":"$faceID","faceFeature":"$feature","tag":"","group":"g","updateTime":1}"""
+    }
+
+    private fun delete(faceID: String): String = """{"op":"delete","faceID":"$faceID"}"""
+}
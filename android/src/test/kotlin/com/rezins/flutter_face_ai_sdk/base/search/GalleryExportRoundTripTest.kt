@@ -0,0 +1,179 @@
+package com.rezins.flutter_face_ai_sdk.base.search
+
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.file.Files
+import java.util.Random
+import java.util.zip.CRC32
+import java.util.zip.CheckedOutputStream
+import kotlin.test.AfterTest
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+/*
+ * 导出再导入：NDJSON 和 BINARY 两种格式导回后内容一致，BINARY 备份中校验失败的记录不写入特征库也不回调
+ */
+@RunWith(RobolectricTestRunner::class)
+internal class GalleryExportRoundTripTest {
+    private val dim = 8
+    private val count = 25
+    private lateinit var dir: File
+
+    @BeforeTest
+    fun setUp() {
+        dir = Files.createTempDirectory("gallery-export").toFile()
+    }
+
+    @AfterTest
+    fun tearDown() {
+        dir.deleteRecursively()
+    }
+
+    @Test
+    fun ndjson_roundTrip() {
+        val source = source()
+        val bytes = export(source, GalleryExporter.Format.NDJSON)
+        assertEquals(count, String(bytes).lines().count { it.isNotBlank() })
+
+        val target = FaceGalleryStore(File(dir, "ndjson"), dim)
+        val report = FaceFeatureImporter(target).importFrom(ByteArrayInputStream(bytes))
+
+        assertEquals(count, report.imported)
+        assertEquals(0, report.failed)
+        assertFalse(report.isAborted)
+        assertSameContent(source, target)
+    }
+
+    @Test
+    fun binary_roundTrip() {
+        val source = source()
+        val bytes = export(source, GalleryExporter.Format.BINARY)
+
+        val target = FaceGalleryStore(File(dir, "binary"), dim)
+        val report = FaceFeatureImporter(target).importBinaryFrom(ByteArrayInputStream(bytes))
+
+        assertEquals(count, report.imported)
+        assertEquals(0, report.getCount(FaceFeatureImportReport.Reason.CORRUPT_DATA))
+        assertFalse(report.isAborted)
+        assertSameContent(source, target)
+    }
+
+    @Test
+    fun binary_checksumMismatch_corruptRecordNotApplied() {
+        val source = source()
+        val bytes = export(source, GalleryExporter.Format.BINARY)
+        //改最后一条记录向量里的一个字节：文件结构还能读，只有这条记录的 CRC 对不上
+        //结尾是 1 字节结束标记 + 记录数 + CRC，前面是最后一条记录自己的 CRC
+        val offset = bytes.size - (1 + 4 + 4) - 4 - 2
+        bytes[offset] = (bytes[offset].toInt() xor 0x5A).toByte()
+        val corrupted = source.faceIDAt(count - 1)
+
+        val target = FaceGalleryStore(File(dir, "corrupt"), dim)
+        val imported = ArrayList<String>()
+        val report = FaceFeatureImporter(target)
+            .setBatchSize(4)
+            .setOnRecordImportedListener { faceID, _, _, _, _ -> imported.add(faceID) }
+            .importBinaryFrom(ByteArrayInputStream(bytes))
+
+        assertEquals(1, report.getCount(FaceFeatureImportReport.Reason.CORRUPT_DATA))
+        assertTrue(report.isAborted)
+        assertEquals(count - 1, report.imported)
+        assertEquals(-1, target.indexOf(corrupted))
+        assertFalse(imported.contains(corrupted))
+        assertEquals(count - 1, imported.size)
+        //重新打开，已经提交的也不包含损坏的记录
+        assertEquals(-1, FaceGalleryStore(File(dir, "corrupt"), dim).indexOf(corrupted))
+    }
+
+    @Test
+    fun binary_emptyFaceID_reportsMissingFaceID() {
+        //导出不会产生空 faceID，按格式拼一条校验正确的记录
+        val target = FaceGalleryStore(File(dir, "empty"), dim)
+        val report = FaceFeatureImporter(target).importBinaryFrom(ByteArrayInputStream(forgeBinary("", FloatArray(dim) { 1f })))
+
+        assertEquals(1, report.getCount(FaceFeatureImportReport.Reason.MISSING_FACE_ID))
+        assertEquals(0, report.getCount(FaceFeatureImportReport.Reason.ZERO_VECTOR))
+        assertFalse(report.isAborted)
+        assertEquals(0, report.imported)
+        assertEquals(0, target.liveSize())
+    }
+
+    private fun source(): FaceGalleryStore {
+        val store = FaceGalleryStore(File(dir, "source"), dim)
+        val random = Random(15)
+        for (i in 0 until count) {
+            val vector = FloatArray(dim) { random.nextGaussian().toFloat() }
+            assertTrue(store.insert("face_$i", vector, 1000L + i, "tag_${i % 3}", "group_${i % 2}"))
+        }
+        store.delete("face_3")
+        assertTrue(store.insert("face_3", FloatArray(dim) { random.nextGaussian().toFloat() }, 2000L, "tag_x", "group_x"))
+        store.commit()
+        return store
+    }
+
+    private fun export(store: FaceGalleryStore, format: GalleryExporter.Format): ByteArray {
+        val out = ByteArrayOutputStream()
+        //页大小小于总数，覆盖跨页
+        val exported = GalleryExporter(store).setFormat(format).setPageSize(7).exportTo(out)
+        assertEquals(count, exported)
+        return out.toByteArray()
+    }
+
+    //按 BINARY 格式拼一个只有一条记录的备份
+    private fun forgeBinary(faceID: String, vector: FloatArray): ByteArray {
+        val crc = CRC32()
+        val out = ByteArrayOutputStream()
+        val data = DataOutputStream(CheckedOutputStream(out, crc))
+        data.writeInt(GalleryExporter.BINARY_MAGIC)
+        data.writeInt(GalleryExporter.BINARY_VERSION)
+        data.writeInt(dim)
+        val body = ByteArrayOutputStream()
+        DataOutputStream(body).apply {
+            writeUTF(faceID)
+            writeUTF("")
+            writeUTF("")
+            writeLong(1L)
+            val bytes = ByteBuffer.allocate(dim * 4).order(ByteOrder.LITTLE_ENDIAN)
+            bytes.asFloatBuffer().put(vector)
+            write(bytes.array())
+        }
+        val recordCrc = CRC32().apply { update(body.toByteArray()) }
+        data.writeByte(GalleryExporter.RECORD)
+        data.write(body.toByteArray())
+        data.writeInt(recordCrc.value.toInt())
+        data.writeByte(GalleryExporter.END)
+        data.writeInt(1)
+        data.flush()
+        data.writeInt(crc.value.toInt())
+        return out.toByteArray()
+    }
+
+    private fun assertSameContent(source: FaceGalleryStore, target: FaceGalleryStore) {
+        assertEquals(source.liveSize(), target.liveSize())
+        val expected = FloatArray(dim)
+        val actual = FloatArray(dim)
+        for (i in 0 until count) {
+            val faceID = "face_$i"
+            val s = source.indexOf(faceID)
+            val t = target.indexOf(faceID)
+            assertTrue(t >= 0, faceID)
+            assertEquals(source.tagAt(s), target.tagAt(t))
+            assertEquals(source.groupAt(s), target.groupAt(t))
+            assertEquals(source.updateTimeAt(s), target.updateTimeAt(t))
+            source.readVector(s, expected)
+            target.readVector(t, actual)
+            for (d in 0 until dim) {
+                assertEquals(expected[d], actual[d], 1e-6f)
+            }
+        }
+    }
+}
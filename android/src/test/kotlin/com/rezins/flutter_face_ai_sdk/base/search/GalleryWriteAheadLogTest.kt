@@ -0,0 +1,107 @@
+package com.rezins.flutter_face_ai_sdk.base.search
+
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.file.Files
+import java.util.Random
+import kotlin.test.AfterTest
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/*
+ * 预写日志重放：末尾写了一半的记录、校验失败的记录、checkpoint 之后重新打开
+ */
+internal class GalleryWriteAheadLogTest {
+    private val dim = 16
+    private val header = 16L
+    private lateinit var dir: File
+
+    @BeforeTest
+    fun setUp() {
+        dir = Files.createTempDirectory("gallery-wal").toFile()
+    }
+
+    @AfterTest
+    fun tearDown() {
+        dir.deleteRecursively()
+    }
+
+    @Test
+    fun replay_tornTail_dropsOnlyTheLastRecord() {
+        val store = FaceGalleryStore(dir, dim)
+        insert(store, "a", "b", "c")
+        store.sync()
+
+        val wal = File(dir, GalleryWriteAheadLog.WAL_FILE)
+        RandomAccessFile(wal, "rw").use { it.setLength(it.length() - 5) }
+
+        val reopened = FaceGalleryStore(dir, dim)
+        assertEquals(2, reopened.liveSize())
+        assertTrue(reopened.indexOf("a") >= 0)
+        assertTrue(reopened.indexOf("b") >= 0)
+        assertEquals(-1, reopened.indexOf("c"))
+        //重放后已经 commit，日志只剩文件头
+        assertEquals(header, wal.length())
+    }
+
+    @Test
+    fun replay_checksumMismatch_stopsAtTheCorruptRecord() {
+        val store = FaceGalleryStore(dir, dim)
+        insert(store, "a", "b", "c")
+        store.sync()
+
+        val wal = File(dir, GalleryWriteAheadLog.WAL_FILE)
+        RandomAccessFile(wal, "rw").use { raf ->
+            raf.seek(header)
+            val firstLength = Integer.reverseBytes(raf.readInt())
+            val second = header + 8 + firstLength
+            val offset = second + 8 + 4
+            raf.seek(offset)
+            val value = raf.readByte()
+            raf.seek(offset)
+            raf.writeByte(value.toInt() xor 0x5A)
+        }
+
+        val reopened = FaceGalleryStore(dir, dim)
+        assertEquals(1, reopened.liveSize())
+        assertTrue(reopened.indexOf("a") >= 0)
+        assertEquals(-1, reopened.indexOf("b"))
+        assertEquals(-1, reopened.indexOf("c"))
+    }
+
+    @Test
+    fun replay_afterCheckpoint_appliesOnlyNewRecords() {
+        val store = FaceGalleryStore(dir, dim)
+        insert(store, "a", "b")
+        store.commit()
+        val wal = File(dir, GalleryWriteAheadLog.WAL_FILE)
+        assertEquals(header, wal.length())
+
+        insert(store, "c")
+        store.delete("a")
+        store.sync()
+        assertTrue(wal.length() > header)
+
+        val reopened = FaceGalleryStore(dir, dim)
+        assertEquals(2, reopened.liveSize())
+        assertTrue(reopened.isDeleted(reopened.indexOf("a")))
+        assertTrue(reopened.indexOf("b") >= 0)
+        assertTrue(reopened.indexOf("c") >= 0)
+        assertEquals("tag-c", reopened.tagAt(reopened.indexOf("c")))
+
+        //向量从附表 + 向量区读回，和写入时一致
+        val vector = FloatArray(dim)
+        reopened.readVector(reopened.indexOf("b"), vector)
+        assertEquals(1f, vector.map { it * it }.sum(), 1e-4f)
+    }
+
+    private fun insert(store: FaceGalleryStore, vararg faceIDs: String) {
+        val random = Random(faceIDs.joinToString().hashCode().toLong())
+        for (faceID in faceIDs) {
+            val vector = FloatArray(dim) { random.nextGaussian().toFloat() }
+            assertTrue(store.insert(faceID, vector, 1L, "tag-$faceID", "group"))
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.rezins.flutter_face_ai_sdk.base.search
+
+import java.io.File
+import java.nio.file.Files
+import java.util.Random
+import kotlin.test.AfterTest
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+/*
+ * 并行分块打分和单线程顺序扫描结果一致：跨多个分块、有删除行、行号子集、limit、同分按行号排序
+ */
+internal class ParallelGalleryScorerTest {
+    private val dim = 8
+    private val galleryRows = ParallelGalleryScorer.BLOCK_SIZE * 3 + 123
+    private lateinit var dir: File
+    private lateinit var store: FaceGalleryStore
+    private lateinit var probes: Array<FloatArray>
+
+    @BeforeTest
+    fun setUp() {
+        dir = Files.createTempDirectory("gallery-scorer").toFile()
+        store = FaceGalleryStore(dir, dim)
+        val random = Random(5)
+        for (i in 0 until galleryRows) {
+            store.insert("face_$i", FloatArray(dim) { random.nextGaussian().toFloat() }, 1L, "", "")
+        }
+        for (i in 0 until galleryRows step 97) {
+            store.delete("face_$i")
+        }
+        probes = Array(3) { FloatArray(dim) { random.nextGaussian().toFloat() }.also { FaceFeatureCodec.normalize(it) } }
+    }
+
+    @AfterTest
+    fun tearDown() {
+        dir.deleteRecursively()
+    }
+
+    @Test
+    fun topK_matchesSequentialScan() {
+        val limit = galleryRows - 50
+        val subset = IntArray(galleryRows / 2) { it * 2 + 1 }
+        for (rows in listOf(null, subset)) {
+            for (k in listOf(1, 10, 500)) {
+                for (minScore in listOf(Float.NEGATIVE_INFINITY, 0.3f)) {
+                    //分数取到 0.05 的整数倍，制造大量跨分块的同分
+                    val scorers = listOf<(Int) -> Float>(
+                        { row -> store.dot(row, probes[0]) },
+                        { row -> Math.round(store.dot(row, probes[0]) * 20) / 20f })
+                    for (score in scorers) {
+                        val expected = sequential(rows, limit, k, minScore, score)
+                        val out = TopKCollector(k)
+                        out.reset(minScore)
+                        ParallelGalleryScorer(4).topK(store, rows, limit, out) { score(it) }
+                        assertEquals(expected, sorted(out), "rows=${rows != null} k=$k minScore=$minScore")
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    fun topKBatch_matchesSequentialScanPerProbe() {
+        val k = 20
+        val outs = Array(probes.size) { TopKCollector(k).also { it.reset(0.2f) } }
+        ParallelGalleryScorer(4).topKBatch(store, null, galleryRows, outs, probes.size) { tileRows, count, scores ->
+            for (p in probes.indices) {
+                for (j in 0 until count) {
+                    scores[p][j] = store.dot(tileRows[j], probes[p])
+                }
+            }
+        }
+        for (p in probes.indices) {
+            assertEquals(sequential(null, galleryRows, k, 0.2f) { store.dot(it, probes[p]) }, sorted(outs[p]))
+        }
+    }
+
+    @Test
+    fun topK_singleThreadedScorerScansInPlace() {
+        val out = TopKCollector(10)
+        out.reset(Float.NEGATIVE_INFINITY)
+        ParallelGalleryScorer(1).topK(store, null, galleryRows, out) { store.dot(it, probes[1]) }
+        assertEquals(sequential(null, galleryRows, 10, Float.NEGATIVE_INFINITY) { store.dot(it, probes[1]) }, sorted(out))
+    }
+
+    //单线程参照：全部打分后完整排序，分数降序、同分行号升序
+    private fun sequential(rows: IntArray?, limit: Int, k: Int, minScore: Float, score: (Int) -> Float): List<Pair<Int, Float>> {
+        val candidates = ArrayList<Pair<Int, Float>>()
+        for (r in 0 until (rows?.size ?: limit)) {
+            val row = rows?.get(r) ?: r
+            if (row < limit && !store.isDeleted(row)) {
+                val s = score(row)
+                if (s >= minScore) {
+                    candidates.add(row to s)
+                }
+            }
+        }
+        return candidates.sortedWith(compareByDescending<Pair<Int, Float>> { it.second }.thenBy { it.first }).take(k)
+    }
+
+    private fun sorted(out: TopKCollector): List<Pair<Int, Float>> {
+        out.sort()
+        return List(out.size()) { out.rowAt(it) to out.scoreAt(it) }
+    }
+}
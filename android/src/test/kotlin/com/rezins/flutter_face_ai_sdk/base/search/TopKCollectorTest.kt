@@ -0,0 +1,101 @@
+package com.rezins.flutter_face_ai_sdk.base.search
+
+import java.util.Random
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+/*
+ * top-K 收集器和完整排序后取前 k 个一致：随机分数、大量同分、k 大于候选数、阈值、分块合并、reset 复用
+ */
+internal class TopKCollectorTest {
+    private val random = Random(6)
+
+    @Test
+    fun offer_matchesFullSort() {
+        for (n in listOf(0, 1, 7, 100, 1000)) {
+            for (k in listOf(1, 5, 100, 2000)) {
+                val scores = FloatArray(n) { random.nextFloat() }
+                assertEquals(fullSort(scores, k), collect(scores, k), "n=$n k=$k")
+            }
+        }
+    }
+
+    @Test
+    fun offer_tiesOrderedByRow() {
+        //只有 4 种分数，同分时行号小的在前
+        val scores = FloatArray(300) { random.nextInt(4).toFloat() }
+        for (k in listOf(1, 10, 77, 300, 500)) {
+            assertEquals(fullSort(scores, k), collect(scores, k), "k=$k")
+        }
+        //全部同分：就是前 k 个行号
+        val same = FloatArray(50) { 0.5f }
+        assertEquals((0 until 10).toList(), collect(same, 10).map { it.first })
+    }
+
+    @Test
+    fun offer_dropsScoresBelowThreshold() {
+        val scores = FloatArray(200) { random.nextFloat() }
+        val collector = TopKCollector(300)
+        collector.reset(0.6f)
+        offerShuffled(collector, scores)
+        assertEquals(fullSort(scores, 300).filter { it.second >= 0.6f }, sorted(collector))
+    }
+
+    @Test
+    fun merge_matchesFullSort() {
+        val scores = FloatArray(1000) { random.nextInt(50) / 50f }
+        val k = 40
+        val merged = TopKCollector(k)
+        merged.reset(Float.NEGATIVE_INFINITY)
+        for (block in 0 until 4) {
+            val part = TopKCollector(k)
+            part.reset(Float.NEGATIVE_INFINITY)
+            for (row in block * 250 until (block + 1) * 250) {
+                part.offer(row, scores[row])
+            }
+            //一半分块先排序再合并，sort 过的也可以 merge
+            if (block % 2 == 0) {
+                part.sort()
+            }
+            merged.merge(part)
+        }
+        assertEquals(fullSort(scores, k), sorted(merged))
+    }
+
+    @Test
+    fun reset_reusesTheCollector() {
+        val collector = TopKCollector(5)
+        collector.reset(Float.NEGATIVE_INFINITY)
+        offerShuffled(collector, FloatArray(20) { 1f })
+        sorted(collector)
+
+        val scores = FloatArray(30) { random.nextFloat() }
+        collector.reset(Float.NEGATIVE_INFINITY)
+        offerShuffled(collector, scores)
+        assertEquals(fullSort(scores, 5), sorted(collector))
+    }
+
+    private fun collect(scores: FloatArray, k: Int): List<Pair<Int, Float>> {
+        val collector = TopKCollector(k)
+        collector.reset(Float.NEGATIVE_INFINITY)
+        offerShuffled(collector, scores)
+        return sorted(collector)
+    }
+
+    //打乱提交顺序，结果不应依赖 offer 的先后
+    private fun offerShuffled(collector: TopKCollector, scores: FloatArray) {
+        for (row in scores.indices.shuffled(random)) {
+            collector.offer(row, scores[row])
+        }
+    }
+
+    private fun sorted(collector: TopKCollector): List<Pair<Int, Float>> {
+        collector.sort()
+        return List(collector.size()) { collector.rowAt(it) to collector.scoreAt(it) }
+    }
+
+    private fun fullSort(scores: FloatArray, k: Int): List<Pair<Int, Float>> =
+        scores.indices.map { it to scores[it] }
+            .sortedWith(compareByDescending<Pair<Int, Float>> { it.second }.thenBy { it.first })
+            .take(k)
+}
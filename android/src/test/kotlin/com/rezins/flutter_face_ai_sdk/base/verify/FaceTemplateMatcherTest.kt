@@ -0,0 +1,110 @@
+package com.rezins.flutter_face_ai_sdk.base.verify
+
+import com.rezins.flutter_face_ai_sdk.base.search.FaceFeatureCodec
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.util.Random
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+/*
+ * 多底片预选：取最高分、跳过非法底片、非法实时特征、排除 SDK 已拒绝的底片，通过与否只看 SDK 分数
+ */
+@RunWith(RobolectricTestRunner::class)
+internal class FaceTemplateMatcherTest {
+    private val dim = FaceFeatureCodec.FEATURE_DIM
+    private val random = Random(16)
+
+    @Test
+    fun match_picksTheMostSimilarTemplate() {
+        val probe = vector()
+        val features = listOf(feature(vector()), feature(near(probe, 0.8f)), feature(near(probe, 0.3f)))
+
+        val match = assertNotNull(FaceTemplateMatcher(features).match(feature(probe)))
+
+        assertEquals(1, match.index)
+        assertEquals(cosine(probe, near(probe, 0.8f)), match.similarity, 1e-4f)
+    }
+
+    @Test
+    fun match_skipsInvalidTemplatesAndKeepsSourceIndex() {
+        val probe = vector()
+        val features = listOf("not a feature", feature(vector()), "", feature(probe))
+
+        val matcher = FaceTemplateMatcher(features)
+        assertEquals(2, matcher.size())
+        val match = assertNotNull(matcher.match(feature(probe)))
+        assertEquals(3, match.index)
+        assertEquals(1f, match.similarity, 1e-4f)
+    }
+
+    @Test
+    fun match_invalidProbeOrNoTemplates_returnsNull() {
+        val matcher = FaceTemplateMatcher(listOf(feature(vector())))
+        assertNull(matcher.match("bad"))
+        assertNull(matcher.match(feature(FloatArray(dim))))
+        assertNull(FaceTemplateMatcher(listOf("bad")).match(feature(vector())))
+    }
+
+    @Test
+    fun match_excludesTheTemplateRejectedBySdk() {
+        val probe = vector()
+        val matcher = FaceTemplateMatcher(listOf(feature(near(probe, 0.9f)), feature(near(probe, 0.5f)), feature(vector())))
+
+        assertEquals(0, assertNotNull(matcher.match(feature(probe))).index)
+        assertEquals(1, assertNotNull(matcher.match(feature(probe), 0)).index)
+        assertNull(FaceTemplateMatcher(listOf(feature(probe))).match(feature(probe), 0))
+    }
+
+    @Test
+    fun subThresholdTemplate_notAcceptedUnderCompressedSdkScale() {
+        //SDK 打分公式未知，这里假设为 (cos + 1) / 2：锚点 cos 0.30 -> 0.65，最像的底片 cos 0.60 -> 0.80，都低于 0.85
+        val threshold = 0.85f
+        val sdkScore = { cos: Float -> (cos + 1) / 2 }
+        val probe = unit(0)
+        val anchor = withCosine(probe, 0.30f)
+        val best = withCosine(probe, 0.60f)
+        val matcher = FaceTemplateMatcher(listOf(feature(anchor), feature(best), feature(withCosine(probe, 0.10f))))
+
+        //按平移换算会得到 0.65 + (0.60 - 0.30) = 0.95 而误判通过；预选只给出候选，通过与否由 SDK 分数决定
+        val candidate = assertNotNull(matcher.match(feature(probe), 0))
+        assertEquals(1, candidate.index)
+        assertEquals(0.60f, candidate.similarity, 1e-4f)
+        assertFalse(sdkScore(cosine(probe, best)) >= threshold)
+        assertFalse(candidate.similarity >= threshold)
+
+        //确实超过阈值的底片经 SDK 确认后才通过
+        val genuine = withCosine(probe, 0.90f)
+        val second = assertNotNull(FaceTemplateMatcher(listOf(feature(anchor), feature(genuine))).match(feature(probe), 0))
+        assertEquals(1, second.index)
+        assertTrue(sdkScore(cosine(probe, genuine)) >= threshold)
+    }
+
+    private fun vector(): FloatArray = FloatArray(dim) { random.nextGaussian().toFloat() }
+
+    //按 weight 混合 probe 和随机向量，weight 越大越相似
+    private fun near(probe: FloatArray, weight: Float): FloatArray {
+        val noise = Random(weight.toBits().toLong())
+        return FloatArray(dim) { probe[it] * weight + noise.nextGaussian().toFloat() * (1 - weight) }
+    }
+
+    private fun unit(axis: Int): FloatArray = FloatArray(dim).also { it[axis] = 1f }
+
+    //和单位向量 probe（第 0 轴）余弦恰好为 cos 的向量
+    private fun withCosine(probe: FloatArray, cos: Float): FloatArray =
+        FloatArray(dim) { probe[it] * cos }.also { it[1] = Math.sqrt((1 - cos * cos).toDouble()).toFloat() }
+
+    private fun feature(vector: FloatArray): String = FaceFeatureCodec.encode(vector)
+
+    private fun cosine(a: FloatArray, b: FloatArray): Float {
+        val x = a.copyOf()
+        val y = b.copyOf()
+        FaceFeatureCodec.normalize(x)
+        FaceFeatureCodec.normalize(y)
+        return FaceFeatureCodec.dot(x, y)
+    }
+}
@@ -0,0 +1,55 @@
+package com.rezins.flutter_face_ai_sdk.base.verify
+
+import java.io.File
+import java.nio.file.Files
+import kotlin.test.AfterTest
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+/*
+ * 底片日志文件头损坏：挪到一边保留，不原地覆盖，并重新允许老数据迁移
+ */
+internal class FaceTemplateStoreTest {
+    private lateinit var dir: File
+
+    @BeforeTest
+    fun setUp() {
+        dir = Files.createTempDirectory("face-templates").toFile()
+    }
+
+    @AfterTest
+    fun tearDown() {
+        dir.deleteRecursively()
+    }
+
+    @Test
+    fun load_invalidHeader_movesLogAsideAndClearsMigrated() {
+        val content = ByteArray(64) { it.toByte() }
+        File(dir, "templates.log").writeBytes(content)
+        File(dir, "legacy.migrated").createNewFile()
+
+        val store = FaceTemplateStore(dir)
+
+        assertEquals(0, store.size())
+        val corrupt = dir.listFiles { file -> file.name.endsWith(".corrupt") }!!
+        assertEquals(1, corrupt.size)
+        assertContentEquals(content, corrupt[0].readBytes())
+        assertFalse(File(dir, "legacy.migrated").exists())
+        //新的日志只有文件头，可以继续写入
+        assertEquals(12L, File(dir, "templates.log").length())
+    }
+
+    @Test
+    fun load_missingLog_keepsMigratedMarker() {
+        File(dir, "legacy.migrated").createNewFile()
+
+        FaceTemplateStore(dir)
+
+        assertTrue(File(dir, "legacy.migrated").exists())
+        assertTrue(dir.listFiles { file -> file.name.endsWith(".corrupt") }!!.isEmpty())
+    }
+}
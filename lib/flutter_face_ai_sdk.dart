@@ -71,6 +71,30 @@ class FlutterFaceAiSdk {
     );
   }
 
+  /// Export the 1:N face search gallery to a backup file
+  /// [path] - Destination file path
+  /// [format] - "ndjson" (default) or "binary"
+  /// Returns the number of exported faces
+  Future<int> exportFaceSearchData(String path, {String format = 'ndjson'}) {
+    return FlutterFaceAiSdkPlatform.instance.exportFaceSearchData(path, format);
+  }
+
+  /// Import a backup written by [exportFaceSearchData] (or a JSON array of face features)
+  /// [path] - Source file path
+  /// [format] - "ndjson" (default, also accepts a JSON array) or "binary"
+  /// [batchSize] - Commit the gallery every this many faces (default: 1000)
+  /// [duplicateThreshold] - Skip faces whose cosine similarity to a different faceID
+  /// in the gallery reaches this value (default: null, no duplicate check)
+  /// Returns the import report: total, imported, failed, batches, duplicates, aborted
+  Future<Map<String, dynamic>> importFaceSearchData(
+    String path, {
+    String format = 'ndjson',
+    int batchSize = 1000,
+    double? duplicateThreshold,
+  }) {
+    return FlutterFaceAiSdkPlatform.instance.importFaceSearchData(path, format, batchSize, duplicateThreshold);
+  }
+
   /// Stream of face recognition events
   /// Returns events like Enrolled, Verified with results
   Stream<Map<String, dynamic>> getFaceEventStream() {
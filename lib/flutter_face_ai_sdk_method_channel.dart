@@ -94,6 +94,33 @@ class MethodChannelFlutterFaceAiSdk extends FlutterFaceAiSdkPlatform {
     );
   }
 
+  @override
+  Future<int> exportFaceSearchData(String path, String format) async {
+    final result = await methodChannel.invokeMethod<int>(
+      'exportFaceSearchData',
+      {
+        'path': path,
+        'format': format,
+      },
+    );
+    return result ?? 0;
+  }
+
+  @override
+  Future<Map<String, dynamic>> importFaceSearchData(
+      String path, String format, int batchSize, double? duplicateThreshold) async {
+    final result = await methodChannel.invokeMethod<Map<Object?, Object?>>(
+      'importFaceSearchData',
+      {
+        'path': path,
+        'format': format,
+        'batchSize': batchSize,
+        'duplicateThreshold': duplicateThreshold,
+      },
+    );
+    return Map<String, dynamic>.from(result ?? {});
+  }
+
   @override
   Stream<Map<String, dynamic>> getFaceEventStream() {
     return eventChannel.receiveBroadcastStream().map((event) {
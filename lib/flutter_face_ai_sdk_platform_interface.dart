@@ -60,6 +60,15 @@ abstract class FlutterFaceAiSdkPlatform extends PlatformInterface {
     throw UnimplementedError('startLivenessDetection() has not been implemented.');
   }
 
+  Future<int> exportFaceSearchData(String path, String format) {
+    throw UnimplementedError('exportFaceSearchData() has not been implemented.');
+  }
+
+  Future<Map<String, dynamic>> importFaceSearchData(
+      String path, String format, int batchSize, double? duplicateThreshold) {
+    throw UnimplementedError('importFaceSearchData() has not been implemented.');
+  }
+
   Stream<Map<String, dynamic>> getFaceEventStream() {
     throw UnimplementedError('getFaceEventStream() has not been implemented.');
   }